@@ -0,0 +1,56 @@
+/**
+ * BenchmarkMain.java
+ */
+package com.jmmarquardt.svcticket.bench;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * BenchmarkMain
+ * <p>
+ * Runs the benchmarks with the allocation profiler, so every result reports
+ * the bytes allocated per operation (gc.alloc.rate.norm) beside its time.
+ * Accepts the usual JMH command line, e.g. a benchmark name pattern or
+ * {@code -p tickets=1000000}, and {@code -rf json -rff baseline.json} to
+ * keep a baseline to compare later runs against.
+ * </p>
+ *
+ * @author John-Michael Marquardt
+ */
+public final class BenchmarkMain {
+
+	/**
+	 * BenchmarkMain - not instantiable.
+	 */
+	private BenchmarkMain() {
+	}
+
+	/**
+	 * main(String[]) - runs the benchmarks selected by the command line.
+	 *
+	 * @param args the JMH command line.
+	 * @throws CommandLineOptionException if the command line is invalid.
+	 * @throws RunnerException            if a benchmark fails.
+	 * @throws IOException                if JMH cannot list the benchmarks.
+	 */
+	public static void main(String[] args) throws CommandLineOptionException, RunnerException, IOException {
+		CommandLineOptions cli = new CommandLineOptions(args);
+		if (cli.shouldHelp() || cli.shouldList() || cli.shouldListWithParams() || cli.shouldListProfilers()
+				|| cli.shouldListResultFormats()) {
+			// nothing to run: let JMH print what was asked for
+			Main.main(args);
+			return;
+		}
+		Options options = new OptionsBuilder().parent(cli).addProfiler(GCProfiler.class).build();
+		new Runner(options).run();
+	}
+}
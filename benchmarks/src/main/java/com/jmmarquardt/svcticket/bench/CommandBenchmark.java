@@ -0,0 +1,88 @@
+/**
+ * CommandBenchmark.java
+ */
+package com.jmmarquardt.svcticket.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jmmarquardt.svcticket.model.command.Command;
+import com.jmmarquardt.svcticket.model.command.Command.CommandValue;
+import com.jmmarquardt.svcticket.model.command.Command.FeedbackCode;
+import com.jmmarquardt.svcticket.model.command.Command.ResolutionCode;
+
+/**
+ * CommandBenchmark
+ * <p>
+ * Measures the construction of a Command: the valid path, which validates the
+ * codes and interns the owner id, and the invalid path, which throws.
+ * </p>
+ *
+ * @author John-Michael Marquardt
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandBenchmark {
+	/** The owner of the PROCESS commands. */
+	private String owner = "jmmarquardt";
+	/** The note of the noted commands. */
+	private String note = "Called the customer back.";
+
+	/**
+	 * process - constructs a PROCESS Command, interning an owner already known.
+	 *
+	 * @return the Command
+	 */
+	@Benchmark
+	public Command process() {
+		return new Command(CommandValue.PROCESS, owner, null, null, null, null);
+	}
+
+	/**
+	 * feedback - constructs a FEEDBACK Command with a note.
+	 *
+	 * @return the Command
+	 */
+	@Benchmark
+	public Command feedback() {
+		return new Command(CommandValue.FEEDBACK, null, FeedbackCode.AWAITING_CALLER, null, null, note);
+	}
+
+	/**
+	 * resolve - constructs a RESOLVE Command.
+	 *
+	 * @return the Command
+	 */
+	@Benchmark
+	public Command resolve() {
+		return new Command(CommandValue.RESOLVE, null, null, ResolutionCode.SOLVED, null, null);
+	}
+
+	/**
+	 * invalid - constructs a RESOLVE Command without a ResolutionCode, which
+	 * fails validation.
+	 *
+	 * @return the rejected Command's exception
+	 */
+	@Benchmark
+	public Object invalid() {
+		try {
+			return new Command(CommandValue.RESOLVE, null, null, null, null, null);
+		} catch (IllegalArgumentException e) {
+			return e;
+		}
+	}
+}
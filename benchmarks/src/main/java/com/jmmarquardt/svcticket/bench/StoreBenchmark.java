@@ -0,0 +1,115 @@
+/**
+ * StoreBenchmark.java
+ */
+package com.jmmarquardt.svcticket.bench;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jmmarquardt.svcticket.model.manager.ColumnarTicketStore;
+import com.jmmarquardt.svcticket.model.manager.TicketManager;
+import com.jmmarquardt.svcticket.model.ticket.Ticket;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Category;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Priority;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.TicketType;
+import com.jmmarquardt.svcticket.model.ticket.TicketView;
+
+/**
+ * StoreBenchmark
+ * <p>
+ * Measures lookups by id in a TicketManager and a ColumnarTicketStore holding
+ * 10k, 100k and 1M tickets. The ids are looked up in a random order fixed at
+ * setup, so the cost includes the cache misses of a large store.
+ * </p>
+ *
+ * @author John-Michael Marquardt
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class StoreBenchmark {
+	/** The number of ids looked up in turn, a power of two. */
+	private static final int LOOKUPS = 1 << 16;
+
+	/** The number of tickets in the stores. */
+	@Param({ "10000", "100000", "1000000" })
+	private int tickets;
+
+	/** The TicketManager. */
+	private TicketManager manager;
+	/** The ColumnarTicketStore with the same tickets. */
+	private ColumnarTicketStore store;
+	/** The ids to look up, in random order. */
+	private long[] ids;
+	/** The index of the next id to look up. */
+	private int next;
+
+	/**
+	 * setUp - fills the stores and picks the ids.
+	 */
+	@Setup(Level.Trial)
+	public void setUp() {
+		manager = new TicketManager();
+		Category[] categories = Category.values();
+		Priority[] priorities = Priority.values();
+		long[] created = new long[tickets];
+		for (int i = 0; i < tickets; i++) {
+			Ticket t = manager.createTicket(i % 2 == 0 ? TicketType.INCIDENT : TicketType.REQUEST, "subject " + i,
+					"caller" + i % 1000, categories[i % categories.length], priorities[i % priorities.length],
+					"note " + i);
+			created[i] = t.getTicketId();
+		}
+		store = ColumnarTicketStore.from(manager);
+		SplittableRandom random = new SplittableRandom(42);
+		ids = new long[LOOKUPS];
+		for (int i = 0; i < LOOKUPS; i++)
+			ids[i] = created[random.nextInt(tickets)];
+	}
+
+	/**
+	 * managerLookup - looks up a ticket in the TicketManager.
+	 *
+	 * @return the Ticket
+	 */
+	@Benchmark
+	public Ticket managerLookup() {
+		return manager.getTicket(ids[next++ & (LOOKUPS - 1)]);
+	}
+
+	/**
+	 * columnarLookup - looks up a ticket in the ColumnarTicketStore.
+	 *
+	 * @return the view of the ticket
+	 */
+	@Benchmark
+	public TicketView columnarLookup() {
+		return store.get(ids[next++ & (LOOKUPS - 1)]);
+	}
+
+	/**
+	 * columnarContains - checks a ticket is in the ColumnarTicketStore without
+	 * building a view.
+	 *
+	 * @return true if the ticket is present
+	 */
+	@Benchmark
+	public boolean columnarContains() {
+		return store.contains(ids[next++ & (LOOKUPS - 1)]);
+	}
+}
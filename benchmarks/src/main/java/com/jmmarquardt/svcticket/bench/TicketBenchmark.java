@@ -0,0 +1,151 @@
+/**
+ * TicketBenchmark.java
+ */
+package com.jmmarquardt.svcticket.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jmmarquardt.svcticket.model.command.Command;
+import com.jmmarquardt.svcticket.model.command.Command.CommandValue;
+import com.jmmarquardt.svcticket.model.command.Command.FeedbackCode;
+import com.jmmarquardt.svcticket.model.command.Command.ResolutionCode;
+import com.jmmarquardt.svcticket.model.ticket.CommandResult;
+import com.jmmarquardt.svcticket.model.ticket.Ticket;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Category;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Priority;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.TicketType;
+
+/**
+ * TicketBenchmark
+ * <p>
+ * Measures the construction of a Ticket, a full lifecycle through the FSM
+ * (New, Working, Feedback, Working, Resolved, Closed) and note appends. The
+ * Commands are built once, so the lifecycle measures Ticket.apply() alone.
+ * </p>
+ *
+ * @author John-Michael Marquardt
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TicketBenchmark {
+	/** The Commands of a full lifecycle, in order. */
+	private Command[] lifecycle;
+	/** The lifecycle Commands encoded, without their notes. */
+	private long[] encoded;
+	/** The notes of the lifecycle Commands. */
+	private String[] notes;
+	/** A FEEDBACK Command with a note. */
+	private Command feedback;
+	/** A REOPEN Command with a note. */
+	private Command reopen;
+	/** The Ticket notes are appended to, in the Working state. */
+	private Ticket noted;
+
+	/**
+	 * setUp - builds the Commands.
+	 */
+	@Setup(Level.Trial)
+	public void setUp() {
+		lifecycle = new Command[] { new Command(CommandValue.PROCESS, "owner", null, null, null, "Taken."),
+				new Command(CommandValue.FEEDBACK, null, FeedbackCode.AWAITING_CALLER, null, null, "Asked caller."),
+				new Command(CommandValue.REOPEN, null, null, null, null, "Caller answered."),
+				new Command(CommandValue.RESOLVE, null, null, ResolutionCode.SOLVED, null, "Fixed."),
+				new Command(CommandValue.CONFIRM, null, null, null, null, null) };
+		encoded = new long[lifecycle.length];
+		notes = new String[lifecycle.length];
+		for (int i = 0; i < lifecycle.length; i++) {
+			encoded[i] = lifecycle[i].encode();
+			notes[i] = lifecycle[i].getNote();
+		}
+		feedback = new Command(CommandValue.FEEDBACK, null, FeedbackCode.AWAITING_PROVIDER, null, null,
+				"Waiting on the provider.");
+		reopen = new Command(CommandValue.REOPEN, null, null, null, null, "Provider replied.");
+	}
+
+	/**
+	 * resetNoted - starts each iteration with a fresh Working Ticket, so the note
+	 * appends do not measure an ever longer list.
+	 */
+	@Setup(Level.Iteration)
+	public void resetNoted() {
+		noted = newTicket();
+		noted.apply(lifecycle[0]);
+	}
+
+	/**
+	 * newTicket - constructs a New Ticket.
+	 *
+	 * @return the Ticket
+	 */
+	private static Ticket newTicket() {
+		return new Ticket(TicketType.INCIDENT, "Printer offline", "caller", Category.HARDWARE, Priority.HIGH,
+				"Printer on floor 3 does not respond.");
+	}
+
+	/**
+	 * construct - constructs a Ticket.
+	 *
+	 * @return the Ticket
+	 */
+	@Benchmark
+	public Ticket construct() {
+		return newTicket();
+	}
+
+	/**
+	 * lifecycle - constructs a Ticket and takes it from New to Closed.
+	 *
+	 * @return the closed Ticket
+	 */
+	@Benchmark
+	public Ticket lifecycle() {
+		Ticket t = newTicket();
+		for (Command c : lifecycle)
+			if (t.apply(c) != CommandResult.APPLIED)
+				throw new IllegalStateException(c.getCommandValue() + " was not applied.");
+		return t;
+	}
+
+	/**
+	 * lifecycleEncoded - takes a new Ticket from New to Closed with encoded
+	 * Commands.
+	 *
+	 * @return the closed Ticket
+	 */
+	@Benchmark
+	public Ticket lifecycleEncoded() {
+		Ticket t = newTicket();
+		for (int i = 0; i < encoded.length; i++)
+			if (t.apply(encoded[i], notes[i]) != CommandResult.APPLIED)
+				throw new IllegalStateException(Command.commandValueOf(encoded[i]) + " was not applied.");
+		return t;
+	}
+
+	/**
+	 * appendNotes - moves a Working Ticket to Feedback and back, appending one
+	 * note per Command.
+	 *
+	 * @return the result of the last Command
+	 */
+	@Benchmark
+	public CommandResult appendNotes() {
+		noted.apply(feedback);
+		return noted.apply(reopen);
+	}
+}
@@ -3,12 +3,15 @@
  */
 package com.jmmarquardt.svcticket.model.command;
 
+import com.jmmarquardt.svcticket.model.user.UserSymbolTable;
+
 /**
  * Command is a class that describes the actions to apply to a TicketState. Each
  * Command object has an owner and can optionally have a note attached. Each
  * Command object also has a CommandValue, and either a FeedbackCode, a
  * ResolutionCode or a CancellationCode--all of which are inner enumerations in
- * this class.
+ * this class. The owner id is stored as its handle in the shared
+ * {@code UserSymbolTable}.
  * 
  * @author John-Michael Marquardt
  */
@@ -62,13 +65,58 @@ public class Command {
 		DUPLICATE, INAPPROPRIATE
 	}
 
+	/**
+	 * Encoded Commands
+	 * <p>
+	 * A Command without its note packs into a single {@code long}: the
+	 * CommandValue ordinal in bits 0-7, the ordinal of its code plus one in bits
+	 * 8-15 (0 for none), and the UserSymbolTable handle of its owner id in bits
+	 * 32-63. The note, if any, travels beside the long by reference. Encoded
+	 * Commands are validated once by {@code encode()}, and can be applied with
+	 * {@code TicketManager.applyEncoded()} without allocating a Command.
+	 * </p>
+	 */
+	/** The shift of the code in an encoded Command. */
+	private static final int CODE_SHIFT = 8;
+	/** The shift of the owner handle in an encoded Command. */
+	private static final int OWNER_SHIFT = 32;
+	/** Every CommandValue, by ordinal. */
+	private static final CommandValue[] COMMAND_VALUES = CommandValue.values();
+	/** The number of codes each CommandValue requires, by ordinal; 0 for none. */
+	private static final int[] CODE_COUNT = new int[COMMAND_VALUES.length];
+	/** The most codes any CommandValue takes. */
+	private static final int MAX_CODES = 8;
+	/** The shared note-less Commands, by CommandValue ordinal * MAX_CODES + code + 1. */
+	private static final Command[] CANONICAL = new Command[COMMAND_VALUES.length * MAX_CODES];
+
+	static {
+		CODE_COUNT[CommandValue.FEEDBACK.ordinal()] = FeedbackCode.values().length;
+		CODE_COUNT[CommandValue.RESOLVE.ordinal()] = ResolutionCode.values().length;
+		CODE_COUNT[CommandValue.CANCEL.ordinal()] = CancellationCode.values().length;
+		for (CommandValue c : COMMAND_VALUES) {
+			// PROCESS needs an owner, so it has no shared instance
+			int count = CODE_COUNT[c.ordinal()];
+			if (c == CommandValue.PROCESS)
+				continue;
+			if (count == 0)
+				CANONICAL[c.ordinal() * MAX_CODES] = build(c, null, -1, null);
+			for (int code = 0; code < count; code++)
+				CANONICAL[c.ordinal() * MAX_CODES + code + 1] = build(c, null, code, null);
+		}
+	}
+
+	/** The shared note-less CONFIRM Command. */
+	public static final Command CONFIRM = of(encode(CommandValue.CONFIRM, UserSymbolTable.NULL, -1), null);
+	/** The shared note-less REOPEN Command. */
+	public static final Command REOPEN = of(encode(CommandValue.REOPEN, UserSymbolTable.NULL, -1), null);
+
 	/**
 	 * Instance Variables (fields)
 	 */
 	/** The CommandValue of this instance */
 	private CommandValue commandValue;
-	/** A String representing the owner id of this Command instance. */
-	private String ownerId;
+	/** The UserSymbolTable handle of the owner id of this Command instance. */
+	private int ownerHandle;
 	/** A String representing the note to be attached to this Command instance. */
 	private String note;
 	/** The FeedbackCode of this Command instance, null if none. */
@@ -131,10 +179,151 @@ public class Command {
 			break;
 		}
 		this.commandValue = c;
-		this.ownerId = ownerId;
+		this.ownerHandle = UserSymbolTable.getInstance().intern(ownerId);
 		this.note = note;
 	}
 
+	/**
+	 * build(CommandValue, String, int, String) - constructs a Command from a
+	 * code ordinal.
+	 *
+	 * @param c       the CommandValue
+	 * @param ownerId the owner id, or null
+	 * @param code    the ordinal of the code, or -1
+	 * @param note    the note, or null
+	 * @return the Command
+	 */
+	private static Command build(CommandValue c, String ownerId, int code, String note) {
+		FeedbackCode feedback = c == CommandValue.FEEDBACK && code >= 0 ? FeedbackCode.values()[code] : null;
+		ResolutionCode resolution = c == CommandValue.RESOLVE && code >= 0 ? ResolutionCode.values()[code] : null;
+		CancellationCode cancellation = c == CommandValue.CANCEL && code >= 0 ? CancellationCode.values()[code]
+				: null;
+		return new Command(c, ownerId, feedback, resolution, cancellation, note);
+	}
+
+	/**
+	 * encode(CommandValue, int, int) - returns the encoded form of a note-less
+	 * Command, after the same validation the constructor performs. The code is
+	 * ignored for a CommandValue that takes none.
+	 *
+	 * @param c           Process, Feedback, Confirm, Reopen, Resolve, and Cancel.
+	 * @param ownerHandle the UserSymbolTable handle of the owner id, or
+	 *                    UserSymbolTable.NULL.
+	 * @param code        the ordinal of the FeedbackCode, ResolutionCode or
+	 *                    CancellationCode the CommandValue requires, or -1.
+	 * @return the encoded Command.
+	 * @throws IllegalArgumentException if c is null, a PROCESS Command has no
+	 *                                  owner, or the code is missing or out of
+	 *                                  range.
+	 */
+	public static long encode(CommandValue c, int ownerHandle, int code) {
+		if (c == null)
+			throw new IllegalArgumentException("Invalid Command.");
+		long encoded = (long) ownerHandle << OWNER_SHIFT | c.ordinal();
+		int count = CODE_COUNT[c.ordinal()];
+		if (count > 0)
+			encoded |= (long) (code + 1) << CODE_SHIFT;
+		if (!isValid(encoded))
+			throw new IllegalArgumentException("Invalid Command.");
+		return encoded;
+	}
+
+	/**
+	 * encode(CommandValue, String, int) - returns the encoded form of a
+	 * note-less Command, interning the owner id.
+	 *
+	 * @param c       Process, Feedback, Confirm, Reopen, Resolve, and Cancel.
+	 * @param ownerId the user id of the owner, or null.
+	 * @param code    the ordinal of the code the CommandValue requires, or -1.
+	 * @return the encoded Command.
+	 * @throws IllegalArgumentException if the Command is not valid.
+	 */
+	public static long encode(CommandValue c, String ownerId, int code) {
+		return encode(c, UserSymbolTable.getInstance().intern(ownerId), code);
+	}
+
+	/**
+	 * encode - returns the encoded form of this Command, without its note.
+	 *
+	 * @return the encoded Command.
+	 */
+	public long encode() {
+		return (long) ownerHandle << OWNER_SHIFT | (long) (getCode() + 1) << CODE_SHIFT | commandValue.ordinal();
+	}
+
+	/**
+	 * isValid(long) - returns true if the long is an encoded Command that
+	 * {@code encode()} could have returned.
+	 *
+	 * @param command the encoded Command.
+	 * @return true if it is valid.
+	 */
+	public static boolean isValid(long command) {
+		int value = (int) (command & 0xFF);
+		int code = (int) (command >>> CODE_SHIFT & 0xFF) - 1;
+		if (value >= COMMAND_VALUES.length || (command & 0xFFFF0000L) != 0)
+			return false;
+		int count = CODE_COUNT[value];
+		if (count == 0 ? code != -1 : code < 0 || code >= count)
+			return false;
+		int owner = (int) (command >> OWNER_SHIFT);
+		if (value == CommandValue.PROCESS.ordinal())
+			return owner != UserSymbolTable.NULL && owner != UserSymbolTable.EMPTY;
+		return true;
+	}
+
+	/**
+	 * commandValueOf(long) - returns the CommandValue of an encoded Command.
+	 *
+	 * @param command the encoded Command.
+	 * @return its CommandValue.
+	 */
+	public static CommandValue commandValueOf(long command) {
+		return COMMAND_VALUES[(int) (command & 0xFF)];
+	}
+
+	/**
+	 * codeOf(long) - returns the code ordinal of an encoded Command.
+	 *
+	 * @param command the encoded Command.
+	 * @return the ordinal of its code, or -1 if it carries none.
+	 */
+	public static int codeOf(long command) {
+		return (int) (command >>> CODE_SHIFT & 0xFF) - 1;
+	}
+
+	/**
+	 * ownerHandleOf(long) - returns the owner handle of an encoded Command.
+	 *
+	 * @param command the encoded Command.
+	 * @return the UserSymbolTable handle of its owner id.
+	 */
+	public static int ownerHandleOf(long command) {
+		return (int) (command >> OWNER_SHIFT);
+	}
+
+	/**
+	 * of(long, String) - returns the Command for an encoded Command and a note.
+	 * A note-less Command without an owner is one of the shared instances, so
+	 * it costs no allocation or validation.
+	 *
+	 * @param command the encoded Command.
+	 * @param note    the note, or null.
+	 * @return the Command.
+	 * @throws IllegalArgumentException if command is not valid.
+	 */
+	public static Command of(long command, String note) {
+		if (!isValid(command))
+			throw new IllegalArgumentException("Invalid Command.");
+		int owner = ownerHandleOf(command);
+		if (note == null && owner == UserSymbolTable.NULL) {
+			Command shared = CANONICAL[(int) (command & 0xFF) * MAX_CODES + codeOf(command) + 1];
+			if (shared != null)
+				return shared;
+		}
+		return build(commandValueOf(command), UserSymbolTable.getInstance().resolve(owner), codeOf(command), note);
+	}
+
 	/**
 	 * getCommandValue - returns the commandValue.
 	 * 
@@ -150,7 +339,16 @@ public class Command {
 	 * @return the ownerId
 	 */
 	public String getOwnerId() {
-		return ownerId;
+		return UserSymbolTable.getInstance().resolve(ownerHandle);
+	}
+
+	/**
+	 * getOwnerHandle - returns the UserSymbolTable handle of the ownerId.
+	 * 
+	 * @return the handle of the ownerId, or UserSymbolTable.NULL if none.
+	 */
+	public int getOwnerHandle() {
+		return ownerHandle;
 	}
 
 	/**
@@ -188,4 +386,21 @@ public class Command {
 	public CancellationCode getCancellationCode() {
 		return cancellationCode;
 	}
+
+	/**
+	 * getCode - returns the ordinal of the FeedbackCode, ResolutionCode or
+	 * CancellationCode this Command carries, as codeOf(long) returns it for the
+	 * encoded Command. A Command carries at most one code.
+	 * 
+	 * @return the ordinal of its code, or -1 if it carries none.
+	 */
+	public int getCode() {
+		if (feedbackCode != null)
+			return feedbackCode.ordinal();
+		if (resolutionCode != null)
+			return resolutionCode.ordinal();
+		if (cancellationCode != null)
+			return cancellationCode.ordinal();
+		return -1;
+	}
 }
\ No newline at end of file
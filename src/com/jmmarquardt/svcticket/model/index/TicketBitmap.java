@@ -0,0 +1,538 @@
+/**
+ * TicketBitmap.java
+ */
+package com.jmmarquardt.svcticket.model.index;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * TicketBitmap
+ * <p>
+ * TicketBitmap is a compressed set of ticket ids. Ids are split into a high
+ * part (all but the low 16 bits) and a low part, and the low parts that share
+ * a high part are kept in one container. A container with few ids is a sorted
+ * {@code char[]}; once it holds more than {@value #ARRAY_MAX} ids it becomes a
+ * 65536-bit bitmap. Sparse and dense runs of ids therefore both stay small,
+ * and AND, OR and AND NOT are computed container by container.
+ * </p>
+ *
+ * A TicketBitmap is not thread safe. {@code TicketIndex} guards the bitmaps it
+ * maintains, and the bitmaps it returns from queries belong to the caller.
+ *
+ * @author John-Michael Marquardt
+ */
+public class TicketBitmap {
+	/** The largest number of ids kept in an array container. */
+	static final int ARRAY_MAX = 4096;
+	/** The number of longs in a bitmap container. */
+	private static final int WORDS = 1024;
+
+	/** The high parts of the ids, sorted. */
+	private long[] keys;
+	/** The container for each high part, parallel to keys. */
+	private Container[] containers;
+	/** The number of containers in use. */
+	private int size;
+
+	/**
+	 * TicketBitmap() - constructs an empty TicketBitmap.
+	 */
+	public TicketBitmap() {
+		keys = new long[4];
+		containers = new Container[4];
+	}
+
+	/**
+	 * TicketBitmap(int) - constructs an empty TicketBitmap with room for the given
+	 * number of containers.
+	 *
+	 * @param capacity the number of containers to allocate room for
+	 */
+	private TicketBitmap(int capacity) {
+		keys = new long[Math.max(1, capacity)];
+		containers = new Container[Math.max(1, capacity)];
+	}
+
+	/**
+	 * Container holds the low 16 bits of the ids that share one high part, either
+	 * as a sorted array or as a bitmap.
+	 */
+	private static final class Container {
+		/** The sorted low parts, or null if this is a bitmap container. */
+		char[] array;
+		/** The bitmap of low parts, or null if this is an array container. */
+		long[] bits;
+		/** The number of ids in this container. */
+		int cardinality;
+
+		/**
+		 * Container(char[], int) - constructs an array container.
+		 *
+		 * @param array       the sorted low parts
+		 * @param cardinality the number of values in use
+		 */
+		Container(char[] array, int cardinality) {
+			this.array = array;
+			this.cardinality = cardinality;
+		}
+
+		/**
+		 * Container(long[], int) - constructs a bitmap container.
+		 *
+		 * @param bits        the bitmap
+		 * @param cardinality the number of bits set
+		 */
+		Container(long[] bits, int cardinality) {
+			this.bits = bits;
+			this.cardinality = cardinality;
+		}
+
+		/**
+		 * of(long[], int) - returns a container for the given bitmap, converting it
+		 * to an array container if it is small, or null if it is empty.
+		 *
+		 * @param bits        the bitmap
+		 * @param cardinality the number of bits set
+		 * @return the container, or null
+		 */
+		static Container of(long[] bits, int cardinality) {
+			if (cardinality == 0)
+				return null;
+			if (cardinality > ARRAY_MAX)
+				return new Container(bits, cardinality);
+			char[] a = new char[cardinality];
+			int n = 0;
+			for (int w = 0; w < WORDS; w++)
+				for (long word = bits[w]; word != 0; word &= word - 1)
+					a[n++] = (char) ((w << 6) + Long.numberOfTrailingZeros(word));
+			return new Container(a, n);
+		}
+
+		/**
+		 * contains(char) - returns true if the low part is in this container.
+		 *
+		 * @param low the low 16 bits of an id
+		 * @return true if present
+		 */
+		boolean contains(char low) {
+			if (bits != null)
+				return (bits[low >>> 6] & (1L << low)) != 0;
+			return Arrays.binarySearch(array, 0, cardinality, low) >= 0;
+		}
+
+		/**
+		 * add(char) - adds the low part to this container.
+		 *
+		 * @param low the low 16 bits of an id
+		 * @return true if it was not already present
+		 */
+		boolean add(char low) {
+			if (bits != null) {
+				long before = bits[low >>> 6];
+				bits[low >>> 6] = before | (1L << low);
+				if (before == bits[low >>> 6])
+					return false;
+				cardinality++;
+				return true;
+			}
+			int i = Arrays.binarySearch(array, 0, cardinality, low);
+			if (i >= 0)
+				return false;
+			i = -i - 1;
+			if (cardinality == ARRAY_MAX) {
+				bits = toBits();
+				array = null;
+				return add(low);
+			}
+			if (cardinality == array.length)
+				array = Arrays.copyOf(array, Math.min(ARRAY_MAX, array.length * 2));
+			System.arraycopy(array, i, array, i + 1, cardinality - i);
+			array[i] = low;
+			cardinality++;
+			return true;
+		}
+
+		/**
+		 * remove(char) - removes the low part from this container.
+		 *
+		 * @param low the low 16 bits of an id
+		 * @return true if it was present
+		 */
+		boolean remove(char low) {
+			if (bits != null) {
+				long before = bits[low >>> 6];
+				bits[low >>> 6] = before & ~(1L << low);
+				if (before == bits[low >>> 6])
+					return false;
+				if (--cardinality <= ARRAY_MAX / 2) {
+					Container c = of(bits, cardinality);
+					array = c == null ? new char[4] : c.array;
+					bits = null;
+				}
+				return true;
+			}
+			int i = Arrays.binarySearch(array, 0, cardinality, low);
+			if (i < 0)
+				return false;
+			System.arraycopy(array, i + 1, array, i, cardinality - i - 1);
+			cardinality--;
+			return true;
+		}
+
+		/**
+		 * toBits - returns this container's values as a new bitmap.
+		 *
+		 * @return a bitmap of the values
+		 */
+		long[] toBits() {
+			if (bits != null)
+				return bits.clone();
+			long[] b = new long[WORDS];
+			for (int i = 0; i < cardinality; i++)
+				b[array[i] >>> 6] |= 1L << array[i];
+			return b;
+		}
+
+		/**
+		 * copy - returns a deep copy of this container.
+		 *
+		 * @return the copy
+		 */
+		Container copy() {
+			if (bits != null)
+				return new Container(bits.clone(), cardinality);
+			return new Container(Arrays.copyOf(array, cardinality), cardinality);
+		}
+
+		/**
+		 * and(Container, Container) - returns the intersection of two containers.
+		 *
+		 * @param a a container
+		 * @param b a container
+		 * @return the intersection, or null if it is empty
+		 */
+		static Container and(Container a, Container b) {
+			if (a.bits != null && b.bits != null) {
+				long[] r = new long[WORDS];
+				int card = 0;
+				for (int w = 0; w < WORDS; w++)
+					card += Long.bitCount(r[w] = a.bits[w] & b.bits[w]);
+				return of(r, card);
+			}
+			if (a.array == null) {
+				Container t = a;
+				a = b;
+				b = t;
+			}
+			char[] r = new char[a.cardinality];
+			int n = 0;
+			if (b.array != null) {
+				for (int i = 0, j = 0; i < a.cardinality && j < b.cardinality;) {
+					if (a.array[i] < b.array[j])
+						i++;
+					else if (a.array[i] > b.array[j])
+						j++;
+					else {
+						r[n++] = a.array[i++];
+						j++;
+					}
+				}
+			} else {
+				for (int i = 0; i < a.cardinality; i++)
+					if (b.contains(a.array[i]))
+						r[n++] = a.array[i];
+			}
+			return n == 0 ? null : new Container(r, n);
+		}
+
+		/**
+		 * or(Container, Container) - returns the union of two containers.
+		 *
+		 * @param a a container
+		 * @param b a container
+		 * @return the union
+		 */
+		static Container or(Container a, Container b) {
+			if (a.array != null && b.array != null && a.cardinality + b.cardinality <= ARRAY_MAX) {
+				char[] r = new char[a.cardinality + b.cardinality];
+				int i = 0;
+				int j = 0;
+				int n = 0;
+				while (i < a.cardinality && j < b.cardinality) {
+					if (a.array[i] < b.array[j])
+						r[n++] = a.array[i++];
+					else if (a.array[i] > b.array[j])
+						r[n++] = b.array[j++];
+					else {
+						r[n++] = a.array[i++];
+						j++;
+					}
+				}
+				while (i < a.cardinality)
+					r[n++] = a.array[i++];
+				while (j < b.cardinality)
+					r[n++] = b.array[j++];
+				return new Container(r, n);
+			}
+			long[] r = a.toBits();
+			if (b.bits != null) {
+				for (int w = 0; w < WORDS; w++)
+					r[w] |= b.bits[w];
+			} else {
+				for (int i = 0; i < b.cardinality; i++)
+					r[b.array[i] >>> 6] |= 1L << b.array[i];
+			}
+			int card = 0;
+			for (int w = 0; w < WORDS; w++)
+				card += Long.bitCount(r[w]);
+			return of(r, card);
+		}
+
+		/**
+		 * andNot(Container, Container) - returns the values of a that are not in b.
+		 *
+		 * @param a a container
+		 * @param b a container
+		 * @return the difference, or null if it is empty
+		 */
+		static Container andNot(Container a, Container b) {
+			if (a.array != null) {
+				char[] r = new char[a.cardinality];
+				int n = 0;
+				for (int i = 0; i < a.cardinality; i++)
+					if (!b.contains(a.array[i]))
+						r[n++] = a.array[i];
+				return n == 0 ? null : new Container(r, n);
+			}
+			long[] r = a.bits.clone();
+			if (b.bits != null) {
+				for (int w = 0; w < WORDS; w++)
+					r[w] &= ~b.bits[w];
+			} else {
+				for (int i = 0; i < b.cardinality; i++)
+					r[b.array[i] >>> 6] &= ~(1L << b.array[i]);
+			}
+			int card = 0;
+			for (int w = 0; w < WORDS; w++)
+				card += Long.bitCount(r[w]);
+			return of(r, card);
+		}
+	}
+
+	/**
+	 * find(long) - returns the index of the container for the given high part,
+	 * or (-(insertion point) - 1) if there is none.
+	 *
+	 * @param high the high part of an id
+	 * @return the container index, or the encoded insertion point
+	 */
+	private int find(long high) {
+		return Arrays.binarySearch(keys, 0, size, high);
+	}
+
+	/**
+	 * append(long, Container) - appends a container with a larger high part than
+	 * any already present. Used while building the result of an operation.
+	 *
+	 * @param high the high part
+	 * @param c    the container, ignored if null
+	 */
+	private void append(long high, Container c) {
+		if (c == null)
+			return;
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+			containers = Arrays.copyOf(containers, size * 2);
+		}
+		keys[size] = high;
+		containers[size++] = c;
+	}
+
+	/**
+	 * add(long) - adds the id to this bitmap.
+	 *
+	 * @param id a ticket id
+	 * @return true if the id was not already present.
+	 */
+	public boolean add(long id) {
+		long high = id >>> 16;
+		int i = find(high);
+		if (i >= 0)
+			return containers[i].add((char) id);
+		i = -i - 1;
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+			containers = Arrays.copyOf(containers, size * 2);
+		}
+		System.arraycopy(keys, i, keys, i + 1, size - i);
+		System.arraycopy(containers, i, containers, i + 1, size - i);
+		keys[i] = high;
+		containers[i] = new Container(new char[] { (char) id, 0, 0, 0 }, 1);
+		size++;
+		return true;
+	}
+
+	/**
+	 * remove(long) - removes the id from this bitmap.
+	 *
+	 * @param id a ticket id
+	 * @return true if the id was present.
+	 */
+	public boolean remove(long id) {
+		int i = find(id >>> 16);
+		if (i < 0 || !containers[i].remove((char) id))
+			return false;
+		if (containers[i].cardinality == 0) {
+			System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+			System.arraycopy(containers, i + 1, containers, i, size - i - 1);
+			containers[--size] = null;
+		}
+		return true;
+	}
+
+	/**
+	 * contains(long) - returns true if the id is in this bitmap.
+	 *
+	 * @param id a ticket id
+	 * @return true if present.
+	 */
+	public boolean contains(long id) {
+		int i = find(id >>> 16);
+		return i >= 0 && containers[i].contains((char) id);
+	}
+
+	/**
+	 * cardinality - returns the number of ids in this bitmap.
+	 *
+	 * @return the number of ids.
+	 */
+	public long cardinality() {
+		long n = 0;
+		for (int i = 0; i < size; i++)
+			n += containers[i].cardinality;
+		return n;
+	}
+
+	/**
+	 * isEmpty - returns true if this bitmap holds no ids.
+	 *
+	 * @return true if empty.
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * copy - returns a deep copy of this bitmap.
+	 *
+	 * @return the copy.
+	 */
+	public TicketBitmap copy() {
+		TicketBitmap r = new TicketBitmap(size);
+		for (int i = 0; i < size; i++)
+			r.append(keys[i], containers[i].copy());
+		return r;
+	}
+
+	/**
+	 * and(TicketBitmap) - returns a new bitmap of the ids in both this bitmap and
+	 * the other.
+	 *
+	 * @param other the other bitmap.
+	 * @return the intersection.
+	 */
+	public TicketBitmap and(TicketBitmap other) {
+		TicketBitmap r = new TicketBitmap(Math.min(size, other.size));
+		for (int i = 0, j = 0; i < size && j < other.size;) {
+			if (keys[i] < other.keys[j])
+				i++;
+			else if (keys[i] > other.keys[j])
+				j++;
+			else
+				r.append(keys[i], Container.and(containers[i++], other.containers[j++]));
+		}
+		return r;
+	}
+
+	/**
+	 * or(TicketBitmap) - returns a new bitmap of the ids in this bitmap, the
+	 * other, or both.
+	 *
+	 * @param other the other bitmap.
+	 * @return the union.
+	 */
+	public TicketBitmap or(TicketBitmap other) {
+		TicketBitmap r = new TicketBitmap(size + other.size);
+		int i = 0;
+		int j = 0;
+		while (i < size && j < other.size) {
+			if (keys[i] < other.keys[j]) {
+				r.append(keys[i], containers[i++].copy());
+			} else if (keys[i] > other.keys[j]) {
+				r.append(other.keys[j], other.containers[j++].copy());
+			} else {
+				r.append(keys[i], Container.or(containers[i++], other.containers[j++]));
+			}
+		}
+		for (; i < size; i++)
+			r.append(keys[i], containers[i].copy());
+		for (; j < other.size; j++)
+			r.append(other.keys[j], other.containers[j].copy());
+		return r;
+	}
+
+	/**
+	 * andNot(TicketBitmap) - returns a new bitmap of the ids in this bitmap that
+	 * are not in the other.
+	 *
+	 * @param other the other bitmap.
+	 * @return the difference.
+	 */
+	public TicketBitmap andNot(TicketBitmap other) {
+		TicketBitmap r = new TicketBitmap(size);
+		int j = 0;
+		for (int i = 0; i < size; i++) {
+			while (j < other.size && other.keys[j] < keys[i])
+				j++;
+			if (j < other.size && other.keys[j] == keys[i])
+				r.append(keys[i], Container.andNot(containers[i], other.containers[j]));
+			else
+				r.append(keys[i], containers[i].copy());
+		}
+		return r;
+	}
+
+	/**
+	 * forEach(LongConsumer) - passes every id in this bitmap to the action in
+	 * ascending order.
+	 *
+	 * @param action the action to perform on each id.
+	 */
+	public void forEach(LongConsumer action) {
+		for (int i = 0; i < size; i++) {
+			long base = keys[i] << 16;
+			Container c = containers[i];
+			if (c.array != null) {
+				for (int k = 0; k < c.cardinality; k++)
+					action.accept(base | c.array[k]);
+			} else {
+				for (int w = 0; w < WORDS; w++)
+					for (long word = c.bits[w]; word != 0; word &= word - 1)
+						action.accept(base | ((w << 6) + Long.numberOfTrailingZeros(word)));
+			}
+		}
+	}
+
+	/**
+	 * toArray - returns the ids in this bitmap as a sorted array.
+	 *
+	 * @return the ids, in ascending order.
+	 */
+	public long[] toArray() {
+		long[] ids = new long[(int) cardinality()];
+		int[] n = new int[1];
+		forEach(id -> ids[n[0]++] = id);
+		return ids;
+	}
+}
@@ -0,0 +1,263 @@
+/**
+ * TicketIndex.java
+ */
+package com.jmmarquardt.svcticket.model.index;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.jmmarquardt.svcticket.model.manager.TicketListener;
+import com.jmmarquardt.svcticket.model.ticket.Ticket;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Category;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Priority;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.TicketType;
+import com.jmmarquardt.svcticket.model.ticket.TicketStateMachine;
+
+/**
+ * TicketIndex
+ * <p>
+ * TicketIndex keeps a {@code TicketBitmap} of ticket ids for every state,
+ * Category, Priority and TicketType, and for every owner and caller. It is a
+ * {@code TicketListener}: once registered with a {@code TicketManager} it
+ * updates the bitmaps as tickets are added, change state or owner, and are
+ * removed, so list views can be filtered with {@code query(TicketQuery)}
+ * instead of scanning every ticket.
+ * </p>
+ *
+ * Updates take the index's write lock and queries its read lock. Query results
+ * are new bitmaps owned by the caller.
+ *
+ * @author John-Michael Marquardt
+ */
+public class TicketIndex implements TicketListener {
+	/** IllegalArgumentException error message for null parameters. */
+	private static final String NULL_ERROR = "Parameter cannot be null.";
+	/** Shared empty bitmap returned for values with no tickets. */
+	private static final TicketBitmap EMPTY = new TicketBitmap();
+
+	/** Guards every bitmap in this index. */
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	/** Every indexed ticket. */
+	private final TicketBitmap all = new TicketBitmap();
+	/** Tickets by state id. */
+	private final TicketBitmap[] byState = bitmaps(TicketStateMachine.STATE_COUNT);
+	/** Tickets by Category ordinal. */
+	private final TicketBitmap[] byCategory = bitmaps(Category.values().length);
+	/** Tickets by Priority ordinal. */
+	private final TicketBitmap[] byPriority = bitmaps(Priority.values().length);
+	/** Tickets by TicketType ordinal. */
+	private final TicketBitmap[] byType = bitmaps(TicketType.values().length);
+	/** Tickets by owner user id; "" for no owner. */
+	private final Map<String, TicketBitmap> byOwner = new HashMap<String, TicketBitmap>();
+	/** Tickets by caller user id. */
+	private final Map<String, TicketBitmap> byCaller = new HashMap<String, TicketBitmap>();
+
+	/**
+	 * bitmaps(int) - returns an array of n empty bitmaps.
+	 *
+	 * @param n the array length
+	 * @return the bitmaps
+	 */
+	private static TicketBitmap[] bitmaps(int n) {
+		TicketBitmap[] b = new TicketBitmap[n];
+		for (int i = 0; i < n; i++)
+			b[i] = new TicketBitmap();
+		return b;
+	}
+
+	/**
+	 * ticketAdded(Ticket) - indexes a new ticket under each of its values.
+	 *
+	 * @param ticket the Ticket that was added.
+	 */
+	@Override
+	public void ticketAdded(Ticket ticket) {
+		long id = ticket.getTicketId();
+		lock.writeLock().lock();
+		try {
+			all.add(id);
+			byState[ticket.getStateId()].add(id);
+			byCategory[ticket.getCategory().ordinal()].add(id);
+			byPriority[ticket.getPriority().ordinal()].add(id);
+			byType[ticket.getTicketType().ordinal()].add(id);
+			byOwner.computeIfAbsent(ticket.getOwner(), k -> new TicketBitmap()).add(id);
+			byCaller.computeIfAbsent(ticket.getCaller(), k -> new TicketBitmap()).add(id);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * ticketUpdated(Ticket, int, String) - moves the ticket between the state and
+	 * owner bitmaps if a Command changed them.
+	 *
+	 * @param ticket        the Ticket that was updated.
+	 * @param previousState the ticket's state id before the Command.
+	 * @param previousOwner the ticket's owner before the Command.
+	 */
+	@Override
+	public void ticketUpdated(Ticket ticket, int previousState, String previousOwner) {
+		long id = ticket.getTicketId();
+		int state = ticket.getStateId();
+		String owner = ticket.getOwner();
+		boolean ownerChanged = !owner.equals(previousOwner);
+		if (state == previousState && !ownerChanged)
+			return;
+		lock.writeLock().lock();
+		try {
+			if (state != previousState) {
+				byState[previousState].remove(id);
+				byState[state].add(id);
+			}
+			if (ownerChanged) {
+				remove(byOwner, previousOwner, id);
+				byOwner.computeIfAbsent(owner, k -> new TicketBitmap()).add(id);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * ticketRemoved(Ticket) - removes the ticket from every bitmap.
+	 *
+	 * @param ticket the Ticket that was removed.
+	 */
+	@Override
+	public void ticketRemoved(Ticket ticket) {
+		long id = ticket.getTicketId();
+		lock.writeLock().lock();
+		try {
+			all.remove(id);
+			byState[ticket.getStateId()].remove(id);
+			byCategory[ticket.getCategory().ordinal()].remove(id);
+			byPriority[ticket.getPriority().ordinal()].remove(id);
+			byType[ticket.getTicketType().ordinal()].remove(id);
+			remove(byOwner, ticket.getOwner(), id);
+			remove(byCaller, ticket.getCaller(), id);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * remove(Map, String, long) - removes an id from a user's bitmap, dropping the
+	 * bitmap once it is empty.
+	 *
+	 * @param map  byOwner or byCaller
+	 * @param user the user id
+	 * @param id   the ticket id
+	 */
+	private static void remove(Map<String, TicketBitmap> map, String user, long id) {
+		TicketBitmap b = map.get(user);
+		if (b != null && b.remove(id) && b.isEmpty())
+			map.remove(user);
+	}
+
+	/**
+	 * query(TicketQuery) - returns the ids of the tickets matching the query.
+	 *
+	 * @param query the query to evaluate.
+	 * @return a new bitmap of the matching ticket ids.
+	 * @throws IllegalArgumentException if query is null.
+	 */
+	public TicketBitmap query(TicketQuery query) {
+		if (query == null)
+			throw new IllegalArgumentException(NULL_ERROR);
+		lock.readLock().lock();
+		try {
+			TicketBitmap result = query.evaluate(this);
+			return query.isTerm() ? result.copy() : result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * count(TicketQuery) - returns the number of tickets matching the query.
+	 *
+	 * @param query the query to evaluate.
+	 * @return the number of matching tickets.
+	 * @throws IllegalArgumentException if query is null.
+	 */
+	public long count(TicketQuery query) {
+		if (query == null)
+			throw new IllegalArgumentException(NULL_ERROR);
+		lock.readLock().lock();
+		try {
+			return query.evaluate(this).cardinality();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * allBitmap - returns the bitmap of every indexed ticket.
+	 *
+	 * @return the index's bitmap
+	 */
+	TicketBitmap allBitmap() {
+		return all;
+	}
+
+	/**
+	 * stateBitmap(int) - returns the bitmap for a state id.
+	 *
+	 * @param state the state id
+	 * @return the index's bitmap
+	 */
+	TicketBitmap stateBitmap(int state) {
+		return byState[state];
+	}
+
+	/**
+	 * categoryBitmap(Category) - returns the bitmap for a Category.
+	 *
+	 * @param category the Category
+	 * @return the index's bitmap
+	 */
+	TicketBitmap categoryBitmap(Category category) {
+		return byCategory[category.ordinal()];
+	}
+
+	/**
+	 * priorityBitmap(Priority) - returns the bitmap for a Priority.
+	 *
+	 * @param priority the Priority
+	 * @return the index's bitmap
+	 */
+	TicketBitmap priorityBitmap(Priority priority) {
+		return byPriority[priority.ordinal()];
+	}
+
+	/**
+	 * typeBitmap(TicketType) - returns the bitmap for a TicketType.
+	 *
+	 * @param type the TicketType
+	 * @return the index's bitmap
+	 */
+	TicketBitmap typeBitmap(TicketType type) {
+		return byType[type.ordinal()];
+	}
+
+	/**
+	 * ownerBitmap(String) - returns the bitmap for an owner.
+	 *
+	 * @param owner the owner's user id
+	 * @return the index's bitmap, or an empty bitmap
+	 */
+	TicketBitmap ownerBitmap(String owner) {
+		return byOwner.getOrDefault(owner, EMPTY);
+	}
+
+	/**
+	 * callerBitmap(String) - returns the bitmap for a caller.
+	 *
+	 * @param caller the caller's user id
+	 * @return the index's bitmap, or an empty bitmap
+	 */
+	TicketBitmap callerBitmap(String caller) {
+		return byCaller.getOrDefault(caller, EMPTY);
+	}
+}
@@ -0,0 +1,255 @@
+/**
+ * TicketQuery.java
+ */
+package com.jmmarquardt.svcticket.model.index;
+
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Category;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Priority;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.TicketType;
+
+/**
+ * TicketQuery
+ * <p>
+ * TicketQuery is a filter over the fields indexed by {@code TicketIndex},
+ * built from single-field terms combined with {@code and()}, {@code or()} and
+ * {@code not()}. For example, "Urgent Software incidents in Feedback owned by
+ * x" is
+ * </p>
+ *
+ * <pre>
+ * TicketQuery.priority(Priority.URGENT).and(TicketQuery.category(Category.SOFTWARE))
+ * 		.and(TicketQuery.type(TicketType.INCIDENT)).and(TicketQuery.state(TicketStateMachine.FEEDBACK))
+ * 		.and(TicketQuery.owner("x"));
+ * </pre>
+ *
+ * A TicketQuery is immutable and may be reused and shared between threads.
+ *
+ * @author John-Michael Marquardt
+ */
+public abstract class TicketQuery {
+
+	/**
+	 * TicketQuery() - only the terms and combinations below extend TicketQuery.
+	 */
+	private TicketQuery() {
+	}
+
+	/**
+	 * evaluate(TicketIndex) - returns the ids matching this query. The result may
+	 * be one of the index's own bitmaps, so it must not be modified or leave the
+	 * index's read lock; {@code TicketIndex.query()} copies it when needed.
+	 *
+	 * @param index the index to evaluate against, with its read lock held
+	 * @return the matching ids
+	 */
+	abstract TicketBitmap evaluate(TicketIndex index);
+
+	/**
+	 * isTerm - returns true if this query is a single term, whose evaluation is a
+	 * bitmap owned by the index.
+	 *
+	 * @return true for a term
+	 */
+	boolean isTerm() {
+		return false;
+	}
+
+	/**
+	 * state(int) - returns a query for the tickets in the given state.
+	 *
+	 * @param state a TicketStateMachine state id.
+	 * @return the query.
+	 */
+	public static TicketQuery state(int state) {
+		return new Term(index -> index.stateBitmap(state));
+	}
+
+	/**
+	 * category(Category) - returns a query for the tickets in the given Category.
+	 *
+	 * @param category the Category.
+	 * @return the query.
+	 */
+	public static TicketQuery category(Category category) {
+		return new Term(index -> index.categoryBitmap(category));
+	}
+
+	/**
+	 * priority(Priority) - returns a query for the tickets with the given
+	 * Priority.
+	 *
+	 * @param priority the Priority.
+	 * @return the query.
+	 */
+	public static TicketQuery priority(Priority priority) {
+		return new Term(index -> index.priorityBitmap(priority));
+	}
+
+	/**
+	 * type(TicketType) - returns a query for the tickets of the given TicketType.
+	 *
+	 * @param type the TicketType.
+	 * @return the query.
+	 */
+	public static TicketQuery type(TicketType type) {
+		return new Term(index -> index.typeBitmap(type));
+	}
+
+	/**
+	 * owner(String) - returns a query for the tickets owned by the given user id.
+	 * The empty String matches the tickets with no owner.
+	 *
+	 * @param owner the owner's user id.
+	 * @return the query.
+	 */
+	public static TicketQuery owner(String owner) {
+		return new Term(index -> index.ownerBitmap(owner));
+	}
+
+	/**
+	 * caller(String) - returns a query for the tickets reported by the given user
+	 * id.
+	 *
+	 * @param caller the caller's user id.
+	 * @return the query.
+	 */
+	public static TicketQuery caller(String caller) {
+		return new Term(index -> index.callerBitmap(caller));
+	}
+
+	/**
+	 * all - returns a query matching every indexed ticket.
+	 *
+	 * @return the query.
+	 */
+	public static TicketQuery all() {
+		return new Term(TicketIndex::allBitmap);
+	}
+
+	/**
+	 * and(TicketQuery) - returns a query for the tickets matching both this query
+	 * and the other.
+	 *
+	 * @param other the other query.
+	 * @return the combined query.
+	 */
+	public TicketQuery and(TicketQuery other) {
+		return new Combination(this, other, Combination.AND);
+	}
+
+	/**
+	 * or(TicketQuery) - returns a query for the tickets matching this query, the
+	 * other, or both.
+	 *
+	 * @param other the other query.
+	 * @return the combined query.
+	 */
+	public TicketQuery or(TicketQuery other) {
+		return new Combination(this, other, Combination.OR);
+	}
+
+	/**
+	 * andNot(TicketQuery) - returns a query for the tickets matching this query
+	 * but not the other.
+	 *
+	 * @param other the other query.
+	 * @return the combined query.
+	 */
+	public TicketQuery andNot(TicketQuery other) {
+		return new Combination(this, other, Combination.AND_NOT);
+	}
+
+	/**
+	 * not - returns a query for the indexed tickets that do not match this query.
+	 *
+	 * @return the negated query.
+	 */
+	public TicketQuery not() {
+		return all().andNot(this);
+	}
+
+	/**
+	 * Lookup reads one bitmap from an index.
+	 */
+	private interface Lookup {
+		/**
+		 * bitmap(TicketIndex) - returns the index's bitmap for a term.
+		 *
+		 * @param index the index
+		 * @return the bitmap
+		 */
+		TicketBitmap bitmap(TicketIndex index);
+	}
+
+	/**
+	 * Term is a query on a single indexed value.
+	 */
+	private static final class Term extends TicketQuery {
+		/** Reads this term's bitmap from the index. */
+		private final Lookup lookup;
+
+		/**
+		 * Term(Lookup) - constructs a term.
+		 *
+		 * @param lookup reads this term's bitmap
+		 */
+		Term(Lookup lookup) {
+			this.lookup = lookup;
+		}
+
+		@Override
+		TicketBitmap evaluate(TicketIndex index) {
+			return lookup.bitmap(index);
+		}
+
+		@Override
+		boolean isTerm() {
+			return true;
+		}
+	}
+
+	/**
+	 * Combination is two queries joined by AND, OR or AND NOT.
+	 */
+	private static final class Combination extends TicketQuery {
+		/** Operator for intersection. */
+		static final int AND = 0;
+		/** Operator for union. */
+		static final int OR = 1;
+		/** Operator for difference. */
+		static final int AND_NOT = 2;
+
+		/** The left operand. */
+		private final TicketQuery left;
+		/** The right operand. */
+		private final TicketQuery right;
+		/** The operator joining them. */
+		private final int op;
+
+		/**
+		 * Combination(TicketQuery, TicketQuery, int) - constructs a combination.
+		 *
+		 * @param left  the left operand
+		 * @param right the right operand
+		 * @param op    AND, OR or AND_NOT
+		 */
+		Combination(TicketQuery left, TicketQuery right, int op) {
+			if (left == null || right == null)
+				throw new IllegalArgumentException("Parameter cannot be null.");
+			this.left = left;
+			this.right = right;
+			this.op = op;
+		}
+
+		@Override
+		TicketBitmap evaluate(TicketIndex index) {
+			TicketBitmap l = left.evaluate(index);
+			TicketBitmap r = right.evaluate(index);
+			if (op == AND)
+				return l.and(r);
+			if (op == OR)
+				return l.or(r);
+			return l.andNot(r);
+		}
+	}
+}
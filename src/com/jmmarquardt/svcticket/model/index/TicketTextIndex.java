@@ -0,0 +1,867 @@
+/**
+ * TicketTextIndex.java
+ */
+package com.jmmarquardt.svcticket.model.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.jmmarquardt.svcticket.model.manager.LongIntMap;
+import com.jmmarquardt.svcticket.model.manager.TicketListener;
+import com.jmmarquardt.svcticket.model.ticket.Ticket;
+import com.jmmarquardt.svcticket.model.ticket.TicketView;
+
+/**
+ * TicketTextIndex
+ * <p>
+ * TicketTextIndex is an inverted index over the subject and notes of every
+ * ticket. It is a {@code TicketListener}: a ticket's subject and notes are
+ * indexed when it is added, each note a Command carries is indexed when the
+ * Command is applied, and a removed ticket stops matching at once. Text is
+ * split into lower-case runs of letters and digits.
+ * </p>
+ * <p>
+ * Each ticket is given a dense document number, and each term keeps its
+ * postings as one byte array of variable-length ints: the gap to the
+ * previous document, the number of occurrences, and the gaps between their
+ * positions. Subject and notes are numbered as one sequence of positions
+ * with a gap between fields, so a phrase never spans two notes. Postings are
+ * appended as text arrives; the space of removed tickets is reclaimed by
+ * {@code compact()}, which also runs once removed tickets outnumber the rest.
+ * </p>
+ * <p>
+ * {@code search()} accepts words, {@code "quoted phrases"} and
+ * {@code prefix*} terms and ranks every ticket matching any of them by BM25,
+ * so the tickets matching most of the query, and its rarest words, come
+ * first. {@code findSimilar()} runs a ticket's subject as a query, to find
+ * the ticket it duplicates before it is canceled. Updates take the index's
+ * write lock and queries its read lock.
+ * </p>
+ *
+ * @author John-Michael Marquardt
+ */
+public class TicketTextIndex implements TicketListener {
+	/** IllegalArgumentException error message for null parameters. */
+	private static final String NULL_ERROR = "Parameter cannot be null.";
+	/** Longer tokens are cut to this many characters. */
+	public static final int MAX_TOKEN_LENGTH = 64;
+	/** The most terms a prefix is expanded to. */
+	public static final int MAX_EXPANSIONS = 64;
+	/** BM25 term frequency saturation. */
+	private static final double K1 = 1.2;
+	/** BM25 document length normalization. */
+	private static final double B = 0.75;
+	/** Fewer removed documents than this never trigger a compaction. */
+	private static final int MIN_COMPACT = 1024;
+	/** The empty list of tokens. */
+	private static final String[] NO_TOKENS = new String[0];
+
+	/**
+	 * Hit is a ticket matching a search, with its score.
+	 */
+	public static final class Hit {
+		/** The id of the matching ticket. */
+		private final long ticketId;
+		/** The BM25 score. */
+		private final double score;
+
+		/**
+		 * Hit(long, double) - constructs a hit.
+		 *
+		 * @param ticketId the ticket id
+		 * @param score    the score
+		 */
+		Hit(long ticketId, double score) {
+			this.ticketId = ticketId;
+			this.score = score;
+		}
+
+		/**
+		 * getTicketId - returns the id of the matching ticket.
+		 *
+		 * @return the ticket id.
+		 */
+		public long getTicketId() {
+			return ticketId;
+		}
+
+		/**
+		 * getScore - returns the BM25 score; higher scores match better.
+		 *
+		 * @return the score.
+		 */
+		public double getScore() {
+			return score;
+		}
+
+		/**
+		 * toString - returns the id and score.
+		 *
+		 * @return a description of this hit.
+		 */
+		@Override
+		public String toString() {
+			return ticketId + ":" + score;
+		}
+	}
+
+	/**
+	 * Postings is the growable, varint-encoded posting list of one term.
+	 */
+	private static final class Postings {
+		/** The encoded entries. */
+		byte[] data = new byte[16];
+		/** The number of bytes used. */
+		int size;
+		/** The document of the last entry. */
+		int lastDoc;
+		/** False once an entry has been appended for an earlier document. */
+		boolean ordered = true;
+
+		/**
+		 * add(int, int[], int, int) - appends the positions of one field of a
+		 * document.
+		 *
+		 * @param doc       the document
+		 * @param positions the positions, ascending
+		 * @param from      the index of the first position
+		 * @param count     the number of positions
+		 */
+		void add(int doc, int[] positions, int from, int count) {
+			if (doc < lastDoc)
+				ordered = false;
+			int gap = doc - lastDoc;
+			writeVarint(gap << 1 ^ gap >> 31);
+			writeVarint(count);
+			int last = 0;
+			for (int i = from; i < from + count; i++) {
+				writeVarint(positions[i] - last);
+				last = positions[i];
+			}
+			lastDoc = doc;
+		}
+
+		/**
+		 * writeVarint(int) - appends a non-negative int, seven bits per byte. A
+		 * list trimmed by compaction may need more than one doubling.
+		 *
+		 * @param v the value
+		 */
+		void writeVarint(int v) {
+			if (size + 5 > data.length)
+				data = Arrays.copyOf(data, Math.max(data.length * 2, size + 5));
+			while ((v & ~0x7F) != 0) {
+				data[size++] = (byte) (v | 0x80);
+				v >>>= 7;
+			}
+			data[size++] = (byte) v;
+		}
+	}
+
+	/**
+	 * Matches is a decoded posting list: the live documents containing a term or
+	 * phrase in ascending order, and the positions of each.
+	 */
+	private static final class Matches {
+		/** The documents, ascending. */
+		int[] docs;
+		/** The positions of docs[i] are positions[start[i]] to positions[start[i + 1]]. */
+		int[] start;
+		/** The positions, ascending within each document. */
+		int[] positions;
+		/** The number of documents. */
+		int count;
+
+		/**
+		 * tf(int) - returns the number of occurrences in the i-th document.
+		 *
+		 * @param i the index of the document
+		 * @return the number of occurrences
+		 */
+		int tf(int i) {
+			return start[i + 1] - start[i];
+		}
+
+		/**
+		 * find(int) - returns the index of a document.
+		 *
+		 * @param doc the document
+		 * @return its index, or a negative number if it does not match
+		 */
+		int find(int doc) {
+			return Arrays.binarySearch(docs, 0, count, doc);
+		}
+	}
+
+	/**
+	 * Clause is one part of a query: a word, a phrase, or a prefix.
+	 */
+	private static final class Clause {
+		/** The tokens of the word or phrase, or the prefix alone. */
+		final String[] tokens;
+		/** True if tokens[0] is a prefix. */
+		final boolean prefix;
+
+		/**
+		 * Clause(String[], boolean) - constructs a clause.
+		 *
+		 * @param tokens the tokens
+		 * @param prefix true for a prefix
+		 */
+		Clause(String[] tokens, boolean prefix) {
+			this.tokens = tokens;
+			this.prefix = prefix;
+		}
+	}
+
+	/** Guards everything below. */
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	/** The postings of each term, sorted so prefixes are ranges. */
+	private final TreeMap<String, Postings> terms = new TreeMap<String, Postings>();
+	/** The document of each ticket id. */
+	private LongIntMap docOf = new LongIntMap(1024);
+	/** The ticket id of each document, 0 once removed. */
+	private long[] ids = new long[1024];
+	/** The next free position of each document. */
+	private int[] nextPosition = new int[1024];
+	/** The number of notes indexed for each document. */
+	private int[] notesIndexed = new int[1024];
+	/** The number of documents numbered. */
+	private int docCount;
+	/** The number of documents not removed. */
+	private int liveCount;
+	/** The number of removed documents still in the postings. */
+	private int removedCount;
+	/** The sum of the lengths of the live documents. */
+	private long totalLength;
+
+	/**
+	 * tokenize(String) - splits text into lower-case runs of letters and
+	 * digits.
+	 *
+	 * @param text the text, or null.
+	 * @return the tokens, in order.
+	 */
+	static String[] tokenize(String text) {
+		if (text == null || text.isEmpty())
+			return NO_TOKENS;
+		List<String> tokens = new ArrayList<String>();
+		StringBuilder b = new StringBuilder();
+		for (int i = 0; i <= text.length(); i++) {
+			char c = i < text.length() ? text.charAt(i) : ' ';
+			if (Character.isLetterOrDigit(c)) {
+				if (b.length() < MAX_TOKEN_LENGTH)
+					b.append(Character.toLowerCase(c));
+			} else if (b.length() > 0) {
+				tokens.add(b.toString());
+				b.setLength(0);
+			}
+		}
+		return tokens.toArray(NO_TOKENS);
+	}
+
+	/**
+	 * ticketAdded(Ticket) - indexes a new ticket's subject and notes.
+	 *
+	 * @param ticket the Ticket that was added.
+	 */
+	@Override
+	public void ticketAdded(Ticket ticket) {
+		int notes = ticket.getNoteCount();
+		String[][] fields = new String[notes + 1][];
+		fields[0] = tokenize(ticket.getSubject());
+		for (int i = 0; i < notes; i++)
+			fields[i + 1] = tokenize(ticket.getNote(i));
+		lock.writeLock().lock();
+		try {
+			if (docOf.get(ticket.getTicketId()) != LongIntMap.MISSING)
+				return;
+			int doc = newDoc(ticket.getTicketId());
+			for (String[] f : fields)
+				indexField(doc, f);
+			notesIndexed[doc] = notes;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * ticketUpdated(Ticket, int, String) - indexes the notes added by a
+	 * Command.
+	 *
+	 * @param ticket        the Ticket that was updated.
+	 * @param previousState the state before the Command.
+	 * @param previousOwner the owner before the Command.
+	 */
+	@Override
+	public void ticketUpdated(Ticket ticket, int previousState, String previousOwner) {
+		int notes = ticket.getNoteCount();
+		int from;
+		lock.readLock().lock();
+		try {
+			int doc = docOf.get(ticket.getTicketId());
+			if (doc == LongIntMap.MISSING || notesIndexed[doc] >= notes)
+				return;
+			from = notesIndexed[doc];
+		} finally {
+			lock.readLock().unlock();
+		}
+		String[][] fields = new String[notes - from][];
+		for (int i = from; i < notes; i++)
+			fields[i - from] = tokenize(ticket.getNote(i));
+		lock.writeLock().lock();
+		try {
+			// the listener calls for one ticket are serialized by its shard lock
+			int doc = docOf.get(ticket.getTicketId());
+			if (doc == LongIntMap.MISSING || notesIndexed[doc] != from)
+				return;
+			for (String[] f : fields)
+				indexField(doc, f);
+			notesIndexed[doc] = notes;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * ticketRemoved(Ticket) - stops the ticket matching any query.
+	 *
+	 * @param ticket the Ticket that was removed.
+	 */
+	@Override
+	public void ticketRemoved(Ticket ticket) {
+		lock.writeLock().lock();
+		try {
+			int doc = docOf.remove(ticket.getTicketId());
+			if (doc == LongIntMap.MISSING)
+				return;
+			ids[doc] = 0;
+			liveCount--;
+			removedCount++;
+			totalLength -= nextPosition[doc];
+			if (removedCount >= MIN_COMPACT && removedCount > liveCount)
+				compactLocked();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * newDoc(long) - numbers a new document; the write lock is held.
+	 *
+	 * @param id the ticket id
+	 * @return the document
+	 */
+	private int newDoc(long id) {
+		if (docCount == ids.length) {
+			int n = ids.length * 2;
+			ids = Arrays.copyOf(ids, n);
+			nextPosition = Arrays.copyOf(nextPosition, n);
+			notesIndexed = Arrays.copyOf(notesIndexed, n);
+		}
+		int doc = docCount++;
+		ids[doc] = id;
+		nextPosition[doc] = 0;
+		notesIndexed[doc] = 0;
+		docOf.put(id, doc);
+		liveCount++;
+		return doc;
+	}
+
+	/**
+	 * indexField(int, String[]) - appends a field's tokens to a document, one
+	 * posting entry per distinct term; the write lock is held.
+	 *
+	 * @param doc    the document
+	 * @param tokens the tokens
+	 */
+	private void indexField(int doc, String[] tokens) {
+		if (tokens.length == 0)
+			return;
+		int base = nextPosition[doc];
+		// group the positions by term, keeping the terms in first-seen order
+		Map<String, Integer> first = new HashMap<String, Integer>();
+		int[] nextSame = new int[tokens.length];
+		int[] lastSame = new int[tokens.length];
+		for (int i = 0; i < tokens.length; i++) {
+			nextSame[i] = -1;
+			Integer f = first.putIfAbsent(tokens[i], i);
+			if (f == null) {
+				lastSame[i] = i;
+			} else {
+				nextSame[lastSame[f]] = i;
+				lastSame[f] = i;
+			}
+		}
+		int[] positions = new int[tokens.length];
+		for (int i = 0; i < tokens.length; i++) {
+			if (first.get(tokens[i]) != i)
+				continue;
+			int n = 0;
+			for (int j = i; j != -1; j = nextSame[j])
+				positions[n++] = base + j;
+			terms.computeIfAbsent(tokens[i], t -> new Postings()).add(doc, positions, 0, n);
+		}
+		// leave a gap so that no phrase spans two fields
+		nextPosition[doc] = base + tokens.length + 1;
+		totalLength += tokens.length + 1;
+	}
+
+	/**
+	 * decode(Postings) - decodes a posting list, merging the entries of each
+	 * document and dropping removed documents; the lock is held.
+	 *
+	 * @param p the posting list
+	 * @return the matches
+	 */
+	private Matches decode(Postings p) {
+		byte[] data = p.data;
+		int entries = 0;
+		int[] entryDoc = new int[16];
+		int[] entryStart = new int[17];
+		int[] positions = new int[16];
+		int doc = 0;
+		int n = 0;
+		for (int i = 0; i < p.size;) {
+			int v = 0;
+			int shift = 0;
+			int b;
+			do {
+				b = data[i++];
+				v |= (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			doc += v >>> 1 ^ -(v & 1);
+			int count = 0;
+			shift = 0;
+			do {
+				b = data[i++];
+				count |= (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			if (entries == entryDoc.length) {
+				entryDoc = Arrays.copyOf(entryDoc, entries * 2);
+				entryStart = Arrays.copyOf(entryStart, entries * 2 + 1);
+			}
+			if (n + count > positions.length)
+				positions = Arrays.copyOf(positions, Math.max(positions.length * 2, n + count));
+			int pos = 0;
+			for (int k = 0; k < count; k++) {
+				int gap = 0;
+				shift = 0;
+				do {
+					b = data[i++];
+					gap |= (b & 0x7F) << shift;
+					shift += 7;
+				} while (b < 0);
+				pos += gap;
+				positions[n++] = pos;
+			}
+			entryDoc[entries] = doc;
+			entryStart[entries++] = n - count;
+		}
+		entryStart[entries] = n;
+
+		// visit the entries by document, then in the order they were written
+		int[] order = new int[entries];
+		if (p.ordered) {
+			for (int e = 0; e < entries; e++)
+				order[e] = e;
+		} else {
+			long[] keys = new long[entries];
+			for (int e = 0; e < entries; e++)
+				keys[e] = (long) entryDoc[e] << 32 | e;
+			Arrays.sort(keys);
+			for (int e = 0; e < entries; e++)
+				order[e] = (int) keys[e];
+		}
+		Matches m = new Matches();
+		m.docs = new int[entries];
+		m.start = new int[entries + 1];
+		m.positions = new int[n];
+		int out = 0;
+		for (int k = 0; k < entries; k++) {
+			int e = order[k];
+			int d = entryDoc[e];
+			if (ids[d] == 0)
+				continue;
+			if (m.count == 0 || m.docs[m.count - 1] != d) {
+				m.docs[m.count] = d;
+				m.start[m.count++] = out;
+			}
+			for (int j = entryStart[e]; j < entryStart[e + 1]; j++)
+				m.positions[out++] = positions[j];
+		}
+		m.start[m.count] = out;
+		return m;
+	}
+
+	/**
+	 * phrase(Matches[]) - returns the documents in which the terms occur one
+	 * after another, with the positions the phrase starts at.
+	 *
+	 * @param parts the matches of each term of the phrase, in order
+	 * @return the matches of the phrase
+	 */
+	private static Matches phrase(Matches[] parts) {
+		Matches head = parts[0];
+		Matches m = new Matches();
+		m.docs = new int[head.count];
+		m.start = new int[head.count + 1];
+		m.positions = new int[head.positions.length];
+		int out = 0;
+		int[] at = new int[parts.length];
+		for (int i = 0; i < head.count; i++) {
+			int doc = head.docs[i];
+			boolean all = true;
+			for (int k = 1; k < parts.length && all; k++)
+				all = (at[k] = parts[k].find(doc)) >= 0;
+			if (!all)
+				continue;
+			int begin = out;
+			for (int j = head.start[i]; j < head.start[i + 1]; j++) {
+				int p = head.positions[j];
+				boolean follows = true;
+				for (int k = 1; k < parts.length && follows; k++) {
+					Matches part = parts[k];
+					int s = part.start[at[k]];
+					int e = part.start[at[k] + 1];
+					follows = Arrays.binarySearch(part.positions, s, e, p + k) >= 0;
+				}
+				if (follows)
+					m.positions[out++] = p;
+			}
+			if (out > begin) {
+				m.docs[m.count] = doc;
+				m.start[m.count++] = begin;
+			}
+		}
+		m.start[m.count] = out;
+		return m;
+	}
+
+	/**
+	 * parse(String) - splits a query into words, quoted phrases and prefixes
+	 * ending in '*'.
+	 *
+	 * @param query the query
+	 * @return the clauses
+	 */
+	private static List<Clause> parse(String query) {
+		List<Clause> clauses = new ArrayList<Clause>();
+		int i = 0;
+		int n = query.length();
+		while (i < n) {
+			char c = query.charAt(i);
+			if (Character.isWhitespace(c)) {
+				i++;
+			} else if (c == '"') {
+				int end = query.indexOf('"', i + 1);
+				if (end < 0)
+					end = n;
+				String[] tokens = tokenize(query.substring(i + 1, end));
+				if (tokens.length > 0)
+					clauses.add(new Clause(tokens, false));
+				i = end + 1;
+			} else {
+				int end = i;
+				while (end < n && !Character.isWhitespace(query.charAt(end)) && query.charAt(end) != '"')
+					end++;
+				String word = query.substring(i, end);
+				String[] tokens = tokenize(word);
+				boolean prefix = word.endsWith("*");
+				for (int k = 0; k < tokens.length; k++)
+					clauses.add(new Clause(new String[] { tokens[k] }, prefix && k == tokens.length - 1));
+				i = end;
+			}
+		}
+		return clauses;
+	}
+
+	/**
+	 * search(String, int) - returns the tickets matching any word, "quoted
+	 * phrase" or prefix* of the query, best first.
+	 *
+	 * @param query the query.
+	 * @param limit the most hits to return.
+	 * @return the hits, by descending score, then ascending ticket id.
+	 * @throws IllegalArgumentException if query is null or limit is negative.
+	 */
+	public List<Hit> search(String query, int limit) {
+		if (query == null)
+			throw new IllegalArgumentException(NULL_ERROR);
+		return rank(parse(query), limit, 0);
+	}
+
+	/**
+	 * findSimilar(TicketView, int) - returns the other tickets whose subject
+	 * and notes best match the given ticket's subject, e.g. to find the ticket
+	 * it duplicates.
+	 *
+	 * @param ticket the ticket to compare.
+	 * @param limit  the most hits to return.
+	 * @return the hits, by descending score, then ascending ticket id.
+	 * @throws IllegalArgumentException if ticket is null or limit is negative.
+	 */
+	public List<Hit> findSimilar(TicketView ticket, int limit) {
+		if (ticket == null)
+			throw new IllegalArgumentException(NULL_ERROR);
+		List<Clause> clauses = new ArrayList<Clause>();
+		for (String t : tokenize(ticket.getSubject()))
+			clauses.add(new Clause(new String[] { t }, false));
+		return rank(clauses, limit, ticket.getTicketId());
+	}
+
+	/**
+	 * rank(List, int, long) - scores every live document matching a clause by
+	 * BM25 and returns the best.
+	 *
+	 * @param clauses the clauses
+	 * @param limit   the most hits to return
+	 * @param exclude a ticket id to leave out, or 0
+	 * @return the hits
+	 */
+	private List<Hit> rank(List<Clause> clauses, int limit, long exclude) {
+		if (limit < 0)
+			throw new IllegalArgumentException("Invalid limit.");
+		if (limit == 0 || clauses.isEmpty())
+			return Collections.emptyList();
+		lock.readLock().lock();
+		try {
+			if (liveCount == 0)
+				return Collections.emptyList();
+			double avgLength = (double) totalLength / liveCount;
+			double[] scores = new double[docCount];
+			int[] touched = new int[16];
+			int touchedCount = 0;
+			for (Clause c : clauses) {
+				for (Matches m : matches(c)) {
+					double idf = Math.log(1 + (liveCount - m.count + 0.5) / (m.count + 0.5));
+					for (int i = 0; i < m.count; i++) {
+						int doc = m.docs[i];
+						int tf = m.tf(i);
+						double norm = K1 * (1 - B + B * nextPosition[doc] / avgLength);
+						if (scores[doc] == 0) {
+							if (touchedCount == touched.length)
+								touched = Arrays.copyOf(touched, touchedCount * 2);
+							touched[touchedCount++] = doc;
+						}
+						scores[doc] += idf * tf * (K1 + 1) / (tf + norm);
+					}
+				}
+			}
+			return top(scores, touched, touchedCount, limit, exclude);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * matches(Clause) - returns the matches of a clause: one for a word or
+	 * phrase, one per expanded term for a prefix; the lock is held.
+	 *
+	 * @param c the clause
+	 * @return the matches, possibly none
+	 */
+	private List<Matches> matches(Clause c) {
+		List<Matches> result = new ArrayList<Matches>();
+		if (c.prefix) {
+			String p = c.tokens[0];
+			for (Postings postings : terms.subMap(p, p + Character.MAX_VALUE).values()) {
+				if (result.size() == MAX_EXPANSIONS)
+					break;
+				Matches m = decode(postings);
+				if (m.count > 0)
+					result.add(m);
+			}
+			return result;
+		}
+		Matches[] parts = new Matches[c.tokens.length];
+		for (int k = 0; k < parts.length; k++) {
+			Postings postings = terms.get(c.tokens[k]);
+			if (postings == null)
+				return result;
+			parts[k] = decode(postings);
+		}
+		Matches m = parts.length == 1 ? parts[0] : phrase(parts);
+		if (m.count > 0)
+			result.add(m);
+		return result;
+	}
+
+	/**
+	 * top(double[], int[], int, int, long) - returns the best scored documents,
+	 * keeping the current best in a min-heap.
+	 *
+	 * @param scores  the score of each document
+	 * @param touched the documents with a score
+	 * @param n       the number of touched documents
+	 * @param limit   the most hits to return
+	 * @param exclude a ticket id to leave out, or 0
+	 * @return the hits
+	 */
+	private List<Hit> top(double[] scores, int[] touched, int n, int limit, long exclude) {
+		int[] heap = new int[Math.min(limit, n)];
+		int size = 0;
+		for (int i = 0; i < n; i++) {
+			int doc = touched[i];
+			if (ids[doc] == exclude)
+				continue;
+			if (size < heap.length) {
+				heap[size] = doc;
+				for (int k = size++; k > 0 && worse(scores, heap[k], heap[(k - 1) / 2]); k = (k - 1) / 2)
+					swap(heap, k, (k - 1) / 2);
+			} else if (heap.length > 0 && worse(scores, heap[0], doc)) {
+				heap[0] = doc;
+				for (int k = 0;;) {
+					int w = k;
+					int l = 2 * k + 1;
+					if (l < size && worse(scores, heap[l], heap[w]))
+						w = l;
+					if (l + 1 < size && worse(scores, heap[l + 1], heap[w]))
+						w = l + 1;
+					if (w == k)
+						break;
+					swap(heap, k, w);
+					k = w;
+				}
+			}
+		}
+		Hit[] hits = new Hit[size];
+		for (int i = size - 1; i >= 0; i--) {
+			hits[i] = new Hit(ids[heap[0]], scores[heap[0]]);
+			heap[0] = heap[i];
+			for (int k = 0;;) {
+				int w = k;
+				int l = 2 * k + 1;
+				if (l < i && worse(scores, heap[l], heap[w]))
+					w = l;
+				if (l + 1 < i && worse(scores, heap[l + 1], heap[w]))
+					w = l + 1;
+				if (w == k)
+					break;
+				swap(heap, k, w);
+				k = w;
+			}
+		}
+		return Arrays.asList(hits);
+	}
+
+	/**
+	 * worse(double[], int, int) - returns true if document a ranks below b:
+	 * a lower score, or an equal score and a higher ticket id.
+	 *
+	 * @param scores the scores
+	 * @param a      a document
+	 * @param b      another document
+	 * @return true if a ranks below b
+	 */
+	private boolean worse(double[] scores, int a, int b) {
+		return scores[a] < scores[b] || scores[a] == scores[b] && ids[a] > ids[b];
+	}
+
+	/**
+	 * swap(int[], int, int) - swaps two elements.
+	 *
+	 * @param a the array
+	 * @param i an index
+	 * @param j another index
+	 */
+	private static void swap(int[] a, int i, int j) {
+		int t = a[i];
+		a[i] = a[j];
+		a[j] = t;
+	}
+
+	/**
+	 * compact - renumbers the live documents densely and rewrites every posting
+	 * list in document order with one entry per document, reclaiming the space
+	 * of removed tickets.
+	 */
+	public void compact() {
+		lock.writeLock().lock();
+		try {
+			compactLocked();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * compactLocked - compacts the index; the write lock is held.
+	 */
+	private void compactLocked() {
+		int[] renumber = new int[docCount];
+		int live = 0;
+		for (int d = 0; d < docCount; d++)
+			renumber[d] = ids[d] == 0 ? -1 : live++;
+		Map<String, Postings> rewritten = new HashMap<String, Postings>();
+		for (Map.Entry<String, Postings> e : terms.entrySet()) {
+			Matches m = decode(e.getValue());
+			if (m.count == 0)
+				continue;
+			Postings p = new Postings();
+			for (int i = 0; i < m.count; i++)
+				p.add(renumber[m.docs[i]], m.positions, m.start[i], m.tf(i));
+			p.data = Arrays.copyOf(p.data, p.size);
+			rewritten.put(e.getKey(), p);
+		}
+		terms.clear();
+		terms.putAll(rewritten);
+		int capacity = Math.max(1024, Integer.highestOneBit(Math.max(1, live)) * 2);
+		long[] newIds = new long[capacity];
+		int[] newNext = new int[capacity];
+		int[] newNotes = new int[capacity];
+		LongIntMap newDocOf = new LongIntMap(Math.max(1024, live));
+		for (int d = 0; d < docCount; d++) {
+			int to = renumber[d];
+			if (to < 0)
+				continue;
+			newIds[to] = ids[d];
+			newNext[to] = nextPosition[d];
+			newNotes[to] = notesIndexed[d];
+			newDocOf.put(ids[d], to);
+		}
+		ids = newIds;
+		nextPosition = newNext;
+		notesIndexed = newNotes;
+		docOf = newDocOf;
+		docCount = live;
+		removedCount = 0;
+	}
+
+	/**
+	 * size - returns the number of indexed tickets.
+	 *
+	 * @return the number of tickets.
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return liveCount;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * termCount - returns the number of distinct terms, including terms found
+	 * only in removed tickets until the next compaction.
+	 *
+	 * @return the number of terms.
+	 */
+	public int termCount() {
+		lock.readLock().lock();
+		try {
+			return terms.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+}
@@ -0,0 +1,538 @@
+/**
+ * CommandJournal.java
+ */
+package com.jmmarquardt.svcticket.model.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+import com.jmmarquardt.svcticket.model.command.Command;
+import com.jmmarquardt.svcticket.model.manager.CommandLog;
+import com.jmmarquardt.svcticket.model.manager.TicketManager;
+import com.jmmarquardt.svcticket.model.ticket.Ticket;
+
+/**
+ * CommandJournal
+ * <p>
+ * CommandJournal is an append-only, memory-mapped journal of every ticket
+ * created or removed and every Command applied through a
+ * {@code TicketManager}. It is a {@code CommandLog}: register it with
+ * {@code TicketManager.addCommandLog()} and each change is copied into the
+ * mapped segment file under a short lock.
+ * </p>
+ * <p>
+ * Appending does not sync the file. A background thread forces the mapped
+ * segment to disk every flush interval, so all records appended in one
+ * interval share a single sync (group commit). {@code sync()} forces the
+ * journal immediately for callers that need a record to be durable now.
+ * </p>
+ * <p>
+ * The journal is split into fixed-size segment files in one directory. Each
+ * record is framed by its length and a CRC32C of its body, and a zero length
+ * marks the end of the data in a segment. A body is a record type and a
+ * timestamp followed by a {@code TicketCodec} Ticket record, by a ticket id
+ * and a {@code TicketCodec} Command record, or by the id of a removed ticket.
+ * On startup, {@code replay()} reads every segment in order and rebuilds the
+ * tickets in a TicketManager; a torn record at the tail, left by a crash, ends
+ * the replay.
+ * </p>
+ *
+ * @author John-Michael Marquardt
+ */
+public class CommandJournal implements CommandLog, Closeable {
+	/** The default size of a segment file, 64 MB. */
+	public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+	/** The default interval between group commits, in milliseconds. */
+	public static final long DEFAULT_FLUSH_INTERVAL = 10;
+	/** File name suffix of segment files. */
+	private static final String SUFFIX = ".journal";
+	/** Record type of a created ticket. */
+	static final byte CREATE = 1;
+	/** Record type of an applied Command. */
+	static final byte COMMAND = 2;
+	/** Record type of a removed ticket. */
+	static final byte REMOVE = 3;
+	/** Bytes in a record frame: the body length and its checksum. */
+	static final int FRAME = 8;
+
+	/** The directory holding the segment files. */
+	private final Path dir;
+	/** The size of each segment file. */
+	private final int segmentSize;
+	/** Guards current, appended and crc. */
+	private final ReentrantLock lock = new ReentrantLock();
+	/** Serializes group commits. */
+	private final Object flushLock = new Object();
+	/** Computes record checksums; guarded by lock. */
+	private final CRC32C crc = new CRC32C();
+	/** The segment records are appended to; guarded by lock. */
+	private Segment current;
+	/** The number of records appended since the journal was opened. */
+	private long appended;
+	/** The number of appended records known to be on disk. */
+	private volatile long durable;
+	/** The thread performing group commits. */
+	private final Thread flusher;
+	/** Set once the journal is closed. */
+	private volatile boolean closed;
+
+	/**
+	 * Segment is one mapped segment file.
+	 */
+	private static final class Segment {
+		/** The segment's index, which orders the segments. */
+		final long index;
+		/** The open channel of the segment file. */
+		final FileChannel channel;
+		/** The mapping of the whole segment file. */
+		final MappedByteBuffer buffer;
+		/** A view of buffer used to checksum record bodies. */
+		final ByteBuffer view;
+
+		/**
+		 * Segment(long, FileChannel, MappedByteBuffer) - constructs a segment.
+		 *
+		 * @param index   the segment's index
+		 * @param channel the open channel
+		 * @param buffer  the mapping
+		 */
+		Segment(long index, FileChannel channel, MappedByteBuffer buffer) {
+			this.index = index;
+			this.channel = channel;
+			this.buffer = buffer;
+			this.view = buffer.duplicate();
+		}
+	}
+
+	/**
+	 * CommandJournal(Path, int, long) - used by {@code open()}.
+	 *
+	 * @param dir           the segment directory
+	 * @param segmentSize   the size of each segment file
+	 * @param flushInterval milliseconds between group commits
+	 * @throws IOException if the last segment cannot be opened
+	 */
+	private CommandJournal(Path dir, int segmentSize, long flushInterval) throws IOException {
+		this.dir = dir;
+		this.segmentSize = segmentSize;
+		List<Path> segments = segments(dir);
+		if (segments.isEmpty()) {
+			current = map(0);
+		} else {
+			Path last = segments.get(segments.size() - 1);
+			current = map(indexOf(last));
+			current.buffer.position(scan(current.buffer, null, null));
+		}
+		flusher = new Thread(() -> flushLoop(flushInterval), "command-journal-flusher");
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * open(Path) - opens the journal in the given directory with the default
+	 * segment size and flush interval, creating the directory if needed.
+	 *
+	 * @param dir the directory holding the segment files.
+	 * @return the opened journal, positioned after its last record.
+	 * @throws IOException if the directory or a segment cannot be opened.
+	 */
+	public static CommandJournal open(Path dir) throws IOException {
+		return open(dir, DEFAULT_SEGMENT_SIZE, DEFAULT_FLUSH_INTERVAL);
+	}
+
+	/**
+	 * open(Path, int, long) - opens the journal in the given directory, creating
+	 * the directory if needed.
+	 *
+	 * @param dir           the directory holding the segment files.
+	 * @param segmentSize   the size of each segment file in bytes.
+	 * @param flushInterval the milliseconds between group commits.
+	 * @return the opened journal, positioned after its last record.
+	 * @throws IOException              if the directory or a segment cannot be
+	 *                                  opened.
+	 * @throws IllegalArgumentException if dir is null, or segmentSize or
+	 *                                  flushInterval is not positive.
+	 */
+	public static CommandJournal open(Path dir, int segmentSize, long flushInterval) throws IOException {
+		if (dir == null)
+			throw new IllegalArgumentException("Parameter cannot be null.");
+		if (segmentSize <= FRAME * 2 || flushInterval <= 0)
+			throw new IllegalArgumentException("Invalid journal size or interval.");
+		Files.createDirectories(dir);
+		return new CommandJournal(dir, segmentSize, flushInterval);
+	}
+
+	/**
+	 * segments(Path) - returns the segment files in the directory, in order.
+	 *
+	 * @param dir the segment directory
+	 * @return the segment paths, sorted by index
+	 * @throws IOException if the directory cannot be read
+	 */
+	private static List<Path> segments(Path dir) throws IOException {
+		List<Path> paths = new ArrayList<Path>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+			for (Path p : stream)
+				paths.add(p);
+		}
+		Collections.sort(paths);
+		return paths;
+	}
+
+	/**
+	 * indexOf(Path) - returns the index in a segment file name.
+	 *
+	 * @param segment a segment path
+	 * @return its index
+	 */
+	private static long indexOf(Path segment) {
+		String name = segment.getFileName().toString();
+		return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+	}
+
+	/**
+	 * map(long) - opens and maps the segment file with the given index, creating
+	 * it if needed.
+	 *
+	 * @param index the segment index
+	 * @return the mapped segment
+	 * @throws IOException if the file cannot be opened or mapped
+	 */
+	private Segment map(long index) throws IOException {
+		Path path = dir.resolve(String.format("%016d%s", index, SUFFIX));
+		FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		return new Segment(index, ch, ch.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+	}
+
+	/**
+	 * ticketCreated(Ticket) - appends a record of a new Ticket.
+	 *
+	 * @param ticket the Ticket that was added.
+	 * @throws UncheckedIOException if a new segment cannot be created.
+	 */
+	@Override
+	public void ticketCreated(Ticket ticket) {
+		int length = 1 + 8 + TicketCodec.ticketSize(ticket);
+		lock.lock();
+		try {
+			ByteBuffer buf = reserve(length);
+			int start = buf.position();
+			buf.put(CREATE).putLong(System.currentTimeMillis());
+			TicketCodec.encodeTicket(ticket, buf);
+			commit(buf, start, length);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * commandApplied(long, Command) - appends a record of an applied Command.
+	 *
+	 * @param ticketId the id of the Ticket.
+	 * @param command  the Command that was applied.
+	 * @throws UncheckedIOException if a new segment cannot be created.
+	 */
+	@Override
+	public void commandApplied(long ticketId, Command command) {
+		lock.lock();
+		try {
+			appendCommand(ticketId, command);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * ticketRemoved(long) - appends a record of a removed Ticket.
+	 *
+	 * @param ticketId the id of the Ticket that was removed.
+	 * @throws UncheckedIOException if a new segment cannot be created.
+	 */
+	@Override
+	public void ticketRemoved(long ticketId) {
+		lock.lock();
+		try {
+			ByteBuffer buf = reserve(1 + 8 + 8);
+			int start = buf.position();
+			buf.put(REMOVE).putLong(System.currentTimeMillis()).putLong(ticketId);
+			commit(buf, start, 1 + 8 + 8);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * commandsApplied(long[], Command[], int[], int) - appends the records of a
+	 * group of applied Commands back to back under one acquisition of the
+	 * journal lock.
+	 *
+	 * @param ticketIds the ticket ids of the batch.
+	 * @param commands  the Commands of the batch.
+	 * @param indexes   the positions of the applied Commands in the batch.
+	 * @param count     the number of entries of indexes in use.
+	 * @throws UncheckedIOException if a new segment cannot be created.
+	 */
+	@Override
+	public void commandsApplied(long[] ticketIds, Command[] commands, int[] indexes, int count) {
+		lock.lock();
+		try {
+			for (int k = 0; k < count; k++)
+				appendCommand(ticketIds[indexes[k]], commands[indexes[k]]);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * appendCommand(long, Command) - appends a Command record while the journal
+	 * lock is held.
+	 *
+	 * @param ticketId the id of the Ticket
+	 * @param command  the Command
+	 */
+	private void appendCommand(long ticketId, Command command) {
+		int length = 1 + 8 + 8 + TicketCodec.commandSize(command);
+		ByteBuffer buf = reserve(length);
+		int start = buf.position();
+		buf.put(COMMAND).putLong(System.currentTimeMillis()).putLong(ticketId);
+		TicketCodec.encodeCommand(command, buf);
+		commit(buf, start, length);
+	}
+
+	/**
+	 * reserve(int) - returns the buffer to write a record body of the given
+	 * length to, positioned after the record's frame. Moves to a new segment if
+	 * the record does not fit in the current one.
+	 *
+	 * @param length the length of the record body
+	 * @return the buffer, positioned at the start of the body
+	 */
+	private ByteBuffer reserve(int length) {
+		if (closed)
+			throw new IllegalStateException("Journal is closed.");
+		if (FRAME + length + 4 > segmentSize)
+			throw new IllegalArgumentException("Record is larger than a journal segment.");
+		ByteBuffer buf = current.buffer;
+		if (buf.position() + FRAME + length + 4 > segmentSize) {
+			buf.putInt(buf.position(), 0);
+			Segment old = current;
+			try {
+				old.buffer.force();
+				current = map(old.index + 1);
+				old.channel.close();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			buf = current.buffer;
+		}
+		buf.position(buf.position() + FRAME);
+		return buf;
+	}
+
+	/**
+	 * commit(ByteBuffer, int, int) - writes the frame of the record whose body
+	 * was just written, followed by an end marker.
+	 *
+	 * @param buf    the segment buffer, positioned after the body
+	 * @param start  the position of the body
+	 * @param length the length of the body
+	 */
+	private void commit(ByteBuffer buf, int start, int length) {
+		ByteBuffer view = current.view;
+		view.limit(start + length).position(start);
+		crc.reset();
+		crc.update(view);
+		buf.putInt(start - FRAME, length);
+		buf.putInt(start - 4, (int) crc.getValue());
+		buf.putInt(buf.position(), 0);
+		appended++;
+	}
+
+	/**
+	 * replay(TicketManager) - reads every record in the journal, in order, and
+	 * rebuilds the tickets in the given manager. The ticket id allocator is moved
+	 * past the largest replayed id. Must be called before this journal is
+	 * registered with the manager, so that replayed changes are not journaled
+	 * again.
+	 *
+	 * @param manager the TicketManager to rebuild the tickets in.
+	 * @return the number of records replayed.
+	 * @throws IOException              if a segment cannot be read.
+	 * @throws IllegalArgumentException if manager is null.
+	 */
+	public long replay(TicketManager manager) throws IOException {
+		if (manager == null)
+			throw new IllegalArgumentException("Parameter cannot be null.");
+		long[] stats = new long[2];
+		for (Path p : segments(dir)) {
+			try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+				scan(ch.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(ch.size(), segmentSize)), manager, stats);
+			}
+		}
+		if (stats[1] > 0)
+			Ticket.getIdAllocator().reserve(stats[1]);
+		return stats[0];
+	}
+
+	/**
+	 * scan(ByteBuffer, TicketManager, long[]) - walks the valid records of a
+	 * segment and returns the position after the last one. If manager is not
+	 * null, each record is applied to it, and stats receives the record count
+	 * and the largest ticket id seen.
+	 *
+	 * @param seg     the segment's buffer
+	 * @param manager the manager to apply records to, or null
+	 * @param stats   the record count and largest id, or null
+	 * @return the position after the last valid record
+	 */
+	private static int scan(ByteBuffer seg, TicketManager manager, long[] stats) {
+		ByteBuffer buf = seg.duplicate();
+		CRC32C check = new CRC32C();
+		int pos = 0;
+		while (pos + FRAME <= buf.limit()) {
+			int length = buf.getInt(pos);
+			if (length <= 0 || pos + FRAME + length > buf.limit())
+				break;
+			buf.limit(pos + FRAME + length).position(pos + FRAME);
+			check.reset();
+			check.update(buf);
+			buf.limit(buf.capacity());
+			if ((int) check.getValue() != buf.getInt(pos + 4))
+				break;
+			if (manager != null) {
+				buf.position(pos + FRAME);
+				stats[1] = Math.max(stats[1], apply(buf, manager));
+				stats[0]++;
+			}
+			pos += FRAME + length;
+		}
+		return pos;
+	}
+
+	/**
+	 * apply(ByteBuffer, TicketManager) - decodes one record body and applies it
+	 * to the manager.
+	 *
+	 * @param buf     the buffer, positioned at the record body
+	 * @param manager the manager to apply the record to
+	 * @return the id of the record's ticket
+	 */
+	private static long apply(ByteBuffer buf, TicketManager manager) {
+		byte type = buf.get();
+		buf.getLong(); // timestamp
+		if (type == CREATE) {
+			Ticket ticket = TicketCodec.decodeTicket(buf);
+			manager.addTicket(ticket);
+			return ticket.getTicketId();
+		}
+		long id = buf.getLong();
+		if (type == REMOVE)
+			manager.removeTicket(id);
+		else
+			manager.applyCommand(id, TicketCodec.decodeCommand(buf));
+		return id;
+	}
+
+	/**
+	 * flushLoop(long) - performs a group commit every interval until the journal
+	 * is closed.
+	 *
+	 * @param interval milliseconds between group commits
+	 */
+	private void flushLoop(long interval) {
+		while (!closed) {
+			try {
+				Thread.sleep(interval);
+			} catch (InterruptedException e) {
+				return;
+			}
+			sync();
+		}
+	}
+
+	/**
+	 * sync - forces every record appended so far to disk.
+	 */
+	public void sync() {
+		synchronized (flushLock) {
+			Segment seg;
+			long seq;
+			lock.lock();
+			try {
+				seg = current;
+				seq = appended;
+			} finally {
+				lock.unlock();
+			}
+			if (seq > durable) {
+				seg.buffer.force();
+				durable = seq;
+			}
+		}
+	}
+
+	/**
+	 * getAppendedCount - returns the number of records appended since the journal
+	 * was opened.
+	 *
+	 * @return the number of records appended.
+	 */
+	public long getAppendedCount() {
+		lock.lock();
+		try {
+			return appended;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * getDurableCount - returns the number of appended records known to be on
+	 * disk.
+	 *
+	 * @return the number of durable records.
+	 */
+	public long getDurableCount() {
+		return durable;
+	}
+
+	/**
+	 * close - stops the group commit thread, forces the journal to disk and
+	 * closes the current segment.
+	 *
+	 * @throws IOException if the segment cannot be closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		flusher.interrupt();
+		try {
+			flusher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		sync();
+		lock.lock();
+		try {
+			current.channel.close();
+		} finally {
+			lock.unlock();
+		}
+	}
+}
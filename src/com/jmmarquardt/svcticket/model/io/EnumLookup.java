@@ -0,0 +1,153 @@
+/**
+ * EnumLookup.java
+ */
+package com.jmmarquardt.svcticket.model.io;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * EnumLookup maps the display Strings of an enumeration (e.g. "Incident",
+ * "Awaiting Caller") and the names of its constants to their ordinals. Keys
+ * are looked up directly from a run of ASCII bytes, ignoring case, through a
+ * small open-addressing table, so parsers can resolve a field without
+ * creating a String or trying each constant with {@code equals()}.
+ *
+ * A table is immutable once built and safe to share between threads.
+ *
+ * @author John-Michael Marquardt
+ */
+final class EnumLookup {
+	/** Returned by get() for an unknown key. */
+	static final int MISSING = -1;
+
+	/** The lower-cased key bytes, null for an empty slot. */
+	private final byte[][] keys;
+	/** The ordinals, parallel to keys. */
+	private final int[] values;
+	/** The table capacity minus one. */
+	private final int mask;
+
+	/**
+	 * EnumLookup(String[], Enum[]) - builds a table mapping names[i] and the name
+	 * of constants[i] to the ordinal of constants[i].
+	 *
+	 * @param names     the display Strings, parallel to constants
+	 * @param constants the enum constants
+	 */
+	EnumLookup(String[] names, Enum<?>[] constants) {
+		this(names.length * 2);
+		for (int i = 0; i < names.length; i++) {
+			put(names[i], constants[i].ordinal());
+			put(constants[i].name(), constants[i].ordinal());
+		}
+	}
+
+	/**
+	 * EnumLookup(String[], int[]) - builds a table mapping names[i] to
+	 * values[i].
+	 *
+	 * @param names  the keys, parallel to values
+	 * @param values the values, which must not be negative
+	 */
+	EnumLookup(String[] names, int[] values) {
+		this(names.length);
+		for (int i = 0; i < names.length; i++)
+			put(names[i], values[i]);
+	}
+
+	/**
+	 * EnumLookup(int) - constructs an empty table with room for the given number
+	 * of keys.
+	 *
+	 * @param expected the number of keys
+	 */
+	private EnumLookup(int expected) {
+		int capacity = 16;
+		while (capacity < expected * 4)
+			capacity <<= 1;
+		keys = new byte[capacity][];
+		values = new int[capacity];
+		mask = capacity - 1;
+	}
+
+	/**
+	 * put(String, int) - adds a key.
+	 *
+	 * @param name    the key
+	 * @param ordinal its value
+	 */
+	private void put(String name, int ordinal) {
+		byte[] key = name.getBytes(StandardCharsets.US_ASCII);
+		for (int i = 0; i < key.length; i++)
+			key[i] = lower(key[i]);
+		if (get(key, 0, key.length) != MISSING)
+			return;
+		int i = hash(key, 0, key.length) & mask;
+		while (keys[i] != null)
+			i = (i + 1) & mask;
+		keys[i] = key;
+		values[i] = ordinal;
+	}
+
+	/**
+	 * get(byte[], int, int) - returns the ordinal of the key in b[from, to).
+	 *
+	 * @param b    the bytes
+	 * @param from the first byte of the key
+	 * @param to   the byte after the key
+	 * @return the ordinal, or MISSING if the bytes are not a key
+	 */
+	int get(byte[] b, int from, int to) {
+		for (int i = hash(b, from, to) & mask;; i = (i + 1) & mask) {
+			byte[] key = keys[i];
+			if (key == null)
+				return MISSING;
+			if (matches(key, b, from, to))
+				return values[i];
+		}
+	}
+
+	/**
+	 * matches(byte[], byte[], int, int) - compares a key with b[from, to),
+	 * ignoring ASCII case.
+	 *
+	 * @param key  the lower-cased key
+	 * @param b    the bytes
+	 * @param from the first byte
+	 * @param to   the byte after the last
+	 * @return true if they are equal
+	 */
+	private static boolean matches(byte[] key, byte[] b, int from, int to) {
+		if (key.length != to - from)
+			return false;
+		for (int i = 0; i < key.length; i++)
+			if (key[i] != lower(b[from + i]))
+				return false;
+		return true;
+	}
+
+	/**
+	 * hash(byte[], int, int) - returns the case-insensitive hash of b[from, to).
+	 *
+	 * @param b    the bytes
+	 * @param from the first byte
+	 * @param to   the byte after the last
+	 * @return the hash
+	 */
+	private static int hash(byte[] b, int from, int to) {
+		int h = 0;
+		for (int i = from; i < to; i++)
+			h = h * 31 + lower(b[i]);
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * lower(byte) - returns the lower case of an ASCII letter, or the byte.
+	 *
+	 * @param b a byte
+	 * @return the byte in lower case
+	 */
+	private static byte lower(byte b) {
+		return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+	}
+}
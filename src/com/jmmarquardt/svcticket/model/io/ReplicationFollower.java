@@ -0,0 +1,402 @@
+/**
+ * ReplicationFollower.java
+ */
+package com.jmmarquardt.svcticket.model.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.jmmarquardt.svcticket.model.manager.LongIntMap;
+import com.jmmarquardt.svcticket.model.manager.TicketManager;
+import com.jmmarquardt.svcticket.model.metrics.DashboardCube;
+import com.jmmarquardt.svcticket.model.ticket.Ticket;
+
+/**
+ * ReplicationFollower
+ * <p>
+ * ReplicationFollower keeps a {@code TicketManager} in step with a
+ * {@code ReplicationLeader} on another node. It connects to the leader,
+ * restores the ticket images the leader sends, then applies the leader's log
+ * of created tickets and applied Commands in order on a background thread,
+ * acknowledging the log offset it has applied after every batch.
+ * </p>
+ *
+ * The follower's manager serves read-only queries: listeners such as indexes
+ * can be registered on it before connecting, but tickets must not be added to
+ * it or changed through it while the follower is connected. If the leader
+ * fails, the follower is closed and its manager, now complete up to the last
+ * applied offset, can be replicated by a new leader. Closing the follower
+ * moves the ticket id allocator past every replicated id so that tickets
+ * created after a failover do not reuse them. If the connection is lost for
+ * any reason other than {@code close()}, {@code getFailure()} returns the
+ * cause, such as a malformed message or a record that could not be applied.
+ *
+ * @author John-Michael Marquardt
+ */
+public class ReplicationFollower implements Closeable {
+	/** The manager the leader's changes are applied to. */
+	private final TicketManager manager;
+	/** The socket connected to the leader. */
+	private final Socket socket;
+	/** The thread applying the leader's messages. */
+	private final Thread reader;
+	/** Released once the ticket images have been restored. */
+	private final CountDownLatch ready = new CountDownLatch(1);
+	/** The log offset at which the leader started sending the log. */
+	private long start;
+	/**
+	 * For each ticket whose image reflects log records, the offset after the
+	 * last of them relative to start; null once no record can be skipped.
+	 */
+	private LongIntMap skip;
+	/** The largest value in skip. */
+	private int skipEnd;
+	/** The log offset after the last record applied. */
+	private volatile long applied;
+	/** The largest ticket id replicated. */
+	private long maxId;
+	/** Set once the connection to the leader is lost or closed. */
+	private volatile boolean disconnected;
+	/** Set when close() is called. */
+	private volatile boolean closing;
+	/** Why the connection was lost, or null. */
+	private volatile Exception failure;
+
+	/**
+	 * ReplicationFollower(TicketManager, Socket) - used by {@code connect()}.
+	 *
+	 * @param manager the manager to apply changes to
+	 * @param socket  the connected socket
+	 */
+	private ReplicationFollower(TicketManager manager, Socket socket) {
+		this.manager = manager;
+		this.socket = socket;
+		reader = new Thread(this::readLoop, "replication-follower");
+		reader.setDaemon(true);
+	}
+
+	/**
+	 * connect(String, int) - connects a follower with a new TicketManager to the
+	 * leader at the given host and port.
+	 *
+	 * @param host the leader's host.
+	 * @param port the leader's port.
+	 * @return the connected follower.
+	 * @throws IOException if the leader cannot be reached.
+	 */
+	public static ReplicationFollower connect(String host, int port) throws IOException {
+		return connect(host, port, new TicketManager());
+	}
+
+	/**
+	 * connect(String, int, TicketManager) - connects a follower to the leader at
+	 * the given host and port, applying its changes to the given empty manager.
+	 *
+	 * @param host    the leader's host.
+	 * @param port    the leader's port.
+	 * @param manager an empty TicketManager.
+	 * @return the connected follower.
+	 * @throws IOException              if the leader cannot be reached.
+	 * @throws IllegalArgumentException if host or manager is null, or manager
+	 *                                  is not empty.
+	 */
+	public static ReplicationFollower connect(String host, int port, TicketManager manager) throws IOException {
+		if (host == null || manager == null)
+			throw new IllegalArgumentException("Parameter cannot be null.");
+		if (manager.size() != 0)
+			throw new IllegalArgumentException("Follower manager must be empty.");
+		Socket socket = new Socket(host, port);
+		socket.setTcpNoDelay(true);
+		ReplicationFollower follower = new ReplicationFollower(manager, socket);
+		follower.reader.start();
+		return follower;
+	}
+
+	/**
+	 * getManager - returns the manager the leader's changes are applied to. It
+	 * must only be read while the follower is connected.
+	 *
+	 * @return the TicketManager.
+	 */
+	public TicketManager getManager() {
+		return manager;
+	}
+
+	/**
+	 * getAppliedOffset - returns the leader's log offset after the last record
+	 * applied.
+	 *
+	 * @return the applied offset.
+	 */
+	public long getAppliedOffset() {
+		return applied;
+	}
+
+	/**
+	 * isConnected - returns true while the follower is receiving the leader's
+	 * log.
+	 *
+	 * @return true if connected.
+	 */
+	public boolean isConnected() {
+		return !disconnected;
+	}
+
+	/**
+	 * getFailure - returns why the connection to the leader was lost, unless it
+	 * was closed by {@code close()}.
+	 *
+	 * @return the cause, or null if the follower is connected or was closed.
+	 */
+	public Exception getFailure() {
+		return failure;
+	}
+
+	/**
+	 * awaitReady(long) - waits until the ticket images sent by the leader have
+	 * been restored.
+	 *
+	 * @param timeoutMillis the longest time to wait, in milliseconds.
+	 * @return true if the images were restored, false on timeout.
+	 * @throws InterruptedException if the thread is interrupted while waiting.
+	 */
+	public boolean awaitReady(long timeoutMillis) throws InterruptedException {
+		return ready.await(timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * readLoop - applies the leader's messages until the connection is lost.
+	 */
+	private void readLoop() {
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			byte[] message = new byte[1024];
+			ByteBuffer pending = ByteBuffer.allocate(1024);
+			while (true) {
+				int kind = in.read();
+				if (kind < 0)
+					throw new EOFException();
+				int length = in.readInt();
+				if (length < 0 || length > ReplicationLeader.MAX_MESSAGE)
+					throw new IOException("Invalid replication message length " + length + ".");
+				if (message.length < length)
+					message = new byte[Math.max(length, message.length * 2)];
+				in.readFully(message, 0, length);
+				ByteBuffer buf = ByteBuffer.wrap(message, 0, length);
+				switch (kind) {
+				case ReplicationLeader.HELLO:
+					start = buf.getLong();
+					applied = start;
+					break;
+				case ReplicationLeader.TICKET:
+					restore(buf);
+					break;
+				case ReplicationLeader.READY:
+					ready.countDown();
+					acknowledge(out);
+					break;
+				case ReplicationLeader.LOG:
+					if (buf.getLong() != applied + pending.position())
+						throw new IOException("Replication log out of order.");
+					if (pending.remaining() < buf.remaining())
+						pending = grow(pending, buf.remaining());
+					pending.put(buf);
+					applyRecords(pending);
+					acknowledge(out);
+					break;
+				default:
+					throw new IOException("Unknown replication message " + kind + ".");
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			// the leader went away, sent a bad message, or the follower was closed
+			if (!closing)
+				failure = e;
+		} finally {
+			disconnected = true;
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// already closed
+			}
+		}
+	}
+
+	/**
+	 * restore(ByteBuffer) - adds the ticket of a TICKET message and notes the
+	 * log offset its image reflects.
+	 *
+	 * @param buf the message payload
+	 */
+	private void restore(ByteBuffer buf) {
+		long at = buf.getLong();
+		Ticket ticket = TicketCodec.decodeTicket(buf);
+		manager.addTicket(ticket);
+		maxId = Math.max(maxId, ticket.getTicketId());
+		if (at > start) {
+			if (skip == null)
+				skip = new LongIntMap(1024);
+			skip.put(ticket.getTicketId(), (int) (at - start));
+			skipEnd = Math.max(skipEnd, (int) (at - start));
+		}
+	}
+
+	/**
+	 * applyRecords(ByteBuffer) - applies every complete log record in the
+	 * buffer and keeps the incomplete tail for the next batch.
+	 *
+	 * @param pending the buffer, in write mode
+	 * @throws IOException if a record length is invalid
+	 */
+	private void applyRecords(ByteBuffer pending) throws IOException {
+		pending.flip();
+		while (pending.remaining() >= 4) {
+			int length = pending.getInt(pending.position());
+			if (length <= 0 || length > ReplicationLeader.MAX_MESSAGE)
+				throw new IOException("Invalid replication record length " + length + ".");
+			if (pending.remaining() < 4 + length)
+				break;
+			int next = pending.position() + 4 + length;
+			pending.position(pending.position() + 4);
+			applyRecord(pending, applied);
+			pending.position(next);
+			applied += 4 + length;
+		}
+		pending.compact();
+		if (skip != null && applied - start >= skipEnd)
+			skip = null;
+	}
+
+	/**
+	 * applyRecord(ByteBuffer, long) - decodes one log record body and applies
+	 * it to the manager, unless the ticket's image already reflects it.
+	 *
+	 * @param buf    the buffer, positioned at the record body
+	 * @param offset the log offset of the record
+	 * @throws IOException if the record type is unknown
+	 */
+	private void applyRecord(ByteBuffer buf, long offset) throws IOException {
+		byte type = buf.get();
+		if (type == CommandJournal.CREATE) {
+			Ticket ticket = TicketCodec.decodeTicket(buf);
+			if (!skipped(ticket.getTicketId(), offset)) {
+				manager.addTicket(ticket);
+				maxId = Math.max(maxId, ticket.getTicketId());
+			}
+		} else if (type == CommandJournal.COMMAND) {
+			long id = buf.getLong();
+			if (!skipped(id, offset))
+				manager.applyCommand(id, TicketCodec.decodeCommand(buf));
+		} else if (type == CommandJournal.REMOVE) {
+			long id = buf.getLong();
+			if (!skipped(id, offset))
+				manager.removeTicket(id);
+		} else {
+			throw new IOException("Unknown replication record type " + type + ".");
+		}
+	}
+
+	/**
+	 * skipped(long, long) - returns true if the image of the ticket already
+	 * reflects the record at the given offset.
+	 *
+	 * @param id     the ticket id
+	 * @param offset the log offset of the record
+	 * @return true if the record must be skipped
+	 */
+	private boolean skipped(long id, long offset) {
+		if (skip == null)
+			return false;
+		int reflected = skip.get(id);
+		return reflected != LongIntMap.MISSING && offset - start < reflected;
+	}
+
+	/**
+	 * grow(ByteBuffer, int) - returns a larger copy of a buffer in write mode
+	 * with at least the given number of bytes remaining.
+	 *
+	 * @param buf  the buffer
+	 * @param more the bytes needed
+	 * @return the new buffer
+	 */
+	private static ByteBuffer grow(ByteBuffer buf, int more) {
+		int capacity = Math.max(buf.position() + more, buf.capacity() * 2);
+		return ByteBuffer.wrap(Arrays.copyOf(buf.array(), capacity)).position(buf.position());
+	}
+
+	/**
+	 * acknowledge(DataOutputStream) - tells the leader the offset applied.
+	 *
+	 * @param out the leader's output stream
+	 * @throws IOException if the leader cannot be reached
+	 */
+	private void acknowledge(DataOutputStream out) throws IOException {
+		out.writeLong(applied);
+		out.flush();
+	}
+
+	/**
+	 * close - disconnects from the leader, waits for the last batch to be
+	 * applied and moves the ticket id allocator past every replicated id.
+	 *
+	 * @throws IOException if the socket cannot be closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		closing = true;
+		socket.close();
+		try {
+			reader.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (maxId > 0)
+			Ticket.getIdAllocator().reserve(maxId);
+	}
+
+	/**
+	 * main(String[]) - follows the leader at the given host and port and prints
+	 * the applied offset, the number of tickets and the number in each state
+	 * whenever they change.
+	 *
+	 * @param args the leader's host and port
+	 * @throws IOException          if the leader cannot be reached
+	 * @throws InterruptedException if interrupted
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 2) {
+			System.err.println("usage: ReplicationFollower host port");
+			return;
+		}
+		TicketManager manager = new TicketManager();
+		DashboardCube cube = new DashboardCube();
+		cube.load(manager);
+		ReplicationFollower follower = connect(args[0], Integer.parseInt(args[1]), manager);
+		String last = null;
+		while (follower.isConnected()) {
+			StringBuilder sb = new StringBuilder();
+			sb.append(follower.getAppliedOffset()).append(' ').append(manager.size());
+			for (long count : cube.getStateCounts())
+				sb.append(' ').append(count);
+			String status = sb.toString();
+			if (!status.equals(last))
+				System.out.println(status);
+			last = status;
+			Thread.sleep(50);
+		}
+		if (follower.getFailure() != null)
+			System.err.println("replication failed: " + follower.getFailure());
+		follower.close();
+	}
+}
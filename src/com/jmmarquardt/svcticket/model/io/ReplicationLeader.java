@@ -0,0 +1,629 @@
+/**
+ * ReplicationLeader.java
+ */
+package com.jmmarquardt.svcticket.model.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.jmmarquardt.svcticket.model.command.Command;
+import com.jmmarquardt.svcticket.model.manager.CommandLog;
+import com.jmmarquardt.svcticket.model.manager.TicketManager;
+import com.jmmarquardt.svcticket.model.ticket.BlockIdAllocator;
+import com.jmmarquardt.svcticket.model.ticket.Ticket;
+
+/**
+ * ReplicationLeader
+ * <p>
+ * ReplicationLeader streams the changes made through a {@code TicketManager}
+ * to {@code ReplicationFollower}s over TCP. It is a {@code CommandLog}: every
+ * ticket created or removed and every Command applied is appended to an
+ * in-memory log in the {@code CommandJournal} record format, and one sender
+ * thread per follower writes everything appended since its last write in a
+ * single batch. Followers acknowledge the log offset they have applied after every
+ * batch, and the log is trimmed behind the slowest follower.
+ * </p>
+ * <p>
+ * A follower that connects is first sent an image of every ticket, each
+ * tagged with the log offset it reflects, and then the log from the offset at
+ * which it connected; it skips the records its images already reflect, so
+ * the leader never stops applying Commands to bring a follower up. A follower
+ * that falls more than the maximum backlog behind is disconnected.
+ * </p>
+ *
+ * The messages sent to a follower are a kind byte and a payload length
+ * followed by the payload, of at most {@code MAX_MESSAGE} bytes: HELLO (the
+ * starting log offset), TICKET (an offset and a {@code TicketCodec} Ticket
+ * record), READY (empty) and LOG (the log offset of the first byte, then raw
+ * log bytes). A log record is its body length followed by a
+ * {@code CommandJournal} record type and the {@code TicketCodec} record or
+ * ticket id, without the timestamp. A follower answers with
+ * the offset it has applied, as a big-endian long.
+ *
+ * @author John-Michael Marquardt
+ */
+public class ReplicationLeader implements CommandLog, Closeable {
+	/** The default number of log bytes kept for a slow follower, 64 MB. */
+	public static final int DEFAULT_MAX_BACKLOG = 64 << 20;
+	/** Message kind of the starting log offset. */
+	static final byte HELLO = 1;
+	/** Message kind of a ticket image. */
+	static final byte TICKET = 2;
+	/** Message kind ending the ticket images. */
+	static final byte READY = 3;
+	/** Message kind of a batch of log bytes. */
+	static final byte LOG = 4;
+	/** The largest payload of a message, 64 MB. */
+	static final int MAX_MESSAGE = 64 << 20;
+	/** The largest number of log bytes sent in one LOG message. */
+	private static final int MAX_BATCH = 256 << 10;
+	/** The initial size of the log buffer. */
+	private static final int INITIAL_LOG = 64 << 10;
+
+	/** The manager whose changes are replicated. */
+	private final TicketManager manager;
+	/** The socket followers connect to. */
+	private final ServerSocket server;
+	/** The largest number of log bytes kept behind the slowest follower. */
+	private final int maxBacklog;
+	/** Guards the log and followers. */
+	private final ReentrantLock lock = new ReentrantLock();
+	/** Signalled when records are appended or a follower is dropped. */
+	private final Condition appended = lock.newCondition();
+	/** Signalled when a follower acknowledges or is dropped. */
+	private final Condition acknowledged = lock.newCondition();
+	/** The log bytes from offset base; guarded by lock. */
+	private byte[] log = new byte[INITIAL_LOG];
+	/** A buffer over log used to encode records; guarded by lock. */
+	private ByteBuffer view = ByteBuffer.wrap(log);
+	/** The log offset of log[0]; guarded by lock. */
+	private long base;
+	/** The number of bytes in log; guarded by lock. */
+	private int size;
+	/** The log offset after the last record, base + size. */
+	private volatile long end;
+	/** The connected followers; guarded by lock. */
+	private final List<Follower> followers = new ArrayList<Follower>();
+	/** The number of connected followers, read without the lock. */
+	private volatile int followerCount;
+	/** The thread accepting followers. */
+	private final Thread acceptor;
+	/** Set once the leader is closed. */
+	private volatile boolean closed;
+
+	/**
+	 * Follower is the leader's side of one connected follower.
+	 */
+	private static final class Follower {
+		/** The follower's socket. */
+		final Socket socket;
+		/** The log offset up to which records have been sent. */
+		long sent;
+		/** The log offset the follower has acknowledged; guarded by lock. */
+		long acked;
+		/** Set once the follower is disconnected. */
+		volatile boolean dropped;
+
+		/**
+		 * Follower(Socket) - constructs a follower.
+		 *
+		 * @param socket the follower's socket
+		 */
+		Follower(Socket socket) {
+			this.socket = socket;
+		}
+	}
+
+	/**
+	 * ReplicationLeader(TicketManager, ServerSocket, int) - used by
+	 * {@code start()}.
+	 *
+	 * @param manager    the replicated manager
+	 * @param server     the bound server socket
+	 * @param maxBacklog the largest backlog kept for a follower
+	 */
+	private ReplicationLeader(TicketManager manager, ServerSocket server, int maxBacklog) {
+		this.manager = manager;
+		this.server = server;
+		this.maxBacklog = maxBacklog;
+		acceptor = new Thread(this::acceptLoop, "replication-leader");
+		acceptor.setDaemon(true);
+	}
+
+	/**
+	 * start(TicketManager, int) - starts replicating the manager to followers
+	 * that connect to the given port on the loopback address, with the default
+	 * maximum backlog.
+	 *
+	 * @param manager the TicketManager to replicate.
+	 * @param port    the port to listen on, or 0 for any free port.
+	 * @return the started leader, registered with the manager.
+	 * @throws IOException              if the port cannot be bound.
+	 * @throws IllegalArgumentException if manager is null.
+	 */
+	public static ReplicationLeader start(TicketManager manager, int port) throws IOException {
+		return start(manager, new InetSocketAddress(InetAddress.getLoopbackAddress(), port), DEFAULT_MAX_BACKLOG);
+	}
+
+	/**
+	 * start(TicketManager, InetSocketAddress, int) - starts replicating the
+	 * manager to followers that connect to the given address.
+	 *
+	 * @param manager    the TicketManager to replicate.
+	 * @param address    the address to listen on.
+	 * @param maxBacklog the largest number of log bytes kept for a follower
+	 *                   before it is disconnected.
+	 * @return the started leader, registered with the manager.
+	 * @throws IOException              if the address cannot be bound.
+	 * @throws IllegalArgumentException if manager or address is null, or
+	 *                                  maxBacklog is not positive.
+	 */
+	public static ReplicationLeader start(TicketManager manager, InetSocketAddress address, int maxBacklog)
+			throws IOException {
+		if (manager == null || address == null)
+			throw new IllegalArgumentException("Parameter cannot be null.");
+		if (maxBacklog <= 0)
+			throw new IllegalArgumentException("Invalid backlog size.");
+		ServerSocket server = new ServerSocket();
+		server.bind(address);
+		ReplicationLeader leader = new ReplicationLeader(manager, server, maxBacklog);
+		manager.addCommandLog(leader);
+		leader.acceptor.start();
+		return leader;
+	}
+
+	/**
+	 * getPort - returns the port followers connect to.
+	 *
+	 * @return the port.
+	 */
+	public int getPort() {
+		return server.getLocalPort();
+	}
+
+	/**
+	 * getEndOffset - returns the log offset after the last record appended.
+	 *
+	 * @return the end offset.
+	 */
+	public long getEndOffset() {
+		return end;
+	}
+
+	/**
+	 * getFollowerCount - returns the number of connected followers.
+	 *
+	 * @return the number of followers.
+	 */
+	public int getFollowerCount() {
+		return followerCount;
+	}
+
+	/**
+	 * ticketCreated(Ticket) - appends a record of a new Ticket.
+	 *
+	 * @param ticket the Ticket that was added.
+	 */
+	@Override
+	public void ticketCreated(Ticket ticket) {
+		if (followerCount == 0)
+			return;
+		int length = 1 + TicketCodec.ticketSize(ticket);
+		lock.lock();
+		try {
+			ByteBuffer buf = reserve(length);
+			buf.put(CommandJournal.CREATE);
+			TicketCodec.encodeTicket(ticket, buf);
+			commit(length);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * ticketRemoved(long) - appends a record of a removed Ticket.
+	 *
+	 * @param ticketId the id of the Ticket that was removed.
+	 */
+	@Override
+	public void ticketRemoved(long ticketId) {
+		if (followerCount == 0)
+			return;
+		lock.lock();
+		try {
+			ByteBuffer buf = reserve(1 + 8);
+			buf.put(CommandJournal.REMOVE).putLong(ticketId);
+			commit(1 + 8);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * commandApplied(long, Command) - appends a record of an applied Command.
+	 *
+	 * @param ticketId the id of the Ticket.
+	 * @param command  the Command that was applied.
+	 */
+	@Override
+	public void commandApplied(long ticketId, Command command) {
+		if (followerCount == 0)
+			return;
+		lock.lock();
+		try {
+			appendCommand(ticketId, command);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * commandsApplied(long[], Command[], int[], int) - appends the records of a
+	 * group of applied Commands under one acquisition of the log lock.
+	 *
+	 * @param ticketIds the ticket ids of the batch.
+	 * @param commands  the Commands of the batch.
+	 * @param indexes   the positions of the applied Commands in the batch.
+	 * @param count     the number of entries of indexes in use.
+	 */
+	@Override
+	public void commandsApplied(long[] ticketIds, Command[] commands, int[] indexes, int count) {
+		if (followerCount == 0)
+			return;
+		lock.lock();
+		try {
+			for (int k = 0; k < count; k++)
+				appendCommand(ticketIds[indexes[k]], commands[indexes[k]]);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * appendCommand(long, Command) - appends a Command record while the lock is
+	 * held.
+	 *
+	 * @param ticketId the id of the Ticket
+	 * @param command  the Command
+	 */
+	private void appendCommand(long ticketId, Command command) {
+		int length = 1 + 8 + TicketCodec.commandSize(command);
+		ByteBuffer buf = reserve(length);
+		buf.put(CommandJournal.COMMAND).putLong(ticketId);
+		TicketCodec.encodeCommand(command, buf);
+		commit(length);
+	}
+
+	/**
+	 * reserve(int) - returns the log buffer positioned to write a record body of
+	 * the given length after its length prefix. Trims the log behind the
+	 * slowest follower, grows it, or drops followers that are too far behind to
+	 * make room.
+	 *
+	 * @param length the length of the record body
+	 * @return the buffer, positioned at the start of the body
+	 */
+	private ByteBuffer reserve(int length) {
+		int need = 4 + length;
+		while (size + need > log.length) {
+			trim();
+			if (size + need <= log.length)
+				break;
+			if (size + need <= maxBacklog || followers.isEmpty()) {
+				int capacity = Math.max(size + need, (int) Math.min(maxBacklog, 2L * log.length));
+				log = Arrays.copyOf(log, capacity);
+				view = ByteBuffer.wrap(log);
+				break;
+			}
+			Follower slowest = followers.get(0);
+			for (Follower f : followers)
+				if (f.acked < slowest.acked)
+					slowest = f;
+			drop(slowest);
+		}
+		view.clear().position(size);
+		return view.putInt(length);
+	}
+
+	/**
+	 * commit(int) - makes the record body just written visible to the senders.
+	 *
+	 * @param length the length of the record body
+	 */
+	private void commit(int length) {
+		size += 4 + length;
+		end = base + size;
+		appended.signalAll();
+	}
+
+	/**
+	 * trim - discards the log bytes every connected follower has acknowledged.
+	 */
+	private void trim() {
+		long keep = end;
+		for (Follower f : followers)
+			keep = Math.min(keep, f.acked);
+		int drop = (int) (keep - base);
+		if (drop > 0) {
+			System.arraycopy(log, drop, log, 0, size - drop);
+			size -= drop;
+			base = keep;
+		}
+	}
+
+	/**
+	 * acceptLoop - accepts followers until the leader is closed.
+	 */
+	private void acceptLoop() {
+		while (!closed) {
+			Socket socket;
+			try {
+				socket = server.accept();
+				socket.setTcpNoDelay(true);
+			} catch (IOException e) {
+				continue;
+			}
+			Follower f = new Follower(socket);
+			Thread sender = new Thread(() -> send(f), "replication-sender");
+			sender.setDaemon(true);
+			sender.start();
+		}
+	}
+
+	/**
+	 * send(Follower) - brings a follower up to date with ticket images, then
+	 * sends it the log as it grows until it is dropped.
+	 *
+	 * @param f the follower
+	 */
+	private void send(Follower f) {
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(f.socket.getOutputStream()));
+			bootstrap(f, out);
+			Thread acker = new Thread(() -> receiveAcks(f), "replication-acks");
+			acker.setDaemon(true);
+			acker.start();
+			byte[] batch = new byte[MAX_BATCH];
+			while (true) {
+				long offset;
+				int n;
+				lock.lock();
+				try {
+					while (end <= f.sent && !f.dropped)
+						appended.await();
+					if (f.dropped)
+						return;
+					offset = f.sent;
+					n = (int) Math.min(end - offset, batch.length);
+					System.arraycopy(log, (int) (offset - base), batch, 0, n);
+				} finally {
+					lock.unlock();
+				}
+				out.writeByte(LOG);
+				out.writeInt(8 + n);
+				out.writeLong(offset);
+				out.write(batch, 0, n);
+				out.flush();
+				f.sent = offset + n;
+			}
+		} catch (IOException | InterruptedException e) {
+			// the follower went away or the leader was closed
+		} finally {
+			lock.lock();
+			try {
+				drop(f);
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * bootstrap(Follower, DataOutputStream) - registers the follower at the
+	 * current end of the log and sends it an image of every ticket. Each image
+	 * is tagged with the log end read while its shard's lock is held, so it
+	 * reflects exactly the records before that offset.
+	 *
+	 * @param f   the follower
+	 * @param out the follower's output stream
+	 * @throws IOException if the images cannot be sent
+	 */
+	private void bootstrap(Follower f, DataOutputStream out) throws IOException {
+		long start;
+		lock.lock();
+		try {
+			if (closed)
+				throw new IOException("Leader is closed.");
+			start = end;
+			f.sent = start;
+			f.acked = start;
+			followers.add(f);
+			followerCount = followers.size();
+		} finally {
+			lock.unlock();
+		}
+		out.writeByte(HELLO);
+		out.writeInt(8);
+		out.writeLong(start);
+
+		ByteArrayOutputStream images = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(images);
+		ByteBuffer[] scratch = { ByteBuffer.allocate(1024) };
+		manager.forEach(t -> {
+			int length = TicketCodec.ticketSize(t);
+			if (scratch[0].capacity() < length)
+				scratch[0] = ByteBuffer.allocate(Math.max(length, scratch[0].capacity() * 2));
+			ByteBuffer buf = scratch[0];
+			buf.clear();
+			TicketCodec.encodeTicket(t, buf);
+			try {
+				data.writeByte(TICKET);
+				data.writeInt(8 + length);
+				data.writeLong(end);
+				data.write(buf.array(), 0, length);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+		images.writeTo(out);
+		out.writeByte(READY);
+		out.writeInt(0);
+		out.flush();
+	}
+
+	/**
+	 * receiveAcks(Follower) - records the offsets the follower acknowledges
+	 * until it disconnects.
+	 *
+	 * @param f the follower
+	 */
+	private void receiveAcks(Follower f) {
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(f.socket.getInputStream()));
+			while (true) {
+				long offset = in.readLong();
+				lock.lock();
+				try {
+					f.acked = Math.max(f.acked, offset);
+					acknowledged.signalAll();
+				} finally {
+					lock.unlock();
+				}
+			}
+		} catch (IOException e) {
+			// disconnected
+		} finally {
+			lock.lock();
+			try {
+				drop(f);
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * drop(Follower) - disconnects a follower while the lock is held.
+	 *
+	 * @param f the follower
+	 */
+	private void drop(Follower f) {
+		f.dropped = true;
+		if (followers.remove(f)) {
+			followerCount = followers.size();
+			appended.signalAll();
+			acknowledged.signalAll();
+		}
+		try {
+			f.socket.close();
+		} catch (IOException e) {
+			// already closed
+		}
+	}
+
+	/**
+	 * awaitReplicated(long) - waits until every connected follower has
+	 * acknowledged every record appended before the call.
+	 *
+	 * @param timeoutMillis the longest time to wait, in milliseconds.
+	 * @return true if every follower caught up, false on timeout.
+	 * @throws InterruptedException if the thread is interrupted while waiting.
+	 */
+	public boolean awaitReplicated(long timeoutMillis) throws InterruptedException {
+		long target = end;
+		long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		lock.lock();
+		try {
+			while (true) {
+				boolean caughtUp = true;
+				for (Follower f : followers)
+					caughtUp &= f.acked >= target;
+				if (caughtUp)
+					return true;
+				if (nanos <= 0)
+					return false;
+				nanos = acknowledged.awaitNanos(nanos);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * close - stops accepting followers, disconnects the connected ones and
+	 * unregisters the leader from its manager.
+	 *
+	 * @throws IOException if the server socket cannot be closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		manager.removeCommandLog(this);
+		server.close();
+		lock.lock();
+		try {
+			while (!followers.isEmpty())
+				drop(followers.get(0));
+		} finally {
+			lock.unlock();
+		}
+		try {
+			acceptor.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * main(String[]) - runs a leader over the shared TicketManager on the given
+	 * port, first loading the tickets saved in the directory given as the
+	 * second argument, if any, and reports its followers every second. Ticket
+	 * ids are persisted in the directory, so a restart does not reuse them.
+	 *
+	 * @param args the port and the optional ticket directory
+	 * @throws IOException          if the port cannot be bound or the tickets
+	 *                              cannot be loaded
+	 * @throws InterruptedException if interrupted
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 1) {
+			System.err.println("usage: ReplicationLeader port [directory]");
+			return;
+		}
+		TicketManager manager = TicketManager.getInstance();
+		if (args.length > 1) {
+			Path dir = Paths.get(args[1]);
+			TicketFileStore store = TicketFileStore.open(manager, dir);
+			Ticket.setIdAllocator(
+					BlockIdAllocator.open(dir.resolve(BlockIdAllocator.MARK_FILE), BlockIdAllocator.DEFAULT_BLOCK_SIZE));
+			store.load();
+		}
+		ReplicationLeader leader = start(manager, Integer.parseInt(args[0]));
+		System.out.println("leading " + manager.size() + " tickets on port " + leader.getPort());
+		while (!leader.closed) {
+			Thread.sleep(1000);
+			System.out.println(leader.getFollowerCount() + " followers, log end " + leader.getEndOffset());
+		}
+	}
+}
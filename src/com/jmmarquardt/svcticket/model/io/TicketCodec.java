@@ -0,0 +1,677 @@
+/**
+ * TicketCodec.java
+ */
+package com.jmmarquardt.svcticket.model.io;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.jmmarquardt.svcticket.model.command.Command;
+import com.jmmarquardt.svcticket.model.command.Command.CancellationCode;
+import com.jmmarquardt.svcticket.model.command.Command.CommandValue;
+import com.jmmarquardt.svcticket.model.command.Command.FeedbackCode;
+import com.jmmarquardt.svcticket.model.command.Command.ResolutionCode;
+import com.jmmarquardt.svcticket.model.ticket.PackedTicket;
+import com.jmmarquardt.svcticket.model.ticket.Ticket;
+import com.jmmarquardt.svcticket.model.user.UserSymbolTable;
+
+/**
+ * TicketCodec
+ * <p>
+ * TicketCodec is the compact binary format of Tickets and Commands used on
+ * disk and on the wire. Records are written straight into and read straight
+ * out of a {@code ByteBuffer}: enums are written as ordinals, ids and lengths
+ * as unsigned LEB128 varints, and Strings as a varint of (UTF-8 length + 1),
+ * 0 for null, followed by UTF-8 bytes encoded and decoded by hand, so no
+ * intermediate byte arrays are created.
+ * </p>
+ *
+ * A Ticket record is
+ *
+ * <pre>
+ * version:1  fields:4  id:varint  ticketVersion:varint  subject  caller  owner  noteCount:varint  notes...
+ * </pre>
+ *
+ * where {@code fields} is the ticket's {@code PackedTicket} word, big-endian,
+ * and {@code ticketVersion} is {@code Ticket.getVersion()}.
+ * A Command record is
+ *
+ * <pre>
+ * version:1  value:1  code+1:1  owner  note
+ * </pre>
+ *
+ * Every record starts with {@link #VERSION}. Records of version 1, whose
+ * Ticket records have no ticketVersion, are still decoded; decoding a record
+ * of another version, or a truncated or malformed record, throws
+ * IllegalArgumentException, so records read from the network can be decoded
+ * safely. The {@code readXxx(ByteBuffer, int)} methods read one field of the
+ * record at the given offset without decoding the rest or moving the buffer's
+ * position.
+ *
+ * @author John-Michael Marquardt
+ */
+public final class TicketCodec {
+	/** The version written at the start of every record. */
+	public static final byte VERSION = 2;
+	/** The previous version, whose Ticket records have no ticketVersion. */
+	private static final byte VERSION_1 = 1;
+	/** Offset of the packed fields in a Ticket record. */
+	private static final int FIELDS_OFFSET = 1;
+	/** Offset of the id in a Ticket record. */
+	private static final int ID_OFFSET = 5;
+	/** Offset of the CommandValue in a Command record. */
+	private static final int VALUE_OFFSET = 1;
+	/** Offset of the code in a Command record. */
+	private static final int CODE_OFFSET = 2;
+	/** Offset of the owner in a Command record. */
+	private static final int COMMAND_OWNER_OFFSET = 3;
+	/** The message of the exception thrown for a truncated record. */
+	private static final String TRUNCATED_ERROR = "Truncated record.";
+	/** Cached CommandValue values, indexed by ordinal. */
+	private static final CommandValue[] COMMAND_VALUES = CommandValue.values();
+	/** Cached FeedbackCode values, indexed by ordinal. */
+	private static final FeedbackCode[] FEEDBACK_CODES = FeedbackCode.values();
+	/** Cached ResolutionCode values, indexed by ordinal. */
+	private static final ResolutionCode[] RESOLUTION_CODES = ResolutionCode.values();
+	/** Cached CancellationCode values, indexed by ordinal. */
+	private static final CancellationCode[] CANCELLATION_CODES = CancellationCode.values();
+
+	/**
+	 * TicketCodec() - not instantiable.
+	 */
+	private TicketCodec() {
+	}
+
+	/**
+	 * ticketSize(Ticket) - returns the number of bytes encodeTicket() writes for
+	 * the Ticket.
+	 *
+	 * @param ticket the Ticket.
+	 * @return the size of its record.
+	 */
+	public static int ticketSize(Ticket ticket) {
+		int size = ID_OFFSET + varLongSize(ticket.getTicketId()) + varLongSize(ticket.getVersion())
+				+ stringSize(ticket.getSubject())
+				+ stringSize(ticket.getCaller()) + stringSize(ticket.getOwner()) + varLongSize(ticket.getNoteCount());
+		for (int i = 0; i < ticket.getNoteCount(); i++)
+			size += stringSize(ticket.getNote(i));
+		return size;
+	}
+
+	/**
+	 * encodeTicket(Ticket, ByteBuffer) - writes a Ticket record at the buffer's
+	 * position and advances it.
+	 *
+	 * @param ticket the Ticket.
+	 * @param buf    the buffer, with at least ticketSize() bytes remaining.
+	 * @throws java.nio.BufferOverflowException if the record does not fit.
+	 */
+	public static void encodeTicket(Ticket ticket, ByteBuffer buf) {
+		buf.put(VERSION).putInt(PackedTicket.pack(ticket));
+		putVarLong(buf, ticket.getTicketId());
+		putVarLong(buf, ticket.getVersion());
+		putString(buf, ticket.getSubject());
+		putString(buf, ticket.getCaller());
+		putString(buf, ticket.getOwner());
+		int notes = ticket.getNoteCount();
+		putVarLong(buf, notes);
+		for (int i = 0; i < notes; i++)
+			putString(buf, ticket.getNote(i));
+	}
+
+	/**
+	 * decodeTicket(ByteBuffer) - reads a Ticket record at the buffer's position
+	 * and advances it.
+	 *
+	 * @param buf the buffer.
+	 * @return the restored Ticket.
+	 * @throws IllegalArgumentException if the record has another version, is
+	 *                                  truncated or has invalid fields.
+	 */
+	public static Ticket decodeTicket(ByteBuffer buf) {
+		int recordVersion = checkVersion(buf, ID_OFFSET);
+		int fields = buf.getInt();
+		if (!PackedTicket.isValid(fields))
+			throw new IllegalArgumentException("Invalid ticket fields.");
+		long id = getVarLong(buf);
+		long version = recordVersion == VERSION_1 ? -1 : getVarLong(buf);
+		String subject = getString(buf);
+		String caller = getString(buf);
+		String owner = getString(buf);
+		long count = getVarLong(buf);
+		// every note takes at least one byte
+		if (count < 0 || count > buf.remaining())
+			throw new IllegalArgumentException(TRUNCATED_ERROR);
+		List<String> notes = new ArrayList<String>((int) count);
+		for (int i = 0; i < count; i++)
+			notes.add(getString(buf));
+		if (version < 0)
+			return Ticket.restore(id, PackedTicket.type(fields), subject, caller, PackedTicket.category(fields),
+					PackedTicket.priority(fields), PackedTicket.state(fields), owner,
+					PackedTicket.feedbackCode(fields), PackedTicket.resolutionCode(fields),
+					PackedTicket.cancellationCode(fields), notes);
+		return Ticket.restore(id, PackedTicket.type(fields), subject, caller, PackedTicket.category(fields),
+				PackedTicket.priority(fields), PackedTicket.state(fields), owner, PackedTicket.feedbackCode(fields),
+				PackedTicket.resolutionCode(fields), PackedTicket.cancellationCode(fields), notes, version);
+	}
+
+	/**
+	 * commandSize(Command) - returns the number of bytes encodeCommand() writes
+	 * for the Command.
+	 *
+	 * @param command the Command.
+	 * @return the size of its record.
+	 */
+	public static int commandSize(Command command) {
+		return COMMAND_OWNER_OFFSET + stringSize(command.getOwnerId()) + stringSize(command.getNote());
+	}
+
+	/**
+	 * encodeCommand(Command, ByteBuffer) - writes a Command record at the
+	 * buffer's position and advances it.
+	 *
+	 * @param command the Command.
+	 * @param buf     the buffer, with at least commandSize() bytes remaining.
+	 * @throws java.nio.BufferOverflowException if the record does not fit.
+	 */
+	public static void encodeCommand(Command command, ByteBuffer buf) {
+		buf.put(VERSION).put((byte) command.getCommandValue().ordinal())
+				.put((byte) (command.getCode() + 1));
+		putString(buf, command.getOwnerId());
+		putString(buf, command.getNote());
+	}
+
+	/**
+	 * decodeCommand(ByteBuffer) - reads a Command record at the buffer's
+	 * position and advances it.
+	 *
+	 * @param buf the buffer.
+	 * @return the Command.
+	 * @throws IllegalArgumentException if the record has another version, is
+	 *                                  truncated or has invalid fields.
+	 */
+	public static Command decodeCommand(ByteBuffer buf) {
+		checkVersion(buf, COMMAND_OWNER_OFFSET);
+		CommandValue value = commandValue(buf.get());
+		int code = buf.get() - 1;
+		String owner = getString(buf);
+		String note = getString(buf);
+		return command(value, code, owner, note);
+	}
+
+	/**
+	 * command(CommandValue, int, String, String) - builds a Command from its
+	 * encoded fields.
+	 *
+	 * @param value the CommandValue.
+	 * @param code  the ordinal of its code, or -1.
+	 * @param owner the owner id.
+	 * @param note  the note.
+	 * @return the Command.
+	 * @throws IllegalArgumentException if the fields do not form a valid
+	 *                                  Command.
+	 */
+	static Command command(CommandValue value, int code, String owner, String note) {
+		if (code >= codeCount(value))
+			throw new IllegalArgumentException("Invalid command code.");
+		if (owner == null && note == null)
+			return Command.of(Command.encode(value, UserSymbolTable.NULL, code), null);
+		FeedbackCode feedback = value == CommandValue.FEEDBACK && code >= 0 ? FEEDBACK_CODES[code] : null;
+		ResolutionCode resolution = value == CommandValue.RESOLVE && code >= 0 ? RESOLUTION_CODES[code] : null;
+		CancellationCode cancellation = value == CommandValue.CANCEL && code >= 0 ? CANCELLATION_CODES[code]
+				: null;
+		return new Command(value, owner, feedback, resolution, cancellation, note);
+	}
+
+	/**
+	 * commandValue(int) - returns the CommandValue with the given ordinal.
+	 *
+	 * @param ordinal the ordinal read from a record
+	 * @return the CommandValue
+	 * @throws IllegalArgumentException if there is no such CommandValue
+	 */
+	private static CommandValue commandValue(int ordinal) {
+		if (ordinal < 0 || ordinal >= COMMAND_VALUES.length)
+			throw new IllegalArgumentException("Invalid command value.");
+		return COMMAND_VALUES[ordinal];
+	}
+
+	/**
+	 * codeCount(CommandValue) - returns the number of codes a CommandValue can
+	 * carry.
+	 *
+	 * @param value the CommandValue
+	 * @return the number of its codes, 0 if it takes none
+	 */
+	private static int codeCount(CommandValue value) {
+		switch (value) {
+		case FEEDBACK:
+			return FEEDBACK_CODES.length;
+		case RESOLVE:
+			return RESOLUTION_CODES.length;
+		case CANCEL:
+			return CANCELLATION_CODES.length;
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * checkVersion(ByteBuffer, int) - reads the version at the buffer's position
+	 * and rejects a record of an unsupported version, or one shorter than its
+	 * fixed fields.
+	 *
+	 * @param buf   the buffer
+	 * @param fixed the length of the record's fixed fields, version included
+	 * @return the record's version
+	 */
+	private static int checkVersion(ByteBuffer buf, int fixed) {
+		if (!buf.hasRemaining())
+			throw new IllegalArgumentException(TRUNCATED_ERROR);
+		byte version = buf.get();
+		if (version != VERSION && version != VERSION_1)
+			throw new IllegalArgumentException("Unsupported record version.");
+		if (buf.remaining() < fixed - 1)
+			throw new IllegalArgumentException(TRUNCATED_ERROR);
+		return version;
+	}
+
+	/**
+	 * readVersion(ByteBuffer, int) - returns the version of the record at the
+	 * given offset.
+	 *
+	 * @param buf    the buffer.
+	 * @param offset the offset of the record.
+	 * @return the record's version.
+	 */
+	public static int readVersion(ByteBuffer buf, int offset) {
+		return buf.get(offset);
+	}
+
+	/**
+	 * readFields(ByteBuffer, int) - returns the {@code PackedTicket} word of the
+	 * Ticket record at the given offset.
+	 *
+	 * @param buf    the buffer.
+	 * @param offset the offset of the record.
+	 * @return the packed fields.
+	 */
+	public static int readFields(ByteBuffer buf, int offset) {
+		return buf.getInt(offset + FIELDS_OFFSET);
+	}
+
+	/**
+	 * readStateId(ByteBuffer, int) - returns the state id of the Ticket record at
+	 * the given offset.
+	 *
+	 * @param buf    the buffer.
+	 * @param offset the offset of the record.
+	 * @return the TicketStateMachine state id.
+	 */
+	public static int readStateId(ByteBuffer buf, int offset) {
+		return PackedTicket.state(readFields(buf, offset));
+	}
+
+	/**
+	 * readTicketId(ByteBuffer, int) - returns the id of the Ticket record at the
+	 * given offset.
+	 *
+	 * @param buf    the buffer.
+	 * @param offset the offset of the record.
+	 * @return the ticket id.
+	 */
+	public static long readTicketId(ByteBuffer buf, int offset) {
+		return getVarLong(buf, offset + ID_OFFSET);
+	}
+
+	/**
+	 * readSubject(ByteBuffer, int) - returns the subject of the Ticket record at
+	 * the given offset.
+	 *
+	 * @param buf    the buffer.
+	 * @param offset the offset of the record.
+	 * @return the subject.
+	 */
+	public static String readSubject(ByteBuffer buf, int offset) {
+		return getString(buf, subjectOffset(buf, offset));
+	}
+
+	/**
+	 * readCaller(ByteBuffer, int) - returns the caller of the Ticket record at
+	 * the given offset.
+	 *
+	 * @param buf    the buffer.
+	 * @param offset the offset of the record.
+	 * @return the caller's user id.
+	 */
+	public static String readCaller(ByteBuffer buf, int offset) {
+		return getString(buf, stringEnd(buf, subjectOffset(buf, offset)));
+	}
+
+	/**
+	 * readOwner(ByteBuffer, int) - returns the owner of the Ticket record at the
+	 * given offset.
+	 *
+	 * @param buf    the buffer.
+	 * @param offset the offset of the record.
+	 * @return the owner's user id.
+	 */
+	public static String readOwner(ByteBuffer buf, int offset) {
+		return getString(buf, stringEnd(buf, stringEnd(buf, subjectOffset(buf, offset))));
+	}
+
+	/**
+	 * readTicketVersion(ByteBuffer, int) - returns the version stamp of the
+	 * Ticket record at the given offset.
+	 *
+	 * @param buf    the buffer.
+	 * @param offset the offset of the record.
+	 * @return the Ticket's version, or -1 for a version 1 record.
+	 */
+	public static long readTicketVersion(ByteBuffer buf, int offset) {
+		if (buf.get(offset) == VERSION_1)
+			return -1;
+		return getVarLong(buf, varLongEnd(buf, offset + ID_OFFSET));
+	}
+
+	/**
+	 * subjectOffset(ByteBuffer, int) - returns the offset of the subject of the
+	 * Ticket record at the given offset.
+	 *
+	 * @param buf    the buffer
+	 * @param offset the offset of the record
+	 * @return the offset of the subject
+	 */
+	private static int subjectOffset(ByteBuffer buf, int offset) {
+		int at = varLongEnd(buf, offset + ID_OFFSET);
+		return buf.get(offset) == VERSION_1 ? at : varLongEnd(buf, at);
+	}
+
+	/**
+	 * readCommandValue(ByteBuffer, int) - returns the CommandValue of the Command
+	 * record at the given offset.
+	 *
+	 * @param buf    the buffer.
+	 * @param offset the offset of the record.
+	 * @return the CommandValue.
+	 */
+	public static CommandValue readCommandValue(ByteBuffer buf, int offset) {
+		return commandValue(buf.get(offset + VALUE_OFFSET));
+	}
+
+	/**
+	 * readCommandCode(ByteBuffer, int) - returns the ordinal of the code of the
+	 * Command record at the given offset.
+	 *
+	 * @param buf    the buffer.
+	 * @param offset the offset of the record.
+	 * @return the ordinal of the FeedbackCode, ResolutionCode or
+	 *         CancellationCode, or -1.
+	 */
+	public static int readCommandCode(ByteBuffer buf, int offset) {
+		return buf.get(offset + CODE_OFFSET) - 1;
+	}
+
+	/**
+	 * readCommandOwner(ByteBuffer, int) - returns the owner id of the Command
+	 * record at the given offset.
+	 *
+	 * @param buf    the buffer.
+	 * @param offset the offset of the record.
+	 * @return the owner id.
+	 */
+	public static String readCommandOwner(ByteBuffer buf, int offset) {
+		return getString(buf, offset + COMMAND_OWNER_OFFSET);
+	}
+
+	/**
+	 * varLongSize(long) - returns the number of bytes in the varint of a value.
+	 *
+	 * @param value the value, treated as unsigned.
+	 * @return the size of its varint.
+	 */
+	public static int varLongSize(long value) {
+		int size = 1;
+		while ((value >>>= 7) != 0)
+			size++;
+		return size;
+	}
+
+	/**
+	 * putVarLong(ByteBuffer, long) - writes a value as an unsigned LEB128 varint.
+	 *
+	 * @param buf   the buffer.
+	 * @param value the value, treated as unsigned.
+	 */
+	public static void putVarLong(ByteBuffer buf, long value) {
+		while ((value & ~0x7FL) != 0) {
+			buf.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buf.put((byte) value);
+	}
+
+	/**
+	 * getVarLong(ByteBuffer) - reads a varint at the buffer's position and
+	 * advances it.
+	 *
+	 * @param buf the buffer.
+	 * @return the value.
+	 */
+	public static long getVarLong(ByteBuffer buf) {
+		int at = buf.position();
+		long value = getVarLong(buf, at);
+		buf.position(varLongEnd(buf, at));
+		return value;
+	}
+
+	/**
+	 * getVarLong(ByteBuffer, int) - reads the varint at the given offset.
+	 *
+	 * @param buf the buffer.
+	 * @param at  the offset of the varint.
+	 * @return the value.
+	 * @throws IllegalArgumentException if the varint runs past the buffer's
+	 *                                  limit or is longer than 10 bytes.
+	 */
+	public static long getVarLong(ByteBuffer buf, int at) {
+		long value = 0;
+		for (int shift = 0;; shift += 7) {
+			byte b = varLongByte(buf, at++, shift);
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0)
+				return value;
+		}
+	}
+
+	/**
+	 * varLongEnd(ByteBuffer, int) - returns the offset after the varint at the
+	 * given offset.
+	 *
+	 * @param buf the buffer
+	 * @param at  the offset of the varint
+	 * @return the offset of the following byte
+	 */
+	private static int varLongEnd(ByteBuffer buf, int at) {
+		for (int shift = 0; varLongByte(buf, at++, shift) < 0; shift += 7)
+			;
+		return at;
+	}
+
+	/**
+	 * varLongByte(ByteBuffer, int, int) - returns one byte of a varint.
+	 *
+	 * @param buf   the buffer
+	 * @param at    the offset of the byte
+	 * @param shift the bit position of the byte's value
+	 * @return the byte
+	 * @throws IllegalArgumentException if the byte is past the buffer's limit
+	 *                                  or the varint is too long
+	 */
+	private static byte varLongByte(ByteBuffer buf, int at, int shift) {
+		if (at < 0 || at >= buf.limit())
+			throw new IllegalArgumentException(TRUNCATED_ERROR);
+		if (shift > 63)
+			throw new IllegalArgumentException("Invalid varint.");
+		return buf.get(at);
+	}
+
+	/**
+	 * stringLength(ByteBuffer, long, int) - checks the length of a String whose
+	 * bytes start at the given offset.
+	 *
+	 * @param buf    the buffer
+	 * @param header the String's header, its UTF-8 length + 1, unsigned
+	 * @param start  the offset of its first byte
+	 * @return its UTF-8 length
+	 * @throws IllegalArgumentException if the String runs past the buffer's
+	 *                                  limit
+	 */
+	private static int stringLength(ByteBuffer buf, long header, int start) {
+		if (Long.compareUnsigned(header - 1, buf.limit() - start) > 0)
+			throw new IllegalArgumentException(TRUNCATED_ERROR);
+		return (int) header - 1;
+	}
+
+	/**
+	 * stringSize(String) - returns the number of bytes putString() writes for a
+	 * String.
+	 *
+	 * @param s the String, or null.
+	 * @return its encoded size.
+	 */
+	public static int stringSize(String s) {
+		if (s == null)
+			return 1;
+		int n = utf8Length(s);
+		return varLongSize(n + 1) + n;
+	}
+
+	/**
+	 * utf8Length(String) - returns the length of a String in UTF-8. An unpaired
+	 * surrogate is encoded as '?', as {@code String.getBytes()} does.
+	 *
+	 * @param s the String
+	 * @return its UTF-8 length
+	 */
+	private static int utf8Length(String s) {
+		int n = 0;
+		for (int i = 0, len = s.length(); i < len; i++) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				n++;
+			} else if (c < 0x800) {
+				n += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+				n += 4;
+				i++;
+			} else if (Character.isSurrogate(c)) {
+				n++;
+			} else {
+				n += 3;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * putString(ByteBuffer, String) - writes a length-prefixed UTF-8 String at
+	 * the buffer's position and advances it.
+	 *
+	 * @param buf the buffer.
+	 * @param s   the String, or null.
+	 */
+	public static void putString(ByteBuffer buf, String s) {
+		if (s == null) {
+			buf.put((byte) 0);
+			return;
+		}
+		putVarLong(buf, utf8Length(s) + 1);
+		for (int i = 0, len = s.length(); i < len; i++) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				buf.put((byte) c);
+			} else if (c < 0x800) {
+				buf.put((byte) (0xC0 | c >> 6)).put((byte) (0x80 | (c & 0x3F)));
+			} else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, s.charAt(++i));
+				buf.put((byte) (0xF0 | cp >> 18)).put((byte) (0x80 | (cp >> 12 & 0x3F)))
+						.put((byte) (0x80 | (cp >> 6 & 0x3F))).put((byte) (0x80 | (cp & 0x3F)));
+			} else if (Character.isSurrogate(c)) {
+				buf.put((byte) '?');
+			} else {
+				buf.put((byte) (0xE0 | c >> 12)).put((byte) (0x80 | (c >> 6 & 0x3F))).put((byte) (0x80 | (c & 0x3F)));
+			}
+		}
+	}
+
+	/**
+	 * getString(ByteBuffer) - reads a String at the buffer's position and
+	 * advances it.
+	 *
+	 * @param buf the buffer.
+	 * @return the String, or null.
+	 */
+	public static String getString(ByteBuffer buf) {
+		int at = buf.position();
+		String s = getString(buf, at);
+		buf.position(stringEnd(buf, at));
+		return s;
+	}
+
+	/**
+	 * getString(ByteBuffer, int) - reads the String at the given offset.
+	 *
+	 * @param buf the buffer.
+	 * @param at  the offset of the String.
+	 * @return the String, or null.
+	 * @throws IllegalArgumentException if the String runs past the buffer's
+	 *                                  limit.
+	 */
+	public static String getString(ByteBuffer buf, int at) {
+		long header = getVarLong(buf, at);
+		if (header == 0)
+			return null;
+		int i = varLongEnd(buf, at);
+		int length = stringLength(buf, header, i);
+		int end = i + length;
+		char[] chars = new char[length];
+		int n = 0;
+		while (i < end) {
+			int b = buf.get(i++) & 0xFF;
+			if (b < 0x80) {
+				chars[n++] = (char) b;
+			} else if (b < 0xE0 && i < end) {
+				chars[n++] = (char) ((b & 0x1F) << 6 | (buf.get(i++) & 0x3F));
+			} else if (b < 0xF0 && i + 1 < end) {
+				chars[n++] = (char) ((b & 0x0F) << 12 | (buf.get(i) & 0x3F) << 6 | (buf.get(i + 1) & 0x3F));
+				i += 2;
+			} else if (i + 2 < end) {
+				int cp = (b & 0x07) << 18 | (buf.get(i) & 0x3F) << 12 | (buf.get(i + 1) & 0x3F) << 6
+						| (buf.get(i + 2) & 0x3F);
+				chars[n++] = Character.highSurrogate(cp);
+				chars[n++] = Character.lowSurrogate(cp);
+				i += 3;
+			} else {
+				chars[n++] = '\uFFFD';
+				i = end;
+			}
+		}
+		return new String(chars, 0, n);
+	}
+
+	/**
+	 * stringEnd(ByteBuffer, int) - returns the offset after the String at the
+	 * given offset.
+	 *
+	 * @param buf the buffer
+	 * @param at  the offset of the String
+	 * @return the offset of the following byte
+	 */
+	private static int stringEnd(ByteBuffer buf, int at) {
+		long header = getVarLong(buf, at);
+		int start = varLongEnd(buf, at);
+		return start + (header == 0 ? 0 : stringLength(buf, header, start));
+	}
+}
@@ -0,0 +1,582 @@
+/**
+ * TicketFileStore.java
+ */
+package com.jmmarquardt.svcticket.model.io;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+import com.jmmarquardt.svcticket.model.index.TicketBitmap;
+import com.jmmarquardt.svcticket.model.manager.TicketListener;
+import com.jmmarquardt.svcticket.model.manager.TicketManager;
+import com.jmmarquardt.svcticket.model.ticket.Ticket;
+
+/**
+ * TicketFileStore
+ * <p>
+ * TicketFileStore saves the tickets of a {@code TicketManager} to a directory
+ * incrementally. It is a {@code TicketListener}: it remembers the ids of the
+ * tickets added, changed or removed since the last save, and {@code save()}
+ * writes only those tickets that are still dirty ({@code Ticket.isDirty()}) to
+ * a new delta file, plus a removal record for each removed ticket. Every
+ * {@code compactEvery} saves, the deltas are merged into a new full snapshot
+ * of the manager and deleted.
+ * </p>
+ * <p>
+ * Files are written through a {@code FileChannel} from one large direct
+ * buffer, each record framed by its length and a CRC32C like the records of
+ * {@code CommandJournal}, and forced to disk and renamed into place only when
+ * complete, so a crash during a save leaves the previous files intact. A
+ * snapshot starts with the sequence number of the last delta it covers, and
+ * {@code load()} reads the snapshot and then only the deltas after it, so
+ * deltas left behind by a crash during compaction are ignored.
+ * </p>
+ *
+ * @author John-Michael Marquardt
+ */
+public class TicketFileStore implements TicketListener {
+	/** The default size of the write buffer, 4 MB. */
+	public static final int DEFAULT_BUFFER_SIZE = 4 << 20;
+	/** The default number of deltas written between compactions. */
+	public static final int DEFAULT_COMPACT_EVERY = 16;
+	/** The name of the full snapshot file. */
+	private static final String SNAPSHOT = "snapshot.tickets";
+	/** The suffix of delta files. */
+	private static final String DELTA_SUFFIX = ".delta";
+	/** The suffix of files being written. */
+	private static final String TEMP_SUFFIX = ".tmp";
+	/** Record kind of a saved ticket; the body is a TicketCodec Ticket record. */
+	private static final byte PUT = 1;
+	/** Record kind of a removed ticket; the body is its id. */
+	private static final byte REMOVE = 2;
+	/**
+	 * Record kind of the first record of a snapshot; the body is the sequence
+	 * number of the last delta the snapshot covers.
+	 */
+	private static final byte COVERS = 3;
+	/** Bytes in a record frame: the body length and its checksum. */
+	private static final int FRAME = 8;
+
+	/** The manager whose tickets are saved. */
+	private final TicketManager manager;
+	/** The directory holding the files. */
+	private final Path dir;
+	/** The number of deltas written between compactions. */
+	private final int compactEvery;
+	/** The write buffer; guarded by this. */
+	private final ByteBuffer buffer;
+	/** Computes record checksums; guarded by this. */
+	private final CRC32C crc = new CRC32C();
+	/** Guards changed and removed. */
+	private final Object pendingLock = new Object();
+	/** Ids of tickets added or changed since the last save. */
+	private TicketBitmap changed = new TicketBitmap();
+	/** Ids of tickets removed since the last save. */
+	private TicketBitmap removed = new TicketBitmap();
+	/** The sequence number of the next delta; guarded by this. */
+	private long nextDelta;
+	/** The sequence number of the last delta the snapshot covers, or -1. */
+	private long covered;
+	/** The number of deltas since the last compaction; guarded by this. */
+	private int deltas;
+
+	/**
+	 * TicketFileStore(TicketManager, Path, int, int) - used by {@code open()}.
+	 *
+	 * @param manager      the manager
+	 * @param dir          the directory
+	 * @param bufferSize   the size of the write buffer
+	 * @param compactEvery the number of deltas between compactions
+	 * @throws IOException if the directory cannot be read
+	 */
+	private TicketFileStore(TicketManager manager, Path dir, int bufferSize, int compactEvery) throws IOException {
+		this.manager = manager;
+		this.dir = dir;
+		this.compactEvery = compactEvery;
+		this.buffer = ByteBuffer.allocateDirect(bufferSize);
+		covered = covered(dir.resolve(SNAPSHOT));
+		List<Path> d = deltas(dir, covered);
+		deltas = d.size();
+		nextDelta = d.isEmpty() ? covered + 1 : indexOf(d.get(d.size() - 1)) + 1;
+	}
+
+	/**
+	 * open(TicketManager, Path) - opens the store in the given directory with the
+	 * default buffer size and compaction interval, creating the directory if
+	 * needed. The store is not registered with the manager; call {@code load()}
+	 * first if the directory holds saved tickets, then register it.
+	 *
+	 * @param manager the TicketManager whose tickets are saved.
+	 * @param dir     the directory to save to.
+	 * @return the opened store.
+	 * @throws IOException if the directory cannot be created or read.
+	 */
+	public static TicketFileStore open(TicketManager manager, Path dir) throws IOException {
+		return open(manager, dir, DEFAULT_BUFFER_SIZE, DEFAULT_COMPACT_EVERY);
+	}
+
+	/**
+	 * open(TicketManager, Path, int, int) - opens the store in the given
+	 * directory, creating the directory if needed.
+	 *
+	 * @param manager      the TicketManager whose tickets are saved.
+	 * @param dir          the directory to save to.
+	 * @param bufferSize   the size of the direct write buffer in bytes.
+	 * @param compactEvery the number of delta saves between compactions.
+	 * @return the opened store.
+	 * @throws IOException              if the directory cannot be created or
+	 *                                  read.
+	 * @throws IllegalArgumentException if manager or dir is null, or bufferSize
+	 *                                  or compactEvery is not positive.
+	 */
+	public static TicketFileStore open(TicketManager manager, Path dir, int bufferSize, int compactEvery)
+			throws IOException {
+		if (manager == null || dir == null)
+			throw new IllegalArgumentException("Parameter cannot be null.");
+		if (bufferSize < FRAME + 16 || compactEvery <= 0)
+			throw new IllegalArgumentException("Invalid buffer size or compaction interval.");
+		Files.createDirectories(dir);
+		return new TicketFileStore(manager, dir, bufferSize, compactEvery);
+	}
+
+	/**
+	 * deltas(Path, long) - returns the delta files in the directory after the
+	 * given sequence number, in order.
+	 *
+	 * @param dir   the directory
+	 * @param after the sequence number of the last delta to leave out, or -1
+	 * @return the delta paths, sorted by sequence number
+	 * @throws IOException if the directory cannot be read
+	 */
+	private static List<Path> deltas(Path dir, long after) throws IOException {
+		List<Path> paths = new ArrayList<Path>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + DELTA_SUFFIX)) {
+			for (Path p : stream)
+				if (indexOf(p) > after)
+					paths.add(p);
+		}
+		Collections.sort(paths);
+		return paths;
+	}
+
+	/**
+	 * covered(Path) - returns the sequence number of the last delta a snapshot
+	 * covers, read from its first record.
+	 *
+	 * @param snapshot the snapshot path
+	 * @return the sequence number, or -1 if there is no snapshot or it does not
+	 *         start with a COVERS record
+	 * @throws IOException if the snapshot cannot be read or is corrupt
+	 */
+	private static long covered(Path snapshot) throws IOException {
+		if (!Files.exists(snapshot))
+			return -1;
+		try (FileChannel ch = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+			ByteBuffer buf = ByteBuffer.allocate(FRAME + 9);
+			while (buf.hasRemaining() && ch.read(buf) >= 0)
+				;
+			buf.flip();
+			if (buf.limit() < FRAME + 9 || buf.getInt(0) != 9 || buf.get(FRAME) != COVERS)
+				return -1;
+			CRC32C check = new CRC32C();
+			check.update(buf.duplicate().position(FRAME));
+			if ((int) check.getValue() != buf.getInt(4))
+				throw new IOException("Corrupt record in " + snapshot.getFileName() + ".");
+			return buf.getLong(FRAME + 1);
+		}
+	}
+
+	/**
+	 * indexOf(Path) - returns the sequence number in a delta file name.
+	 *
+	 * @param delta a delta path
+	 * @return its sequence number
+	 */
+	private static long indexOf(Path delta) {
+		String name = delta.getFileName().toString();
+		return Long.parseLong(name.substring(0, name.length() - DELTA_SUFFIX.length()));
+	}
+
+	/**
+	 * ticketAdded(Ticket) - remembers a new ticket.
+	 *
+	 * @param ticket the Ticket that was added.
+	 */
+	@Override
+	public void ticketAdded(Ticket ticket) {
+		synchronized (pendingLock) {
+			changed.add(ticket.getTicketId());
+			removed.remove(ticket.getTicketId());
+		}
+	}
+
+	/**
+	 * ticketUpdated(Ticket, int, String) - remembers a changed ticket.
+	 *
+	 * @param ticket        the Ticket that was updated.
+	 * @param previousState the state before the Command.
+	 * @param previousOwner the owner before the Command.
+	 */
+	@Override
+	public void ticketUpdated(Ticket ticket, int previousState, String previousOwner) {
+		synchronized (pendingLock) {
+			changed.add(ticket.getTicketId());
+		}
+	}
+
+	/**
+	 * ticketRemoved(Ticket) - remembers a removed ticket.
+	 *
+	 * @param ticket the Ticket that was removed.
+	 */
+	@Override
+	public void ticketRemoved(Ticket ticket) {
+		synchronized (pendingLock) {
+			changed.remove(ticket.getTicketId());
+			removed.add(ticket.getTicketId());
+		}
+	}
+
+	/**
+	 * save - writes the tickets changed since the last save to a new delta file,
+	 * and compacts the deltas into a new snapshot every {@code compactEvery}
+	 * saves. Does nothing if nothing has changed.
+	 *
+	 * @return the number of tickets written or removed.
+	 * @throws IOException if a file cannot be written.
+	 */
+	public synchronized long save() throws IOException {
+		TicketBitmap c, r;
+		synchronized (pendingLock) {
+			c = changed;
+			r = removed;
+			changed = new TicketBitmap();
+			removed = new TicketBitmap();
+		}
+		if (c.isEmpty() && r.isEmpty())
+			return 0;
+		Path file = dir.resolve(String.format("%016d%s", nextDelta, DELTA_SUFFIX));
+		long[] count = new long[1];
+		try {
+			write(file, ch -> {
+				count[0] += putTickets(ch, c, true);
+				r.forEach(id -> {
+					putRemove(ch, id);
+					count[0]++;
+				});
+			});
+		} catch (IOException | RuntimeException e) {
+			// the tickets already written were marked clean, so the next save
+			// compacts to be sure they reach the disk
+			synchronized (pendingLock) {
+				changed = changed.or(c);
+				removed = removed.or(r).andNot(changed);
+			}
+			deltas = compactEvery;
+			throw e;
+		}
+		nextDelta++;
+		if (++deltas >= compactEvery)
+			compact();
+		return count[0];
+	}
+
+	/**
+	 * compact - writes a full snapshot of the manager and deletes the deltas it
+	 * replaces. The snapshot records the last delta it covers, so deltas left
+	 * by a crash before they are deleted are not replayed over it.
+	 *
+	 * @throws IOException if a file cannot be written or deleted.
+	 */
+	public synchronized void compact() throws IOException {
+		long last = nextDelta - 1;
+		TicketBitmap ids = new TicketBitmap();
+		manager.forEach(t -> ids.add(t.getTicketId()));
+		try {
+			write(dir.resolve(SNAPSHOT), ch -> {
+				putCovers(ch, last);
+				putTickets(ch, ids, false);
+			});
+		} catch (IOException | RuntimeException e) {
+			// the tickets already encoded were marked clean, so the next save
+			// compacts again rather than leaving them out of its delta
+			deltas = compactEvery;
+			throw e;
+		}
+		covered = last;
+		for (Path p : deltas(dir, -1))
+			if (indexOf(p) <= last)
+				Files.deleteIfExists(p);
+		deltas = 0;
+	}
+
+	/**
+	 * load - reads the snapshot and every delta after it and adds the saved
+	 * tickets to the manager, marked clean. The ticket id allocator is moved past
+	 * the largest id loaded. Must be called before this store is registered with
+	 * the manager.
+	 *
+	 * @return the number of tickets added.
+	 * @throws IOException if a file cannot be read or is corrupt.
+	 */
+	public synchronized long load() throws IOException {
+		Map<Long, Ticket> tickets = new LinkedHashMap<Long, Ticket>();
+		List<Path> files = new ArrayList<Path>();
+		if (Files.exists(dir.resolve(SNAPSHOT)))
+			files.add(dir.resolve(SNAPSHOT));
+		files.addAll(deltas(dir, covered));
+		for (Path p : files)
+			read(p, tickets);
+		long maxId = 0;
+		Ticket[] array = tickets.values().toArray(new Ticket[0]);
+		for (Ticket t : array) {
+			t.markClean();
+			maxId = Math.max(maxId, t.getTicketId());
+		}
+		if (maxId > 0)
+			Ticket.getIdAllocator().reserve(maxId);
+		return manager.addTickets(array, array.length);
+	}
+
+	/**
+	 * Body writes the records of one file.
+	 */
+	private interface Body {
+
+		/**
+		 * write(FileChannel) - writes the records.
+		 *
+		 * @param ch the file being written
+		 */
+		void write(FileChannel ch);
+	}
+
+	/**
+	 * write(Path, Body) - writes a file through the buffer to a temporary file,
+	 * forces it to disk and renames it into place.
+	 *
+	 * @param file the file to write
+	 * @param body writes the records
+	 * @throws IOException if the file cannot be written
+	 */
+	private void write(Path file, Body body) throws IOException {
+		Path tmp = file.resolveSibling(file.getFileName() + TEMP_SUFFIX);
+		try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			buffer.clear();
+			body.write(ch);
+			flush(ch);
+			ch.force(true);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * putTickets(FileChannel, TicketBitmap, boolean) - appends a PUT record for
+	 * each ticket with an id in the set that is still in the manager. Each record
+	 * is encoded and the ticket marked clean under its shard lock; the record is
+	 * written after the lock is released, so a flush never holds up Commands.
+	 *
+	 * @param ch        the file being written
+	 * @param ids       the ids of the tickets
+	 * @param dirtyOnly whether to leave out tickets that are already clean
+	 * @return the number of records appended
+	 */
+	private long putTickets(FileChannel ch, TicketBitmap ids, boolean dirtyOnly) {
+		byte[][] image = new byte[1][];
+		long[] count = new long[1];
+		ids.forEach(id -> {
+			image[0] = null;
+			manager.withTicket(id, t -> {
+				if (!dirtyOnly || t.isDirty()) {
+					image[0] = encode(t);
+					t.markClean();
+				}
+			});
+			if (image[0] != null) {
+				putRecord(ch, image[0]);
+				count[0]++;
+			}
+		});
+		return count[0];
+	}
+
+	/**
+	 * encode(Ticket) - returns the body of a PUT record for the ticket.
+	 *
+	 * @param t the ticket
+	 * @return the record body
+	 */
+	private static byte[] encode(Ticket t) {
+		byte[] body = new byte[1 + TicketCodec.ticketSize(t)];
+		ByteBuffer buf = ByteBuffer.wrap(body);
+		buf.put(PUT);
+		TicketCodec.encodeTicket(t, buf);
+		return body;
+	}
+
+	/**
+	 * putRecord(FileChannel, byte[]) - appends a record with the given body.
+	 *
+	 * @param ch   the file being written
+	 * @param body the record body
+	 */
+	private void putRecord(FileChannel ch, byte[] body) {
+		ByteBuffer buf = reserve(ch, body.length);
+		int start = buf.position();
+		buf.put(body);
+		frame(ch, buf, start, body.length);
+	}
+
+	/**
+	 * putCovers(FileChannel, long) - appends a COVERS record.
+	 *
+	 * @param ch   the file being written
+	 * @param last the sequence number of the last delta covered
+	 */
+	private void putCovers(FileChannel ch, long last) {
+		ByteBuffer buf = reserve(ch, 9);
+		int start = buf.position();
+		buf.put(COVERS).putLong(last);
+		frame(ch, buf, start, 9);
+	}
+
+	/**
+	 * putRemove(FileChannel, long) - appends a REMOVE record.
+	 *
+	 * @param ch the file being written
+	 * @param id the id of the removed ticket
+	 */
+	private void putRemove(FileChannel ch, long id) {
+		ByteBuffer buf = reserve(ch, 9);
+		int start = buf.position();
+		buf.put(REMOVE).putLong(id);
+		frame(ch, buf, start, 9);
+	}
+
+	/**
+	 * reserve(FileChannel, int) - returns a buffer with room for a record body of
+	 * the given length after its frame, positioned at the body. The write buffer
+	 * is flushed first if it is too full; a record larger than the whole buffer
+	 * gets a buffer of its own, which frame() writes out directly.
+	 *
+	 * @param ch     the file being written
+	 * @param length the length of the record body
+	 * @return the buffer to write the body to
+	 */
+	private ByteBuffer reserve(FileChannel ch, int length) {
+		if (FRAME + length > buffer.capacity()) {
+			flush(ch);
+			ByteBuffer big = ByteBuffer.allocateDirect(FRAME + length);
+			big.position(FRAME);
+			return big;
+		}
+		if (FRAME + length > buffer.remaining())
+			flush(ch);
+		buffer.position(buffer.position() + FRAME);
+		return buffer;
+	}
+
+	/**
+	 * frame(FileChannel, ByteBuffer, int, int) - writes the frame of the record
+	 * whose body was just written, and writes out an oversized record.
+	 *
+	 * @param ch     the file being written
+	 * @param buf    the buffer, positioned after the body
+	 * @param start  the position of the body
+	 * @param length the length of the body
+	 */
+	private void frame(FileChannel ch, ByteBuffer buf, int start, int length) {
+		ByteBuffer view = buf.duplicate();
+		view.limit(start + length).position(start);
+		crc.reset();
+		crc.update(view);
+		buf.putInt(start - FRAME, length);
+		buf.putInt(start - 4, (int) crc.getValue());
+		if (buf != buffer) {
+			buf.flip();
+			writeFully(ch, buf);
+		}
+	}
+
+	/**
+	 * flush(FileChannel) - writes out the contents of the write buffer.
+	 *
+	 * @param ch the file being written
+	 */
+	private void flush(FileChannel ch) {
+		buffer.flip();
+		writeFully(ch, buffer);
+		buffer.clear();
+	}
+
+	/**
+	 * writeFully(FileChannel, ByteBuffer) - writes every remaining byte of a
+	 * buffer.
+	 *
+	 * @param ch  the channel
+	 * @param buf the buffer
+	 * @throws UncheckedIOException if the write fails
+	 */
+	private static void writeFully(FileChannel ch, ByteBuffer buf) {
+		try {
+			while (buf.hasRemaining())
+				ch.write(buf);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * read(Path, Map) - applies the records of one file to the map of tickets by
+	 * id.
+	 *
+	 * @param file    the file
+	 * @param tickets the tickets loaded so far
+	 * @throws IOException if the file cannot be read or a record is corrupt
+	 */
+	private static void read(Path file, Map<Long, Ticket> tickets) throws IOException {
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+			CRC32C check = new CRC32C();
+			int pos = 0;
+			while (pos < buf.limit()) {
+				if (pos + FRAME > buf.limit())
+					throw new IOException("Truncated record in " + file.getFileName() + ".");
+				int length = buf.getInt(pos);
+				if (length <= 0 || pos + FRAME + length > buf.limit())
+					throw new IOException("Truncated record in " + file.getFileName() + ".");
+				ByteBuffer body = buf.duplicate();
+				body.limit(pos + FRAME + length).position(pos + FRAME);
+				check.reset();
+				check.update(body);
+				if ((int) check.getValue() != buf.getInt(pos + 4))
+					throw new IOException("Corrupt record in " + file.getFileName() + ".");
+				body.position(pos + FRAME);
+				byte kind = body.get();
+				if (kind == PUT) {
+					Ticket t = TicketCodec.decodeTicket(body);
+					tickets.put(t.getTicketId(), t);
+				} else if (kind == REMOVE) {
+					tickets.remove(body.getLong());
+				}
+				pos += FRAME + length;
+			}
+		}
+	}
+}
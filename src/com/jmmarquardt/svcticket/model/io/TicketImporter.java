@@ -0,0 +1,869 @@
+/**
+ * TicketImporter.java
+ */
+package com.jmmarquardt.svcticket.model.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import com.jmmarquardt.svcticket.model.command.Command;
+import com.jmmarquardt.svcticket.model.command.Command.CancellationCode;
+import com.jmmarquardt.svcticket.model.command.Command.FeedbackCode;
+import com.jmmarquardt.svcticket.model.command.Command.ResolutionCode;
+import com.jmmarquardt.svcticket.model.manager.TicketManager;
+import com.jmmarquardt.svcticket.model.ticket.Ticket;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Category;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Priority;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.TicketType;
+import com.jmmarquardt.svcticket.model.ticket.TicketStateMachine;
+
+/**
+ * TicketImporter
+ * <p>
+ * TicketImporter loads ticket export files into a {@code TicketManager}. The
+ * file is memory-mapped and split into chunks which are parsed in parallel on
+ * a {@code ForkJoinPool}; each chunk starts at the first record that begins
+ * inside it and finishes the last record it begins, so records never need to
+ * be aligned with chunk boundaries. Parsed tickets are added to the manager in
+ * bulk, chunk by chunk in file order, with only a bounded number of chunks in
+ * flight at once, and a {@link Progress} callback is told after each chunk.
+ * </p>
+ * <p>
+ * Enumerated fields are resolved from the raw bytes through lookup tables of
+ * the String constants of {@code Ticket} and {@code Command} ("Incident",
+ * "Software", "Urgent", "Working", "Awaiting Caller", "Solved", "Duplicate",
+ * ...) and of the enum constant names, ignoring case.
+ * </p>
+ * A CSV file has one ticket per line:
+ *
+ * <pre>
+ * id,type,subject,caller,category,priority,state,owner,code,note[,note...]
+ * </pre>
+ *
+ * where code is the FeedbackCode, ResolutionCode or CancellationCode the
+ * state requires, or empty. Fields may be quoted with '"' (a quote inside is
+ * doubled), but may not contain line breaks. A first line that does not start
+ * with a digit is a header and is skipped. An XML file holds elements
+ *
+ * <pre>
+ * &lt;ticket id="1" type="Incident" subject="..." caller="..." category="Network"
+ *         priority="High" state="Working" owner="..." code=""&gt;
+ *     &lt;note&gt;...&lt;/note&gt;
+ * &lt;/ticket&gt;
+ * </pre>
+ *
+ * inside any root element; state, owner and code may be omitted.
+ *
+ * @author John-Michael Marquardt
+ */
+public class TicketImporter {
+	/** The default size of a chunk, 4 MB. */
+	public static final int DEFAULT_CHUNK_SIZE = 4 << 20;
+	/** The longest record a chunk may finish past its end. */
+	static final int MAX_RECORD = 1 << 20;
+
+	/** TicketType by name. */
+	private static final EnumLookup TYPES = new EnumLookup(new String[] { Ticket.TT_REQUEST, Ticket.TT_INCIDENT },
+			TicketType.values());
+	/** Category by name. */
+	private static final EnumLookup CATEGORIES = new EnumLookup(new String[] { Ticket.C_INQUIRY,
+			Ticket.C_SOFTWARE, Ticket.C_HARDWARE, Ticket.C_NETWORK, Ticket.C_DATABASE }, Category.values());
+	/** Priority by name. */
+	private static final EnumLookup PRIORITIES = new EnumLookup(
+			new String[] { Ticket.P_URGENT, Ticket.P_HIGH, Ticket.P_MEDIUM, Ticket.P_LOW }, Priority.values());
+	/** State id by name. */
+	private static final EnumLookup STATES = new EnumLookup(
+			new String[] { Ticket.NEW_NAME, Ticket.WORKING_NAME, Ticket.FEEDBACK_NAME, Ticket.RESOLVED_NAME,
+					Ticket.CLOSED_NAME, Ticket.CANCELED_NAME },
+			new int[] { TicketStateMachine.NEW, TicketStateMachine.WORKING, TicketStateMachine.FEEDBACK,
+					TicketStateMachine.RESOLVED, TicketStateMachine.CLOSED, TicketStateMachine.CANCELED });
+	/** FeedbackCode by name. */
+	private static final EnumLookup FEEDBACK_CODES = new EnumLookup(
+			new String[] { Command.F_CALLER, Command.F_CHANGE, Command.F_PROVIDER }, FeedbackCode.values());
+	/** ResolutionCode by name. */
+	private static final EnumLookup RESOLUTION_CODES = new EnumLookup(
+			new String[] { Command.RC_COMPLETED, Command.RC_NOT_COMPLETED, Command.RC_SOLVED, Command.RC_WORKAROUND,
+					Command.RC_NOT_SOLVED, Command.RC_CALLER_CLOSED },
+			ResolutionCode.values());
+	/** CancellationCode by name. */
+	private static final EnumLookup CANCELLATION_CODES = new EnumLookup(
+			new String[] { Command.CC_DUPLICATE, Command.CC_INAPPROPRIATE }, CancellationCode.values());
+
+	/** XML attribute ids. */
+	private static final int A_ID = 0, A_TYPE = 1, A_SUBJECT = 2, A_CALLER = 3, A_CATEGORY = 4, A_PRIORITY = 5,
+			A_STATE = 6, A_OWNER = 7, A_CODE = 8;
+	/** XML attribute id by name. */
+	private static final EnumLookup ATTRIBUTES = new EnumLookup(
+			new String[] { "id", "type", "subject", "caller", "category", "priority", "state", "owner", "code" },
+			new int[] { A_ID, A_TYPE, A_SUBJECT, A_CALLER, A_CATEGORY, A_PRIORITY, A_STATE, A_OWNER, A_CODE });
+
+	/** Cached enum values, indexed by ordinal. */
+	private static final TicketType[] TYPE_VALUES = TicketType.values();
+	/** Cached enum values, indexed by ordinal. */
+	private static final Category[] CATEGORY_VALUES = Category.values();
+	/** Cached enum values, indexed by ordinal. */
+	private static final Priority[] PRIORITY_VALUES = Priority.values();
+	/** Cached enum values, indexed by ordinal. */
+	private static final FeedbackCode[] FEEDBACK_VALUES = FeedbackCode.values();
+	/** Cached enum values, indexed by ordinal. */
+	private static final ResolutionCode[] RESOLUTION_VALUES = ResolutionCode.values();
+	/** Cached enum values, indexed by ordinal. */
+	private static final CancellationCode[] CANCELLATION_VALUES = CancellationCode.values();
+
+	/** The formats of ticket files. */
+	public enum Format {
+		CSV, XML
+	}
+
+	/**
+	 * Progress is told how far an import has got after each chunk is loaded.
+	 */
+	public interface Progress {
+
+		/**
+		 * progress(long, long, long) - called after a chunk has been added to the
+		 * manager.
+		 *
+		 * @param bytesRead  the bytes of the file loaded so far.
+		 * @param bytesTotal the size of the file.
+		 * @param tickets    the number of tickets added so far.
+		 */
+		void progress(long bytesRead, long bytesTotal, long tickets);
+	}
+
+	/** The manager tickets are added to. */
+	private final TicketManager manager;
+	/** The pool chunks are parsed on. */
+	private final ForkJoinPool pool;
+	/** The size of a chunk. */
+	private final int chunkSize;
+
+	/**
+	 * TicketImporter(TicketManager) - constructs an importer that parses on the
+	 * common pool with the default chunk size.
+	 *
+	 * @param manager the TicketManager to add tickets to.
+	 * @throws IllegalArgumentException if manager is null.
+	 */
+	public TicketImporter(TicketManager manager) {
+		this(manager, ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * TicketImporter(TicketManager, ForkJoinPool, int) - constructs an importer.
+	 *
+	 * @param manager   the TicketManager to add tickets to.
+	 * @param pool      the pool to parse chunks on.
+	 * @param chunkSize the number of bytes in a chunk.
+	 * @throws IllegalArgumentException if manager or pool is null, or chunkSize
+	 *                                  is not positive.
+	 */
+	public TicketImporter(TicketManager manager, ForkJoinPool pool, int chunkSize) {
+		if (manager == null || pool == null)
+			throw new IllegalArgumentException("Parameter cannot be null.");
+		if (chunkSize <= 0)
+			throw new IllegalArgumentException("Invalid chunk size.");
+		this.manager = manager;
+		this.pool = pool;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * formatOf(Path) - returns the Format of a file from its extension: XML for
+	 * ".xml", CSV otherwise.
+	 *
+	 * @param file the file.
+	 * @return its Format.
+	 */
+	public static Format formatOf(Path file) {
+		return file.getFileName().toString().toLowerCase().endsWith(".xml") ? Format.XML : Format.CSV;
+	}
+
+	/**
+	 * importFile(Path, Format, Progress) - loads every ticket in the file into the
+	 * manager and moves the ticket id allocator past the largest id loaded. A
+	 * ticket whose id is already in the manager is skipped.
+	 *
+	 * @param file     the file to load.
+	 * @param format   the format of the file.
+	 * @param progress told after each chunk is loaded, or null.
+	 * @return the number of tickets added.
+	 * @throws IOException              if the file cannot be read.
+	 * @throws IllegalArgumentException if file or format is null, or a record is
+	 *                                  invalid; tickets in earlier chunks will
+	 *                                  already have been added.
+	 */
+	public long importFile(Path file, Format format, Progress progress) throws IOException {
+		if (file == null || format == null)
+			throw new IllegalArgumentException("Parameter cannot be null.");
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = ch.size();
+			long chunks = (size + chunkSize - 1) / chunkSize;
+			int window = Math.max(2, pool.getParallelism() * 2);
+			ArrayDeque<ForkJoinTask<Chunk>> inFlight = new ArrayDeque<ForkJoinTask<Chunk>>();
+			long next = 0;
+			long read = 0;
+			long added = 0;
+			long maxId = 0;
+			try {
+				while (next < chunks || !inFlight.isEmpty()) {
+					while (next < chunks && inFlight.size() < window) {
+						long start = next++ * chunkSize;
+						inFlight.add(pool.submit(new Parser(ch, size, start, Math.min(size, start + chunkSize), format)));
+					}
+					Chunk chunk = await(inFlight.poll());
+					added += manager.addTickets(chunk.tickets, chunk.count);
+					maxId = Math.max(maxId, chunk.maxId);
+					read += chunk.length;
+					if (progress != null)
+						progress.progress(read, size, added);
+				}
+			} finally {
+				for (ForkJoinTask<Chunk> task : inFlight)
+					task.cancel(false);
+				if (maxId > 0)
+					Ticket.getIdAllocator().reserve(maxId);
+			}
+			return added;
+		}
+	}
+
+	/**
+	 * await(ForkJoinTask) - waits for a parser and returns its chunk, rethrowing
+	 * the exception the parser failed with.
+	 *
+	 * @param task the parser's task
+	 * @return the parsed chunk
+	 * @throws IOException if the chunk could not be read
+	 */
+	private static Chunk await(ForkJoinTask<Chunk> task) throws IOException {
+		Chunk chunk;
+		try {
+			chunk = task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Import interrupted.");
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+		if (chunk.failure instanceof UncheckedIOException)
+			throw ((UncheckedIOException) chunk.failure).getCause();
+		if (chunk.failure != null)
+			throw chunk.failure;
+		return chunk;
+	}
+
+	/**
+	 * Chunk holds the tickets parsed from one chunk of a file.
+	 */
+	private static final class Chunk {
+		/** The tickets; only the first count are in use. */
+		Ticket[] tickets = new Ticket[1024];
+		/** The number of tickets. */
+		int count;
+		/** The largest ticket id in the chunk. */
+		long maxId;
+		/** The size of the chunk in bytes. */
+		long length;
+		/**
+		 * The exception parsing failed with, or null. Returned rather than thrown
+		 * so that the importer rethrows it unchanged.
+		 */
+		RuntimeException failure;
+
+		/**
+		 * add(Ticket) - appends a ticket.
+		 *
+		 * @param t the ticket
+		 */
+		void add(Ticket t) {
+			if (count == tickets.length)
+				tickets = Arrays.copyOf(tickets, count * 2);
+			tickets[count++] = t;
+			maxId = Math.max(maxId, t.getTicketId());
+		}
+	}
+
+	/**
+	 * Parser parses the records that begin in one chunk of a file.
+	 */
+	private static final class Parser implements Callable<Chunk> {
+		/** The file. */
+		private final FileChannel ch;
+		/** The size of the file. */
+		private final long fileSize;
+		/** The first byte of the chunk. */
+		private final long start;
+		/** The byte after the chunk. */
+		private final long end;
+		/** The format of the file. */
+		private final Format format;
+
+		/** The mapped region: the chunk, the byte before it and MAX_RECORD after. */
+		private MappedByteBuffer buf;
+		/** The file offset of buf. */
+		private long base;
+		/** True if buf reaches the end of the file. */
+		private boolean atEof;
+		/** Holds the bytes of the current field. */
+		private byte[] scratch = new byte[256];
+		/** The number of bytes in scratch. */
+		private int len;
+		/** The parse position in buf. */
+		private int pos;
+		/** The offset in buf of the record being parsed. */
+		private int recordStart;
+		/** True once the last CSV field of a line has been read. */
+		private boolean eol;
+
+		/**
+		 * Parser(FileChannel, long, long, long, Format) - constructs a parser for
+		 * one chunk.
+		 *
+		 * @param ch       the file
+		 * @param fileSize the size of the file
+		 * @param start    the first byte of the chunk
+		 * @param end      the byte after the chunk
+		 * @param format   the format of the file
+		 */
+		Parser(FileChannel ch, long fileSize, long start, long end, Format format) {
+			this.ch = ch;
+			this.fileSize = fileSize;
+			this.start = start;
+			this.end = end;
+			this.format = format;
+		}
+
+		/**
+		 * call - parses the chunk.
+		 *
+		 * @return the tickets of the chunk, or the exception parsing failed with
+		 */
+		@Override
+		public Chunk call() {
+			try {
+				return parse();
+			} catch (RuntimeException e) {
+				Chunk failed = new Chunk();
+				failed.failure = e;
+				return failed;
+			}
+		}
+
+		/**
+		 * parse - maps and parses the chunk.
+		 *
+		 * @return the tickets of the chunk
+		 * @throws UncheckedIOException if the chunk cannot be mapped
+		 */
+		private Chunk parse() {
+			base = Math.max(0, start - 1);
+			long to = Math.min(fileSize, end + MAX_RECORD);
+			atEof = to == fileSize;
+			try {
+				buf = ch.map(FileChannel.MapMode.READ_ONLY, base, to - base);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			Chunk chunk = new Chunk();
+			chunk.length = end - start;
+			int chunkEnd = (int) (end - base);
+			if (format == Format.CSV)
+				parseCsv(chunk, chunkEnd);
+			else
+				parseXml(chunk, chunkEnd);
+			return chunk;
+		}
+
+		/**
+		 * error - returns the exception for an invalid record.
+		 *
+		 * @return the exception to throw
+		 */
+		private IllegalArgumentException error() {
+			return new IllegalArgumentException("Invalid ticket record at byte " + (base + recordStart) + ".");
+		}
+
+		/**
+		 * append(int) - appends a byte to scratch.
+		 *
+		 * @param b the byte
+		 */
+		private void append(int b) {
+			if (len == scratch.length)
+				scratch = Arrays.copyOf(scratch, len * 2);
+			scratch[len++] = (byte) b;
+		}
+
+		/**
+		 * text - returns scratch as a String.
+		 *
+		 * @return the String
+		 */
+		private String text() {
+			return new String(scratch, 0, len, StandardCharsets.UTF_8);
+		}
+
+		/**
+		 * lookup(EnumLookup) - resolves scratch through a table.
+		 *
+		 * @param table the table
+		 * @return the value
+		 * @throws IllegalArgumentException if scratch is not a key
+		 */
+		private int lookup(EnumLookup table) {
+			int v = table.get(scratch, 0, len);
+			if (v == EnumLookup.MISSING)
+				throw error();
+			return v;
+		}
+
+		/**
+		 * number - parses scratch as a positive ticket id.
+		 *
+		 * @return the id
+		 * @throws IllegalArgumentException if scratch is not a positive number
+		 */
+		private long number() {
+			if (len == 0 || len > 18)
+				throw error();
+			long v = 0;
+			for (int i = 0; i < len; i++) {
+				int d = scratch[i] - '0';
+				if (d < 0 || d > 9)
+					throw error();
+				v = v * 10 + d;
+			}
+			if (v <= 0)
+				throw error();
+			return v;
+		}
+
+		/**
+		 * code(int) - resolves scratch as the code required by a state.
+		 *
+		 * @param state  the state id
+		 * @param holder receives the code in slot 0, 1 or 2 by kind
+		 * @throws IllegalArgumentException if scratch is not a code of the state
+		 */
+		private void code(int state, Enum<?>[] holder) {
+			if (len == 0)
+				return;
+			if (state == TicketStateMachine.FEEDBACK)
+				holder[0] = FEEDBACK_VALUES[lookup(FEEDBACK_CODES)];
+			else if (state == TicketStateMachine.RESOLVED || state == TicketStateMachine.CLOSED)
+				holder[1] = RESOLUTION_VALUES[lookup(RESOLUTION_CODES)];
+			else if (state == TicketStateMachine.CANCELED)
+				holder[2] = CANCELLATION_VALUES[lookup(CANCELLATION_CODES)];
+			else
+				throw error();
+		}
+
+		/**
+		 * build(long, int, String, String, int, int, int, String, Enum[], List) -
+		 * restores a ticket from parsed fields, reporting an invalid record by its
+		 * offset.
+		 *
+		 * @param id       the ticket id
+		 * @param type     the TicketType ordinal, or -1 if missing
+		 * @param subject  the subject
+		 * @param caller   the caller
+		 * @param category the Category ordinal, or -1 if missing
+		 * @param priority the Priority ordinal, or -1 if missing
+		 * @param state    the state id
+		 * @param owner    the owner
+		 * @param codes    the feedback, resolution and cancellation codes
+		 * @param notes    the notes
+		 * @return the ticket
+		 */
+		private Ticket build(long id, int type, String subject, String caller, int category, int priority,
+				int state, String owner, Enum<?>[] codes, List<String> notes) {
+			if (type < 0 || category < 0 || priority < 0)
+				throw error();
+			try {
+				return Ticket.restore(id, TYPE_VALUES[type], subject, caller, CATEGORY_VALUES[category],
+						PRIORITY_VALUES[priority], state, owner, (FeedbackCode) codes[0], (ResolutionCode) codes[1],
+						(CancellationCode) codes[2], notes);
+			} catch (IllegalArgumentException e) {
+				IllegalArgumentException error = error();
+				error.initCause(e);
+				throw error;
+			}
+		}
+
+		/**
+		 * parseCsv(Chunk, int) - parses the CSV lines that begin before chunkEnd.
+		 *
+		 * @param chunk    receives the tickets
+		 * @param chunkEnd the offset in buf of the end of the chunk
+		 */
+		private void parseCsv(Chunk chunk, int chunkEnd) {
+			int limit = buf.limit();
+			pos = (int) (start - base);
+			if (start > 0) {
+				// the record that spans the chunk start belongs to the previous chunk
+				pos--;
+				while (pos < limit && buf.get(pos) != '\n')
+					pos++;
+				pos++;
+			} else {
+				if (limit >= 3 && (buf.get(0) & 0xFF) == 0xEF && (buf.get(1) & 0xFF) == 0xBB
+						&& (buf.get(2) & 0xFF) == 0xBF)
+					pos = 3;
+				if (pos < limit && (buf.get(pos) < '0' || buf.get(pos) > '9'))
+					while (pos < limit && buf.get(pos++) != '\n')
+						;
+			}
+			while (pos < chunkEnd) {
+				byte b = buf.get(pos);
+				if (b == '\n' || b == '\r') {
+					pos++;
+					continue;
+				}
+				recordStart = pos;
+				chunk.add(parseCsvRecord());
+			}
+		}
+
+		/**
+		 * parseCsvRecord - parses the CSV line at pos.
+		 *
+		 * @return the ticket
+		 */
+		private Ticket parseCsvRecord() {
+			eol = false;
+			field();
+			long id = number();
+			field();
+			int type = lookup(TYPES);
+			field();
+			String subject = text();
+			field();
+			String caller = text();
+			field();
+			int category = lookup(CATEGORIES);
+			field();
+			int priority = lookup(PRIORITIES);
+			field();
+			int state = lookup(STATES);
+			field();
+			String owner = text();
+			field();
+			Enum<?>[] codes = new Enum<?>[3];
+			code(state, codes);
+			List<String> notes = new ArrayList<String>(1);
+			while (!eol) {
+				field();
+				notes.add(text());
+			}
+			return build(id, type, subject, caller, category, priority, state, owner, codes, notes);
+		}
+
+		/**
+		 * field - reads the next CSV field of the line into scratch.
+		 *
+		 * @throws IllegalArgumentException if the line has ended or the field is
+		 *                                  malformed
+		 */
+		private void field() {
+			if (eol)
+				throw error();
+			int limit = buf.limit();
+			len = 0;
+			if (pos < limit && buf.get(pos) == '"') {
+				pos++;
+				while (true) {
+					if (pos >= limit)
+						throw error();
+					byte c = buf.get(pos++);
+					if (c == '"') {
+						if (pos < limit && buf.get(pos) == '"')
+							pos++;
+						else
+							break;
+					}
+					append(c);
+				}
+			} else {
+				while (pos < limit) {
+					byte c = buf.get(pos);
+					if (c == ',' || c == '\n' || c == '\r')
+						break;
+					append(c);
+					pos++;
+				}
+			}
+			if (pos >= limit) {
+				if (!atEof)
+					throw error();
+				eol = true;
+				return;
+			}
+			byte c = buf.get(pos);
+			if (c == ',') {
+				pos++;
+			} else if (c == '\n' || c == '\r') {
+				eol = true;
+				if (c == '\r')
+					pos++;
+				if (pos < limit && buf.get(pos) == '\n')
+					pos++;
+			} else {
+				throw error();
+			}
+		}
+
+		/**
+		 * parseXml(Chunk, int) - parses the ticket elements that begin before
+		 * chunkEnd.
+		 *
+		 * @param chunk    receives the tickets
+		 * @param chunkEnd the offset in buf of the end of the chunk
+		 */
+		private void parseXml(Chunk chunk, int chunkEnd) {
+			pos = (int) (start - base);
+			while (findTicket() && pos < chunkEnd) {
+				recordStart = pos;
+				chunk.add(parseXmlRecord());
+			}
+		}
+
+		/**
+		 * findTicket - moves pos to the next "&lt;ticket" tag.
+		 *
+		 * @return true if one was found
+		 */
+		private boolean findTicket() {
+			int limit = buf.limit();
+			for (; pos + 7 < limit; pos++) {
+				if (buf.get(pos) == '<' && startsWith("<ticket")) {
+					byte c = buf.get(pos + 7);
+					if (c == ' ' || c == '>' || c == '/' || c == '\t' || c == '\n' || c == '\r')
+						return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * startsWith(String) - returns true if the ASCII text occurs at pos.
+		 *
+		 * @param s the text
+		 * @return true if it occurs at pos
+		 */
+		private boolean startsWith(String s) {
+			if (pos + s.length() > buf.limit())
+				return false;
+			for (int i = 0; i < s.length(); i++)
+				if (buf.get(pos + i) != s.charAt(i))
+					return false;
+			return true;
+		}
+
+		/**
+		 * skipSpace - moves pos past white space.
+		 */
+		private void skipSpace() {
+			int limit = buf.limit();
+			while (pos < limit) {
+				byte c = buf.get(pos);
+				if (c != ' ' && c != '\t' && c != '\n' && c != '\r')
+					return;
+				pos++;
+			}
+		}
+
+		/**
+		 * parseXmlRecord - parses the ticket element at pos.
+		 *
+		 * @return the ticket
+		 */
+		private Ticket parseXmlRecord() {
+			int limit = buf.limit();
+			long id = 0;
+			int type = -1, category = -1, priority = -1, state = TicketStateMachine.NEW;
+			String subject = null, caller = null, owner = "";
+			byte[] code = null;
+			pos += 7;
+			boolean empty;
+			while (true) {
+				skipSpace();
+				if (pos >= limit)
+					throw error();
+				byte c = buf.get(pos);
+				if (c == '>') {
+					pos++;
+					empty = false;
+					break;
+				}
+				if (c == '/' && startsWith("/>")) {
+					pos += 2;
+					empty = true;
+					break;
+				}
+				len = 0;
+				while (pos < limit && (c = buf.get(pos)) != '=' && c != ' ' && c != '\t' && c != '\n' && c != '\r')
+					append(buf.get(pos++));
+				int attribute = lookup(ATTRIBUTES);
+				skipSpace();
+				if (pos >= limit || buf.get(pos++) != '=')
+					throw error();
+				skipSpace();
+				text(pos < limit ? buf.get(pos++) : 0);
+				switch (attribute) {
+				case A_ID:
+					id = number();
+					break;
+				case A_TYPE:
+					type = lookup(TYPES);
+					break;
+				case A_SUBJECT:
+					subject = text();
+					break;
+				case A_CALLER:
+					caller = text();
+					break;
+				case A_CATEGORY:
+					category = lookup(CATEGORIES);
+					break;
+				case A_PRIORITY:
+					priority = lookup(PRIORITIES);
+					break;
+				case A_STATE:
+					state = lookup(STATES);
+					break;
+				case A_OWNER:
+					owner = text();
+					break;
+				default:
+					// resolved once the state is known
+					code = Arrays.copyOf(scratch, len);
+					break;
+				}
+			}
+			Enum<?>[] codes = new Enum<?>[3];
+			if (code != null) {
+				len = 0;
+				for (byte b : code)
+					append(b);
+				code(state, codes);
+			}
+			List<String> notes = new ArrayList<String>(1);
+			while (!empty) {
+				skipSpace();
+				if (startsWith("</ticket>")) {
+					pos += 9;
+					break;
+				} else if (startsWith("<note/>")) {
+					pos += 7;
+					notes.add("");
+				} else if (startsWith("<note>")) {
+					pos += 6;
+					text((byte) '<');
+					pos--;
+					if (!startsWith("</note>"))
+						throw error();
+					pos += 7;
+					notes.add(text());
+				} else {
+					throw error();
+				}
+			}
+			return build(id, type, subject, caller, category, priority, state, owner, codes, notes);
+		}
+
+		/**
+		 * text(byte) - reads XML character data up to and past the given
+		 * terminator into scratch, decoding entity and character references.
+		 *
+		 * @param quote the terminating byte: the quote of an attribute value, or '<'
+		 */
+		private void text(byte quote) {
+			if (quote != '"' && quote != '\'' && quote != '<')
+				throw error();
+			int limit = buf.limit();
+			len = 0;
+			while (true) {
+				if (pos >= limit)
+					throw error();
+				byte c = buf.get(pos++);
+				if (c == quote)
+					return;
+				if (c != '&') {
+					append(c);
+					continue;
+				}
+				int semi = pos;
+				while (semi < limit && semi - pos < 10 && buf.get(semi) != ';')
+					semi++;
+				if (semi >= limit || buf.get(semi) != ';')
+					throw error();
+				int cp = entity(pos, semi);
+				pos = semi + 1;
+				if (cp < 0x80) {
+					append(cp);
+				} else if (cp < 0x800) {
+					append(0xC0 | cp >> 6);
+					append(0x80 | (cp & 0x3F));
+				} else if (cp < 0x10000) {
+					append(0xE0 | cp >> 12);
+					append(0x80 | (cp >> 6 & 0x3F));
+					append(0x80 | (cp & 0x3F));
+				} else {
+					append(0xF0 | cp >> 18);
+					append(0x80 | (cp >> 12 & 0x3F));
+					append(0x80 | (cp >> 6 & 0x3F));
+					append(0x80 | (cp & 0x3F));
+				}
+			}
+		}
+
+		/**
+		 * entity(int, int) - returns the code point of the reference in buf[from,
+		 * to), the text between '&amp;' and ';'.
+		 *
+		 * @param from the first byte of the name
+		 * @param to   the offset of the ';'
+		 * @return the code point
+		 */
+		private int entity(int from, int to) {
+			int n = to - from;
+			if (n >= 2 && buf.get(from) == '#') {
+				boolean hex = buf.get(from + 1) == 'x';
+				int cp = 0;
+				for (int i = from + (hex ? 2 : 1); i < to; i++) {
+					int d = Character.digit(buf.get(i), hex ? 16 : 10);
+					if (d < 0)
+						throw error();
+					cp = cp * (hex ? 16 : 10) + d;
+				}
+				if (cp > Character.MAX_CODE_POINT)
+					throw error();
+				return cp;
+			}
+			int saved = pos;
+			pos = from;
+			int cp = startsWith("amp;") ? '&'
+					: startsWith("lt;") ? '<'
+							: startsWith("gt;") ? '>' : startsWith("quot;") ? '"' : startsWith("apos;") ? '\'' : -1;
+			pos = saved;
+			if (cp < 0)
+				throw error();
+			return cp;
+		}
+	}
+}
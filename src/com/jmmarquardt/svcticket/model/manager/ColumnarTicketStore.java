@@ -0,0 +1,747 @@
+/**
+ * ColumnarTicketStore.java
+ */
+package com.jmmarquardt.svcticket.model.manager;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+import com.jmmarquardt.svcticket.model.command.Command;
+import com.jmmarquardt.svcticket.model.command.Command.CancellationCode;
+import com.jmmarquardt.svcticket.model.command.Command.FeedbackCode;
+import com.jmmarquardt.svcticket.model.command.Command.ResolutionCode;
+import com.jmmarquardt.svcticket.model.ticket.CommandResult;
+import com.jmmarquardt.svcticket.model.ticket.PackedTicket;
+import com.jmmarquardt.svcticket.model.ticket.Ticket;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Category;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Priority;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.TicketType;
+import com.jmmarquardt.svcticket.model.ticket.TicketStateMachine;
+import com.jmmarquardt.svcticket.model.ticket.TicketView;
+import com.jmmarquardt.svcticket.model.user.UserSymbolTable;
+
+/**
+ * ColumnarTicketStore
+ * <p>
+ * ColumnarTicketStore keeps tickets as rows of parallel primitive arrays
+ * instead of as Ticket objects: the ids in a {@code long[]}, every enum-valued
+ * field packed into one {@code int} per row (see {@code PackedTicket}), and
+ * the caller and owner as UserSymbolTable handles in two more {@code int[]}.
+ * Only the subjects are object references. Counting or selecting tickets by
+ * state, category, priority, type, codes or owner is a linear pass over one or
+ * two dense arrays, with no pointer chasing, which suits reports and
+ * dashboards over many tickets.
+ * </p>
+ *
+ * Rows are not kept in any order; removing a ticket moves the last row into
+ * its place. {@code get()} returns a small immutable {@code TicketView} of a
+ * row, and {@code forEach()} passes one reusable view moved from row to row.
+ * Notes are not stored.
+ *
+ * A store can be filled from a {@code TicketManager} with {@code from()}, or
+ * registered as a {@code TicketListener} to mirror the manager as it changes.
+ * It can also apply Commands itself, using the same TicketStateMachine table
+ * as Ticket. All methods are thread safe.
+ *
+ * @author John-Michael Marquardt
+ */
+public class ColumnarTicketStore implements TicketListener {
+	/** IllegalArgumentException message for null parameters. */
+	private static final String NULL_ERROR = "Parameter cannot be null.";
+
+	/** Guards every column. */
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	/** The row of each ticket id. */
+	private final LongIntMap rows;
+	/** The ticket id of each row. */
+	private long[] ids;
+	/** The PackedTicket word of each row. */
+	private int[] fields;
+	/** The caller handle of each row. */
+	private int[] callers;
+	/** The owner handle of each row. */
+	private int[] owners;
+	/** The subject of each row. */
+	private String[] subjects;
+	/** The number of rows in use. */
+	private int size;
+
+	/**
+	 * ColumnarTicketStore() - constructs an empty store.
+	 */
+	public ColumnarTicketStore() {
+		this(1024);
+	}
+
+	/**
+	 * ColumnarTicketStore(int) - constructs an empty store with room for the
+	 * given number of tickets.
+	 *
+	 * @param capacity the number of tickets to allocate room for.
+	 */
+	public ColumnarTicketStore(int capacity) {
+		capacity = Math.max(16, capacity);
+		rows = new LongIntMap(capacity);
+		ids = new long[capacity];
+		fields = new int[capacity];
+		callers = new int[capacity];
+		owners = new int[capacity];
+		subjects = new String[capacity];
+	}
+
+	/**
+	 * from(TicketManager) - returns a new store holding a copy of every ticket in
+	 * the manager. Each shard of the manager is copied under its read lock.
+	 *
+	 * @param manager the TicketManager to copy.
+	 * @return the new store.
+	 * @throws IllegalArgumentException if manager is null.
+	 */
+	public static ColumnarTicketStore from(TicketManager manager) {
+		if (manager == null)
+			throw new IllegalArgumentException(NULL_ERROR);
+		ColumnarTicketStore store = new ColumnarTicketStore(manager.size());
+		manager.forEach(store::add);
+		return store;
+	}
+
+	/**
+	 * add(TicketView) - adds a row holding a copy of the ticket's fields.
+	 *
+	 * @param ticket the ticket to add.
+	 * @throws IllegalArgumentException if ticket is null or a ticket with the same
+	 *                                  id is already in the store.
+	 */
+	public void add(TicketView ticket) {
+		if (ticket == null)
+			throw new IllegalArgumentException(NULL_ERROR);
+		add(ticket.getTicketId(), PackedTicket.pack(ticket), ticket.getCallerHandle(), ticket.getOwnerHandle(),
+				ticket.getSubject());
+	}
+
+	/**
+	 * add(long, TicketType, String, String, Category, Priority) - adds a row for
+	 * a new ticket in the New state, without creating a Ticket.
+	 *
+	 * @param ticketId   the id of the ticket, which must be positive.
+	 * @param ticketType the TicketType.
+	 * @param subject    the subject.
+	 * @param caller     the caller's user id.
+	 * @param category   the Category.
+	 * @param priority   the Priority.
+	 * @throws IllegalArgumentException if a parameter is null or empty, ticketId
+	 *                                  is not positive, or the id is already in
+	 *                                  the store.
+	 */
+	public void add(long ticketId, TicketType ticketType, String subject, String caller, Category category,
+			Priority priority) {
+		if (ticketType == null || category == null || priority == null || subject == null || subject.isEmpty()
+				|| caller == null || caller.isEmpty())
+			throw new IllegalArgumentException(NULL_ERROR);
+		add(ticketId, PackedTicket.pack(ticketType, category, priority),
+				UserSymbolTable.getInstance().intern(caller), UserSymbolTable.EMPTY, subject);
+	}
+
+	/**
+	 * add(long, int, int, int, String) - appends a row.
+	 *
+	 * @param id      the ticket id
+	 * @param word    the packed fields
+	 * @param caller  the caller handle
+	 * @param owner   the owner handle
+	 * @param subject the subject
+	 */
+	private void add(long id, int word, int caller, int owner, String subject) {
+		if (id <= 0)
+			throw new IllegalArgumentException("Invalid ticket id.");
+		lock.writeLock().lock();
+		try {
+			if (rows.get(id) != LongIntMap.MISSING)
+				throw new IllegalArgumentException("Ticket id is already in use.");
+			if (size == ids.length)
+				grow();
+			ids[size] = id;
+			fields[size] = word;
+			callers[size] = caller;
+			owners[size] = owner;
+			subjects[size] = subject;
+			rows.put(id, size++);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * grow - doubles the capacity of every column. Called with the write lock
+	 * held.
+	 */
+	private void grow() {
+		int capacity = ids.length * 2;
+		ids = Arrays.copyOf(ids, capacity);
+		fields = Arrays.copyOf(fields, capacity);
+		callers = Arrays.copyOf(callers, capacity);
+		owners = Arrays.copyOf(owners, capacity);
+		subjects = Arrays.copyOf(subjects, capacity);
+	}
+
+	/**
+	 * remove(long) - removes the ticket with the given id. The last row is moved
+	 * into its place.
+	 *
+	 * @param ticketId the id of the ticket.
+	 * @return true if the ticket was in the store.
+	 */
+	public boolean remove(long ticketId) {
+		lock.writeLock().lock();
+		try {
+			int row = rows.remove(ticketId);
+			if (row == LongIntMap.MISSING)
+				return false;
+			int last = --size;
+			if (row != last) {
+				ids[row] = ids[last];
+				fields[row] = fields[last];
+				callers[row] = callers[last];
+				owners[row] = owners[last];
+				subjects[row] = subjects[last];
+				rows.put(ids[row], row);
+			}
+			subjects[last] = null;
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * apply(long, Command) - applies a Command to the row of the given ticket,
+	 * following the same TicketStateMachine table as {@code Ticket.apply()}. The
+	 * Command's note is not stored.
+	 *
+	 * @param ticketId the id of the ticket.
+	 * @param command  the Command to apply.
+	 * @return CommandResult.APPLIED, or the reason the Command was rejected.
+	 * @throws IllegalArgumentException if command is null.
+	 */
+	public CommandResult apply(long ticketId, Command command) {
+		if (command == null)
+			throw new IllegalArgumentException(NULL_ERROR);
+		return applyLocked(ticketId, command.encode());
+	}
+
+	/**
+	 * apply(long, long) - applies an encoded Command (see
+	 * {@code Command.encode()}) to the row of the given ticket, without a
+	 * Command object.
+	 *
+	 * @param ticketId the id of the ticket.
+	 * @param command  the encoded Command to apply.
+	 * @return CommandResult.APPLIED, or the reason the Command was rejected.
+	 * @throws IllegalArgumentException if command is not a valid encoded
+	 *                                  Command.
+	 */
+	public CommandResult apply(long ticketId, long command) {
+		if (!Command.isValid(command))
+			throw new IllegalArgumentException("Invalid command.");
+		return applyLocked(ticketId, command);
+	}
+
+	/**
+	 * applyLocked(long, long) - applies a valid encoded Command under the write
+	 * lock.
+	 *
+	 * @param ticketId the id of the ticket
+	 * @param command  the encoded Command
+	 * @return the outcome of the Command
+	 */
+	private CommandResult applyLocked(long ticketId, long command) {
+		int value = Command.commandValueOf(command).ordinal();
+		int code = Command.codeOf(command);
+		lock.writeLock().lock();
+		try {
+			int row = rows.get(ticketId);
+			if (row == LongIntMap.MISSING)
+				return CommandResult.NO_SUCH_TICKET;
+			int word = PackedTicket.applyCommand(fields[row], value, code);
+			if (word == PackedTicket.INVALID_TRANSITION)
+				return CommandResult.INVALID_TRANSITION;
+			if (word == PackedTicket.INVALID_CODE)
+				return CommandResult.INVALID_CODE;
+			if ((TicketStateMachine.transition(PackedTicket.state(fields[row]), value)
+					& TicketStateMachine.SET_OWNER) != 0)
+				owners[row] = Command.ownerHandleOf(command);
+			fields[row] = word;
+			return CommandResult.APPLIED;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * size - returns the number of tickets in the store.
+	 *
+	 * @return the number of rows.
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return size;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * contains(long) - returns true if the store holds the ticket with the given
+	 * id.
+	 *
+	 * @param ticketId the id of the ticket.
+	 * @return true if the ticket is in the store.
+	 */
+	public boolean contains(long ticketId) {
+		lock.readLock().lock();
+		try {
+			return rows.get(ticketId) != LongIntMap.MISSING;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * get(long) - returns an immutable view of the ticket with the given id, as it
+	 * is now.
+	 *
+	 * @param ticketId the id of the ticket.
+	 * @return a TicketView of the ticket, or null if it is not in the store.
+	 */
+	public TicketView get(long ticketId) {
+		lock.readLock().lock();
+		try {
+			int row = rows.get(ticketId);
+			if (row == LongIntMap.MISSING)
+				return null;
+			return new RowView(ids[row], fields[row], callers[row], owners[row], subjects[row]);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * count(int, int) - returns the number of tickets whose packed fields, masked
+	 * with mask, equal value. For example, {@code count(PackedTicket.STATE_MASK,
+	 * TicketStateMachine.FEEDBACK)} counts the tickets in the Feedback state.
+	 *
+	 * @param mask  the PackedTicket mask of the fields to test.
+	 * @param value the expected value of those fields.
+	 * @return the number of matching tickets.
+	 */
+	public int count(int mask, int value) {
+		lock.readLock().lock();
+		try {
+			int[] f = fields;
+			int n = 0;
+			for (int i = 0; i < size; i++)
+				if ((f[i] & mask) == value)
+					n++;
+			return n;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * countOwnedBy(int, int, int) - returns the number of tickets owned by the
+	 * given user whose packed fields, masked with mask, equal value.
+	 *
+	 * @param ownerHandle the UserSymbolTable handle of the owner.
+	 * @param mask        the PackedTicket mask of the fields to test; 0 to count
+	 *                    every ticket of the owner.
+	 * @param value       the expected value of those fields.
+	 * @return the number of matching tickets.
+	 */
+	public int countOwnedBy(int ownerHandle, int mask, int value) {
+		lock.readLock().lock();
+		try {
+			int[] f = fields;
+			int[] o = owners;
+			int n = 0;
+			for (int i = 0; i < size; i++)
+				if (o[i] == ownerHandle && (f[i] & mask) == value)
+					n++;
+			return n;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * histogram(int, int) - counts the tickets by the value of one packed field.
+	 * For example, {@code histogram(PackedTicket.PRIORITY_MASK,
+	 * PackedTicket.PRIORITY_SHIFT)} returns the number of tickets of each
+	 * Priority, indexed by ordinal.
+	 *
+	 * @param mask  the PackedTicket mask of the field.
+	 * @param shift the PackedTicket shift of the field.
+	 * @return the counts, indexed by the field's value.
+	 */
+	public int[] histogram(int mask, int shift) {
+		int[] counts = new int[(mask >>> shift) + 1];
+		lock.readLock().lock();
+		try {
+			int[] f = fields;
+			for (int i = 0; i < size; i++)
+				counts[(f[i] & mask) >>> shift]++;
+			return counts;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * select(int, int) - returns the ids of the tickets whose packed fields,
+	 * masked with mask, equal value, in row order.
+	 *
+	 * @param mask  the PackedTicket mask of the fields to test.
+	 * @param value the expected value of those fields.
+	 * @return the ids of the matching tickets.
+	 */
+	public long[] select(int mask, int value) {
+		lock.readLock().lock();
+		try {
+			int[] f = fields;
+			long[] out = new long[16];
+			int n = 0;
+			for (int i = 0; i < size; i++) {
+				if ((f[i] & mask) == value) {
+					if (n == out.length)
+						out = Arrays.copyOf(out, n * 2);
+					out[n++] = ids[i];
+				}
+			}
+			return Arrays.copyOf(out, n);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * forEach(Consumer) - passes a view of every ticket to the action, in row
+	 * order, under the store's read lock. The same view object is moved from row
+	 * to row, so the action must not keep it; {@code get()} returns a view that
+	 * can be kept.
+	 *
+	 * @param action the action to perform on each ticket.
+	 */
+	public void forEach(Consumer<? super TicketView> action) {
+		lock.readLock().lock();
+		try {
+			Cursor cursor = new Cursor();
+			for (int i = 0; i < size; i++) {
+				cursor.row = i;
+				action.accept(cursor);
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * ticketAdded(Ticket) - adds a row for a ticket added to the manager.
+	 *
+	 * @param ticket the Ticket that was added.
+	 */
+	@Override
+	public void ticketAdded(Ticket ticket) {
+		add(ticket);
+	}
+
+	/**
+	 * ticketUpdated(Ticket, int, String) - copies the packed fields and owner of
+	 * an updated ticket into its row.
+	 *
+	 * @param ticket        the Ticket that was updated.
+	 * @param previousState the state before the Command.
+	 * @param previousOwner the owner before the Command.
+	 */
+	@Override
+	public void ticketUpdated(Ticket ticket, int previousState, String previousOwner) {
+		lock.writeLock().lock();
+		try {
+			int row = rows.get(ticket.getTicketId());
+			if (row != LongIntMap.MISSING) {
+				fields[row] = PackedTicket.pack(ticket);
+				owners[row] = ticket.getOwnerHandle();
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * ticketRemoved(Ticket) - removes the row of a ticket removed from the
+	 * manager.
+	 *
+	 * @param ticket the Ticket that was removed.
+	 */
+	@Override
+	public void ticketRemoved(Ticket ticket) {
+		remove(ticket.getTicketId());
+	}
+
+	/**
+	 * AbstractView implements TicketView over a ticket id, packed word, handles
+	 * and subject supplied by a subclass.
+	 */
+	abstract static class AbstractView implements TicketView {
+
+		/**
+		 * word - returns the packed fields of the viewed ticket.
+		 *
+		 * @return the PackedTicket word
+		 */
+		abstract int word();
+
+		/**
+		 * getTicketType - returns the TicketType in the packed word.
+		 *
+		 * @return the TicketType
+		 */
+		@Override
+		public TicketType getTicketType() {
+			return PackedTicket.type(word());
+		}
+
+		/**
+		 * getCaller - resolves the caller handle to the caller's user id.
+		 *
+		 * @return the caller
+		 */
+		@Override
+		public String getCaller() {
+			return UserSymbolTable.getInstance().resolve(getCallerHandle());
+		}
+
+		/**
+		 * getCategory - returns the Category in the packed word.
+		 *
+		 * @return the Category
+		 */
+		@Override
+		public Category getCategory() {
+			return PackedTicket.category(word());
+		}
+
+		/**
+		 * getPriority - returns the Priority in the packed word.
+		 *
+		 * @return the Priority
+		 */
+		@Override
+		public Priority getPriority() {
+			return PackedTicket.priority(word());
+		}
+
+		/**
+		 * getOwner - resolves the owner handle to the owner's user id.
+		 *
+		 * @return the owner, or the empty String if there is none
+		 */
+		@Override
+		public String getOwner() {
+			return UserSymbolTable.getInstance().resolve(getOwnerHandle());
+		}
+
+		/**
+		 * getState - returns the name of the state in the packed word.
+		 *
+		 * @return the state name
+		 */
+		@Override
+		public String getState() {
+			return TicketStateMachine.getStateName(getStateId());
+		}
+
+		/**
+		 * getStateId - returns the state id in the packed word.
+		 *
+		 * @return the state id
+		 */
+		@Override
+		public int getStateId() {
+			return PackedTicket.state(word());
+		}
+
+		/**
+		 * getFeedbackCode - returns the FeedbackCode in the packed word.
+		 *
+		 * @return the FeedbackCode, or null
+		 */
+		@Override
+		public FeedbackCode getFeedbackCode() {
+			return PackedTicket.feedbackCode(word());
+		}
+
+		/**
+		 * getResolutionCode - returns the ResolutionCode in the packed word.
+		 *
+		 * @return the ResolutionCode, or null
+		 */
+		@Override
+		public ResolutionCode getResolutionCode() {
+			return PackedTicket.resolutionCode(word());
+		}
+
+		/**
+		 * getCancellationCode - returns the CancellationCode in the packed word.
+		 *
+		 * @return the CancellationCode, or null
+		 */
+		@Override
+		public CancellationCode getCancellationCode() {
+			return PackedTicket.cancellationCode(word());
+		}
+	}
+
+	/**
+	 * RowView is an immutable copy of one row.
+	 */
+	static final class RowView extends AbstractView {
+		/** The ticket id. */
+		private final long id;
+		/** The packed fields. */
+		private final int word;
+		/** The caller handle. */
+		private final int caller;
+		/** The owner handle. */
+		private final int owner;
+		/** The subject. */
+		private final String subject;
+
+		/**
+		 * RowView(long, int, int, int, String) - copies a row.
+		 *
+		 * @param id      the ticket id
+		 * @param word    the packed fields
+		 * @param caller  the caller handle
+		 * @param owner   the owner handle
+		 * @param subject the subject
+		 */
+		RowView(long id, int word, int caller, int owner, String subject) {
+			this.id = id;
+			this.word = word;
+			this.caller = caller;
+			this.owner = owner;
+			this.subject = subject;
+		}
+
+		/**
+		 * word - returns the copied packed fields.
+		 *
+		 * @return the PackedTicket word
+		 */
+		@Override
+		int word() {
+			return word;
+		}
+
+		/**
+		 * getTicketId - returns the copied ticket id.
+		 *
+		 * @return the ticket id
+		 */
+		@Override
+		public long getTicketId() {
+			return id;
+		}
+
+		/**
+		 * getSubject - returns the copied subject.
+		 *
+		 * @return the subject
+		 */
+		@Override
+		public String getSubject() {
+			return subject;
+		}
+
+		/**
+		 * getCallerHandle - returns the copied caller handle.
+		 *
+		 * @return the caller handle
+		 */
+		@Override
+		public int getCallerHandle() {
+			return caller;
+		}
+
+		/**
+		 * getOwnerHandle - returns the copied owner handle.
+		 *
+		 * @return the owner handle
+		 */
+		@Override
+		public int getOwnerHandle() {
+			return owner;
+		}
+	}
+
+	/**
+	 * Cursor is the reusable view passed to forEach() actions; it reads the
+	 * columns of its current row directly.
+	 */
+	private final class Cursor extends AbstractView {
+		/** The current row. */
+		int row;
+
+		/**
+		 * word - returns the packed fields of the current row.
+		 *
+		 * @return the PackedTicket word
+		 */
+		@Override
+		int word() {
+			return fields[row];
+		}
+
+		/**
+		 * getTicketId - returns the ticket id of the current row.
+		 *
+		 * @return the ticket id
+		 */
+		@Override
+		public long getTicketId() {
+			return ids[row];
+		}
+
+		/**
+		 * getSubject - returns the subject of the current row.
+		 *
+		 * @return the subject
+		 */
+		@Override
+		public String getSubject() {
+			return subjects[row];
+		}
+
+		/**
+		 * getCallerHandle - returns the caller handle of the current row.
+		 *
+		 * @return the caller handle
+		 */
+		@Override
+		public int getCallerHandle() {
+			return callers[row];
+		}
+
+		/**
+		 * getOwnerHandle - returns the owner handle of the current row.
+		 *
+		 * @return the owner handle
+		 */
+		@Override
+		public int getOwnerHandle() {
+			return owners[row];
+		}
+	}
+}
@@ -0,0 +1,97 @@
+/**
+ * CommandBatch.java
+ */
+package com.jmmarquardt.svcticket.model.manager;
+
+import java.util.Arrays;
+
+import com.jmmarquardt.svcticket.model.command.Command;
+
+/**
+ * CommandBatch collects (ticket id, Command) pairs to be applied together by
+ * {@code TicketManager.applyBatch()}. The pairs are kept in two parallel
+ * arrays, so a large batch costs no per-pair wrapper objects. A CommandBatch
+ * is not thread safe.
+ *
+ * @author John-Michael Marquardt
+ */
+public class CommandBatch {
+	/** The ticket ids, parallel to commands. */
+	private long[] ticketIds;
+	/** The Commands, parallel to ticketIds. */
+	private Command[] commands;
+	/** The number of pairs in the batch. */
+	private int size;
+
+	/**
+	 * CommandBatch() - constructs an empty batch.
+	 */
+	public CommandBatch() {
+		this(64);
+	}
+
+	/**
+	 * CommandBatch(int) - constructs an empty batch with room for the given
+	 * number of pairs.
+	 *
+	 * @param capacity the number of pairs to allocate room for.
+	 */
+	public CommandBatch(int capacity) {
+		ticketIds = new long[Math.max(1, capacity)];
+		commands = new Command[Math.max(1, capacity)];
+	}
+
+	/**
+	 * add(long, Command) - adds a Command for the ticket with the given id.
+	 * Commands for the same ticket are applied in the order they are added.
+	 *
+	 * @param ticketId the id of the Ticket.
+	 * @param command  the Command to apply to it.
+	 * @throws IllegalArgumentException if command is null.
+	 */
+	public void add(long ticketId, Command command) {
+		if (command == null)
+			throw new IllegalArgumentException("Parameter cannot be null.");
+		if (size == ticketIds.length) {
+			ticketIds = Arrays.copyOf(ticketIds, size * 2);
+			commands = Arrays.copyOf(commands, size * 2);
+		}
+		ticketIds[size] = ticketId;
+		commands[size++] = command;
+	}
+
+	/**
+	 * size - returns the number of pairs in the batch.
+	 *
+	 * @return the number of pairs.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * clear - removes every pair, keeping the allocated room.
+	 */
+	public void clear() {
+		Arrays.fill(commands, 0, size, null);
+		size = 0;
+	}
+
+	/**
+	 * ticketIds - returns the backing array of ticket ids.
+	 *
+	 * @return the ticket ids; only the first size() are in use
+	 */
+	long[] ticketIds() {
+		return ticketIds;
+	}
+
+	/**
+	 * commands - returns the backing array of Commands.
+	 *
+	 * @return the Commands; only the first size() are in use
+	 */
+	Command[] commands() {
+		return commands;
+	}
+}
@@ -0,0 +1,62 @@
+/**
+ * CommandLog.java
+ */
+package com.jmmarquardt.svcticket.model.manager;
+
+import com.jmmarquardt.svcticket.model.command.Command;
+import com.jmmarquardt.svcticket.model.ticket.Ticket;
+
+/**
+ * CommandLog is an interface for objects that record the changes made through
+ * a {@code TicketManager}: tickets added and removed and Commands applied, e.g. a journal used to rebuild the tickets after a
+ * restart. Like a {@code TicketListener}, a CommandLog is called while the
+ * shard lock of the ticket is held, so the records for any one ticket are
+ * logged in the order they were applied. Only successful changes are logged.
+ *
+ * @author John-Michael Marquardt
+ */
+public interface CommandLog {
+
+	/**
+	 * ticketCreated(Ticket) - records a Ticket that was added to the manager.
+	 *
+	 * @param ticket the Ticket that was added.
+	 */
+	void ticketCreated(Ticket ticket);
+
+	/**
+	 * commandApplied(long, Command) - records a Command that was applied to a
+	 * Ticket.
+	 *
+	 * @param ticketId the id of the Ticket.
+	 * @param command  the Command that was applied.
+	 */
+	void commandApplied(long ticketId, Command command);
+
+	/**
+	 * ticketRemoved(long) - records a Ticket that was removed from the manager.
+	 * The default implementation does nothing; a log used to rebuild the
+	 * tickets must override it, or removed tickets come back.
+	 *
+	 * @param ticketId the id of the Ticket that was removed.
+	 */
+	default void ticketRemoved(long ticketId) {
+	}
+
+	/**
+	 * commandsApplied(long[], Command[], int[], int) - records a group of
+	 * Commands applied by {@code TicketManager.applyCommands()}: for each k less
+	 * than count, commands[indexes[k]] was applied to ticketIds[indexes[k]]. The
+	 * default implementation calls {@code commandApplied()} for each one; logs
+	 * that can write a group at once should override it.
+	 *
+	 * @param ticketIds the ticket ids of the batch.
+	 * @param commands  the Commands of the batch.
+	 * @param indexes   the positions of the applied Commands in the batch.
+	 * @param count     the number of entries of indexes in use.
+	 */
+	default void commandsApplied(long[] ticketIds, Command[] commands, int[] indexes, int count) {
+		for (int k = 0; k < count; k++)
+			commandApplied(ticketIds[indexes[k]], commands[indexes[k]]);
+	}
+}
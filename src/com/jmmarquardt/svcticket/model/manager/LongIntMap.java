@@ -0,0 +1,170 @@
+/**
+ * LongIntMap.java
+ */
+package com.jmmarquardt.svcticket.model.manager;
+
+/**
+ * LongIntMap is an open-addressing hash map from a ticket id to an
+ * {@code int}, laid out like {@code LongTicketMap}: parallel key and value
+ * arrays, linear probing, and backward-shift removal. {@code ColumnarTicketStore}
+ * uses it to find the row of a ticket id, and {@code TicketTextIndex} to find
+ * the document number of one.
+ *
+ * The map is not thread safe. Key 0 marks an empty slot, which is safe because
+ * ticket ids are always positive.
+ *
+ * @author John-Michael Marquardt
+ */
+public final class LongIntMap {
+	/** Returned by get() and remove() for an id that is not in the map. */
+	public static final int MISSING = -1;
+	/** Multiplier used to spread ids over the table. */
+	private static final long MIX = 0x9E3779B97F4A7C15L;
+	/** The smallest table capacity. */
+	private static final int MIN_CAPACITY = 16;
+
+	/** The keys, 0 for an empty slot. */
+	private long[] keys;
+	/** The values, parallel to keys. */
+	private int[] values;
+	/** The number of entries in the map. */
+	private int size;
+	/** The size at which the table is doubled. */
+	private int resizeAt;
+
+	/**
+	 * LongIntMap(int) - constructs an empty map sized for the given number of
+	 * entries.
+	 *
+	 * @param expected the number of entries the map should hold without growing
+	 */
+	public LongIntMap(int expected) {
+		int capacity = MIN_CAPACITY;
+		while (capacity * 3 / 4 < expected)
+			capacity <<= 1;
+		allocate(capacity);
+	}
+
+	/**
+	 * allocate(int) - replaces the table with an empty one of the given capacity.
+	 *
+	 * @param capacity the new capacity, a power of two
+	 */
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new int[capacity];
+		resizeAt = capacity * 3 / 4;
+	}
+
+	/**
+	 * slot(long, int) - returns the home slot of a key.
+	 *
+	 * @param key  the key
+	 * @param mask the table capacity minus one
+	 * @return the index the probe for key starts at
+	 */
+	private static int slot(long key, int mask) {
+		long h = key * MIX;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	/**
+	 * get(long) - returns the value mapped to the id.
+	 *
+	 * @param key the ticket id
+	 * @return the value, or MISSING if the id is not in the map
+	 */
+	public int get(long key) {
+		int mask = keys.length - 1;
+		for (int i = slot(key, mask);; i = (i + 1) & mask) {
+			long cur = keys[i];
+			if (cur == key)
+				return values[i];
+			if (cur == 0)
+				return MISSING;
+		}
+	}
+
+	/**
+	 * put(long, int) - maps the id to the value, replacing any previous value.
+	 *
+	 * @param key   the ticket id, which must be positive
+	 * @param value the value, which must not be negative
+	 * @return the previous value, or MISSING
+	 */
+	public int put(long key, int value) {
+		int mask = keys.length - 1;
+		int i = slot(key, mask);
+		while (keys[i] != 0) {
+			if (keys[i] == key) {
+				int old = values[i];
+				values[i] = value;
+				return old;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		values[i] = value;
+		if (++size > resizeAt)
+			resize();
+		return MISSING;
+	}
+
+	/**
+	 * remove(long) - removes the id from the map.
+	 *
+	 * @param key the ticket id
+	 * @return the removed value, or MISSING if the id was not in the map
+	 */
+	public int remove(long key) {
+		int mask = keys.length - 1;
+		int i = slot(key, mask);
+		while (keys[i] != key) {
+			if (keys[i] == 0)
+				return MISSING;
+			i = (i + 1) & mask;
+		}
+		int old = values[i];
+		// shift later members of the probe run back into the hole
+		int hole = i;
+		for (int j = (hole + 1) & mask; keys[j] != 0; j = (j + 1) & mask) {
+			int home = slot(keys[j], mask);
+			if (((j - home) & mask) >= ((j - hole) & mask)) {
+				keys[hole] = keys[j];
+				values[hole] = values[j];
+				hole = j;
+			}
+		}
+		keys[hole] = 0;
+		size--;
+		return old;
+	}
+
+	/**
+	 * resize - doubles the capacity of the table and rehashes every entry.
+	 */
+	private void resize() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(oldKeys.length << 1);
+		int mask = keys.length - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldKeys[j] == 0)
+				continue;
+			int i = slot(oldKeys[j], mask);
+			while (keys[i] != 0)
+				i = (i + 1) & mask;
+			keys[i] = oldKeys[j];
+			values[i] = oldValues[j];
+		}
+	}
+
+	/**
+	 * size - returns the number of entries in the map.
+	 *
+	 * @return the number of entries
+	 */
+	public int size() {
+		return size;
+	}
+}
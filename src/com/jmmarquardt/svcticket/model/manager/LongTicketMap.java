@@ -0,0 +1,192 @@
+/**
+ * LongTicketMap.java
+ */
+package com.jmmarquardt.svcticket.model.manager;
+
+import java.util.function.Consumer;
+
+import com.jmmarquardt.svcticket.model.ticket.Ticket;
+
+/**
+ * LongTicketMap is an open-addressing hash map from a ticket id (a primitive
+ * {@code long}) to its {@code Ticket}. Keys and values live in two parallel
+ * arrays and collisions are resolved by linear probing, so lookups never box
+ * the id or allocate an entry object. Removal shifts the following entries of
+ * the probe run back instead of leaving tombstones.
+ *
+ * The map is not thread safe; {@code TicketManager} guards each map with the
+ * lock of its shard. Key 0 marks an empty slot, which is safe because ticket
+ * ids are always positive.
+ *
+ * @author John-Michael Marquardt
+ */
+final class LongTicketMap {
+	/** Multiplier used to spread ids over the table. */
+	private static final long MIX = 0x9E3779B97F4A7C15L;
+	/** The smallest table capacity. */
+	private static final int MIN_CAPACITY = 16;
+
+	/** The keys, 0 for an empty slot. */
+	private long[] keys;
+	/** The values, parallel to keys. */
+	private Ticket[] values;
+	/** The number of entries in the map. */
+	private int size;
+	/** The size at which the table is doubled. */
+	private int resizeAt;
+
+	/**
+	 * LongTicketMap(int) - constructs an empty map sized for the given number of
+	 * entries.
+	 *
+	 * @param expected the number of entries the map should hold without growing
+	 */
+	LongTicketMap(int expected) {
+		int capacity = MIN_CAPACITY;
+		while (capacity * 3 / 4 < expected)
+			capacity <<= 1;
+		allocate(capacity);
+	}
+
+	/**
+	 * allocate(int) - replaces the table with an empty one of the given capacity.
+	 *
+	 * @param capacity the new capacity, a power of two
+	 */
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new Ticket[capacity];
+		resizeAt = capacity * 3 / 4;
+	}
+
+	/**
+	 * slot(long, int) - returns the home slot of a key.
+	 *
+	 * @param key  the key
+	 * @param mask the table capacity minus one
+	 * @return the index the probe for key starts at
+	 */
+	private static int slot(long key, int mask) {
+		long h = key * MIX;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	/**
+	 * get(long) - returns the Ticket with the given id, or null.
+	 *
+	 * @param key the ticket id
+	 * @return the Ticket, or null if the id is not in the map
+	 */
+	Ticket get(long key) {
+		long[] k = keys;
+		Ticket[] v = values;
+		int mask = k.length - 1;
+		if (v.length != k.length)
+			return null;
+		for (int i = slot(key, mask), n = 0; n <= mask; i = (i + 1) & mask, n++) {
+			long cur = k[i];
+			if (cur == key)
+				return v[i];
+			if (cur == 0)
+				return null;
+		}
+		return null;
+	}
+
+	/**
+	 * put(long, Ticket) - maps the id to the Ticket, replacing any previous value.
+	 *
+	 * @param key    the ticket id, which must be positive
+	 * @param ticket the Ticket
+	 * @return the previous Ticket with this id, or null
+	 */
+	Ticket put(long key, Ticket ticket) {
+		int mask = keys.length - 1;
+		int i = slot(key, mask);
+		while (keys[i] != 0) {
+			if (keys[i] == key) {
+				Ticket old = values[i];
+				values[i] = ticket;
+				return old;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		values[i] = ticket;
+		if (++size > resizeAt)
+			resize();
+		return null;
+	}
+
+	/**
+	 * remove(long) - removes the id from the map.
+	 *
+	 * @param key the ticket id
+	 * @return the removed Ticket, or null if the id was not in the map
+	 */
+	Ticket remove(long key) {
+		int mask = keys.length - 1;
+		int i = slot(key, mask);
+		while (keys[i] != key) {
+			if (keys[i] == 0)
+				return null;
+			i = (i + 1) & mask;
+		}
+		Ticket old = values[i];
+		// shift later members of the probe run back into the hole
+		int hole = i;
+		for (int j = (hole + 1) & mask; keys[j] != 0; j = (j + 1) & mask) {
+			int home = slot(keys[j], mask);
+			if (((j - home) & mask) >= ((j - hole) & mask)) {
+				keys[hole] = keys[j];
+				values[hole] = values[j];
+				hole = j;
+			}
+		}
+		keys[hole] = 0;
+		values[hole] = null;
+		size--;
+		return old;
+	}
+
+	/**
+	 * resize - doubles the capacity of the table and rehashes every entry.
+	 */
+	private void resize() {
+		long[] oldKeys = keys;
+		Ticket[] oldValues = values;
+		allocate(oldKeys.length << 1);
+		int mask = keys.length - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldKeys[j] == 0)
+				continue;
+			int i = slot(oldKeys[j], mask);
+			while (keys[i] != 0)
+				i = (i + 1) & mask;
+			keys[i] = oldKeys[j];
+			values[i] = oldValues[j];
+		}
+	}
+
+	/**
+	 * size - returns the number of entries in the map.
+	 *
+	 * @return the number of entries
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * forEach(Consumer) - passes every Ticket in the map to the action, in table
+	 * order.
+	 *
+	 * @param action the action to perform on each Ticket
+	 */
+	void forEach(Consumer<? super Ticket> action) {
+		Ticket[] v = values;
+		for (int i = 0; i < v.length; i++)
+			if (v[i] != null)
+				action.accept(v[i]);
+	}
+}
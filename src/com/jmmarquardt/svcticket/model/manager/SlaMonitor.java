@@ -0,0 +1,465 @@
+/**
+ * SlaMonitor.java
+ */
+package com.jmmarquardt.svcticket.model.manager;
+
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import com.jmmarquardt.svcticket.model.command.Command;
+import com.jmmarquardt.svcticket.model.command.Command.CommandValue;
+import com.jmmarquardt.svcticket.model.command.Command.FeedbackCode;
+import com.jmmarquardt.svcticket.model.ticket.CommandResult;
+import com.jmmarquardt.svcticket.model.ticket.Ticket;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Priority;
+import com.jmmarquardt.svcticket.model.ticket.TicketStateMachine;
+import com.jmmarquardt.svcticket.model.timer.HierarchicalTimingWheel;
+
+/**
+ * SlaMonitor
+ * <p>
+ * SlaMonitor keeps the per-ticket deadlines of the service level agreement in
+ * one {@code HierarchicalTimingWheel}. It is a {@code TicketListener}, and as
+ * tickets change state it schedules and cancels their timers at O(1) cost:
+ * </p>
+ * <ul>
+ * <li>a ticket in Feedback longer than the timeout for its FeedbackCode
+ * raises a {@code FEEDBACK_BREACH} event;</li>
+ * <li>a ticket Resolved longer than the confirmation delay is closed with a
+ * CONFIRM Command and raises an {@code AUTO_CONFIRMED} event;</li>
+ * <li>an Urgent ticket not Resolved, Closed or Canceled within the urgent
+ * timeout raises an {@code URGENT_BREACH} event, for escalation.</li>
+ * </ul>
+ * <p>
+ * A timeout of zero disables its timer. The wheel is advanced by
+ * {@code advance()}, either from the monitor's own daemon thread started with
+ * {@code start()} or by the caller. Fired timers are collected under the
+ * monitor's lock, and Commands and events are issued after it is released, so
+ * the monitor never calls the manager or a listener while holding its lock.
+ * </p>
+ *
+ * @author John-Michael Marquardt
+ */
+public class SlaMonitor implements TicketListener {
+	/** The note added to a ticket that is confirmed automatically. */
+	public static final String AUTO_CONFIRM_NOTE = "Confirmed automatically.";
+	/** The default tick of the wheel, one second. */
+	public static final long DEFAULT_TICK = TimeUnit.SECONDS.toNanos(1);
+	/** IllegalArgumentException message for null parameters. */
+	private static final String NULL_ERROR = "Parameter cannot be null.";
+	/** Timer kind of a Feedback ticket's timeout. */
+	private static final int FEEDBACK_TIMER = 0;
+	/** Timer kind of a Resolved ticket's confirmation delay. */
+	private static final int CONFIRM_TIMER = 1;
+	/** Timer kind of an Urgent ticket's resolution timeout. */
+	private static final int URGENT_TIMER = 2;
+
+	/**
+	 * SlaEvent is the kind of an event raised by the monitor.
+	 */
+	public enum SlaEvent {
+		/** A ticket has been in Feedback longer than its timeout. */
+		FEEDBACK_BREACH,
+		/** An Urgent ticket has not been resolved within the urgent timeout. */
+		URGENT_BREACH,
+		/** A Resolved ticket has been closed automatically. */
+		AUTO_CONFIRMED
+	}
+
+	/**
+	 * SlaListener is told about the events raised by the monitor.
+	 */
+	public interface SlaListener {
+
+		/**
+		 * slaEvent(long, SlaEvent) - called on the monitor's advancing thread for
+		 * each event, without any lock held.
+		 *
+		 * @param ticketId the id of the ticket.
+		 * @param event    the event.
+		 */
+		void slaEvent(long ticketId, SlaEvent event);
+	}
+
+	/** The manager Commands are applied through. */
+	private final TicketManager manager;
+	/** The clock, in nanoseconds. */
+	private final LongSupplier clock;
+	/** The wheel tick, in nanoseconds. */
+	private final long tick;
+	/** The timers; guarded by this. */
+	private final HierarchicalTimingWheel wheel;
+	/** The handle of each ticket's state timer; guarded by this. */
+	private final LongIntMap stateTimers = new LongIntMap(1024);
+	/** The ticket version each confirmation timer was started at, by handle; guarded by this. */
+	private long[] timedVersions = new long[1024];
+	/** The handle of each Urgent ticket's timer; guarded by this. */
+	private final LongIntMap urgentTimers = new LongIntMap(1024);
+	/** The Feedback timeout per FeedbackCode ordinal, 0 for none; guarded by this. */
+	private final long[] feedbackTimeouts = new long[FeedbackCode.values().length];
+	/** The delay before a Resolved ticket is confirmed, 0 for never; guarded by this. */
+	private long confirmDelay;
+	/** The time an Urgent ticket has to be resolved, 0 for none; guarded by this. */
+	private long urgentTimeout;
+	/** The registered listeners. */
+	private final CopyOnWriteArrayList<SlaListener> listeners = new CopyOnWriteArrayList<SlaListener>();
+	/** The ids of the timers fired by the current advance(); guarded by this. */
+	private long[] firedIds = new long[64];
+	/** The kinds of the timers fired by the current advance(); guarded by this. */
+	private int[] firedKinds = new int[64];
+	/** The timed ticket versions of the timers fired by the current advance(); guarded by this. */
+	private long[] firedVersions = new long[64];
+	/** The number of fired timers collected; guarded by this. */
+	private int firedCount;
+	/** The thread advancing the wheel, if started; guarded by this. */
+	private Thread ticker;
+
+	/**
+	 * SlaMonitor(TicketManager) - constructs a monitor with a one second tick and
+	 * every timeout disabled. Set the timeouts, register the monitor with the
+	 * manager as a TicketListener, then call {@code load()} to time the tickets
+	 * the manager already holds.
+	 *
+	 * @param manager the TicketManager to monitor.
+	 * @throws IllegalArgumentException if manager is null.
+	 */
+	public SlaMonitor(TicketManager manager) {
+		this(manager, DEFAULT_TICK, System::nanoTime);
+	}
+
+	/**
+	 * SlaMonitor(TicketManager, long, LongSupplier) - constructs a monitor with
+	 * the given tick and clock.
+	 *
+	 * @param manager the manager
+	 * @param tick    the wheel tick in nanoseconds
+	 * @param clock   the clock, in nanoseconds
+	 */
+	SlaMonitor(TicketManager manager, long tick, LongSupplier clock) {
+		if (manager == null)
+			throw new IllegalArgumentException(NULL_ERROR);
+		this.manager = manager;
+		this.clock = clock;
+		this.tick = tick;
+		this.wheel = new HierarchicalTimingWheel(tick, clock.getAsLong());
+	}
+
+	/**
+	 * setFeedbackTimeout(FeedbackCode, long, TimeUnit) - sets how long a ticket
+	 * may wait in Feedback with the given code. Applies to tickets entering
+	 * Feedback from now on.
+	 *
+	 * @param code    the FeedbackCode.
+	 * @param timeout the timeout, 0 for none.
+	 * @param unit    the unit of timeout.
+	 * @throws IllegalArgumentException if code or unit is null or timeout is
+	 *                                  negative.
+	 */
+	public synchronized void setFeedbackTimeout(FeedbackCode code, long timeout, TimeUnit unit) {
+		if (code == null)
+			throw new IllegalArgumentException(NULL_ERROR);
+		feedbackTimeouts[code.ordinal()] = toNanos(timeout, unit);
+	}
+
+	/**
+	 * setConfirmDelay(long, TimeUnit) - sets how long a ticket stays Resolved
+	 * before it is confirmed automatically. Applies to tickets resolved from now
+	 * on.
+	 *
+	 * @param delay the delay, 0 to never confirm automatically.
+	 * @param unit  the unit of delay.
+	 * @throws IllegalArgumentException if unit is null or delay is negative.
+	 */
+	public synchronized void setConfirmDelay(long delay, TimeUnit unit) {
+		confirmDelay = toNanos(delay, unit);
+	}
+
+	/**
+	 * setUrgentTimeout(long, TimeUnit) - sets how long an Urgent ticket has to be
+	 * resolved before it is escalated. Applies to Urgent tickets created or
+	 * reopened from now on.
+	 *
+	 * @param timeout the timeout, 0 for none.
+	 * @param unit    the unit of timeout.
+	 * @throws IllegalArgumentException if unit is null or timeout is negative.
+	 */
+	public synchronized void setUrgentTimeout(long timeout, TimeUnit unit) {
+		urgentTimeout = toNanos(timeout, unit);
+	}
+
+	/**
+	 * toNanos(long, TimeUnit) - converts a timeout to nanoseconds.
+	 *
+	 * @param timeout the timeout
+	 * @param unit    its unit
+	 * @return the timeout in nanoseconds
+	 */
+	private static long toNanos(long timeout, TimeUnit unit) {
+		if (unit == null)
+			throw new IllegalArgumentException(NULL_ERROR);
+		if (timeout < 0)
+			throw new IllegalArgumentException("Invalid timeout.");
+		return unit.toNanos(timeout);
+	}
+
+	/**
+	 * addSlaListener(SlaListener) - registers a listener for events.
+	 *
+	 * @param listener the listener to add.
+	 * @throws IllegalArgumentException if listener is null.
+	 */
+	public void addSlaListener(SlaListener listener) {
+		if (listener == null)
+			throw new IllegalArgumentException(NULL_ERROR);
+		listeners.add(listener);
+	}
+
+	/**
+	 * removeSlaListener(SlaListener) - unregisters a listener.
+	 *
+	 * @param listener the listener to remove.
+	 */
+	public void removeSlaListener(SlaListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * load - times every ticket already in the manager, as if it had just
+	 * entered its state. Tickets added or changed since the monitor was
+	 * registered already have their timers and keep them.
+	 */
+	public void load() {
+		manager.forEach(this::loadTicket);
+	}
+
+	/**
+	 * loadTicket(Ticket) - starts the timers of a ticket found by
+	 * {@code load()} that has none.
+	 *
+	 * @param ticket the ticket
+	 */
+	private synchronized void loadTicket(Ticket ticket) {
+		long now = clock.getAsLong();
+		if (stateTimers.get(ticket.getTicketId()) == LongIntMap.MISSING)
+			startStateTimer(ticket, now);
+		if (isOpen(ticket.getStateId()))
+			startUrgentTimer(ticket, now);
+	}
+
+	/**
+	 * ticketAdded(Ticket) - starts the timers of a new ticket.
+	 *
+	 * @param ticket the Ticket that was added.
+	 */
+	@Override
+	public synchronized void ticketAdded(Ticket ticket) {
+		long now = clock.getAsLong();
+		startStateTimer(ticket, now);
+		if (isOpen(ticket.getStateId()))
+			startUrgentTimer(ticket, now);
+	}
+
+	/**
+	 * ticketUpdated(Ticket, int, String) - restarts the state timer of a ticket
+	 * whose state changed, and starts or stops its urgent timer.
+	 *
+	 * @param ticket        the Ticket that was updated.
+	 * @param previousState the state before the Command.
+	 * @param previousOwner the owner before the Command.
+	 */
+	@Override
+	public synchronized void ticketUpdated(Ticket ticket, int previousState, String previousOwner) {
+		int state = ticket.getStateId();
+		if (state == previousState)
+			return;
+		long id = ticket.getTicketId();
+		long now = clock.getAsLong();
+		startStateTimer(ticket, now);
+		if (!isOpen(state))
+			cancel(urgentTimers, id);
+		else if (!isOpen(previousState))
+			startUrgentTimer(ticket, now);
+	}
+
+	/**
+	 * ticketRemoved(Ticket) - cancels the timers of a removed ticket.
+	 *
+	 * @param ticket the Ticket that was removed.
+	 */
+	@Override
+	public synchronized void ticketRemoved(Ticket ticket) {
+		cancel(stateTimers, ticket.getTicketId());
+		cancel(urgentTimers, ticket.getTicketId());
+	}
+
+	/**
+	 * isOpen(int) - returns true if a ticket in the state still counts against
+	 * the urgent timeout.
+	 *
+	 * @param state a state id
+	 * @return true unless the state is Resolved, Closed or Canceled
+	 */
+	private static boolean isOpen(int state) {
+		return state != TicketStateMachine.RESOLVED && state != TicketStateMachine.CLOSED
+				&& state != TicketStateMachine.CANCELED;
+	}
+
+	/**
+	 * startStateTimer(Ticket, long) - schedules the timer for a Feedback or
+	 * Resolved ticket, replacing any it has.
+	 *
+	 * @param t   the ticket
+	 * @param now the current time
+	 */
+	private void startStateTimer(Ticket t, long now) {
+		long timeout = 0;
+		int kind = FEEDBACK_TIMER;
+		if (t.getStateId() == TicketStateMachine.FEEDBACK && t.getFeedbackCode() != null) {
+			timeout = feedbackTimeouts[t.getFeedbackCode().ordinal()];
+		} else if (t.getStateId() == TicketStateMachine.RESOLVED) {
+			timeout = confirmDelay;
+			kind = CONFIRM_TIMER;
+		}
+		cancel(stateTimers, t.getTicketId());
+		if (timeout <= 0)
+			return;
+		int handle = wheel.schedule(t.getTicketId(), kind, now + timeout);
+		if (handle >= timedVersions.length)
+			timedVersions = Arrays.copyOf(timedVersions, Math.max(handle + 1, timedVersions.length * 2));
+		timedVersions[handle] = t.getVersion();
+		stateTimers.put(t.getTicketId(), handle);
+	}
+
+	/**
+	 * startUrgentTimer(Ticket, long) - schedules the timer for an Urgent ticket
+	 * that has none.
+	 *
+	 * @param t   the ticket
+	 * @param now the current time
+	 */
+	private void startUrgentTimer(Ticket t, long now) {
+		if (t.getPriority() != Priority.URGENT || urgentTimeout == 0
+				|| urgentTimers.get(t.getTicketId()) != LongIntMap.MISSING)
+			return;
+		urgentTimers.put(t.getTicketId(), wheel.schedule(t.getTicketId(), URGENT_TIMER, now + urgentTimeout));
+	}
+
+	/**
+	 * cancel(LongIntMap, long) - cancels a ticket's timer, if it has one.
+	 *
+	 * @param timers the ticket's timers of one kind
+	 * @param id     the ticket id
+	 */
+	private void cancel(LongIntMap timers, long id) {
+		int handle = timers.remove(id);
+		if (handle != LongIntMap.MISSING)
+			wheel.cancel(handle);
+	}
+
+	/**
+	 * size - returns the number of scheduled timers.
+	 *
+	 * @return the number of scheduled timers.
+	 */
+	public synchronized int size() {
+		return wheel.size();
+	}
+
+	/**
+	 * advance - fires every timer whose deadline has passed: confirms the
+	 * Resolved tickets that are due and raises the events. A ticket is confirmed
+	 * only if it is still at the version its timer was started at, so a ticket
+	 * reopened and resolved again after the timer fired waits for its new
+	 * confirmation delay.
+	 *
+	 * @return the number of timers fired.
+	 */
+	public int advance() {
+		long[] ids;
+		int[] kinds;
+		long[] versions;
+		int count;
+		synchronized (this) {
+			firedCount = 0;
+			wheel.advance(clock.getAsLong(), this::collect);
+			count = firedCount;
+			ids = Arrays.copyOf(firedIds, count);
+			kinds = Arrays.copyOf(firedKinds, count);
+			versions = Arrays.copyOf(firedVersions, count);
+		}
+		Command confirm = new Command(CommandValue.CONFIRM, null, null, null, null, AUTO_CONFIRM_NOTE);
+		for (int i = 0; i < count; i++) {
+			long id = ids[i];
+			if (kinds[i] == URGENT_TIMER)
+				raise(id, SlaEvent.URGENT_BREACH);
+			else if (kinds[i] == FEEDBACK_TIMER)
+				raise(id, SlaEvent.FEEDBACK_BREACH);
+			else if (manager.compareAndApply(id, versions[i], confirm) == CommandResult.APPLIED)
+				raise(id, SlaEvent.AUTO_CONFIRMED);
+		}
+		return count;
+	}
+
+	/**
+	 * collect(long, int) - records a fired timer; called by the wheel under the
+	 * monitor's lock.
+	 *
+	 * @param id   the ticket id
+	 * @param kind the timer kind
+	 */
+	private void collect(long id, int kind) {
+		if (firedCount == firedIds.length) {
+			firedIds = Arrays.copyOf(firedIds, firedCount * 2);
+			firedKinds = Arrays.copyOf(firedKinds, firedCount * 2);
+			firedVersions = Arrays.copyOf(firedVersions, firedCount * 2);
+		}
+		int handle = (kind == URGENT_TIMER ? urgentTimers : stateTimers).remove(id);
+		firedIds[firedCount] = id;
+		firedVersions[firedCount] = kind == CONFIRM_TIMER ? timedVersions[handle] : 0;
+		firedKinds[firedCount++] = kind;
+	}
+
+	/**
+	 * raise(long, SlaEvent) - tells every listener about an event.
+	 *
+	 * @param id    the ticket id
+	 * @param event the event
+	 */
+	private void raise(long id, SlaEvent event) {
+		for (SlaListener l : listeners)
+			l.slaEvent(id, event);
+	}
+
+	/**
+	 * start - starts a daemon thread that advances the wheel once per tick.
+	 * Does nothing if it is already running.
+	 */
+	public synchronized void start() {
+		if (ticker != null)
+			return;
+		ticker = new Thread(() -> {
+			while (!Thread.currentThread().isInterrupted()) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(tick);
+				} catch (InterruptedException e) {
+					return;
+				}
+				advance();
+			}
+		}, "SlaMonitor");
+		ticker.setDaemon(true);
+		ticker.start();
+	}
+
+	/**
+	 * stop - stops the thread started by start().
+	 */
+	public synchronized void stop() {
+		if (ticker != null) {
+			ticker.interrupt();
+			ticker = null;
+		}
+	}
+}
@@ -0,0 +1,361 @@
+/**
+ * TicketDispatcher.java
+ */
+package com.jmmarquardt.svcticket.model.manager;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import com.jmmarquardt.svcticket.model.command.Command;
+import com.jmmarquardt.svcticket.model.command.Command.CommandValue;
+import com.jmmarquardt.svcticket.model.ticket.CommandResult;
+import com.jmmarquardt.svcticket.model.ticket.Ticket;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Category;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Priority;
+import com.jmmarquardt.svcticket.model.ticket.TicketStateMachine;
+
+/**
+ * TicketDispatcher
+ * <p>
+ * TicketDispatcher decides which New ticket is worked next. It is a
+ * {@code TicketListener} that keeps the ids of the New tickets in one FIFO
+ * ring per (Category, Priority), so a ticket is queued and taken in O(1).
+ * {@code dispatch()} takes the best ticket for an owner and hands it over by
+ * applying a PROCESS Command through the manager.
+ * </p>
+ * <p>
+ * The best ticket is found by looking only at the head of each ring, which is
+ * the ticket that has waited longest at that priority. A ticket's effective
+ * priority rises one level for every {@code agingInterval} it has waited, so
+ * a LOW ticket is eventually taken ahead of newer URGENT ones instead of
+ * starving. Ties go to the ticket that has waited longest. A dispatch looks at
+ * no more than Category x Priority heads, however large the backlog.
+ * </p>
+ * <p>
+ * Tickets that leave the New state, or are removed, by any other route are
+ * dropped lazily: the ring entry stays until it reaches the head and is
+ * skipped there. All methods are thread safe; the dispatcher never calls the
+ * manager while holding its own lock.
+ * </p>
+ *
+ * @author John-Michael Marquardt
+ */
+public class TicketDispatcher implements TicketListener {
+	/** Returned by dispatch() when no ticket is waiting. */
+	public static final long NONE = 0;
+	/** IllegalArgumentException message for null parameters. */
+	private static final String NULL_ERROR = "Parameter cannot be null.";
+	/** The number of priorities. */
+	private static final int PRIORITIES = Priority.values().length;
+	/** The number of categories. */
+	private static final int CATEGORIES = Category.values().length;
+	/** Every Category, indexed by ordinal. */
+	private static final Category[] ALL = Category.values();
+
+	/** The manager tickets are dispatched through. */
+	private final TicketManager manager;
+	/** The wait that raises a ticket's priority one level, in nanoseconds. */
+	private final long agingInterval;
+	/** The clock, in nanoseconds. */
+	private final LongSupplier clock;
+	/** The rings, indexed by category * PRIORITIES + priority; guarded by this. */
+	private final Bucket[] buckets = new Bucket[CATEGORIES * PRIORITIES];
+	/** The sequence number of each queued id's live ring entry; guarded by this. */
+	private final LongIntMap queued = new LongIntMap(1024);
+	/** The sequence number of the next entry; guarded by this. */
+	private int nextSeq;
+
+	/**
+	 * Bucket is a growable FIFO ring of queued ticket ids.
+	 */
+	private static final class Bucket {
+		/** The queued ids. */
+		long[] ids = new long[16];
+		/** The time each id was queued. */
+		long[] times = new long[16];
+		/** The sequence number of each entry. */
+		int[] seqs = new int[16];
+		/** The index of the head entry. */
+		int head;
+		/** The number of entries, live or stale. */
+		int size;
+		/** The number of live entries. */
+		int live;
+
+		/**
+		 * add(long, long, int) - appends an entry.
+		 *
+		 * @param id   the ticket id
+		 * @param time the time it was queued
+		 * @param seq  the entry's sequence number
+		 */
+		void add(long id, long time, int seq) {
+			if (size == ids.length)
+				grow();
+			int i = (head + size++) & (ids.length - 1);
+			ids[i] = id;
+			times[i] = time;
+			seqs[i] = seq;
+			live++;
+		}
+
+		/**
+		 * poll - drops the head entry.
+		 */
+		void poll() {
+			head = (head + 1) & (ids.length - 1);
+			size--;
+		}
+
+		/**
+		 * grow - doubles the ring, moving the entries to the front.
+		 */
+		private void grow() {
+			int n = ids.length;
+			long[] i2 = new long[n * 2];
+			long[] t2 = new long[n * 2];
+			int[] s2 = new int[n * 2];
+			for (int k = 0; k < size; k++) {
+				int j = (head + k) & (n - 1);
+				i2[k] = ids[j];
+				t2[k] = times[j];
+				s2[k] = seqs[j];
+			}
+			ids = i2;
+			times = t2;
+			seqs = s2;
+			head = 0;
+		}
+	}
+
+	/**
+	 * TicketDispatcher(TicketManager, long, TimeUnit) - constructs an empty
+	 * dispatcher. Register it with the manager as a TicketListener, then call
+	 * {@code load()} to queue the New tickets the manager already holds.
+	 *
+	 * @param manager       the TicketManager to dispatch through.
+	 * @param agingInterval the wait that raises a ticket's priority one level.
+	 * @param unit          the unit of agingInterval.
+	 * @throws IllegalArgumentException if manager or unit is null or
+	 *                                  agingInterval is not positive.
+	 */
+	public TicketDispatcher(TicketManager manager, long agingInterval, TimeUnit unit) {
+		this(manager, toNanos(agingInterval, unit), System::nanoTime);
+	}
+
+	/**
+	 * TicketDispatcher(TicketManager, long, LongSupplier) - constructs an empty
+	 * dispatcher with the given clock.
+	 *
+	 * @param manager       the manager
+	 * @param agingInterval the aging interval in nanoseconds
+	 * @param clock         the clock, in nanoseconds
+	 */
+	TicketDispatcher(TicketManager manager, long agingInterval, LongSupplier clock) {
+		if (manager == null)
+			throw new IllegalArgumentException(NULL_ERROR);
+		if (agingInterval <= 0)
+			throw new IllegalArgumentException("Invalid aging interval.");
+		this.manager = manager;
+		this.agingInterval = agingInterval;
+		this.clock = clock;
+		for (int i = 0; i < buckets.length; i++)
+			buckets[i] = new Bucket();
+	}
+
+	/**
+	 * toNanos(long, TimeUnit) - converts a duration to nanoseconds.
+	 *
+	 * @param duration the duration
+	 * @param unit     its unit
+	 * @return the duration in nanoseconds
+	 */
+	private static long toNanos(long duration, TimeUnit unit) {
+		if (unit == null)
+			throw new IllegalArgumentException(NULL_ERROR);
+		return unit.toNanos(duration);
+	}
+
+	/**
+	 * load - queues every New ticket already in the manager that is not queued.
+	 */
+	public void load() {
+		manager.forEach(t -> {
+			if (t.getStateId() == TicketStateMachine.NEW)
+				enqueue(t);
+		});
+	}
+
+	/**
+	 * ticketAdded(Ticket) - queues a New ticket.
+	 *
+	 * @param ticket the Ticket that was added.
+	 */
+	@Override
+	public void ticketAdded(Ticket ticket) {
+		if (ticket.getStateId() == TicketStateMachine.NEW)
+			enqueue(ticket);
+	}
+
+	/**
+	 * ticketUpdated(Ticket, int, String) - drops a ticket that has left the New
+	 * state.
+	 *
+	 * @param ticket        the Ticket that was updated.
+	 * @param previousState the state before the Command.
+	 * @param previousOwner the owner before the Command.
+	 */
+	@Override
+	public void ticketUpdated(Ticket ticket, int previousState, String previousOwner) {
+		if (ticket.getStateId() == TicketStateMachine.NEW)
+			enqueue(ticket);
+		else if (previousState == TicketStateMachine.NEW)
+			drop(ticket);
+	}
+
+	/**
+	 * ticketRemoved(Ticket) - drops a removed ticket.
+	 *
+	 * @param ticket the Ticket that was removed.
+	 */
+	@Override
+	public void ticketRemoved(Ticket ticket) {
+		drop(ticket);
+	}
+
+	/**
+	 * enqueue(Ticket) - appends a ticket to its ring unless it is queued.
+	 *
+	 * @param t the ticket
+	 */
+	private synchronized void enqueue(Ticket t) {
+		long id = t.getTicketId();
+		if (queued.get(id) != LongIntMap.MISSING)
+			return;
+		int seq = nextSeq++ & Integer.MAX_VALUE;
+		queued.put(id, seq);
+		buckets[t.getCategory().ordinal() * PRIORITIES + t.getPriority().ordinal()].add(id, clock.getAsLong(), seq);
+	}
+
+	/**
+	 * drop(Ticket) - marks a ticket's ring entry stale.
+	 *
+	 * @param t the ticket
+	 */
+	private synchronized void drop(Ticket t) {
+		if (queued.remove(t.getTicketId()) != LongIntMap.MISSING)
+			buckets[t.getCategory().ordinal() * PRIORITIES + t.getPriority().ordinal()].live--;
+	}
+
+	/**
+	 * dispatch(String) - hands the best waiting ticket of any Category to the
+	 * given owner.
+	 *
+	 * @param owner the user id of the owner taking the ticket.
+	 * @return the id of the ticket now owned by owner, or NONE if no ticket is
+	 *         waiting.
+	 * @throws IllegalArgumentException if owner is null or empty.
+	 */
+	public long dispatch(String owner) {
+		return dispatch(owner, ALL);
+	}
+
+	/**
+	 * dispatch(String, Category...) - hands the best waiting ticket in one of the
+	 * given categories to the given owner, by applying a PROCESS Command. A
+	 * ticket that another thread moves out of New first is skipped.
+	 *
+	 * @param owner      the user id of the owner taking the ticket.
+	 * @param categories the categories the owner works on.
+	 * @return the id of the ticket now owned by owner, or NONE if no ticket is
+	 *         waiting.
+	 * @throws IllegalArgumentException if owner is null or empty, or categories
+	 *                                  is null.
+	 */
+	public long dispatch(String owner, Category... categories) {
+		if (owner == null || owner.isEmpty() || categories == null)
+			throw new IllegalArgumentException(NULL_ERROR);
+		long process = Command.encode(CommandValue.PROCESS, owner, -1);
+		for (;;) {
+			long id = take(categories);
+			if (id == NONE)
+				return NONE;
+			if (manager.applyEncoded(id, process, null) == CommandResult.APPLIED)
+				return id;
+		}
+	}
+
+	/**
+	 * take(Category[]) - removes and returns the best queued ticket in the
+	 * categories.
+	 *
+	 * @param categories the categories to look in
+	 * @return the ticket id, or NONE
+	 */
+	private synchronized long take(Category[] categories) {
+		long now = clock.getAsLong();
+		Bucket best = null;
+		long bestRank = Long.MAX_VALUE;
+		long bestTime = Long.MAX_VALUE;
+		for (Category c : categories) {
+			for (int p = 0; p < PRIORITIES; p++) {
+				Bucket b = buckets[c.ordinal() * PRIORITIES + p];
+				if (!skipStale(b))
+					continue;
+				long time = b.times[b.head];
+				long rank = Math.max(0, p - (now - time) / agingInterval);
+				if (rank < bestRank || rank == bestRank && time < bestTime) {
+					best = b;
+					bestRank = rank;
+					bestTime = time;
+				}
+			}
+		}
+		if (best == null)
+			return NONE;
+		long id = best.ids[best.head];
+		best.poll();
+		best.live--;
+		queued.remove(id);
+		return id;
+	}
+
+	/**
+	 * skipStale(Bucket) - drops stale entries from the head of a ring.
+	 *
+	 * @param b the ring
+	 * @return true if the ring's head is now a live entry
+	 */
+	private boolean skipStale(Bucket b) {
+		while (b.size > 0) {
+			if (queued.get(b.ids[b.head]) == b.seqs[b.head])
+				return true;
+			b.poll();
+		}
+		return false;
+	}
+
+	/**
+	 * size - returns the number of tickets waiting.
+	 *
+	 * @return the number of queued tickets.
+	 */
+	public synchronized int size() {
+		return queued.size();
+	}
+
+	/**
+	 * size(Category, Priority) - returns the number of tickets waiting in one
+	 * ring.
+	 *
+	 * @param category the Category.
+	 * @param priority the Priority.
+	 * @return the number of queued tickets with that Category and Priority.
+	 * @throws IllegalArgumentException if a parameter is null.
+	 */
+	public synchronized int size(Category category, Priority priority) {
+		if (category == null || priority == null)
+			throw new IllegalArgumentException(NULL_ERROR);
+		return buckets[category.ordinal() * PRIORITIES + priority.ordinal()].live;
+	}
+}
@@ -0,0 +1,445 @@
+/**
+ * TicketHistory.java
+ */
+package com.jmmarquardt.svcticket.model.manager;
+
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+
+import com.jmmarquardt.svcticket.model.command.Command.CommandValue;
+import com.jmmarquardt.svcticket.model.command.Command.FeedbackCode;
+import com.jmmarquardt.svcticket.model.ticket.Ticket;
+import com.jmmarquardt.svcticket.model.ticket.TicketStateMachine;
+import com.jmmarquardt.svcticket.model.user.UserSymbolTable;
+
+/**
+ * TicketHistory
+ * <p>
+ * TicketHistory records when every ticket changed state, and to what, so that
+ * audits can ask what a ticket looked like at any moment. It is a
+ * {@code TicketListener}: once registered with a {@code TicketManager} it
+ * appends an entry to a ticket's history when the ticket is added and each
+ * time a Command moves it to another state.
+ * </p>
+ * <p>
+ * Each ticket's history is a byte array of entries, a few bytes each: the
+ * milliseconds since the previous entry as a varint, one byte packing the new
+ * state and the ordinal of its FeedbackCode, ResolutionCode or
+ * CancellationCode, and, when the owner changed, the owner's
+ * {@code UserSymbolTable} handle as a varint. The first entry holds the
+ * absolute time and always the owner. The Command that caused a transition is
+ * not stored: every transition of the {@code TicketStateMachine} leads from
+ * one state to another by exactly one CommandValue, so it is recovered from
+ * the two states. Queries decode the arrays in place.
+ * </p>
+ *
+ * The histories are split over stripes by ticket id, each guarded by its own
+ * lock, so tickets in different shards of the manager are recorded in
+ * parallel. A removed ticket's history is kept for audit. History starts when
+ * a ticket is first added to the manager this object listens to.
+ *
+ * @author John-Michael Marquardt
+ */
+public class TicketHistory implements TicketListener {
+	/** The state returned for a ticket with no history at the given time. */
+	public static final int NO_STATE = -1;
+	/** The number of stripes; a power of two. */
+	private static final int STRIPES = 64;
+	/** Multiplier spreading ticket ids over the stripes. */
+	private static final long MIX = 0x9E3779B97F4A7C15L;
+	/** Bits of the packed byte holding the state. */
+	private static final int STATE_MASK = 0x07;
+	/** Shift of the code ordinal + 1 in the packed byte. */
+	private static final int CODE_SHIFT = 3;
+	/** Bits of the code ordinal + 1, after shifting. */
+	private static final int CODE_MASK = 0x07;
+	/** Set in the packed byte when an owner handle follows. */
+	private static final int OWNER_FLAG = 0x40;
+	/** The number of FeedbackCodes. */
+	private static final int FEEDBACK_CODES = FeedbackCode.values().length;
+	/** Every CommandValue, indexed by ordinal. */
+	private static final CommandValue[] COMMANDS = CommandValue.values();
+
+	/**
+	 * TransitionVisitor is passed each entry of a ticket's history, oldest
+	 * first.
+	 */
+	public interface TransitionVisitor {
+
+		/**
+		 * transition(long, CommandValue, int, int, int) - called for one entry.
+		 *
+		 * @param time        the time of the entry, in milliseconds since the
+		 *                    epoch.
+		 * @param command     the CommandValue that caused the transition, or
+		 *                    null for the first entry.
+		 * @param state       the TicketStateMachine id of the new state.
+		 * @param code        the ordinal of the new state's code, or -1.
+		 * @param ownerHandle the UserSymbolTable handle of the owner.
+		 */
+		void transition(long time, CommandValue command, int state, int code, int ownerHandle);
+	}
+
+	/**
+	 * Stripe holds the histories of the tickets whose ids map to it.
+	 */
+	private static final class Stripe {
+		/** The slot of each ticket's history. */
+		final LongIntMap slots = new LongIntMap(256);
+		/** The encoded histories, by slot. */
+		byte[][] data = new byte[64][];
+		/** The number of bytes in use of each history, by slot. */
+		int[] length = new int[64];
+		/** The time of the last entry of each history, by slot. */
+		long[] last = new long[64];
+		/** The owner handle in effect after each history, by slot. */
+		int[] owner = new int[64];
+		/** The number of slots in use. */
+		int count;
+	}
+
+	/** The clock, in milliseconds since the epoch. */
+	private final LongSupplier clock;
+	/** The stripes, indexed by stripe(id). */
+	private final Stripe[] stripes = new Stripe[STRIPES];
+
+	/**
+	 * TicketHistory() - constructs an empty history using the system clock.
+	 */
+	public TicketHistory() {
+		this(System::currentTimeMillis);
+	}
+
+	/**
+	 * TicketHistory(LongSupplier) - constructs an empty history with the given
+	 * clock.
+	 *
+	 * @param clock the clock, in milliseconds since the epoch
+	 */
+	TicketHistory(LongSupplier clock) {
+		this.clock = clock;
+		for (int i = 0; i < STRIPES; i++)
+			stripes[i] = new Stripe();
+	}
+
+	/**
+	 * stripe(long) - returns the stripe holding a ticket's history.
+	 *
+	 * @param id a ticket id
+	 * @return its stripe
+	 */
+	private Stripe stripe(long id) {
+		return stripes[(int) ((id * MIX) >>> 58) & (STRIPES - 1)];
+	}
+
+	/**
+	 * codeOf(Ticket) - returns the ordinal of the code that goes with the
+	 * ticket's state, or -1.
+	 *
+	 * @param ticket a Ticket
+	 * @return the code ordinal, or -1
+	 */
+	private static int codeOf(Ticket ticket) {
+		switch (ticket.getStateId()) {
+		case TicketStateMachine.FEEDBACK:
+			return ticket.getFeedbackCode() == null ? -1 : ticket.getFeedbackCode().ordinal();
+		case TicketStateMachine.RESOLVED:
+		case TicketStateMachine.CLOSED:
+			return ticket.getResolutionCode() == null ? -1 : ticket.getResolutionCode().ordinal();
+		case TicketStateMachine.CANCELED:
+			return ticket.getCancellationCode() == null ? -1 : ticket.getCancellationCode().ordinal();
+		default:
+			return -1;
+		}
+	}
+
+	/**
+	 * ticketAdded(Ticket) - starts the ticket's history with its current state
+	 * and owner.
+	 *
+	 * @param ticket the Ticket that was added.
+	 */
+	@Override
+	public void ticketAdded(Ticket ticket) {
+		long id = ticket.getTicketId();
+		Stripe s = stripe(id);
+		synchronized (s) {
+			int slot = s.slots.get(id);
+			if (slot == LongIntMap.MISSING) {
+				slot = s.count++;
+				if (slot == s.data.length) {
+					int n = slot * 2;
+					s.data = Arrays.copyOf(s.data, n);
+					s.length = Arrays.copyOf(s.length, n);
+					s.last = Arrays.copyOf(s.last, n);
+					s.owner = Arrays.copyOf(s.owner, n);
+				}
+				s.slots.put(id, slot);
+				s.data[slot] = new byte[16];
+				s.last[slot] = 0;
+			}
+			// a re-added ticket continues its history; the owner is always written
+			s.owner[slot] = ~ticket.getOwnerHandle();
+			append(s, slot, ticket);
+		}
+	}
+
+	/**
+	 * ticketUpdated(Ticket, int, String) - appends the ticket's new state to its
+	 * history if a Command changed it.
+	 *
+	 * @param ticket        the Ticket that was updated.
+	 * @param previousState the ticket's state id before the Command.
+	 * @param previousOwner the ticket's owner before the Command.
+	 */
+	@Override
+	public void ticketUpdated(Ticket ticket, int previousState, String previousOwner) {
+		if (ticket.getStateId() == previousState)
+			return;
+		long id = ticket.getTicketId();
+		Stripe s = stripe(id);
+		synchronized (s) {
+			int slot = s.slots.get(id);
+			if (slot != LongIntMap.MISSING)
+				append(s, slot, ticket);
+		}
+	}
+
+	/**
+	 * ticketRemoved(Ticket) - keeps the removed ticket's history.
+	 *
+	 * @param ticket the Ticket that was removed.
+	 */
+	@Override
+	public void ticketRemoved(Ticket ticket) {
+	}
+
+	/**
+	 * append(Stripe, int, Ticket) - appends an entry for the ticket's current
+	 * state to a history while the stripe's lock is held.
+	 *
+	 * @param s      the stripe
+	 * @param slot   the history's slot
+	 * @param ticket the Ticket
+	 */
+	private void append(Stripe s, int slot, Ticket ticket) {
+		long now = clock.getAsLong();
+		byte[] b = s.data[slot];
+		int at = s.length[slot];
+		boolean first = at == 0;
+		if (at + 1 + 10 + 1 + 5 > b.length)
+			b = s.data[slot] = Arrays.copyOf(b, Math.max(b.length * 2, at + 17));
+		at = putVarLong(b, at, first ? now : Math.max(0, now - s.last[slot]));
+		int owner = ticket.getOwnerHandle();
+		boolean ownerChanged = owner != s.owner[slot];
+		b[at++] = (byte) (ticket.getStateId() | (codeOf(ticket) + 1) << CODE_SHIFT | (ownerChanged ? OWNER_FLAG : 0));
+		if (ownerChanged)
+			at = putVarLong(b, at, owner & 0xFFFFFFFFL);
+		s.length[slot] = at;
+		s.last[slot] = first ? now : Math.max(now, s.last[slot]);
+		s.owner[slot] = owner;
+	}
+
+	/**
+	 * putVarLong(byte[], int, long) - writes an unsigned varint.
+	 *
+	 * @param b     the array
+	 * @param at    the index to write at
+	 * @param value the value
+	 * @return the index after the varint
+	 */
+	private static int putVarLong(byte[] b, int at, long value) {
+		while ((value & ~0x7FL) != 0) {
+			b[at++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		b[at++] = (byte) value;
+		return at;
+	}
+
+	/**
+	 * visit(long, TransitionVisitor) - passes each entry of a ticket's history
+	 * to the visitor, oldest first.
+	 *
+	 * @param id      a ticket id.
+	 * @param visitor the visitor.
+	 * @return false if there is no history for the ticket.
+	 * @throws IllegalArgumentException if visitor is null.
+	 */
+	public boolean visit(long id, TransitionVisitor visitor) {
+		if (visitor == null)
+			throw new IllegalArgumentException("Parameter cannot be null.");
+		byte[] b;
+		int length;
+		Stripe s = stripe(id);
+		synchronized (s) {
+			int slot = s.slots.get(id);
+			if (slot == LongIntMap.MISSING)
+				return false;
+			b = s.data[slot];
+			length = s.length[slot];
+		}
+		// entries are only appended, so the prefix read under the lock is stable
+		decode(b, length, visitor);
+		return true;
+	}
+
+	/**
+	 * decode(byte[], int, TransitionVisitor) - decodes a history.
+	 *
+	 * @param b       the encoded history
+	 * @param length  the number of bytes in use
+	 * @param visitor the visitor
+	 */
+	private static void decode(byte[] b, int length, TransitionVisitor visitor) {
+		long time = 0;
+		int owner = UserSymbolTable.EMPTY;
+		int previous = NO_STATE;
+		for (int at = 0; at < length;) {
+			long delta = 0;
+			for (int shift = 0;; shift += 7) {
+				byte x = b[at++];
+				delta |= (long) (x & 0x7F) << shift;
+				if (x >= 0)
+					break;
+			}
+			time += delta;
+			int packed = b[at++];
+			if ((packed & OWNER_FLAG) != 0) {
+				long handle = 0;
+				for (int shift = 0;; shift += 7) {
+					byte x = b[at++];
+					handle |= (long) (x & 0x7F) << shift;
+					if (x >= 0)
+						break;
+				}
+				owner = (int) handle;
+			}
+			int state = packed & STATE_MASK;
+			visitor.transition(time, commandBetween(previous, state), state,
+					((packed >> CODE_SHIFT) & CODE_MASK) - 1, owner);
+			previous = state;
+		}
+	}
+
+	/**
+	 * commandBetween(int, int) - returns the CommandValue that moves a ticket
+	 * from one state to another.
+	 *
+	 * @param from the state before, or NO_STATE
+	 * @param to   the state after
+	 * @return the CommandValue, or null if no single Command makes the move
+	 */
+	private static CommandValue commandBetween(int from, int to) {
+		if (from == NO_STATE)
+			return null;
+		for (CommandValue c : COMMANDS) {
+			int entry = TicketStateMachine.transition(from, c.ordinal());
+			if (entry != TicketStateMachine.INVALID && TicketStateMachine.nextState(entry) == to)
+				return c;
+		}
+		return null;
+	}
+
+	/**
+	 * stateAt(long, long) - returns the state a ticket was in at the given time.
+	 *
+	 * @param id   a ticket id.
+	 * @param time a time, in milliseconds since the epoch.
+	 * @return the TicketStateMachine state id, or NO_STATE if the ticket's
+	 *         history starts after the time or there is none.
+	 */
+	public int stateAt(long id, long time) {
+		int[] state = { NO_STATE };
+		visit(id, (t, command, s, code, owner) -> {
+			if (t <= time)
+				state[0] = s;
+		});
+		return state[0];
+	}
+
+	/**
+	 * ownerAt(long, long) - returns the owner of a ticket at the given time.
+	 *
+	 * @param id   a ticket id.
+	 * @param time a time, in milliseconds since the epoch.
+	 * @return the owner, the empty String if there was none, or null if the
+	 *         ticket's history starts after the time or there is none.
+	 */
+	public String ownerAt(long id, long time) {
+		int[] handle = { UserSymbolTable.NULL };
+		visit(id, (t, command, s, code, owner) -> {
+			if (t <= time)
+				handle[0] = owner;
+		});
+		return handle[0] == UserSymbolTable.NULL ? null : UserSymbolTable.getInstance().resolve(handle[0]);
+	}
+
+	/**
+	 * getMeanTimeInFeedback - returns, for each FeedbackCode, the mean time
+	 * tickets spent in Feedback with that code before a Command moved them on.
+	 * Stays that have not ended are not counted. Every history is decoded in
+	 * place, one stripe at a time.
+	 *
+	 * @return the mean milliseconds, indexed by FeedbackCode ordinal; NaN for a
+	 *         code no completed stay had.
+	 */
+	public double[] getMeanTimeInFeedback() {
+		long[] total = new long[FEEDBACK_CODES];
+		long[] count = new long[FEEDBACK_CODES];
+		long[] entered = { 0 };
+		int[] feedbackCode = { -1 };
+		TransitionVisitor visitor = (t, command, s, code, owner) -> {
+			if (feedbackCode[0] >= 0) {
+				total[feedbackCode[0]] += t - entered[0];
+				count[feedbackCode[0]]++;
+			}
+			feedbackCode[0] = s == TicketStateMachine.FEEDBACK ? code : -1;
+			entered[0] = t;
+		};
+		for (Stripe s : stripes) {
+			synchronized (s) {
+				for (int slot = 0; slot < s.count; slot++) {
+					feedbackCode[0] = -1;
+					decode(s.data[slot], s.length[slot], visitor);
+				}
+			}
+		}
+		double[] mean = new double[FEEDBACK_CODES];
+		for (int c = 0; c < FEEDBACK_CODES; c++)
+			mean[c] = count[c] == 0 ? Double.NaN : (double) total[c] / count[c];
+		return mean;
+	}
+
+	/**
+	 * size - returns the number of tickets with a history.
+	 *
+	 * @return the number of histories.
+	 */
+	public int size() {
+		int size = 0;
+		for (Stripe s : stripes) {
+			synchronized (s) {
+				size += s.count;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * getEncodedSize - returns the number of bytes used by the encoded entries
+	 * of every history.
+	 *
+	 * @return the encoded size.
+	 */
+	public long getEncodedSize() {
+		long bytes = 0;
+		for (Stripe s : stripes) {
+			synchronized (s) {
+				for (int slot = 0; slot < s.count; slot++)
+					bytes += s.length[slot];
+			}
+		}
+		return bytes;
+	}
+}
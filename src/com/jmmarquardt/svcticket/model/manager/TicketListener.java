@@ -0,0 +1,44 @@
+/**
+ * TicketListener.java
+ */
+package com.jmmarquardt.svcticket.model.manager;
+
+import com.jmmarquardt.svcticket.model.ticket.Ticket;
+
+/**
+ * TicketListener is an interface for objects that follow the tickets held by
+ * a {@code TicketManager}. The manager calls a listener while it holds the
+ * lock of the ticket's shard, so the calls for any one ticket arrive in the
+ * order the changes were made. Calls for tickets in different shards may
+ * arrive concurrently, and a listener must not call back into the manager.
+ *
+ * @author John-Michael Marquardt
+ */
+public interface TicketListener {
+
+	/**
+	 * ticketAdded(Ticket) - called after a Ticket has been added to the manager.
+	 *
+	 * @param ticket the Ticket that was added.
+	 */
+	void ticketAdded(Ticket ticket);
+
+	/**
+	 * ticketUpdated(Ticket, int, String) - called after a Command has been
+	 * applied to a Ticket.
+	 *
+	 * @param ticket        the Ticket that was updated.
+	 * @param previousState the TicketStateMachine id of the ticket's state
+	 *                      before the Command.
+	 * @param previousOwner the ticket's owner before the Command.
+	 */
+	void ticketUpdated(Ticket ticket, int previousState, String previousOwner);
+
+	/**
+	 * ticketRemoved(Ticket) - called after a Ticket has been removed from the
+	 * manager.
+	 *
+	 * @param ticket the Ticket that was removed.
+	 */
+	void ticketRemoved(Ticket ticket);
+}
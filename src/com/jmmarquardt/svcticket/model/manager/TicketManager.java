@@ -0,0 +1,1000 @@
+/**
+ * TicketManager.java
+ */
+package com.jmmarquardt.svcticket.model.manager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+import com.jmmarquardt.svcticket.model.command.Command;
+import com.jmmarquardt.svcticket.model.metrics.TicketMetrics;
+import com.jmmarquardt.svcticket.model.ticket.CommandResult;
+import com.jmmarquardt.svcticket.model.ticket.PackedTicket;
+import com.jmmarquardt.svcticket.model.ticket.Ticket;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Category;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Priority;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.TicketType;
+import com.jmmarquardt.svcticket.model.ticket.TicketView;
+
+/**
+ * TicketManager
+ * <p>
+ * TicketManager is the registry of every {@code Ticket} in the system. Tickets
+ * are spread over a fixed number of shards by id, and each shard keeps its
+ * tickets in a {@code LongTicketMap} guarded by its own lock. Lookups, adds,
+ * removes and Command application are O(1), and work on tickets in different
+ * shards proceeds in parallel. Lookups first try an optimistic read and only
+ * take the shard's read lock if a writer interfered.
+ * </p>
+ *
+ * Objects that follow the tickets (indexes, views) register a
+ * {@code TicketListener}, which is told about every change while the shard
+ * lock is held. A {@code CommandLog}, such as a journal, is given every ticket
+ * created or removed and every Command applied in the same way. When
+ * {@code TicketMetrics} are set, the outcome and apply time of every Command
+ * are recorded in them.
+ *
+ * Reports that need a consistent view of every ticket open a
+ * {@code TicketSnapshot}. Opening a snapshot advances the manager's epoch;
+ * while any snapshot is open, every write first keeps a compact immutable copy
+ * of the version it supersedes, stamped with the epoch of the write, so a
+ * snapshot can find the version it sees without ever blocking a writer. The
+ * kept versions are discarded as the snapshots that can see them are closed.
+ *
+ * @author John-Michael Marquardt
+ */
+public class TicketManager {
+	/** IllegalArgumentException error message for null parameters. */
+	private static final String NULL_ERROR = "Parameter cannot be null.";
+	/** IllegalArgumentException error message for a duplicate ticket id. */
+	private static final String DUPLICATE_ERROR = "Ticket id already exists.";
+	/** IllegalArgumentException error message for an unknown ticket id. */
+	private static final String NO_TICKET_ERROR = "No ticket with that id.";
+	/** Error message for an invalid or rejected Command. */
+	private static final String UOE_ERROR = "Invalid command.";
+	/** IllegalArgumentException error message for batch arrays of different lengths. */
+	private static final String LENGTH_ERROR = "Batch arrays must have the same length.";
+	/** Multiplier used to pick the shard of an id. */
+	private static final long MIX = 0xC2B2AE3D27D4EB4FL;
+	/** The default number of shards. */
+	private static final int DEFAULT_SHARDS = Integer
+			.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 8);
+	/** The initial capacity of each shard's map. */
+	private static final int SHARD_CAPACITY = 1024;
+
+	/** The single instance of TicketManager. */
+	private static TicketManager instance;
+
+	/** The shards, indexed by shardIndex(id). */
+	private final Shard[] shards;
+	/** The number of shards minus one. */
+	private final int shardMask;
+	/** The registered listeners, replaced on every change. */
+	private volatile TicketListener[] listeners = new TicketListener[0];
+	/** The registered command logs, replaced on every change. */
+	private volatile CommandLog[] logs = new CommandLog[0];
+	/** The metrics Commands are recorded in, or null. */
+	private volatile TicketMetrics metrics;
+	/** The current epoch; writes are stamped with it and snapshots see it. */
+	private volatile long epoch = 1;
+	/** The number of open snapshots. */
+	private volatile int openSnapshots;
+	/** The open snapshots, guarded by itself. */
+	private final List<TicketSnapshot> snapshots = new ArrayList<TicketSnapshot>();
+
+	/**
+	 * Shard is a lock and the map of tickets it guards.
+	 */
+	static final class Shard {
+		/** The lock guarding map. */
+		final StampedLock lock = new StampedLock();
+		/** The tickets in this shard. */
+		final LongTicketMap map = new LongTicketMap(SHARD_CAPACITY);
+		/** The superseded versions kept for open snapshots, by ticket id. */
+		final Map<Long, Version> versions = new HashMap<Long, Version>();
+	}
+
+	/**
+	 * Version is a superseded version of a ticket, kept while a snapshot that
+	 * can see it is open. It is the ticket as it was before the write stamped
+	 * with epoch until, and is linked to the version before it, which has a
+	 * smaller until.
+	 */
+	static final class Version {
+		/** The ticket before the write, or null if it did not exist. */
+		final TicketView image;
+		/** The epoch of the write that superseded this version. */
+		final long until;
+		/** The version before this one, or null. */
+		Version older;
+
+		/**
+		 * Version(TicketView, long, Version) - constructs a Version.
+		 *
+		 * @param image the ticket before the write, or null
+		 * @param until the epoch of the write
+		 * @param older the version before this one, or null
+		 */
+		Version(TicketView image, long until, Version older) {
+			this.image = image;
+			this.until = until;
+			this.older = older;
+		}
+	}
+
+	/**
+	 * TicketManager() - constructs an empty TicketManager with the default number
+	 * of shards.
+	 */
+	public TicketManager() {
+		this(DEFAULT_SHARDS);
+	}
+
+	/**
+	 * TicketManager(int) - constructs an empty TicketManager. The number of shards
+	 * is rounded up to a power of two.
+	 *
+	 * @param shardCount the number of shards to split the tickets over.
+	 * @throws IllegalArgumentException if shardCount is not positive.
+	 */
+	public TicketManager(int shardCount) {
+		if (shardCount <= 0)
+			throw new IllegalArgumentException("Shard count must be positive.");
+		int n = Integer.highestOneBit(shardCount);
+		if (n < shardCount)
+			n <<= 1;
+		shards = new Shard[n];
+		for (int i = 0; i < n; i++)
+			shards[i] = new Shard();
+		shardMask = n - 1;
+	}
+
+	/**
+	 * getInstance - returns the single shared instance of TicketManager, creating
+	 * it on first use.
+	 *
+	 * @return the shared TicketManager.
+	 */
+	public static synchronized TicketManager getInstance() {
+		if (instance == null)
+			instance = new TicketManager();
+		return instance;
+	}
+
+	/**
+	 * getShardCount - returns the number of shards.
+	 *
+	 * @return the number of shards.
+	 */
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	/**
+	 * shardIndex(long) - returns the index of the shard that holds the given id.
+	 *
+	 * @param id a ticket id
+	 * @return the index of its shard
+	 */
+	int shardIndex(long id) {
+		return (int) ((id * MIX) >>> 40) & shardMask;
+	}
+
+	/**
+	 * addTicketListener(TicketListener) - registers a listener to be told about
+	 * every change to the tickets in this manager.
+	 *
+	 * @param listener the TicketListener to add.
+	 * @throws IllegalArgumentException if listener is null.
+	 */
+	public synchronized void addTicketListener(TicketListener listener) {
+		if (listener == null)
+			throw new IllegalArgumentException(NULL_ERROR);
+		TicketListener[] l = Arrays.copyOf(listeners, listeners.length + 1);
+		l[l.length - 1] = listener;
+		listeners = l;
+	}
+
+	/**
+	 * removeTicketListener(TicketListener) - unregisters a listener.
+	 *
+	 * @param listener the TicketListener to remove.
+	 */
+	public synchronized void removeTicketListener(TicketListener listener) {
+		TicketListener[] l = listeners;
+		for (int i = 0; i < l.length; i++) {
+			if (l[i] == listener) {
+				TicketListener[] n = new TicketListener[l.length - 1];
+				System.arraycopy(l, 0, n, 0, i);
+				System.arraycopy(l, i + 1, n, i, n.length - i);
+				listeners = n;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * addCommandLog(CommandLog) - registers a log to be given every ticket added
+	 * or removed and every Command applied from now on.
+	 *
+	 * @param log the CommandLog to add.
+	 * @throws IllegalArgumentException if log is null.
+	 */
+	public synchronized void addCommandLog(CommandLog log) {
+		if (log == null)
+			throw new IllegalArgumentException(NULL_ERROR);
+		CommandLog[] l = Arrays.copyOf(logs, logs.length + 1);
+		l[l.length - 1] = log;
+		logs = l;
+	}
+
+	/**
+	 * removeCommandLog(CommandLog) - unregisters a log.
+	 *
+	 * @param log the CommandLog to remove.
+	 */
+	public synchronized void removeCommandLog(CommandLog log) {
+		CommandLog[] l = logs;
+		for (int i = 0; i < l.length; i++) {
+			if (l[i] == log) {
+				CommandLog[] n = new CommandLog[l.length - 1];
+				System.arraycopy(l, 0, n, 0, i);
+				System.arraycopy(l, i + 1, n, i, n.length - i);
+				logs = n;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * setMetrics(TicketMetrics) - sets the metrics every Command applied from now
+	 * on is recorded in, with its outcome and the time Ticket.apply() took.
+	 *
+	 * @param metrics the TicketMetrics, or null to stop recording.
+	 */
+	public void setMetrics(TicketMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * getMetrics - returns the metrics Commands are recorded in.
+	 *
+	 * @return the TicketMetrics, or null if none is set.
+	 */
+	public TicketMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * createTicket(TicketType, String, String, Category, Priority, String) -
+	 * constructs a new Ticket from the given parameters and adds it to this
+	 * manager.
+	 *
+	 * @param ticketType the TicketType of the new Ticket.
+	 * @param subject    the subject of the new Ticket.
+	 * @param caller     the user id of the caller.
+	 * @param category   the Category of the new Ticket.
+	 * @param priority   the Priority of the new Ticket.
+	 * @param note       the first note of the new Ticket.
+	 * @return the new Ticket.
+	 * @throws IllegalArgumentException if the Ticket constructor rejects the
+	 *                                  parameters.
+	 */
+	public Ticket createTicket(TicketType ticketType, String subject, String caller, Category category,
+			Priority priority, String note) {
+		Ticket ticket = new Ticket(ticketType, subject, caller, category, priority, note);
+		addTicket(ticket);
+		return ticket;
+	}
+
+	/**
+	 * addTicket(Ticket) - adds the given Ticket to this manager.
+	 *
+	 * @param ticket the Ticket to add.
+	 * @throws IllegalArgumentException if ticket is null or a ticket with the
+	 *                                  same id is already in this manager.
+	 */
+	public void addTicket(Ticket ticket) {
+		if (ticket == null)
+			throw new IllegalArgumentException(NULL_ERROR);
+		long id = ticket.getTicketId();
+		Shard s = shards[shardIndex(id)];
+		long stamp = s.lock.writeLock();
+		try {
+			if (s.map.get(id) != null)
+				throw new IllegalArgumentException(DUPLICATE_ERROR);
+			if (openSnapshots != 0)
+				preserve(s, id, null);
+			s.map.put(id, ticket);
+			for (CommandLog log : logs)
+				log.ticketCreated(ticket);
+			for (TicketListener l : listeners)
+				l.ticketAdded(ticket);
+		} finally {
+			s.lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * addTickets(Ticket[], int) - adds the first count Tickets of the array in
+	 * bulk. The Tickets are grouped by shard and each shard's group is added
+	 * under a single acquisition of the shard lock. A Ticket whose id is already
+	 * in this manager, or repeated in the array, is skipped.
+	 *
+	 * @param tickets the Tickets to add.
+	 * @param count   the number of entries of tickets in use.
+	 * @return the number of Tickets added.
+	 * @throws IllegalArgumentException if tickets or any of its first count
+	 *                                  entries is null.
+	 */
+	public int addTickets(Ticket[] tickets, int count) {
+		if (tickets == null)
+			throw new IllegalArgumentException(NULL_ERROR);
+		for (int i = 0; i < count; i++)
+			if (tickets[i] == null)
+				throw new IllegalArgumentException(NULL_ERROR);
+
+		// stable counting sort of the tickets by shard
+		int[] shardOf = new int[count];
+		int[] start = new int[shards.length + 1];
+		for (int i = 0; i < count; i++)
+			start[(shardOf[i] = shardIndex(tickets[i].getTicketId())) + 1]++;
+		for (int s = 0; s < shards.length; s++)
+			start[s + 1] += start[s];
+		int[] next = Arrays.copyOf(start, shards.length);
+		int[] order = new int[count];
+		for (int i = 0; i < count; i++)
+			order[next[shardOf[i]]++] = i;
+
+		int added = 0;
+		for (int s = 0; s < shards.length; s++) {
+			if (start[s] == start[s + 1])
+				continue;
+			Shard shard = shards[s];
+			long stamp = shard.lock.writeLock();
+			try {
+				for (int k = start[s]; k < start[s + 1]; k++) {
+					Ticket ticket = tickets[order[k]];
+					if (shard.map.get(ticket.getTicketId()) != null)
+						continue;
+					if (openSnapshots != 0)
+						preserve(shard, ticket.getTicketId(), null);
+					shard.map.put(ticket.getTicketId(), ticket);
+					added++;
+					for (CommandLog log : logs)
+						log.ticketCreated(ticket);
+					for (TicketListener l : listeners)
+						l.ticketAdded(ticket);
+				}
+			} finally {
+				shard.lock.unlockWrite(stamp);
+			}
+		}
+		return added;
+	}
+
+	/**
+	 * getTicket(long) - returns the Ticket with the given id.
+	 *
+	 * @param id the id of the Ticket.
+	 * @return the Ticket, or null if there is no ticket with that id.
+	 */
+	public Ticket getTicket(long id) {
+		Shard s = shards[shardIndex(id)];
+		long stamp = s.lock.tryOptimisticRead();
+		if (stamp != 0) {
+			Ticket ticket = s.map.get(id);
+			if (s.lock.validate(stamp))
+				return ticket;
+		}
+		stamp = s.lock.readLock();
+		try {
+			return s.map.get(id);
+		} finally {
+			s.lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * withTicket(long, Consumer) - passes the Ticket with the given id to the
+	 * action while holding its shard's read lock, so the action sees the Ticket
+	 * without any Command being applied to it at the same time. The action must
+	 * not modify the Ticket or call back into this manager, except that it may
+	 * call {@code markClean()}, which only clears the dirty flag a store reads
+	 * under the same lock. The action should not block, since Commands to the
+	 * shard wait for it.
+	 *
+	 * @param id     the id of the Ticket.
+	 * @param action the action to perform on the Ticket.
+	 * @return true if there is a ticket with that id.
+	 */
+	public boolean withTicket(long id, Consumer<? super Ticket> action) {
+		Shard s = shards[shardIndex(id)];
+		long stamp = s.lock.readLock();
+		try {
+			Ticket ticket = s.map.get(id);
+			if (ticket == null)
+				return false;
+			action.accept(ticket);
+			return true;
+		} finally {
+			s.lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * removeTicket(long) - removes the Ticket with the given id.
+	 *
+	 * @param id the id of the Ticket to remove.
+	 * @return the removed Ticket, or null if there was no ticket with that id.
+	 */
+	public Ticket removeTicket(long id) {
+		Shard s = shards[shardIndex(id)];
+		long stamp = s.lock.writeLock();
+		try {
+			Ticket ticket = s.map.remove(id);
+			if (ticket != null) {
+				if (openSnapshots != 0)
+					preserve(s, id, ticket);
+				for (CommandLog log : logs)
+					log.ticketRemoved(id);
+				for (TicketListener l : listeners)
+					l.ticketRemoved(ticket);
+			}
+			return ticket;
+		} finally {
+			s.lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * applyCommand(long, Command) - applies the Command to the Ticket with the
+	 * given id and returns the outcome. Commands for tickets in different shards
+	 * are applied in parallel.
+	 *
+	 * @param id      the id of the Ticket.
+	 * @param command the Command to apply.
+	 * @return CommandResult.APPLIED, or the reason the Command was rejected.
+	 * @throws IllegalArgumentException if command is null.
+	 */
+	public CommandResult applyCommand(long id, Command command) {
+		if (command == null)
+			throw new IllegalArgumentException(NULL_ERROR);
+		Shard s = shards[shardIndex(id)];
+		long stamp = s.lock.writeLock();
+		try {
+			return applyLocked(s, id, command.encode(), command.getNote(), command);
+		} finally {
+			s.lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * applyEncoded(long, long, String) - applies an encoded Command (see
+	 * {@code Command.encode()}) and its note to the Ticket with the given id,
+	 * without a Command object. A Command object is only built if a CommandLog
+	 * is registered and the Command is not one of the shared note-less
+	 * instances.
+	 *
+	 * @param id      the id of the Ticket.
+	 * @param command the encoded Command to apply.
+	 * @param note    the note carried by the Command, or null.
+	 * @return CommandResult.APPLIED, or the reason the Command was rejected.
+	 * @throws IllegalArgumentException if command is not a valid encoded
+	 *                                  Command.
+	 */
+	public CommandResult applyEncoded(long id, long command, String note) {
+		if (!Command.isValid(command))
+			throw new IllegalArgumentException(UOE_ERROR);
+		Shard s = shards[shardIndex(id)];
+		long stamp = s.lock.writeLock();
+		try {
+			return applyLocked(s, id, command, note, null);
+		} finally {
+			s.lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * compareAndApply(long, long, Command) - applies the Command to the Ticket
+	 * with the given id only if the Ticket is still at the expected version (see
+	 * {@code Ticket.getVersion()}), so that of two clients that read the same
+	 * version and race to change it, one wins and the other is told the ticket
+	 * has moved on instead of overwriting it. A stale version is detected from
+	 * an optimistic read, without taking the shard lock; the version is checked
+	 * again under the lock before the Command is applied.
+	 *
+	 * @param id              the id of the Ticket.
+	 * @param expectedVersion the version the Command was based on.
+	 * @param command         the Command to apply.
+	 * @return CommandResult.APPLIED, CommandResult.CONFLICT if the Ticket is no
+	 *         longer at expectedVersion, or the reason the Command was rejected.
+	 * @throws IllegalArgumentException if command is null.
+	 */
+	public CommandResult compareAndApply(long id, long expectedVersion, Command command) {
+		if (command == null)
+			throw new IllegalArgumentException(NULL_ERROR);
+		Ticket seen = getTicket(id);
+		if (seen != null && seen.getVersion() != expectedVersion)
+			return conflict(command);
+		Shard s = shards[shardIndex(id)];
+		long stamp = s.lock.writeLock();
+		try {
+			Ticket ticket = s.map.get(id);
+			if (ticket != null && ticket.getVersion() != expectedVersion)
+				return conflict(command);
+			return applyLocked(s, id, command.encode(), command.getNote(), command);
+		} finally {
+			s.lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * conflict(Command) - records a Command rejected for a version conflict in
+	 * the metrics, if any, and returns CommandResult.CONFLICT.
+	 *
+	 * @param command the rejected Command
+	 * @return CommandResult.CONFLICT
+	 */
+	private CommandResult conflict(Command command) {
+		TicketMetrics m = metrics;
+		if (m != null)
+			m.record(TicketMetrics.NO_STATE, command.getCommandValue(), CommandResult.CONFLICT, 0);
+		return CommandResult.CONFLICT;
+	}
+
+	/**
+	 * applyLocked(Shard, long, long, String, Command) - applies an encoded
+	 * Command while the shard's write lock is held, and logs it and notifies the
+	 * listeners if it was applied.
+	 *
+	 * @param s        the shard holding the ticket
+	 * @param id       the id of the Ticket
+	 * @param command  the encoded Command
+	 * @param note     its note, or null
+	 * @param original the Command it was encoded from, or null
+	 * @return the outcome of the Command
+	 */
+	private CommandResult applyLocked(Shard s, long id, long command, String note, Command original) {
+		Ticket ticket = s.map.get(id);
+		TicketMetrics m = metrics;
+		if (ticket == null) {
+			if (m != null)
+				m.record(TicketMetrics.NO_STATE, Command.commandValueOf(command), CommandResult.NO_SUCH_TICKET, 0);
+			return CommandResult.NO_SUCH_TICKET;
+		}
+		boolean kept = openSnapshots != 0 && preserve(s, id, ticket);
+		int previousState = ticket.getStateId();
+		String previousOwner = ticket.getOwner();
+		long start = m == null ? 0 : System.nanoTime();
+		CommandResult result = ticket.apply(command, note);
+		if (kept && result != CommandResult.APPLIED)
+			discard(s, id);
+		if (m != null)
+			m.record(previousState, Command.commandValueOf(command), result, System.nanoTime() - start);
+		if (result == CommandResult.APPLIED) {
+			CommandLog[] l = logs;
+			if (l.length > 0) {
+				Command c = original != null ? original : Command.of(command, note);
+				for (CommandLog log : l)
+					log.commandApplied(id, c);
+			}
+			for (TicketListener listener : listeners)
+				listener.ticketUpdated(ticket, previousState, previousOwner);
+		}
+		return result;
+	}
+
+	/**
+	 * executeCommand(long, Command) - applies the Command to the Ticket with the
+	 * given id.
+	 *
+	 * @param id      the id of the Ticket.
+	 * @param command the Command to apply.
+	 * @throws IllegalArgumentException      if command is null or there is no
+	 *                                       ticket with the given id.
+	 * @throws UnsupportedOperationException if the Command is not valid for the
+	 *                                       ticket's current state.
+	 */
+	public void executeCommand(long id, Command command) {
+		CommandResult result = applyCommand(id, command);
+		if (result == CommandResult.NO_SUCH_TICKET)
+			throw new IllegalArgumentException(NO_TICKET_ERROR);
+		if (result != CommandResult.APPLIED)
+			throw new UnsupportedOperationException(UOE_ERROR);
+	}
+
+	/**
+	 * applyBatch(CommandBatch) - applies every Command in the batch; see
+	 * {@code applyCommands(long[], Command[])}. Each CommandLog sees the
+	 * Commands in shard order: batch order holds only per ticket.
+	 *
+	 * @param batch the batch of (ticket id, Command) pairs.
+	 * @return the outcome of each Command, in batch order.
+	 * @throws IllegalArgumentException if batch is null.
+	 */
+	public CommandResult[] applyBatch(CommandBatch batch) {
+		if (batch == null)
+			throw new IllegalArgumentException(NULL_ERROR);
+		return applyCommands(batch.ticketIds(), batch.commands(), null, null, batch.size());
+	}
+
+	/**
+	 * applyCommands(long[], Command[]) - applies commands[i] to the Ticket with
+	 * id ticketIds[i] for every i. The batch is grouped by shard, and each
+	 * shard's group is applied under a single acquisition of the shard lock and
+	 * handed to each CommandLog as one group. Commands for the same ticket are
+	 * applied in batch order. A rejected Command does not stop the batch; its
+	 * outcome is reported in the returned array instead.
+	 *
+	 * @param ticketIds the ids of the Tickets.
+	 * @param commands  the Commands to apply.
+	 * @return the outcome of each Command, in batch order.
+	 * @throws IllegalArgumentException if either array is null, the arrays have
+	 *                                  different lengths, or any Command is
+	 *                                  null.
+	 */
+	public CommandResult[] applyCommands(long[] ticketIds, Command[] commands) {
+		if (ticketIds == null || commands == null)
+			throw new IllegalArgumentException(NULL_ERROR);
+		if (ticketIds.length != commands.length)
+			throw new IllegalArgumentException(LENGTH_ERROR);
+		for (Command c : commands)
+			if (c == null)
+				throw new IllegalArgumentException(NULL_ERROR);
+		return applyCommands(ticketIds, commands, null, null, ticketIds.length);
+	}
+
+	/**
+	 * applyEncoded(long[], long[], String[]) - applies the encoded Command
+	 * commands[i], with note notes[i], to the Ticket with id ticketIds[i] for
+	 * every i, exactly as {@code applyCommands()} applies Command objects. A
+	 * stream of encoded Commands is applied without allocating a Command per
+	 * event; Command objects are only built for a registered CommandLog. Each
+	 * CommandLog sees the Commands in shard order: batch order holds only per
+	 * ticket.
+	 *
+	 * @param ticketIds the ids of the Tickets.
+	 * @param commands  the encoded Commands to apply.
+	 * @param notes     the note of each Command, or null if none has a note.
+	 * @return the outcome of each Command, in batch order.
+	 * @throws IllegalArgumentException if ticketIds or commands is null, the
+	 *                                  arrays have different lengths, or any
+	 *                                  Command is not valid.
+	 */
+	public CommandResult[] applyEncoded(long[] ticketIds, long[] commands, String[] notes) {
+		if (ticketIds == null || commands == null)
+			throw new IllegalArgumentException(NULL_ERROR);
+		if (ticketIds.length != commands.length || notes != null && notes.length != commands.length)
+			throw new IllegalArgumentException(LENGTH_ERROR);
+		for (long c : commands)
+			if (!Command.isValid(c))
+				throw new IllegalArgumentException(UOE_ERROR);
+		return applyCommands(ticketIds, null, commands, notes, ticketIds.length);
+	}
+
+	/**
+	 * applyCommands(long[], Command[], long[], String[], int) - applies the
+	 * first n pairs of a batch, given either as Commands or as encoded Commands
+	 * and their notes.
+	 *
+	 * @param ids      the ids of the Tickets
+	 * @param commands the Commands, or null if the batch is encoded
+	 * @param encoded  the encoded Commands, if commands is null
+	 * @param notes    their notes, or null
+	 * @param n        the number of pairs
+	 * @return the outcome of each Command
+	 */
+	private CommandResult[] applyCommands(long[] ids, Command[] commands, long[] encoded, String[] notes, int n) {
+		CommandResult[] results = new CommandResult[n];
+
+		// stable counting sort of the batch positions by shard
+		int[] shardOf = new int[n];
+		int[] start = new int[shards.length + 1];
+		for (int i = 0; i < n; i++)
+			start[(shardOf[i] = shardIndex(ids[i])) + 1]++;
+		for (int s = 0; s < shards.length; s++)
+			start[s + 1] += start[s];
+		int[] next = Arrays.copyOf(start, shards.length);
+		int[] order = new int[n];
+		for (int i = 0; i < n; i++)
+			order[next[shardOf[i]]++] = i;
+
+		int[] applied = new int[n];
+		Command[] logged = null;
+		for (int s = 0; s < shards.length; s++) {
+			if (start[s] == start[s + 1])
+				continue;
+			Shard shard = shards[s];
+			long stamp = shard.lock.writeLock();
+			TicketMetrics m = metrics;
+			try {
+				int count = 0;
+				long lastId = 0;
+				Ticket ticket = null;
+				for (int k = start[s]; k < start[s + 1]; k++) {
+					int i = order[k];
+					if (ids[i] != lastId) {
+						lastId = ids[i];
+						ticket = shard.map.get(lastId);
+					}
+					long command = commands != null ? commands[i].encode() : encoded[i];
+					if (ticket == null) {
+						results[i] = CommandResult.NO_SUCH_TICKET;
+						if (m != null)
+							m.record(TicketMetrics.NO_STATE, Command.commandValueOf(command), results[i], 0);
+						continue;
+					}
+					String note = commands != null ? commands[i].getNote() : notes != null ? notes[i] : null;
+					boolean kept = openSnapshots != 0 && preserve(shard, lastId, ticket);
+					int previousState = ticket.getStateId();
+					String previousOwner = ticket.getOwner();
+					long began = m == null ? 0 : System.nanoTime();
+					results[i] = ticket.apply(command, note);
+					if (kept && results[i] != CommandResult.APPLIED)
+						discard(shard, lastId);
+					if (m != null)
+						m.record(previousState, Command.commandValueOf(command), results[i], System.nanoTime() - began);
+					if (results[i] == CommandResult.APPLIED) {
+						applied[count++] = i;
+						for (TicketListener l : listeners)
+							l.ticketUpdated(ticket, previousState, previousOwner);
+					}
+				}
+				CommandLog[] l = logs;
+				if (count > 0 && l.length > 0) {
+					if (logged == null)
+						logged = commands != null ? commands : new Command[n];
+					if (commands == null) {
+						for (int k = 0; k < count; k++) {
+							int i = applied[k];
+							logged[i] = Command.of(encoded[i], notes != null ? notes[i] : null);
+						}
+					}
+					for (CommandLog log : l)
+						log.commandsApplied(ids, logged, applied, count);
+				}
+			} finally {
+				shard.lock.unlockWrite(stamp);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * size - returns the number of tickets in this manager.
+	 *
+	 * @return the number of tickets.
+	 */
+	public int size() {
+		int size = 0;
+		for (Shard s : shards) {
+			long stamp = s.lock.readLock();
+			try {
+				size += s.map.size();
+			} finally {
+				s.lock.unlockRead(stamp);
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * forEach(Consumer) - passes every Ticket in this manager to the action. Each
+	 * shard is read under its read lock in turn, so the action must not modify
+	 * this manager.
+	 *
+	 * @param action the action to perform on each Ticket.
+	 * @throws IllegalArgumentException if action is null.
+	 */
+	public void forEach(Consumer<? super Ticket> action) {
+		if (action == null)
+			throw new IllegalArgumentException(NULL_ERROR);
+		for (Shard s : shards) {
+			long stamp = s.lock.readLock();
+			try {
+				s.map.forEach(action);
+			} finally {
+				s.lock.unlockRead(stamp);
+			}
+		}
+	}
+
+	/**
+	 * openSnapshot - opens a point-in-time snapshot of every ticket in this
+	 * manager. The snapshot must be closed when it is no longer needed.
+	 *
+	 * @return the new TicketSnapshot.
+	 */
+	public TicketSnapshot openSnapshot() {
+		synchronized (snapshots) {
+			// register before advancing the epoch, so a writer that sees the new
+			// epoch also sees the open snapshot and keeps what it supersedes
+			TicketSnapshot snapshot = new TicketSnapshot(this, epoch);
+			snapshots.add(snapshot);
+			openSnapshots = snapshots.size();
+			epoch = snapshot.getEpoch() + 1;
+			return snapshot;
+		}
+	}
+
+	/**
+	 * closeSnapshot(TicketSnapshot) - forgets a closed snapshot and discards
+	 * the versions no open snapshot can see. Called by TicketSnapshot.close().
+	 *
+	 * @param snapshot the closed snapshot
+	 */
+	void closeSnapshot(TicketSnapshot snapshot) {
+		long oldest = Long.MAX_VALUE;
+		synchronized (snapshots) {
+			if (!snapshots.remove(snapshot))
+				return;
+			openSnapshots = snapshots.size();
+			for (TicketSnapshot open : snapshots)
+				oldest = Math.min(oldest, open.getEpoch());
+		}
+		// a snapshot opened since sees the current epoch, which no kept version
+		// is visible to, so pruning against a stale oldest epoch is safe
+		for (Shard s : shards) {
+			long stamp = s.lock.writeLock();
+			try {
+				for (Iterator<Version> it = s.versions.values().iterator(); it.hasNext();) {
+					Version v = it.next();
+					if (v.until <= oldest) {
+						it.remove();
+						continue;
+					}
+					while (v.older != null && v.older.until > oldest)
+						v = v.older;
+					v.older = null;
+				}
+			} finally {
+				s.lock.unlockWrite(stamp);
+			}
+		}
+	}
+
+	/**
+	 * preserve(Shard, long, Ticket) - keeps the current version of a ticket for
+	 * the open snapshots before it is written, unless it was already written in
+	 * the current epoch. Called with the shard's write lock held.
+	 *
+	 * @param s      the shard holding the ticket
+	 * @param id     the id of the ticket
+	 * @param ticket the ticket, or null if it is about to be added
+	 * @return true if a version was kept
+	 */
+	private boolean preserve(Shard s, long id, Ticket ticket) {
+		long now = epoch;
+		Version head = s.versions.get(id);
+		if (head != null && head.until >= now)
+			return false;
+		s.versions.put(id, new Version(ticket == null ? null : image(ticket), now, head));
+		return true;
+	}
+
+	/**
+	 * discard(Shard, long) - drops the version preserve() just kept for a ticket
+	 * whose Command was then rejected, since the ticket was not written. Called
+	 * with the shard's write lock held.
+	 *
+	 * @param s  the shard holding the ticket
+	 * @param id the id of the ticket
+	 */
+	private static void discard(Shard s, long id) {
+		Version older = s.versions.get(id).older;
+		if (older == null)
+			s.versions.remove(id);
+		else
+			s.versions.put(id, older);
+	}
+
+	/**
+	 * image(Ticket) - returns an immutable copy of the Ticket's fields.
+	 *
+	 * @param ticket a Ticket
+	 * @return the copy
+	 */
+	private static TicketView image(Ticket ticket) {
+		return new ColumnarTicketStore.RowView(ticket.getTicketId(), PackedTicket.pack(ticket),
+				ticket.getCallerHandle(), ticket.getOwnerHandle(), ticket.getSubject());
+	}
+
+	/**
+	 * visible(Shard, long, Ticket, long) - returns the version of a ticket a
+	 * snapshot of the given epoch sees. Called with the shard's lock held.
+	 *
+	 * @param s       the shard holding the ticket
+	 * @param id      the id of the ticket
+	 * @param current the ticket in the shard's map, or null
+	 * @param epoch   the epoch of the snapshot
+	 * @return an immutable view of the ticket, or null if the snapshot does not
+	 *         see it
+	 */
+	private static TicketView visible(Shard s, long id, Ticket current, long epoch) {
+		Version v = s.versions.isEmpty() ? null : s.versions.get(id);
+		if (v == null || v.until <= epoch)
+			return current == null ? null : image(current);
+		while (v.older != null && v.older.until > epoch)
+			v = v.older;
+		return v.image;
+	}
+
+	/**
+	 * snapshotTicket(long, long) - returns a ticket as a snapshot of the given
+	 * epoch sees it.
+	 *
+	 * @param epoch the epoch of the snapshot
+	 * @param id    the id of the ticket
+	 * @return an immutable view of the ticket, or null
+	 */
+	TicketView snapshotTicket(long epoch, long id) {
+		Shard s = shards[shardIndex(id)];
+		long stamp = s.lock.readLock();
+		try {
+			return visible(s, id, s.map.get(id), epoch);
+		} finally {
+			s.lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * snapshotForEach(long, Consumer) - passes every ticket a snapshot of the
+	 * given epoch sees to the action, one shard at a time. Each shard is copied
+	 * under its read lock and the action runs after the lock is released.
+	 *
+	 * @param epoch  the epoch of the snapshot
+	 * @param action the action to perform on each ticket
+	 */
+	void snapshotForEach(long epoch, Consumer<? super TicketView> action) {
+		List<TicketView> batch = new ArrayList<TicketView>();
+		for (Shard s : shards) {
+			long stamp = s.lock.readLock();
+			try {
+				s.map.forEach(t -> {
+					TicketView v = visible(s, t.getTicketId(), t, epoch);
+					if (v != null)
+						batch.add(v);
+				});
+				// tickets removed since the snapshot was opened
+				for (Long id : s.versions.keySet()) {
+					if (s.map.get(id) != null)
+						continue;
+					TicketView v = visible(s, id, null, epoch);
+					if (v != null)
+						batch.add(v);
+				}
+			} finally {
+				s.lock.unlockRead(stamp);
+			}
+			for (TicketView v : batch)
+				action.accept(v);
+			batch.clear();
+		}
+	}
+
+	/**
+	 * versionCount - returns the number of tickets with superseded versions
+	 * kept for open snapshots.
+	 *
+	 * @return the number of tickets with kept versions
+	 */
+	int versionCount() {
+		int count = 0;
+		for (Shard s : shards) {
+			long stamp = s.lock.readLock();
+			try {
+				count += s.versions.size();
+			} finally {
+				s.lock.unlockRead(stamp);
+			}
+		}
+		return count;
+	}
+}
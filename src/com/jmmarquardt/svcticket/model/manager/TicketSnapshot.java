@@ -0,0 +1,123 @@
+/**
+ * TicketSnapshot.java
+ */
+package com.jmmarquardt.svcticket.model.manager;
+
+import java.util.function.Consumer;
+
+import com.jmmarquardt.svcticket.model.ticket.TicketView;
+
+/**
+ * TicketSnapshot
+ * <p>
+ * TicketSnapshot is a point-in-time view of every ticket in a
+ * {@code TicketManager}, opened with {@code TicketManager.openSnapshot()}. It
+ * sees each ticket as it was when the snapshot was opened: tickets added later
+ * are absent, tickets removed later are still present, and Commands applied
+ * later are not reflected. Writers are never blocked by an open snapshot; the
+ * manager instead keeps the superseded version of each ticket written while a
+ * snapshot is open, so reports and exports can scan a consistent view while
+ * Commands continue to be applied.
+ * </p>
+ *
+ * The views handed out are immutable copies and may be kept after the
+ * snapshot is closed. A snapshot must be closed when it is no longer needed,
+ * since the manager keeps superseded versions for as long as a snapshot that
+ * can see them is open.
+ *
+ * @author John-Michael Marquardt
+ */
+public final class TicketSnapshot implements AutoCloseable {
+	/** Error message for a snapshot used after it was closed. */
+	private static final String CLOSED_ERROR = "Snapshot is closed.";
+	/** Error message for null parameters. */
+	private static final String NULL_ERROR = "Parameter cannot be null.";
+
+	/** The manager this snapshot is a view of. */
+	private final TicketManager manager;
+	/** The epoch of the manager this snapshot sees. */
+	private final long epoch;
+	/** True once close() has been called. */
+	private volatile boolean closed;
+
+	/**
+	 * TicketSnapshot(TicketManager, long) - constructs a snapshot of the manager
+	 * as of the given epoch. Called by TicketManager.openSnapshot().
+	 *
+	 * @param manager the manager
+	 * @param epoch   the epoch the snapshot sees
+	 */
+	TicketSnapshot(TicketManager manager, long epoch) {
+		this.manager = manager;
+		this.epoch = epoch;
+	}
+
+	/**
+	 * getEpoch - returns the epoch of the manager this snapshot sees. Snapshots
+	 * opened later have larger epochs.
+	 *
+	 * @return the epoch.
+	 */
+	public long getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * isClosed - returns true if this snapshot has been closed.
+	 *
+	 * @return true if closed.
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * getTicket(long) - returns the ticket with the given id as it was when this
+	 * snapshot was opened.
+	 *
+	 * @param id a ticket id.
+	 * @return an immutable view of the ticket, or null if there was no ticket
+	 *         with that id.
+	 * @throws IllegalStateException if this snapshot is closed.
+	 */
+	public TicketView getTicket(long id) {
+		checkOpen();
+		return manager.snapshotTicket(epoch, id);
+	}
+
+	/**
+	 * forEach(Consumer) - passes every ticket in this snapshot to the action.
+	 * The tickets of each shard are copied under its read lock and passed to the
+	 * action after the lock is released, so the action may use the manager.
+	 *
+	 * @param action the action to perform on each ticket.
+	 * @throws IllegalArgumentException if action is null.
+	 * @throws IllegalStateException    if this snapshot is closed.
+	 */
+	public void forEach(Consumer<? super TicketView> action) {
+		if (action == null)
+			throw new IllegalArgumentException(NULL_ERROR);
+		checkOpen();
+		manager.snapshotForEach(epoch, action);
+	}
+
+	/**
+	 * close - closes this snapshot and lets the manager discard the versions
+	 * only it could see. Closing a closed snapshot has no effect.
+	 */
+	@Override
+	public void close() {
+		if (closed)
+			return;
+		closed = true;
+		manager.closeSnapshot(this);
+	}
+
+	/**
+	 * checkOpen - throws if this snapshot is closed.
+	 */
+	private void checkOpen() {
+		if (closed)
+			throw new IllegalStateException(CLOSED_ERROR);
+	}
+}
@@ -0,0 +1,215 @@
+/**
+ * DashboardCube.java
+ */
+package com.jmmarquardt.svcticket.model.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import com.jmmarquardt.svcticket.model.manager.TicketListener;
+import com.jmmarquardt.svcticket.model.manager.TicketManager;
+import com.jmmarquardt.svcticket.model.ticket.Ticket;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Category;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Priority;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.TicketType;
+import com.jmmarquardt.svcticket.model.ticket.TicketStateMachine;
+
+/**
+ * DashboardCube
+ * <p>
+ * DashboardCube counts the tickets in every combination of state, Category,
+ * Priority and TicketType. It is a {@code TicketListener}: once registered
+ * with a {@code TicketManager} it increments a cell when a ticket is added,
+ * moves the ticket from one cell to another when a Command changes its state,
+ * and decrements a cell when a ticket is removed. A cube registered with
+ * {@code addTicketListener()} must be registered before any tickets are
+ * added; {@code load()} counts the tickets a manager already holds and then
+ * registers the cube.
+ * Wallboards read the counts without touching a single Ticket, in time that
+ * does not depend on the number of tickets.
+ * </p>
+ *
+ * Each cell is a {@code LongAdder}, so tickets changing state on different
+ * threads do not contend on a shared counter. A state change is a decrement
+ * of one cell and an increment of another, so a reader running at the same
+ * moment can see the ticket in neither or both; every cell is exact once the
+ * change completes.
+ *
+ * @author John-Michael Marquardt
+ */
+public class DashboardCube implements TicketListener {
+	/** The state passed to getCount() to count tickets in any state. */
+	public static final int ANY_STATE = -1;
+	/** IllegalArgumentException error message for a bad state id. */
+	private static final String STATE_ERROR = "Invalid state id.";
+	/** IllegalArgumentException message for null parameters. */
+	private static final String NULL_ERROR = "Parameter cannot be null.";
+	/** IllegalStateException message for a cube loaded twice. */
+	private static final String LOADED_ERROR = "Cube is already counting tickets.";
+	/** The number of Categories. */
+	private static final int CATEGORIES = Category.values().length;
+	/** The number of Priorities. */
+	private static final int PRIORITIES = Priority.values().length;
+	/** The number of TicketTypes. */
+	private static final int TYPES = TicketType.values().length;
+	/** The number of cells. */
+	private static final int CELLS = TicketStateMachine.STATE_COUNT * CATEGORIES * PRIORITIES * TYPES;
+
+	/** The counts, indexed by cell(). */
+	private final LongAdder[] cells = new LongAdder[CELLS];
+	/** True once load() has been called. */
+	private boolean loaded;
+
+	/**
+	 * DashboardCube() - constructs a cube with every count at zero.
+	 */
+	public DashboardCube() {
+		for (int i = 0; i < CELLS; i++)
+			cells[i] = new LongAdder();
+	}
+
+	/**
+	 * cell(int, int, int, int) - returns the index of a cell.
+	 *
+	 * @param state    a state id
+	 * @param category a Category ordinal
+	 * @param priority a Priority ordinal
+	 * @param type     a TicketType ordinal
+	 * @return the index into cells
+	 */
+	private static int cell(int state, int category, int priority, int type) {
+		return ((state * CATEGORIES + category) * PRIORITIES + priority) * TYPES + type;
+	}
+
+	/**
+	 * cell(Ticket, int) - returns the index of the cell of a ticket in the given
+	 * state.
+	 *
+	 * @param ticket a Ticket
+	 * @param state  the state id to count it under
+	 * @return the index into cells
+	 */
+	private static int cell(Ticket ticket, int state) {
+		return cell(state, ticket.getCategory().ordinal(), ticket.getPriority().ordinal(),
+				ticket.getTicketType().ordinal());
+	}
+
+	/**
+	 * load(TicketManager) - counts every ticket already in the manager, reading
+	 * each shard under its read lock, and then registers this cube with it.
+	 * Tickets changed while the cube loads may be counted in their old cell, so
+	 * it must be called before other threads use the manager, for example just
+	 * after it is restored from a TicketFileStore or CommandJournal.
+	 *
+	 * @param manager the TicketManager to count.
+	 * @throws IllegalArgumentException if manager is null.
+	 * @throws IllegalStateException    if the cube has already been loaded or
+	 *                                  has counted a ticket.
+	 */
+	public synchronized void load(TicketManager manager) {
+		if (manager == null)
+			throw new IllegalArgumentException(NULL_ERROR);
+		if (loaded || getCount(ANY_STATE, null, null, null) != 0)
+			throw new IllegalStateException(LOADED_ERROR);
+		loaded = true;
+		manager.forEach(this::ticketAdded);
+		manager.addTicketListener(this);
+	}
+
+	/**
+	 * ticketAdded(Ticket) - counts a new ticket.
+	 *
+	 * @param ticket the Ticket that was added.
+	 */
+	@Override
+	public void ticketAdded(Ticket ticket) {
+		cells[cell(ticket, ticket.getStateId())].increment();
+	}
+
+	/**
+	 * ticketUpdated(Ticket, int, String) - moves the ticket to the cell of its
+	 * new state if a Command changed it.
+	 *
+	 * @param ticket        the Ticket that was updated.
+	 * @param previousState the ticket's state id before the Command.
+	 * @param previousOwner the ticket's owner before the Command.
+	 */
+	@Override
+	public void ticketUpdated(Ticket ticket, int previousState, String previousOwner) {
+		int state = ticket.getStateId();
+		if (state == previousState)
+			return;
+		cells[cell(ticket, previousState)].decrement();
+		cells[cell(ticket, state)].increment();
+	}
+
+	/**
+	 * ticketRemoved(Ticket) - stops counting a removed ticket.
+	 *
+	 * @param ticket the Ticket that was removed.
+	 */
+	@Override
+	public void ticketRemoved(Ticket ticket) {
+		cells[cell(ticket, ticket.getStateId())].decrement();
+	}
+
+	/**
+	 * getCount(int, Category, Priority, TicketType) - returns the number of
+	 * tickets with the given state, Category, Priority and TicketType. A null
+	 * Category, Priority or TicketType, or a state of ANY_STATE, matches every
+	 * value, so getCount(ANY_STATE, null, null, null) is the total.
+	 *
+	 * @param state    a TicketStateMachine state id, or ANY_STATE.
+	 * @param category a Category, or null.
+	 * @param priority a Priority, or null.
+	 * @param type     a TicketType, or null.
+	 * @return the number of matching tickets.
+	 * @throws IllegalArgumentException if state is not a state id or ANY_STATE.
+	 */
+	public long getCount(int state, Category category, Priority priority, TicketType type) {
+		if (state < ANY_STATE || state >= TicketStateMachine.STATE_COUNT)
+			throw new IllegalArgumentException(STATE_ERROR);
+		int s0 = state == ANY_STATE ? 0 : state;
+		int s1 = state == ANY_STATE ? TicketStateMachine.STATE_COUNT : state + 1;
+		int c0 = category == null ? 0 : category.ordinal();
+		int c1 = category == null ? CATEGORIES : c0 + 1;
+		int p0 = priority == null ? 0 : priority.ordinal();
+		int p1 = priority == null ? PRIORITIES : p0 + 1;
+		int t0 = type == null ? 0 : type.ordinal();
+		int t1 = type == null ? TYPES : t0 + 1;
+		long count = 0;
+		for (int s = s0; s < s1; s++)
+			for (int c = c0; c < c1; c++)
+				for (int p = p0; p < p1; p++)
+					for (int t = t0; t < t1; t++)
+						count += cells[cell(s, c, p, t)].sum();
+		return count;
+	}
+
+	/**
+	 * getStateCounts - returns the number of tickets in each state.
+	 *
+	 * @return the counts, indexed by state id.
+	 */
+	public long[] getStateCounts() {
+		long[] counts = new long[TicketStateMachine.STATE_COUNT];
+		int perState = CELLS / counts.length;
+		for (int i = 0; i < CELLS; i++)
+			counts[i / perState] += cells[i].sum();
+		return counts;
+	}
+
+	/**
+	 * getCells - returns a copy of every count, indexed by
+	 * ((state * Categories + category) * Priorities + priority) * TicketTypes +
+	 * type, using the ordinals of the enums. A wallboard can read the whole cube
+	 * once per refresh and slice it as it likes.
+	 *
+	 * @return the counts.
+	 */
+	public long[] getCells() {
+		long[] counts = new long[CELLS];
+		for (int i = 0; i < CELLS; i++)
+			counts[i] = cells[i].sum();
+		return counts;
+	}
+}
@@ -0,0 +1,173 @@
+/**
+ * LatencyHistogram.java
+ */
+package com.jmmarquardt.svcticket.model.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LatencyHistogram
+ * <p>
+ * LatencyHistogram counts latencies, in nanoseconds, in log-linear buckets:
+ * each power of two is split into {@code 2^SUB_BITS} equal buckets, so a
+ * percentile is reported to within 12.5% of the true value over the whole
+ * range of a long with under 500 buckets. Recording is lock-free and
+ * allocation-free: the buckets are kept in an {@code AtomicLongArray} with
+ * one stripe per group of threads, so concurrent recorders rarely touch the
+ * same counter. Reads sum the stripes and are approximate while recording
+ * continues.
+ * </p>
+ *
+ * @author John-Michael Marquardt
+ */
+public final class LatencyHistogram {
+	/** The number of bits of sub-bucket index per power of two. */
+	public static final int SUB_BITS = 3;
+	/** The number of sub-buckets per power of two. */
+	private static final int SUB = 1 << SUB_BITS;
+	/** The number of buckets in a stripe. */
+	public static final int BUCKETS = (64 - SUB_BITS) * SUB;
+	/** The number of stripes. */
+	private static final int STRIPES = Integer
+			.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+
+	/** The bucket counts, STRIPES runs of BUCKETS. */
+	private final AtomicLongArray counts = new AtomicLongArray(STRIPES * BUCKETS);
+	/** The number of values recorded. */
+	private final LongAdder count = new LongAdder();
+	/** The sum of the values recorded. */
+	private final LongAdder sum = new LongAdder();
+	/** The largest value recorded. */
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * bucketOf(long) - returns the bucket that counts a value.
+	 *
+	 * @param value a value, 0 or more.
+	 * @return its bucket index, below BUCKETS.
+	 */
+	public static int bucketOf(long value) {
+		if (value < SUB)
+			return (int) Math.max(0, value);
+		int exp = 63 - Long.numberOfLeadingZeros(value);
+		return (exp - SUB_BITS + 1) * SUB + (int) ((value >>> (exp - SUB_BITS)) & (SUB - 1));
+	}
+
+	/**
+	 * upperBound(int) - returns the largest value counted by a bucket.
+	 *
+	 * @param bucket a bucket index.
+	 * @return the largest value in the bucket.
+	 */
+	public static long upperBound(int bucket) {
+		if (bucket < SUB)
+			return bucket;
+		int exp = bucket / SUB + SUB_BITS - 1;
+		long width = 1L << (exp - SUB_BITS);
+		long lower = (SUB + (bucket & (SUB - 1))) * width;
+		return lower + width - 1;
+	}
+
+	/**
+	 * record(long) - records a latency.
+	 *
+	 * @param nanos the latency in nanoseconds; negative values count as 0.
+	 */
+	public void record(long nanos) {
+		int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+		counts.getAndIncrement(stripe * BUCKETS + bucketOf(nanos));
+		count.increment();
+		sum.add(Math.max(0, nanos));
+		max.accumulate(nanos);
+	}
+
+	/**
+	 * addTo(long[]) - adds the count of each bucket to the array.
+	 *
+	 * @param buckets an array of BUCKETS counts.
+	 */
+	public void addTo(long[] buckets) {
+		for (int s = 0; s < STRIPES; s++)
+			for (int b = 0; b < BUCKETS; b++)
+				buckets[b] += counts.get(s * BUCKETS + b);
+	}
+
+	/**
+	 * getCount - returns the number of values recorded.
+	 *
+	 * @return the number of values recorded.
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * getMean - returns the mean of the values recorded.
+	 *
+	 * @return the mean, 0 if none were recorded.
+	 */
+	public double getMean() {
+		long n = count.sum();
+		return n == 0 ? 0 : (double) sum.sum() / n;
+	}
+
+	/**
+	 * getMax - returns the largest value recorded.
+	 *
+	 * @return the largest value, 0 if none were recorded.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * getPercentile(double) - returns the upper bound of the bucket holding the
+	 * given percentile of the values recorded.
+	 *
+	 * @param percentile the percentile, 0 to 100.
+	 * @return the value at the percentile, 0 if none were recorded.
+	 */
+	public long getPercentile(double percentile) {
+		long[] buckets = new long[BUCKETS];
+		addTo(buckets);
+		return percentile(buckets, percentile);
+	}
+
+	/**
+	 * percentile(long[], double) - returns the upper bound of the bucket holding
+	 * the given percentile of a set of bucket counts.
+	 *
+	 * @param buckets    the counts of BUCKETS buckets.
+	 * @param percentile the percentile, 0 to 100.
+	 * @return the value at the percentile, 0 if every count is 0.
+	 */
+	public static long percentile(long[] buckets, double percentile) {
+		long total = 0;
+		for (long c : buckets)
+			total += c;
+		if (total == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100));
+		long seen = 0;
+		for (int b = 0; b < buckets.length; b++) {
+			seen += buckets[b];
+			if (seen >= rank)
+				return upperBound(b);
+		}
+		return upperBound(buckets.length - 1);
+	}
+
+	/**
+	 * reset - clears the histogram. Values recorded concurrently may be lost or
+	 * kept.
+	 */
+	public void reset() {
+		for (int i = 0; i < counts.length(); i++)
+			counts.set(i, 0);
+		count.reset();
+		sum.reset();
+		max.reset();
+	}
+}
@@ -0,0 +1,328 @@
+/**
+ * TicketMetrics.java
+ */
+package com.jmmarquardt.svcticket.model.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.jmmarquardt.svcticket.model.command.Command.CommandValue;
+import com.jmmarquardt.svcticket.model.ticket.CommandResult;
+import com.jmmarquardt.svcticket.model.ticket.TicketStateMachine;
+
+/**
+ * TicketMetrics
+ * <p>
+ * TicketMetrics counts the Commands applied to tickets. A
+ * {@code TicketManager} given a TicketMetrics with {@code setMetrics()}
+ * records every Command it applies:
+ * </p>
+ * <ul>
+ * <li>one {@code LongAdder} per (state, CommandValue) counts the Commands
+ * applied from that state;</li>
+ * <li>one {@code LongAdder} per (CommandResult, CommandValue) counts the
+ * Commands rejected for that reason;</li>
+ * <li>one {@code LatencyHistogram} per CommandValue records how long
+ * {@code Ticket.apply()}, the state transition itself, took.</li>
+ * </ul>
+ * <p>
+ * Recording is lock-free and allocation-free, so the metrics can stay on in
+ * production. They are read through JMX, by registering the object as an
+ * MXBean with {@code register()}, or as plain text with {@code dump()}.
+ * </p>
+ *
+ * @author John-Michael Marquardt
+ */
+public class TicketMetrics implements TicketMetricsMXBean {
+	/** The JMX domain of the registered MBeans. */
+	public static final String DOMAIN = "com.jmmarquardt.svcticket";
+	/** The state passed to record() when there is no such ticket. */
+	public static final int NO_STATE = -1;
+	/** The percentiles reported, and their names. */
+	private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+	/** The names of PERCENTILES. */
+	private static final String[] PERCENTILE_NAMES = { "p50", "p90", "p99", "p999" };
+	/** Every CommandValue, indexed by ordinal. */
+	private static final CommandValue[] COMMANDS = CommandValue.values();
+	/** Every CommandResult, indexed by ordinal. */
+	private static final CommandResult[] RESULTS = CommandResult.values();
+	/** The number of CommandValues. */
+	private static final int COMMAND_COUNT = COMMANDS.length;
+
+	/** Commands applied, indexed by state * COMMAND_COUNT + command. */
+	private final LongAdder[] transitions = new LongAdder[TicketStateMachine.STATE_COUNT * COMMAND_COUNT];
+	/** Commands rejected, indexed by result * COMMAND_COUNT + command. */
+	private final LongAdder[] rejections = new LongAdder[RESULTS.length * COMMAND_COUNT];
+	/** Apply latency, indexed by command. */
+	private final LatencyHistogram[] latency = new LatencyHistogram[COMMAND_COUNT];
+
+	/**
+	 * TicketMetrics() - constructs metrics with every counter at zero.
+	 */
+	public TicketMetrics() {
+		for (int i = 0; i < transitions.length; i++)
+			transitions[i] = new LongAdder();
+		for (int i = 0; i < rejections.length; i++)
+			rejections[i] = new LongAdder();
+		for (int i = 0; i < latency.length; i++)
+			latency[i] = new LatencyHistogram();
+	}
+
+	/**
+	 * record(int, CommandValue, CommandResult, long) - records a Command that was
+	 * applied to, or rejected by, a ticket.
+	 *
+	 * @param state  the ticket's state id before the Command, or NO_STATE if
+	 *               the Command never reached a ticket (there was no such
+	 *               ticket, or its version had moved on).
+	 * @param value  the Command's CommandValue.
+	 * @param result the outcome.
+	 * @param nanos  the time Ticket.apply() took, ignored if state is NO_STATE.
+	 */
+	public void record(int state, CommandValue value, CommandResult result, long nanos) {
+		int c = value.ordinal();
+		if (result == CommandResult.APPLIED)
+			transitions[state * COMMAND_COUNT + c].increment();
+		else
+			rejections[result.ordinal() * COMMAND_COUNT + c].increment();
+		if (state != NO_STATE)
+			latency[c].record(nanos);
+	}
+
+	/**
+	 * getTransitionCount(int, CommandValue) - returns the number of Commands with
+	 * the given value applied to tickets in the given state.
+	 *
+	 * @param state a TicketStateMachine state id.
+	 * @param value the CommandValue.
+	 * @return the number applied.
+	 */
+	public long getTransitionCount(int state, CommandValue value) {
+		return transitions[state * COMMAND_COUNT + value.ordinal()].sum();
+	}
+
+	/**
+	 * getRejectionCount(CommandResult, CommandValue) - returns the number of
+	 * Commands with the given value rejected for the given reason.
+	 *
+	 * @param reason the CommandResult.
+	 * @param value  the CommandValue.
+	 * @return the number rejected.
+	 */
+	public long getRejectionCount(CommandResult reason, CommandValue value) {
+		return rejections[reason.ordinal() * COMMAND_COUNT + value.ordinal()].sum();
+	}
+
+	/**
+	 * getLatency(CommandValue) - returns the apply latency histogram of a
+	 * CommandValue.
+	 *
+	 * @param value the CommandValue.
+	 * @return its histogram.
+	 */
+	public LatencyHistogram getLatency(CommandValue value) {
+		return latency[value.ordinal()];
+	}
+
+	/**
+	 * getCommandsApplied - returns the number of Commands applied.
+	 *
+	 * @return the number of Commands applied.
+	 */
+	@Override
+	public long getCommandsApplied() {
+		return total(transitions);
+	}
+
+	/**
+	 * getCommandsRejected - returns the number of Commands rejected.
+	 *
+	 * @return the number of Commands rejected, for any reason.
+	 */
+	@Override
+	public long getCommandsRejected() {
+		return total(rejections);
+	}
+
+	/**
+	 * total(LongAdder[]) - returns the sum of the counters.
+	 *
+	 * @param counters the counters
+	 * @return their sum
+	 */
+	private static long total(LongAdder[] counters) {
+		long n = 0;
+		for (LongAdder a : counters)
+			n += a.sum();
+		return n;
+	}
+
+	/**
+	 * getTransitionCounts - returns the non-zero applied counts keyed
+	 * "State/COMMAND".
+	 *
+	 * @return the counts, in state and CommandValue order.
+	 */
+	@Override
+	public Map<String, Long> getTransitionCounts() {
+		Map<String, Long> m = new LinkedHashMap<String, Long>();
+		for (int s = 0; s < TicketStateMachine.STATE_COUNT; s++)
+			for (CommandValue c : COMMANDS) {
+				long n = getTransitionCount(s, c);
+				if (n != 0)
+					m.put(TicketStateMachine.getStateName(s) + "/" + c.name(), n);
+			}
+		return m;
+	}
+
+	/**
+	 * getRejectionCounts - returns the non-zero rejected counts keyed
+	 * "REASON/COMMAND".
+	 *
+	 * @return the counts, in CommandResult and CommandValue order.
+	 */
+	@Override
+	public Map<String, Long> getRejectionCounts() {
+		Map<String, Long> m = new LinkedHashMap<String, Long>();
+		for (CommandResult r : RESULTS)
+			for (CommandValue c : COMMANDS) {
+				long n = getRejectionCount(r, c);
+				if (n != 0)
+					m.put(r.name() + "/" + c.name(), n);
+			}
+		return m;
+	}
+
+	/**
+	 * getLatencyPercentiles - returns the apply latency percentiles over every
+	 * CommandValue, merged from the per-command histograms.
+	 *
+	 * @return the percentiles and the maximum, in nanoseconds.
+	 */
+	@Override
+	public Map<String, Long> getLatencyPercentiles() {
+		long[] buckets = new long[LatencyHistogram.BUCKETS];
+		long max = 0;
+		for (LatencyHistogram h : latency) {
+			h.addTo(buckets);
+			max = Math.max(max, h.getMax());
+		}
+		Map<String, Long> m = new LinkedHashMap<String, Long>();
+		for (int i = 0; i < PERCENTILES.length; i++)
+			m.put(PERCENTILE_NAMES[i], LatencyHistogram.percentile(buckets, PERCENTILES[i]));
+		m.put("max", max);
+		return m;
+	}
+
+	/**
+	 * dump - returns every non-zero counter and histogram, one value per line in
+	 * the Prometheus text format.
+	 *
+	 * @return the text dump.
+	 */
+	@Override
+	public String dump() {
+		StringBuilder b = new StringBuilder();
+		for (int s = 0; s < TicketStateMachine.STATE_COUNT; s++)
+			for (CommandValue c : COMMANDS) {
+				long n = getTransitionCount(s, c);
+				if (n != 0)
+					b.append("ticket_commands_applied_total{state=\"").append(TicketStateMachine.getStateName(s))
+							.append("\",command=\"").append(c.name()).append("\"} ").append(n).append('\n');
+			}
+		for (CommandResult r : RESULTS)
+			for (CommandValue c : COMMANDS) {
+				long n = getRejectionCount(r, c);
+				if (n != 0)
+					b.append("ticket_commands_rejected_total{reason=\"").append(r.name()).append("\",command=\"")
+							.append(c.name()).append("\"} ").append(n).append('\n');
+			}
+		for (CommandValue c : COMMANDS) {
+			LatencyHistogram h = latency[c.ordinal()];
+			long n = h.getCount();
+			if (n == 0)
+				continue;
+			String label = "{command=\"" + c.name() + "\"";
+			long[] buckets = new long[LatencyHistogram.BUCKETS];
+			h.addTo(buckets);
+			for (int i = 0; i < PERCENTILES.length; i++)
+				b.append("ticket_command_apply_nanos").append(label).append(",quantile=\"")
+						.append(PERCENTILES[i] / 100).append("\"} ")
+						.append(LatencyHistogram.percentile(buckets, PERCENTILES[i])).append('\n');
+			b.append("ticket_command_apply_nanos_max").append(label).append("} ").append(h.getMax()).append('\n');
+			b.append("ticket_command_apply_nanos_mean").append(label).append("} ")
+					.append(Math.round(h.getMean())).append('\n');
+			b.append("ticket_command_apply_nanos_count").append(label).append("} ").append(n).append('\n');
+		}
+		return b.toString();
+	}
+
+	/**
+	 * reset - clears every counter and histogram. Commands recorded concurrently
+	 * may be lost or kept.
+	 */
+	@Override
+	public void reset() {
+		for (LongAdder a : transitions)
+			a.reset();
+		for (LongAdder a : rejections)
+			a.reset();
+		for (LatencyHistogram h : latency)
+			h.reset();
+	}
+
+	/**
+	 * register(String) - registers these metrics with the platform MBean server
+	 * under {@code DOMAIN:type=TicketMetrics,name=<name>}.
+	 *
+	 * @param name the name that tells these metrics apart, e.g. "default".
+	 * @return the ObjectName registered.
+	 * @throws IllegalArgumentException if name is null, not a valid ObjectName
+	 *                                  value or already registered.
+	 */
+	public ObjectName register(String name) {
+		if (name == null)
+			throw new IllegalArgumentException("Parameter cannot be null.");
+		try {
+			ObjectName objectName = objectName(name);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+			return objectName;
+		} catch (JMException e) {
+			throw new IllegalArgumentException("Cannot register metrics: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * unregister(String) - removes the metrics registered under the given name,
+	 * if any.
+	 *
+	 * @param name the name passed to register().
+	 */
+	public static void unregister(String name) {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			ObjectName objectName = objectName(name);
+			if (server.isRegistered(objectName))
+				server.unregisterMBean(objectName);
+		} catch (JMException e) {
+			// already gone
+		}
+	}
+
+	/**
+	 * objectName(String) - returns the ObjectName for a name.
+	 *
+	 * @param name the name
+	 * @return the ObjectName
+	 * @throws JMException if the name is not valid
+	 */
+	private static ObjectName objectName(String name) throws JMException {
+		return new ObjectName(DOMAIN + ":type=TicketMetrics,name=" + ObjectName.quote(name));
+	}
+}
@@ -0,0 +1,66 @@
+/**
+ * TicketMetricsMXBean.java
+ */
+package com.jmmarquardt.svcticket.model.metrics;
+
+import java.util.Map;
+
+/**
+ * TicketMetricsMXBean is the management interface of {@code TicketMetrics},
+ * exposed through JMX. Every attribute is read from the live counters.
+ *
+ * @author John-Michael Marquardt
+ */
+public interface TicketMetricsMXBean {
+
+	/**
+	 * getCommandsApplied - returns the number of Commands applied.
+	 *
+	 * @return the number of Commands applied.
+	 */
+	long getCommandsApplied();
+
+	/**
+	 * getCommandsRejected - returns the number of Commands rejected.
+	 *
+	 * @return the number of Commands rejected, for any reason.
+	 */
+	long getCommandsRejected();
+
+	/**
+	 * getTransitionCounts - returns the number of Commands applied per state and
+	 * CommandValue, keyed "State/COMMAND", e.g. "Working/RESOLVE".
+	 *
+	 * @return the non-zero counts.
+	 */
+	Map<String, Long> getTransitionCounts();
+
+	/**
+	 * getRejectionCounts - returns the number of Commands rejected per reason
+	 * and CommandValue, keyed "REASON/COMMAND", e.g.
+	 * "INVALID_CODE/RESOLVE".
+	 *
+	 * @return the non-zero counts.
+	 */
+	Map<String, Long> getRejectionCounts();
+
+	/**
+	 * getLatencyPercentiles - returns the latency of applying a Command to a
+	 * Ticket in nanoseconds, keyed "p50", "p90", "p99", "p999" and "max".
+	 *
+	 * @return the latency percentiles over every CommandValue.
+	 */
+	Map<String, Long> getLatencyPercentiles();
+
+	/**
+	 * dump - returns every counter and histogram as plain text.
+	 *
+	 * @return the text dump.
+	 */
+	String dump();
+
+	/**
+	 * reset - clears every counter and histogram.
+	 */
+	void reset();
+}
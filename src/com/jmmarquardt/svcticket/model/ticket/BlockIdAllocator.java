@@ -0,0 +1,241 @@
+/**
+ * BlockIdAllocator.java
+ */
+package com.jmmarquardt.svcticket.model.ticket;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BlockIdAllocator
+ * <p>
+ * BlockIdAllocator is a {@code TicketIdAllocator} that leases ids to each
+ * thread in blocks. A thread takes ids from its own block without any
+ * synchronization and only touches the shared counter when the block runs
+ * out, so threads creating tickets at the same time do not contend on one
+ * atomic value.
+ * </p>
+ *
+ * When opened on a file, the allocator also records a high-water mark: an id
+ * that no issued id has reached. The mark is written (and forced to disk)
+ * ahead of the leased blocks, several blocks at a time, and on the next start
+ * the allocator begins at the recorded mark. Ids that were leased but never
+ * used are skipped, but an id is never issued twice across restarts. A
+ * {@code Ticket} uses an allocator that is not persisted unless one opened
+ * on a file is installed with {@code Ticket.setIdAllocator()}.
+ *
+ * @author John-Michael Marquardt
+ */
+public class BlockIdAllocator implements TicketIdAllocator {
+	/** The default number of ids in a leased block. */
+	public static final int DEFAULT_BLOCK_SIZE = 256;
+	/** The name of the mark file kept in a ticket directory. */
+	public static final String MARK_FILE = "ticket-ids.mark";
+	/** The number of blocks the persisted mark is moved ahead at a time. */
+	private static final int BLOCKS_PER_MARK = 64;
+	/** Error message for an invalid block size. */
+	private static final String BLOCK_ERROR = "Block size must be positive.";
+
+	/** The number of ids in each leased block. */
+	private final int blockSize;
+	/** The first id of the next block to be leased. */
+	private final AtomicLong nextBlock;
+	/** No id at or below this value may be returned by nextId(). */
+	private volatile long floor;
+	/** The file holding the high-water mark, or null if not persisted. */
+	private final Path markFile;
+	/** The high-water mark last written to markFile. */
+	private long persistedMark;
+	/** The block currently leased to each thread. */
+	private final ThreadLocal<Lease> leases = ThreadLocal.withInitial(Lease::new);
+
+	/**
+	 * Lease is the range of ids leased to a single thread.
+	 */
+	private static final class Lease {
+		/** The next id to hand out from this lease. */
+		long next;
+		/** One past the last id of this lease. */
+		long limit;
+	}
+
+	/**
+	 * BlockIdAllocator() - constructs an allocator that starts at id 1 and does
+	 * not persist its high-water mark.
+	 */
+	public BlockIdAllocator() {
+		this(DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * BlockIdAllocator(int) - constructs an allocator that starts at id 1, leases
+	 * blocks of the given size, and does not persist its high-water mark.
+	 *
+	 * @param blockSize the number of ids leased to a thread at a time.
+	 * @throws IllegalArgumentException if blockSize is not positive.
+	 */
+	public BlockIdAllocator(int blockSize) {
+		this(blockSize, null, 1);
+	}
+
+	/**
+	 * BlockIdAllocator(int, Path, long) - used by {@code open()}.
+	 *
+	 * @param blockSize the number of ids leased to a thread at a time
+	 * @param markFile  the high-water mark file, or null
+	 * @param first     the first id to lease
+	 */
+	private BlockIdAllocator(int blockSize, Path markFile, long first) {
+		if (blockSize <= 0)
+			throw new IllegalArgumentException(BLOCK_ERROR);
+		this.blockSize = blockSize;
+		this.markFile = markFile;
+		this.nextBlock = new AtomicLong(first);
+		this.floor = first - 1;
+		this.persistedMark = first;
+	}
+
+	/**
+	 * open(Path, int) - opens an allocator that persists its high-water mark in
+	 * the given file. If the file exists, the allocator starts at the mark it
+	 * holds; otherwise it starts at id 1 and the file is created.
+	 *
+	 * @param markFile  the file holding the high-water mark.
+	 * @param blockSize the number of ids leased to a thread at a time.
+	 * @return the opened allocator.
+	 * @throws IOException              if the file cannot be read or written.
+	 * @throws IllegalArgumentException if markFile is null or blockSize is not
+	 *                                  positive.
+	 */
+	public static BlockIdAllocator open(Path markFile, int blockSize) throws IOException {
+		if (markFile == null)
+			throw new IllegalArgumentException("Parameter cannot be null.");
+		long first = 1;
+		if (Files.exists(markFile)) {
+			ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(markFile));
+			if (buf.remaining() < Long.BYTES)
+				throw new IOException("Corrupt ticket id mark file: " + markFile);
+			first = Math.max(1, buf.getLong());
+		}
+		BlockIdAllocator allocator = new BlockIdAllocator(blockSize, markFile, first);
+		allocator.writeMark(first);
+		return allocator;
+	}
+
+	/**
+	 * nextId - returns the next id from this thread's leased block, leasing a
+	 * new block when the current one is used up.
+	 *
+	 * @return a new, unique ticket id.
+	 * @throws UncheckedIOException if the high-water mark cannot be persisted.
+	 */
+	@Override
+	public long nextId() {
+		Lease lease = leases.get();
+		if (lease.next >= lease.limit || lease.next <= floor)
+			lease(lease);
+		return lease.next++;
+	}
+
+	/**
+	 * reserve(long) - moves the allocator past the given id. Blocks already
+	 * leased to threads are abandoned if they reach the reserved id.
+	 *
+	 * @param id the largest id that is already in use.
+	 */
+	@Override
+	public void reserve(long id) {
+		synchronized (this) {
+			if (id > floor)
+				floor = id;
+		}
+		long next = nextBlock.get();
+		while (next <= id && !nextBlock.compareAndSet(next, id + 1))
+			next = nextBlock.get();
+	}
+
+	/**
+	 * lease(Lease) - takes the next block from the shared counter for the
+	 * calling thread, persisting a new high-water mark first if needed.
+	 *
+	 * @param lease the calling thread's lease to refill
+	 */
+	private void lease(Lease lease) {
+		long start;
+		do {
+			start = nextBlock.getAndAdd(blockSize);
+		} while (start + blockSize - 1 <= floor);
+		long limit = start + blockSize;
+		if (markFile != null)
+			ensureMark(limit);
+		lease.next = Math.max(start, floor + 1);
+		lease.limit = limit;
+	}
+
+	/**
+	 * ensureMark(long) - makes sure the persisted high-water mark is at least the
+	 * given limit, moving it several blocks ahead when it is not.
+	 *
+	 * @param limit one past the last id of a newly leased block
+	 */
+	private synchronized void ensureMark(long limit) {
+		if (limit <= persistedMark)
+			return;
+		writeMark(limit + (long) blockSize * BLOCKS_PER_MARK);
+	}
+
+	/**
+	 * writeMark(long) - durably replaces the high-water mark file. The mark is
+	 * written to a temporary file, forced to disk and then moved over the old
+	 * file, and the directory is forced so the move itself survives a crash. A
+	 * crash leaves either the old or the new mark.
+	 *
+	 * @param mark the new high-water mark
+	 */
+	private synchronized void writeMark(long mark) {
+		Path tmp = markFile.resolveSibling(markFile.getFileName() + ".tmp");
+		try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buf = ByteBuffer.allocate(Long.BYTES).putLong(0, mark);
+			while (buf.hasRemaining())
+				ch.write(buf);
+			ch.force(true);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		try {
+			Files.move(tmp, markFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			forceDirectory(markFile.toAbsolutePath().getParent());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		persistedMark = mark;
+	}
+
+	/**
+	 * forceDirectory(Path) - forces a directory's entries to disk. Platforms
+	 * that cannot open a directory as a channel, such as Windows, make renames
+	 * durable without it, so an open that fails is ignored.
+	 *
+	 * @param dir the directory
+	 * @throws IOException if the directory cannot be forced
+	 */
+	private static void forceDirectory(Path dir) throws IOException {
+		FileChannel ch;
+		try {
+			ch = FileChannel.open(dir, StandardOpenOption.READ);
+		} catch (IOException e) {
+			return;
+		}
+		try (FileChannel c = ch) {
+			c.force(true);
+		}
+	}
+}
@@ -0,0 +1,34 @@
+/**
+ * CommandResult.java
+ */
+package com.jmmarquardt.svcticket.model.ticket;
+
+/**
+ * CommandResult is the outcome of applying a {@code Command} to a
+ * {@code Ticket}. Returning one of these constants (rather than throwing) lets
+ * callers that push large numbers of commands through the model handle a
+ * rejected command without the cost of building an exception.
+ *
+ * @author John-Michael Marquardt
+ */
+public enum CommandResult {
+	/** The Command was valid for the ticket's state and has been applied. */
+	APPLIED,
+	/** The CommandValue is not a valid action for the ticket's current state. */
+	INVALID_TRANSITION,
+	/** The Command's code is not valid for the ticket (e.g. wrong resolution). */
+	INVALID_CODE,
+	/** There is no ticket with the id the Command was addressed to. */
+	NO_SUCH_TICKET,
+	/** The ticket has changed since the version the Command was based on. */
+	CONFLICT;
+
+	/**
+	 * isApplied - returns true if this result represents an applied Command.
+	 *
+	 * @return true if the Command was applied, else false.
+	 */
+	public boolean isApplied() {
+		return this == APPLIED;
+	}
+}
@@ -0,0 +1,479 @@
+/**
+ * NoteArena.java
+ */
+package com.jmmarquardt.svcticket.model.ticket;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.VarHandle;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * NoteArena
+ * <p>
+ * NoteArena is a compact store for the text of ticket notes. Each note is
+ * written once as a length-prefixed run of UTF-8 bytes into a large chunk, and
+ * a ticket keeps only the {@code long} reference of each note, a handle into
+ * the arena's offset index. Chunks are direct buffers outside the Java heap
+ * or, for an arena opened on a file, regions of a memory-mapped file, so the
+ * text of old notes costs no heap and is paged in only when it is read.
+ * </p>
+ * <p>
+ * The notes of a ticket are released once the ticket itself has been garbage
+ * collected: the arena tracks each ticket's notes with a phantom reference and
+ * releases the notes of collected tickets on the next append, or when
+ * {@code reclaim()} is called. The arena counts the live bytes of every chunk.
+ * A chunk with no live notes is dropped; a chunk less than a quarter live has
+ * its notes copied forward into the current chunk and is then dropped. The
+ * region of a dropped chunk of a file-backed arena is reused for a later
+ * chunk; the file is scratch space for the running process and is truncated
+ * when the arena is opened.
+ * </p>
+ *
+ * Appends, releases and moves are serialized. Reads are lock free: a reader
+ * looks up the note's offset, reads the record and checks the offset again,
+ * retrying if the note was moved meanwhile.
+ *
+ * @author John-Michael Marquardt
+ */
+public class NoteArena {
+	/** The default size of a chunk, 1 MB. */
+	public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+	/** The reference used for a null note. */
+	public static final long NULL_REF = -1L;
+
+	/** The size of a record's header: its length and its handle. */
+	private static final int HEADER = 8;
+	/** The shared off-heap arena used by default. */
+	private static final NoteArena DEFAULT = new NoteArena(DEFAULT_CHUNK_SIZE, null);
+
+	/** The size of an ordinary chunk. */
+	private final int chunkSize;
+	/** The backing file channel, or null for an off-heap arena. */
+	private final FileChannel file;
+	/** The queue the Owners of collected tickets are enqueued on. */
+	private final ReferenceQueue<Object> collected = new ReferenceQueue<Object>();
+	/** The head of the list of registered Owners; guarded by this. */
+	private final Owner owners = new Owner(null, null);
+	/** The chunks, indexed by the high 32 bits of an offset; null once dropped. */
+	private volatile ByteBuffer[] chunks = new ByteBuffer[8];
+	/** The live bytes of each chunk; guarded by this. */
+	private int[] live = new int[8];
+	/** The file offset of each chunk of a file-backed arena; guarded by this. */
+	private long[] region = new long[8];
+	/** True for each chunk waiting to be compacted; guarded by this. */
+	private boolean[] sparse = new boolean[8];
+	/** The chunks waiting to be compacted; guarded by this. */
+	private int[] sparseChunks = new int[8];
+	/** The number of chunks waiting to be compacted; guarded by this. */
+	private int sparseCount;
+	/** The number of chunks created; guarded by this. */
+	private int chunkCount;
+	/** The write position in the last chunk; guarded by this. */
+	private int position;
+	/** The file offset of the next chunk to map; guarded by this. */
+	private long fileEnd;
+	/** The free file regions of ordinary chunks; guarded by this. */
+	private long[] freeRegions = new long[8];
+	/** The number of free file regions; guarded by this. */
+	private int freeRegionCount;
+	/** The offset of each handle's record, chunk index in the high 32 bits. */
+	private volatile AtomicLongArray offsets = new AtomicLongArray(64);
+	/** The number of handles given out; guarded by this. */
+	private int handleCount;
+	/** The released handles; guarded by this. */
+	private int[] freeHandles = new int[64];
+	/** The number of released handles; guarded by this. */
+	private int freeHandleCount;
+	/** The number of live bytes; guarded by this. */
+	private long liveBytes;
+
+	/**
+	 * Owner is the list of note references of one ticket. It is a phantom
+	 * reference to the ticket, so the arena learns when the ticket has been
+	 * collected and releases its notes. The ticket appends and reads the
+	 * references under its own lock; the arena reads them only once the ticket
+	 * is gone.
+	 */
+	static final class Owner extends PhantomReference<Object> {
+		/** The note references, oldest first. */
+		long[] refs = new long[2];
+		/** The number of notes. */
+		int count;
+		/** The neighbours in the arena's list; null while unregistered. */
+		Owner prev, next;
+
+		/**
+		 * Owner(Object, ReferenceQueue) - constructs an empty list.
+		 *
+		 * @param ticket the ticket whose notes these are
+		 * @param queue  the queue to enqueue this on once ticket is collected
+		 */
+		Owner(Object ticket, ReferenceQueue<Object> queue) {
+			super(ticket, queue);
+		}
+	}
+
+	/**
+	 * NoteArena(int, FileChannel) - constructs an empty arena.
+	 *
+	 * @param chunkSize the size of an ordinary chunk
+	 * @param file      the backing file, or null for off-heap chunks
+	 */
+	private NoteArena(int chunkSize, FileChannel file) {
+		if (chunkSize < 16)
+			throw new IllegalArgumentException("Chunk size is too small.");
+		this.chunkSize = chunkSize;
+		this.file = file;
+		this.position = chunkSize;
+		owners.prev = owners.next = owners;
+	}
+
+	/**
+	 * getDefault - returns the shared off-heap arena.
+	 *
+	 * @return the default NoteArena.
+	 */
+	public static NoteArena getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * offHeap(int) - returns a new arena whose chunks are direct buffers.
+	 *
+	 * @param chunkSize the size of each chunk in bytes.
+	 * @return the new arena.
+	 * @throws IllegalArgumentException if chunkSize is less than 16.
+	 */
+	public static NoteArena offHeap(int chunkSize) {
+		return new NoteArena(chunkSize, null);
+	}
+
+	/**
+	 * open(Path, int) - returns a new arena whose chunks are mapped from the given
+	 * file, so note text is spilled to disk. The file is created or truncated.
+	 *
+	 * @param path      the file to spill notes to.
+	 * @param chunkSize the size of each mapped chunk in bytes.
+	 * @return the new arena.
+	 * @throws IOException              if the file cannot be opened.
+	 * @throws IllegalArgumentException if path is null or chunkSize is less than
+	 *                                  16.
+	 */
+	public static NoteArena open(Path path, int chunkSize) throws IOException {
+		if (path == null)
+			throw new IllegalArgumentException("Parameter cannot be null.");
+		FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		return new NoteArena(chunkSize, ch);
+	}
+
+	/**
+	 * newOwner(Object) - returns an empty note list for a ticket. The list is
+	 * registered with the arena when its first note is appended.
+	 *
+	 * @param ticket the ticket whose notes the list holds
+	 * @return the new Owner
+	 */
+	Owner newOwner(Object ticket) {
+		return new Owner(ticket, collected);
+	}
+
+	/**
+	 * append(Owner, String) - stores a note and adds its reference to the
+	 * owner's list. The caller holds the lock that guards the owner's ticket.
+	 *
+	 * @param owner the list of the ticket the note is added to
+	 * @param note  the note text, or null
+	 * @throws UncheckedIOException if a file-backed chunk cannot be mapped.
+	 */
+	void append(Owner owner, String note) {
+		byte[] bytes = note == null ? null : note.getBytes(StandardCharsets.UTF_8);
+		synchronized (this) {
+			expunge();
+			if (owner.next == null) {
+				owner.prev = owners;
+				owner.next = owners.next;
+				owners.next.prev = owner;
+				owners.next = owner;
+			}
+			if (owner.count == owner.refs.length)
+				owner.refs = Arrays.copyOf(owner.refs, owner.count * 2);
+			owner.refs[owner.count++] = bytes == null ? NULL_REF : store(newHandle(), bytes, 0, bytes.length);
+			compactSparse();
+		}
+	}
+
+	/**
+	 * get(long) - returns the note with the given reference. The caller must
+	 * keep the note's ticket reachable until the call returns.
+	 *
+	 * @param ref a reference added to an Owner by {@code append()}
+	 * @return the note text, or null for NULL_REF
+	 */
+	String get(long ref) {
+		if (ref == NULL_REF)
+			return null;
+		int handle = (int) ref;
+		for (;;) {
+			AtomicLongArray o = offsets;
+			long at = o.get(handle);
+			ByteBuffer chunk = chunks[(int) (at >>> 32)];
+			if (chunk == null)
+				continue;
+			int start = (int) at;
+			int length = chunk.getInt(start);
+			byte[] bytes = null;
+			if (length >= 0 && length <= chunk.capacity() - start - HEADER) {
+				bytes = new byte[length];
+				chunk.duplicate().position(start + HEADER).get(bytes);
+			}
+			// the record is valid only if it was not moved while it was read
+			VarHandle.loadLoadFence();
+			if (o == offsets && o.get(handle) == at && bytes != null)
+				return new String(bytes, StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * reclaim - releases the notes of every ticket the garbage collector has
+	 * found unreachable, and compacts the chunks this leaves sparse. Appends do
+	 * the same, so this is needed only to shrink an arena nothing is appended
+	 * to.
+	 */
+	public synchronized void reclaim() {
+		expunge();
+		compactSparse();
+	}
+
+	/**
+	 * newHandle - returns an unused handle. Called with the arena's lock held.
+	 *
+	 * @return the handle
+	 */
+	private int newHandle() {
+		if (freeHandleCount > 0)
+			return freeHandles[--freeHandleCount];
+		AtomicLongArray o = offsets;
+		if (handleCount == o.length()) {
+			AtomicLongArray grown = new AtomicLongArray(o.length() * 2);
+			for (int i = 0; i < handleCount; i++)
+				grown.set(i, o.get(i));
+			offsets = grown;
+		}
+		return handleCount++;
+	}
+
+	/**
+	 * store(int, byte[], int, int) - writes a record for a handle at the end of
+	 * the current chunk and points the handle at it. Called with the arena's
+	 * lock held.
+	 *
+	 * @param handle the handle of the note
+	 * @param bytes  the buffer holding the note's UTF-8 bytes
+	 * @param from   the offset of the bytes in the buffer
+	 * @param length the number of bytes
+	 * @return the handle
+	 */
+	private long store(int handle, byte[] bytes, int from, int length) {
+		int need = HEADER + length;
+		if (position + need > capacity(chunkCount - 1))
+			addChunk(Math.max(chunkSize, need));
+		int c = chunkCount - 1;
+		ByteBuffer chunk = chunks[c];
+		int at = position;
+		chunk.putInt(at, length);
+		chunk.putInt(at + 4, handle);
+		chunk.duplicate().position(at + HEADER).put(bytes, from, length);
+		position += need;
+		live[c] += need;
+		liveBytes += need;
+		offsets.set(handle, (long) c << 32 | at);
+		return handle;
+	}
+
+	/**
+	 * capacity(int) - returns the capacity of a chunk, or 0 if there is none.
+	 *
+	 * @param index the chunk index
+	 * @return its capacity
+	 */
+	private int capacity(int index) {
+		return index < 0 ? 0 : chunks[index].capacity();
+	}
+
+	/**
+	 * addChunk(int) - starts a new chunk of the given size. The chunk it
+	 * replaces as the current chunk is checked for compaction. Called with the
+	 * arena's lock held.
+	 *
+	 * @param size the chunk size
+	 */
+	private void addChunk(int size) {
+		ByteBuffer chunk;
+		long at = -1;
+		if (file == null) {
+			chunk = ByteBuffer.allocateDirect(size);
+		} else {
+			at = size == chunkSize && freeRegionCount > 0 ? freeRegions[--freeRegionCount] : fileEnd;
+			try {
+				chunk = file.map(FileChannel.MapMode.READ_WRITE, at, size);
+			} catch (IOException e) {
+				if (at != fileEnd)
+					freeRegions[freeRegionCount++] = at;
+				throw new UncheckedIOException(e);
+			}
+			if (at == fileEnd)
+				fileEnd += size;
+		}
+		ByteBuffer[] c = chunks;
+		if (chunkCount == c.length) {
+			int n = c.length * 2;
+			c = Arrays.copyOf(c, n);
+			live = Arrays.copyOf(live, n);
+			region = Arrays.copyOf(region, n);
+			sparse = Arrays.copyOf(sparse, n);
+		}
+		c[chunkCount] = chunk;
+		region[chunkCount] = at;
+		chunkCount++;
+		chunks = c;
+		position = 0;
+		if (chunkCount > 1)
+			check(chunkCount - 2);
+	}
+
+	/**
+	 * expunge - releases the notes of every collected ticket. Called with the
+	 * arena's lock held.
+	 */
+	private void expunge() {
+		for (Owner o; (o = (Owner) collected.poll()) != null;) {
+			if (o.next == null)
+				continue;
+			o.prev.next = o.next;
+			o.next.prev = o.prev;
+			o.prev = o.next = null;
+			for (int i = 0; i < o.count; i++)
+				if (o.refs[i] != NULL_REF)
+					release((int) o.refs[i]);
+		}
+	}
+
+	/**
+	 * release(int) - frees a handle and the bytes of its record. Called with the
+	 * arena's lock held.
+	 *
+	 * @param handle the handle
+	 */
+	private void release(int handle) {
+		long at = offsets.get(handle);
+		int c = (int) (at >>> 32);
+		int need = HEADER + chunks[c].getInt((int) at);
+		live[c] -= need;
+		liveBytes -= need;
+		// so compaction does not take the dead record for a live one
+		offsets.set(handle, NULL_REF);
+		if (freeHandleCount == freeHandles.length)
+			freeHandles = Arrays.copyOf(freeHandles, freeHandleCount * 2);
+		freeHandles[freeHandleCount++] = handle;
+		check(c);
+	}
+
+	/**
+	 * check(int) - drops a chunk with no live notes, and queues one less than a
+	 * quarter live for compaction. The current chunk is left alone. Called with
+	 * the arena's lock held.
+	 *
+	 * @param c the chunk index
+	 */
+	private void check(int c) {
+		if (c == chunkCount - 1 || chunks[c] == null)
+			return;
+		if (live[c] == 0) {
+			drop(c);
+		} else if (live[c] < chunks[c].capacity() / 4 && !sparse[c]) {
+			sparse[c] = true;
+			if (sparseCount == sparseChunks.length)
+				sparseChunks = Arrays.copyOf(sparseChunks, sparseCount * 2);
+			sparseChunks[sparseCount++] = c;
+		}
+	}
+
+	/**
+	 * compactSparse - copies the live notes of every queued chunk forward into
+	 * the current chunk and drops it. Called with the arena's lock held.
+	 */
+	private void compactSparse() {
+		while (sparseCount > 0) {
+			int c = sparseChunks[--sparseCount];
+			sparse[c] = false;
+			ByteBuffer chunk = chunks[c];
+			if (chunk == null)
+				continue;
+			long base = (long) c << 32;
+			byte[] bytes = new byte[64];
+			for (int at = 0; live[c] > 0;) {
+				int length = chunk.getInt(at);
+				int handle = chunk.getInt(at + 4);
+				if (handle < handleCount && offsets.get(handle) == (base | at)) {
+					if (bytes.length < length)
+						bytes = new byte[Math.max(length, bytes.length * 2)];
+					chunk.duplicate().position(at + HEADER).get(bytes, 0, length);
+					live[c] -= HEADER + length;
+					liveBytes -= HEADER + length;
+					store(handle, bytes, 0, length);
+				}
+				at += HEADER + length;
+			}
+			drop(c);
+		}
+	}
+
+	/**
+	 * drop(int) - drops a chunk with no live notes, freeing its memory or its
+	 * file region. Called with the arena's lock held.
+	 *
+	 * @param c the chunk index
+	 */
+	private void drop(int c) {
+		if (file != null && chunks[c].capacity() == chunkSize) {
+			if (freeRegionCount == freeRegions.length)
+				freeRegions = Arrays.copyOf(freeRegions, freeRegionCount * 2);
+			freeRegions[freeRegionCount++] = region[c];
+		}
+		chunks[c] = null;
+		chunks = chunks;
+	}
+
+	/**
+	 * sizeInBytes - returns the number of bytes of chunk space in use.
+	 *
+	 * @return the bytes allocated to chunks.
+	 */
+	public synchronized long sizeInBytes() {
+		long total = 0;
+		for (int i = 0; i < chunkCount; i++)
+			if (chunks[i] != null)
+				total += chunks[i].capacity();
+		return total;
+	}
+
+	/**
+	 * getLiveBytes - returns the number of bytes taken by the notes of tickets
+	 * not yet known to be collected, including their record headers.
+	 *
+	 * @return the live bytes.
+	 */
+	public synchronized long getLiveBytes() {
+		return liveBytes;
+	}
+}
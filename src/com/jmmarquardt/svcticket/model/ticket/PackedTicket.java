@@ -0,0 +1,241 @@
+/**
+ * PackedTicket.java
+ */
+package com.jmmarquardt.svcticket.model.ticket;
+
+import com.jmmarquardt.svcticket.model.command.Command;
+import com.jmmarquardt.svcticket.model.command.Command.CancellationCode;
+import com.jmmarquardt.svcticket.model.command.Command.FeedbackCode;
+import com.jmmarquardt.svcticket.model.command.Command.ResolutionCode;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Category;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Priority;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.TicketType;
+
+/**
+ * PackedTicket
+ * <p>
+ * PackedTicket packs the enum-valued fields of a ticket into the low 16 bits
+ * of one {@code int}: the state id, TicketType, Category and Priority, and the
+ * FeedbackCode, ResolutionCode and CancellationCode (stored as ordinal + 1, so
+ * that 0 means null). Packed words let stores keep a ticket's fields in one
+ * primitive array slot and let scans test several fields with one mask.
+ * </p>
+ *
+ * A field is read with {@code (word & MASK) >>> SHIFT}, and a scan for, say,
+ * Urgent tickets in Feedback compares {@code word & (STATE_MASK |
+ * PRIORITY_MASK)} with {@code state(FEEDBACK) | priority(URGENT)}.
+ *
+ * @author John-Michael Marquardt
+ */
+public final class PackedTicket {
+	/** Shift of the state id. */
+	public static final int STATE_SHIFT = 0;
+	/** Mask of the state id. */
+	public static final int STATE_MASK = 0x7;
+	/** Shift of the TicketType ordinal. */
+	public static final int TYPE_SHIFT = 3;
+	/** Mask of the TicketType ordinal. */
+	public static final int TYPE_MASK = 0x1 << TYPE_SHIFT;
+	/** Shift of the Category ordinal. */
+	public static final int CATEGORY_SHIFT = 4;
+	/** Mask of the Category ordinal. */
+	public static final int CATEGORY_MASK = 0x7 << CATEGORY_SHIFT;
+	/** Shift of the Priority ordinal. */
+	public static final int PRIORITY_SHIFT = 7;
+	/** Mask of the Priority ordinal. */
+	public static final int PRIORITY_MASK = 0x3 << PRIORITY_SHIFT;
+	/** Shift of the FeedbackCode ordinal + 1. */
+	public static final int FEEDBACK_SHIFT = 9;
+	/** Mask of the FeedbackCode ordinal + 1. */
+	public static final int FEEDBACK_MASK = 0x3 << FEEDBACK_SHIFT;
+	/** Shift of the ResolutionCode ordinal + 1. */
+	public static final int RESOLUTION_SHIFT = 11;
+	/** Mask of the ResolutionCode ordinal + 1. */
+	public static final int RESOLUTION_MASK = 0x7 << RESOLUTION_SHIFT;
+	/** Shift of the CancellationCode ordinal + 1. */
+	public static final int CANCELLATION_SHIFT = 14;
+	/** Mask of the CancellationCode ordinal + 1. */
+	public static final int CANCELLATION_MASK = 0x3 << CANCELLATION_SHIFT;
+
+	/** Returned by applyCommand() for an invalid transition. */
+	public static final int INVALID_TRANSITION = -1;
+	/** Returned by applyCommand() for an invalid code. */
+	public static final int INVALID_CODE = -2;
+
+	/** Cached enum values, indexed by ordinal. */
+	private static final TicketType[] TYPES = TicketType.values();
+	/** Cached enum values, indexed by ordinal. */
+	private static final Category[] CATEGORIES = Category.values();
+	/** Cached enum values, indexed by ordinal. */
+	private static final Priority[] PRIORITIES = Priority.values();
+	/** Cached enum values, indexed by ordinal. */
+	private static final FeedbackCode[] FEEDBACK_CODES = FeedbackCode.values();
+	/** Cached enum values, indexed by ordinal. */
+	private static final ResolutionCode[] RESOLUTION_CODES = ResolutionCode.values();
+	/** Cached enum values, indexed by ordinal. */
+	private static final CancellationCode[] CANCELLATION_CODES = CancellationCode.values();
+
+	/**
+	 * PackedTicket() - not instantiable.
+	 */
+	private PackedTicket() {
+	}
+
+	/**
+	 * pack(TicketView) - returns the packed word of a ticket's fields.
+	 *
+	 * @param t the ticket.
+	 * @return its packed word.
+	 */
+	public static int pack(TicketView t) {
+		return t.getStateId() | t.getTicketType().ordinal() << TYPE_SHIFT
+				| t.getCategory().ordinal() << CATEGORY_SHIFT | t.getPriority().ordinal() << PRIORITY_SHIFT
+				| code(t.getFeedbackCode()) << FEEDBACK_SHIFT | code(t.getResolutionCode()) << RESOLUTION_SHIFT
+				| code(t.getCancellationCode()) << CANCELLATION_SHIFT;
+	}
+
+	/**
+	 * pack(TicketType, Category, Priority) - returns the packed word of a new
+	 * ticket in the New state.
+	 *
+	 * @param type     the TicketType.
+	 * @param category the Category.
+	 * @param priority the Priority.
+	 * @return the packed word.
+	 */
+	public static int pack(TicketType type, Category category, Priority priority) {
+		return TicketStateMachine.NEW | type.ordinal() << TYPE_SHIFT | category.ordinal() << CATEGORY_SHIFT
+				| priority.ordinal() << PRIORITY_SHIFT;
+	}
+
+	/**
+	 * code(Enum) - returns an optional code's ordinal + 1, or 0 for null.
+	 *
+	 * @param code the code, or null
+	 * @return its packed value
+	 */
+	private static int code(Enum<?> code) {
+		return code == null ? 0 : code.ordinal() + 1;
+	}
+
+	/**
+	 * isValid(int) - returns true if every field of a word holds a valid value,
+	 * e.g. before unpacking a word read from outside the process.
+	 *
+	 * @param word a packed word.
+	 * @return true if the word can be unpacked.
+	 */
+	public static boolean isValid(int word) {
+		return (word & ~0xFFFF) == 0 && (word & STATE_MASK) < TicketStateMachine.STATE_COUNT
+				&& (word & CATEGORY_MASK) >>> CATEGORY_SHIFT < CATEGORIES.length
+				&& (word & FEEDBACK_MASK) >>> FEEDBACK_SHIFT <= FEEDBACK_CODES.length
+				&& (word & RESOLUTION_MASK) >>> RESOLUTION_SHIFT <= RESOLUTION_CODES.length
+				&& (word & CANCELLATION_MASK) >>> CANCELLATION_SHIFT <= CANCELLATION_CODES.length;
+	}
+
+	/**
+	 * state(int) - returns the state id in a packed word.
+	 *
+	 * @param word a packed word.
+	 * @return the state id.
+	 */
+	public static int state(int word) {
+		return word & STATE_MASK;
+	}
+
+	/**
+	 * type(int) - returns the TicketType in a packed word.
+	 *
+	 * @param word a packed word.
+	 * @return the TicketType.
+	 */
+	public static TicketType type(int word) {
+		return TYPES[(word & TYPE_MASK) >>> TYPE_SHIFT];
+	}
+
+	/**
+	 * category(int) - returns the Category in a packed word.
+	 *
+	 * @param word a packed word.
+	 * @return the Category.
+	 */
+	public static Category category(int word) {
+		return CATEGORIES[(word & CATEGORY_MASK) >>> CATEGORY_SHIFT];
+	}
+
+	/**
+	 * priority(int) - returns the Priority in a packed word.
+	 *
+	 * @param word a packed word.
+	 * @return the Priority.
+	 */
+	public static Priority priority(int word) {
+		return PRIORITIES[(word & PRIORITY_MASK) >>> PRIORITY_SHIFT];
+	}
+
+	/**
+	 * feedbackCode(int) - returns the FeedbackCode in a packed word.
+	 *
+	 * @param word a packed word.
+	 * @return the FeedbackCode, or null.
+	 */
+	public static FeedbackCode feedbackCode(int word) {
+		int c = (word & FEEDBACK_MASK) >>> FEEDBACK_SHIFT;
+		return c == 0 ? null : FEEDBACK_CODES[c - 1];
+	}
+
+	/**
+	 * resolutionCode(int) - returns the ResolutionCode in a packed word.
+	 *
+	 * @param word a packed word.
+	 * @return the ResolutionCode, or null.
+	 */
+	public static ResolutionCode resolutionCode(int word) {
+		int c = (word & RESOLUTION_MASK) >>> RESOLUTION_SHIFT;
+		return c == 0 ? null : RESOLUTION_CODES[c - 1];
+	}
+
+	/**
+	 * cancellationCode(int) - returns the CancellationCode in a packed word.
+	 *
+	 * @param word a packed word.
+	 * @return the CancellationCode, or null.
+	 */
+	public static CancellationCode cancellationCode(int word) {
+		int c = (word & CANCELLATION_MASK) >>> CANCELLATION_SHIFT;
+		return c == 0 ? null : CANCELLATION_CODES[c - 1];
+	}
+
+	/**
+	 * applyCommand(int, int, int) - applies a Command to a packed word using the
+	 * TicketStateMachine table, exactly as {@code Ticket.apply()} does to a
+	 * Ticket's fields.
+	 *
+	 * @param word    the packed word.
+	 * @param command the ordinal of the CommandValue.
+	 * @param code    the ordinal of the Command's code, or -1.
+	 * @return the new packed word, or INVALID_TRANSITION or INVALID_CODE.
+	 */
+	public static int applyCommand(int word, int command, int code) {
+		int entry = TicketStateMachine.transition(word & STATE_MASK, command);
+		if (entry == TicketStateMachine.INVALID)
+			return INVALID_TRANSITION;
+		if ((entry & (TicketStateMachine.SET_FEEDBACK | TicketStateMachine.SET_RESOLUTION
+				| TicketStateMachine.SET_CANCELLATION)) != 0 && code < 0)
+			return INVALID_CODE;
+		if ((entry & TicketStateMachine.SET_RESOLUTION) != 0
+				&& !TicketStateMachine.allowsResolution((word & TYPE_MASK) >>> TYPE_SHIFT, code))
+			return INVALID_CODE;
+		if ((entry & TicketStateMachine.CLEAR_FEEDBACK) != 0)
+			word &= ~FEEDBACK_MASK;
+		if ((entry & TicketStateMachine.CLEAR_RESOLUTION) != 0)
+			word &= ~RESOLUTION_MASK;
+		if ((entry & TicketStateMachine.SET_FEEDBACK) != 0)
+			word = (word & ~FEEDBACK_MASK) | (code + 1) << FEEDBACK_SHIFT;
+		if ((entry & TicketStateMachine.SET_RESOLUTION) != 0)
+			word = (word & ~RESOLUTION_MASK) | (code + 1) << RESOLUTION_SHIFT;
+		if ((entry & TicketStateMachine.SET_CANCELLATION) != 0)
+			word = (word & ~CANCELLATION_MASK) | (code + 1) << CANCELLATION_SHIFT;
+		return (word & ~STATE_MASK) | TicketStateMachine.nextState(entry);
+	}
+}
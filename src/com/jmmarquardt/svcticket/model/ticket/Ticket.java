@@ -3,7 +3,20 @@
  */
 package com.jmmarquardt.svcticket.model.ticket;
 
-import java.util.ArrayList;
+import java.lang.ref.Reference;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.Consumer;
+
+import com.jmmarquardt.svcticket.model.command.Command;
+import com.jmmarquardt.svcticket.model.command.Command.CancellationCode;
+import com.jmmarquardt.svcticket.model.command.Command.CommandValue;
+import com.jmmarquardt.svcticket.model.command.Command.FeedbackCode;
+import com.jmmarquardt.svcticket.model.command.Command.ResolutionCode;
+import com.jmmarquardt.svcticket.model.user.UserSymbolTable;
 
 /**
  * Ticket
@@ -16,11 +29,15 @@ import java.util.ArrayList;
  * ({@code TicketManagerGUI}). Other fields may be updated when a Command is
  * issued as per the definition of the Ticket Manager FSM in the design
  * documents. For example, ownerId is updated when a CommandValue.PROCESS
- * Command transitions the ticket from NewState to WorkingState.
+ * Command transitions the ticket from NewState to WorkingState. The caller and
+ * owner are stored as handles in the shared {@code UserSymbolTable}.
  * 
- * The six concrete {@code State} classes implement {@code TicketState}. They
- * are inner classes of Ticket, and each support two behaviors:
- * {@code updateState()} when given a Command, and {@code getStateName()}.
+ * The six states (New, Working, Feedback, Resolved, Closed and Canceled) are
+ * rows of the transition table in {@code TicketStateMachine}. A Ticket stores
+ * the id of its current state, and applying a Command is a lookup in that
+ * table followed by the field updates the entry describes, so no state objects
+ * or exceptions are created on the common path. {@code getTicketState()}
+ * exposes the current state through the {@code TicketState} interface.
  * 
  * Ticket also encapsulates three enumerations, {@code TicketType},
  * {@code Category}, and {@code Priority}.
@@ -28,41 +45,41 @@ import java.util.ArrayList;
  * @author John-Michael Marquardt (jmmarquardt@gmail.com)
  *
  */
-public class Ticket {
+public class Ticket implements TicketView {
 	/** TicketType Request String representation */
-	private static final String TT_REQUEST = "Request";
+	public static final String TT_REQUEST = "Request";
 	/** TicketType Incident String representation */
-	private static final String TT_INCIDENT = "Incident";
+	public static final String TT_INCIDENT = "Incident";
 	/** Category "Inquiry" String representation */
-	private static final String C_INQUIRY = "Inquiry";
+	public static final String C_INQUIRY = "Inquiry";
 	/** Category "Software" String representation */
-	private static final String C_SOFTWARE = "Software";
+	public static final String C_SOFTWARE = "Software";
 	/** Category "Hardware" String representation */
-	private static final String C_HARDWARE = "Hardware";
+	public static final String C_HARDWARE = "Hardware";
 	/** Category "Network" String representation */
-	private static final String C_NETWORK = "Network";
+	public static final String C_NETWORK = "Network";
 	/** Category "Database" String representation */
-	private static final String C_DATABASE = "Database";
+	public static final String C_DATABASE = "Database";
 	/** Priority "Urgent" String representation */
-	private static final String P_URGENT = "Urgent";
+	public static final String P_URGENT = "Urgent";
 	/** Priority "High" String representation */
-	private static final String P_HIGH = "High";
+	public static final String P_HIGH = "High";
 	/** Priority "Medium" String representation */
-	private static final String P_MEDIUM = "Medium";
+	public static final String P_MEDIUM = "Medium";
 	/** Priority "Low" String representation */
-	private static final String P_LOW = "Low";
+	public static final String P_LOW = "Low";
 	/** State String representation for "New" state */
-	private static final String NEW_NAME = "New";
+	public static final String NEW_NAME = "New";
 	/** State String representation for "Working" state */
-	private static final String WORKING_NAME = "Working";
+	public static final String WORKING_NAME = "Working";
 	/** State String representation for "Feedback" state */
-	private static final String FEEDBACK_NAME = "Feedback";
+	public static final String FEEDBACK_NAME = "Feedback";
 	/** State String representation for "Resolved" state */
-	private static final String RESOLVED_NAME = "Resolved";
+	public static final String RESOLVED_NAME = "Resolved";
 	/** State String representation for "Closed" state */
-	private static final String CLOSED_NAME = "Closed";
+	public static final String CLOSED_NAME = "Closed";
 	/** State String representation for "Canceled" state */
-	private static final String CANCELED_NAME = "Canceled";
+	public static final String CANCELED_NAME = "Canceled";
 	/**
 	 * IllegalArgumentException error message for the constructor, and its setters.
 	 */
@@ -74,81 +91,93 @@ public class Ticket {
 	 * Category is one of only 5 types: Inquiry, Software, Hardware, Network or
 	 * Database
 	 */
-	private enum Category {
+	public enum Category {
 		INQUIRY, SOFTWARE, HARDWARE, NETWORK, DATABASE
 	}
 
 	/** Priority is only one of 4 types: Urgent, High, Medium or Low */
-	private enum Priority {
+	public enum Priority {
 		URGENT, HIGH, MEDIUM, LOW
 	}
 
 	/** TicketType can only be one of two types: Request or Incident */
-	private enum TicketType {
+	public enum TicketType {
 		REQUEST, INCIDENT
 	}
 
 	/** ticketId is a unique id for a ticket */
-	private int ticketId;
-	/** state is the current state for the ticket of type {@code TicketState} */
-//	private TicketState state = null;
+	private long ticketId;
+	/** state is the id of the ticket's current state in TicketStateMachine */
+	private int state = TicketStateMachine.NEW;
+	/** Lazily created TicketState view of this ticket's current state */
+	private TicketState ticketState = null;
 	/** ticketType for this ticket instance (Incident or Request) */
 	private TicketType ticketType = null;
 	/**
 	 * subject is the Ticket's subject information from when the ticket is created
 	 */
 	private String subject;
-	/** caller is the User id of the person who created the ticket */
-	private String caller;
+	/** UserSymbolTable handle of the User id of the person who created the ticket */
+	private int callerHandle;
 	/** category of the ticket, from one of the Category enumerator values */
 	private Category category = null;
 	/** priority of the ticket, from one of the Priority enumerator values */
 	private Priority priority = null;
 	/**
-	 * User id of the ticket owner or "" (empty String) if there is no assigned
-	 * owner
+	 * UserSymbolTable handle of the User id of the ticket owner, or the handle of
+	 * "" (empty String) if there is no assigned owner
 	 */
-	private String owner = null;
+	private int ownerHandle = UserSymbolTable.EMPTY;
 	/**
 	 * FeedbackCode for the ticket, null if the ticket is not in the FeedbackState
 	 */
-//	private FeedbackCode feedbackCode = null;
+	private FeedbackCode feedbackCode = null;
 	/**
 	 * ResolutionCode for the ticket, null if the ticket is not in ResolvedState or
 	 * ClosedState
 	 */
-//	private ResolutionCode resolutionCode = null;
+	private ResolutionCode resolutionCode = null;
 	/**
 	 * CancellationCode for the ticket, null if the ticket is not in CanceledState
 	 */
-//	private CancellationCode cancellationCode = null;
-	/** An ArrayList of all the notes on a ticket */
-	private ArrayList<String> notes = new ArrayList<String>();
+	private CancellationCode cancellationCode = null;
+	/** The NoteArena holding the text of this ticket's notes */
+	private final NoteArena noteArena = defaultNoteArena;
+	/** NoteArena references of the notes on this ticket, oldest first */
+	private final NoteArena.Owner notes = noteArena.newOwner(this);
+	/** Immutable view of the notes, created on first use */
+	private List<String> notesView = null;
+	/** True if this ticket has changed since it was last marked clean */
+	private boolean dirty = true;
+	/** The version stamp, bumped by every Command; written under its lock */
+	private volatile long version;
+	/**
+	 * The version given to tickets restored without one: the start time of this
+	 * run in milliseconds, shifted past the versions a ticket of an earlier run
+	 * can have reached
+	 */
+	private static final long BOOT_EPOCH = System.currentTimeMillis() << 20;
+	/** The NoteArena used by tickets created from now on */
+	private static volatile NoteArena defaultNoteArena = NoteArena.getDefault();
 	/**
-	 * counter keeps track of the id value that should be given to the next ticket
-	 * created
+	 * idAllocator hands out the id given to each ticket created; by default it
+	 * starts at 1 in every run, and ids survive a restart only once an
+	 * allocator opened with {@code BlockIdAllocator.open()} is installed
 	 */
-	private static int counter = 1;
+	private static volatile TicketIdAllocator idAllocator = new BlockIdAllocator();
 
-	// Ticket maintains one instance of every concrete TicketState class
-	/** Final instance of the NewState inner class */
-//	private final NewState newState = new NewState();
-	/** Final instance of the WorkingState inner class */
-//	private final WorkingState workingState = new WorkingState();
-	/** Final instance of the FeedbackState inner class */
-//	private final FeedbackState feedbackState = new FeedbackState();
-	/** Final instance of the ResolvedState inner class */
-//	private final ResolvedState resolvedState = new ResolvedState();
-	/** Final instance of the ClosedState inner class */
-//	private final ClosedState closedState = new ClosedState();
-	/** Final instance of the CanceledState inner class */
-//	private final CanceledState canceledState = new CanceledState();
+	/** Cached FeedbackCode values, indexed by ordinal */
+	private static final FeedbackCode[] FEEDBACK_CODES = FeedbackCode.values();
+	/** Cached ResolutionCode values, indexed by ordinal */
+	private static final ResolutionCode[] RESOLUTION_CODES = ResolutionCode.values();
+	/** Cached CancellationCode values, indexed by ordinal */
+	private static final CancellationCode[] CANCELLATION_CODES = CancellationCode.values();
 
 	/**
 	 * Ticket(TicketType, String, String, Category, Priority, String)
 	 * <p>
-	 * Constructs a Ticket from the provided parameters. The ticketId is set to the
-	 * value stored in {@code counter}. The counter is then incremented. The rest of
+	 * Constructs a Ticket from the provided parameters. The ticketId is taken from
+	 * the installed {@code TicketIdAllocator}. The rest of
 	 * the fields are initialized to the given parameter values, null, false or an
 	 * empty object type as appropriate. The {@code owner} field should be
 	 * initialized to an empty String. A new Ticket begins in the "New" state.
@@ -162,35 +191,166 @@ public class Ticket {
 	 * @param category   A Category enumeration: Inquiry, Software, Hardware,
 	 *                   Network, Database.
 	 * @param priority   A Priority enumeration: Urgent, High, Medium, Low.
-	 * @param note       A {@code String>} to add to the notes field of this Ticket.
+	 * @param note       A {@code String} to add to the notes field of this Ticket.
 	 * @throws IllegalArgumentException if any of the given values are null or if
 	 *                                  any of the String type parameters are empty
 	 *                                  strings.
 	 */
 	public Ticket(TicketType ticketType, String subject, String caller, Category category, Priority priority,
 			String note) {
-		// clear all the data fields of ticket
-//		this.feedbackCode = null;
-//		this.resolutionCode = null;
-//		this.cancellationCode = null;
+		this(idAllocator.nextId(), ticketType, subject, caller, category, priority, note);
+	}
 
-		this.ticketId = counter;
-		counter++;
+	/**
+	 * Ticket(long, TicketType, String, String, Category, Priority, String)
+	 * <p>
+	 * Constructs a Ticket with the given ticketId instead of one taken from the
+	 * {@code TicketIdAllocator}. Used to restore tickets whose ids were assigned
+	 * earlier, e.g. when a journal is replayed; the caller is responsible for
+	 * reserving restored ids with the allocator.
+	 * </p>
+	 * 
+	 * @param ticketId   the id of the restored Ticket.
+	 * @param ticketType A TicketType enumeration representing either Incident or
+	 *                   Request.
+	 * @param subject    A String representing this Ticket's subject information
+	 * @param caller     A String representing the User id of the person who
+	 *                   reported the ticket
+	 * @param category   A Category enumeration: Inquiry, Software, Hardware,
+	 *                   Network, Database.
+	 * @param priority   A Priority enumeration: Urgent, High, Medium, Low.
+	 * @param note       A {@code String} to add to the notes field of this Ticket.
+	 * @throws IllegalArgumentException if ticketId is not positive, any of the
+	 *                                  given values are null or if any of the
+	 *                                  String type parameters are empty strings.
+	 */
+	public Ticket(long ticketId, TicketType ticketType, String subject, String caller, Category category,
+			Priority priority, String note) {
+		if (ticketId <= 0)
+			throw new IllegalArgumentException("Ticket id must be positive.");
+		this.ticketId = ticketId;
 		setTicketType(ticketType);
 		setSubject(subject);
 		setCaller(caller);
 		setCategory(category);
 		setPriority(priority);
 		setOwner("");
-		this.notes.add(note);
+		addNote(note);
+	}
+
+	/**
+	 * restore(long, TicketType, String, String, Category, Priority, int, String,
+	 * FeedbackCode, ResolutionCode, CancellationCode, List) - rebuilds a Ticket
+	 * in any state, with its owner, codes and notes, e.g. from a serialized copy.
+	 * The fields are taken as given and are not replayed through the FSM; the
+	 * caller is responsible for reserving the id with the allocator. As the
+	 * Ticket's version is not known, it is set from an epoch taken when this
+	 * run started, which is larger than any version a client can hold from an
+	 * earlier run, so such a version never matches in
+	 * {@code TicketManager.compareAndApply()}.
+	 *
+	 * @param ticketId         the id of the restored Ticket.
+	 * @param ticketType       the TicketType.
+	 * @param subject          the subject.
+	 * @param caller           the User id of the caller.
+	 * @param category         the Category.
+	 * @param priority         the Priority.
+	 * @param stateId          the TicketStateMachine id of the current state.
+	 * @param owner            the User id of the owner, or "" for none.
+	 * @param feedbackCode     the FeedbackCode, or null.
+	 * @param resolutionCode   the ResolutionCode, or null.
+	 * @param cancellationCode the CancellationCode, or null.
+	 * @param notes            the notes, oldest first.
+	 * @return the restored Ticket.
+	 * @throws IllegalArgumentException if ticketId is not positive, stateId is
+	 *                                  not a state, or a required value is null
+	 *                                  or empty.
+	 */
+	public static Ticket restore(long ticketId, TicketType ticketType, String subject, String caller,
+			Category category, Priority priority, int stateId, String owner, FeedbackCode feedbackCode,
+			ResolutionCode resolutionCode, CancellationCode cancellationCode, List<String> notes) {
+		return restore(ticketId, ticketType, subject, caller, category, priority, stateId, owner, feedbackCode,
+				resolutionCode, cancellationCode, notes, BOOT_EPOCH);
+	}
+
+	/**
+	 * restore(long, TicketType, String, String, Category, Priority, int, String,
+	 * FeedbackCode, ResolutionCode, CancellationCode, List, long) - rebuilds a
+	 * Ticket as above, at the given version, e.g. from a copy that recorded it.
+	 *
+	 * @param ticketId         the id of the restored Ticket.
+	 * @param ticketType       the TicketType.
+	 * @param subject          the subject.
+	 * @param caller           the User id of the caller.
+	 * @param category         the Category.
+	 * @param priority         the Priority.
+	 * @param stateId          the TicketStateMachine id of the current state.
+	 * @param owner            the User id of the owner, or "" for none.
+	 * @param feedbackCode     the FeedbackCode, or null.
+	 * @param resolutionCode   the ResolutionCode, or null.
+	 * @param cancellationCode the CancellationCode, or null.
+	 * @param notes            the notes, oldest first.
+	 * @param version          the version of the Ticket.
+	 * @return the restored Ticket.
+	 * @throws IllegalArgumentException if ticketId is not positive, stateId is
+	 *                                  not a state, version is negative, or a
+	 *                                  required value is null or empty.
+	 */
+	public static Ticket restore(long ticketId, TicketType ticketType, String subject, String caller,
+			Category category, Priority priority, int stateId, String owner, FeedbackCode feedbackCode,
+			ResolutionCode resolutionCode, CancellationCode cancellationCode, List<String> notes, long version) {
+		if (stateId < 0 || stateId >= TicketStateMachine.STATE_COUNT)
+			throw new IllegalArgumentException("Invalid state.");
+		if (version < 0)
+			throw new IllegalArgumentException("Invalid version.");
+		if (notes == null)
+			throw new IllegalArgumentException(NULL_ERROR);
+		Ticket t = new Ticket(ticketId, ticketType, subject, caller, category, priority,
+				notes.isEmpty() ? null : notes.get(0));
+		if (notes.isEmpty())
+			t.notes.count = 0;
+		for (int i = 1; i < notes.size(); i++)
+			t.addNote(notes.get(i));
+		t.setOwner(owner);
+		t.state = stateId;
+		t.feedbackCode = feedbackCode;
+		t.resolutionCode = resolutionCode;
+		t.cancellationCode = cancellationCode;
+		t.version = version;
+		return t;
+	}
+
+	/**
+	 * setIdAllocator(TicketIdAllocator) - installs the TicketIdAllocator that
+	 * gives ids to tickets created from now on. The default allocator keeps no
+	 * state across restarts, so a process that keeps tickets or hands their ids
+	 * out should install one opened with {@code BlockIdAllocator.open()} before
+	 * creating any.
+	 * 
+	 * @param allocator the TicketIdAllocator to use.
+	 * @throws IllegalArgumentException if allocator is null.
+	 */
+	public static void setIdAllocator(TicketIdAllocator allocator) {
+		if (allocator == null)
+			throw new IllegalArgumentException(NULL_ERROR);
+		idAllocator = allocator;
+	}
+
+	/**
+	 * getIdAllocator - returns the installed TicketIdAllocator.
+	 * 
+	 * @return the TicketIdAllocator used for new tickets.
+	 */
+	public static TicketIdAllocator getIdAllocator() {
+		return idAllocator;
 	}
 
 	/**
 	 * getTicketId - returns the TicketID number of this Ticket.
 	 * 
-	 * @return an Integer that is the TicketId number of this Ticket.
+	 * @return a long that is the TicketId number of this Ticket.
 	 */
-	public int getTicketId() {
+	public long getTicketId() {
 		return ticketId;
 	}
 
@@ -244,7 +404,16 @@ public class Ticket {
 	 * @return A String representing the caller field of this ticket
 	 */
 	public String getCaller() {
-		return caller;
+		return UserSymbolTable.getInstance().resolve(callerHandle);
+	}
+
+	/**
+	 * getCallerHandle - returns the UserSymbolTable handle of the caller.
+	 * 
+	 * @return the handle of this Ticket's caller.
+	 */
+	public int getCallerHandle() {
+		return callerHandle;
 	}
 
 	/**
@@ -258,7 +427,7 @@ public class Ticket {
 			throw new IllegalArgumentException(NULL_ERROR);
 		if (caller.equals(""))
 			throw new IllegalArgumentException("Caller cannot be null or empty String.");
-		this.caller = caller;
+		this.callerHandle = UserSymbolTable.getInstance().intern(caller);
 	}
 
 	/**
@@ -311,7 +480,28 @@ public class Ticket {
 	 * @return A String representing the owner field of this Ticket.
 	 */
 	public String getOwner() {
-		return owner;
+		return UserSymbolTable.getInstance().resolve(ownerHandle);
+	}
+
+	/**
+	 * getOwnerHandle - returns the UserSymbolTable handle of the owner.
+	 * 
+	 * @return the handle of this Ticket's owner; UserSymbolTable.EMPTY if there
+	 *         is no owner.
+	 */
+	public int getOwnerHandle() {
+		return ownerHandle;
+	}
+
+	/**
+	 * isOwnedBy(int) - returns true if the user with the given UserSymbolTable
+	 * handle owns this Ticket. Comparing handles avoids comparing Strings.
+	 * 
+	 * @param userHandle the handle of a user id.
+	 * @return true if that user is this Ticket's owner.
+	 */
+	public boolean isOwnedBy(int userHandle) {
+		return ownerHandle == userHandle;
 	}
 
 	/**
@@ -325,16 +515,365 @@ public class Ticket {
 	private void setOwner(String owner) {
 		if (owner == null)
 			throw new IllegalArgumentException(NULL_ERROR);
-		this.owner = owner;
+		this.ownerHandle = UserSymbolTable.getInstance().intern(owner);
+	}
+
+	/**
+	 * setNoteArena(NoteArena) - installs the NoteArena that stores the notes of
+	 * tickets created from now on. Existing tickets keep the arena they were
+	 * created with.
+	 * 
+	 * @param arena the NoteArena to use.
+	 * @throws IllegalArgumentException if arena is null.
+	 */
+	public static void setNoteArena(NoteArena arena) {
+		if (arena == null)
+			throw new IllegalArgumentException(NULL_ERROR);
+		defaultNoteArena = arena;
+	}
+
+	/**
+	 * addNote(String) - appends a note to this Ticket. The text is stored in the
+	 * ticket's NoteArena and only its reference is kept here; the arena releases
+	 * it once this Ticket has been garbage collected.
+	 * 
+	 * @param note the note to add, possibly null
+	 */
+	private void addNote(String note) {
+		noteArena.append(notes, note);
+		dirty = true;
+	}
+
+	/**
+	 * isDirty - returns true if this Ticket has changed since it was last marked
+	 * clean: a new Ticket is dirty, and so is one that a Command has changed or a
+	 * note has been added to.
+	 * 
+	 * @return true if this Ticket has unsaved changes.
+	 */
+	public boolean isDirty() {
+		return dirty;
+	}
+
+	/**
+	 * markClean - records that this Ticket's current contents have been saved.
+	 * Must be called while the caller holds the lock that guards the Ticket, so
+	 * that no change slips in between saving it and marking it clean.
+	 */
+	public void markClean() {
+		dirty = false;
+	}
+
+	/**
+	 * getVersion - returns the version of this Ticket, which every Command
+	 * applied to it increases by one. It is saved and replicated with the
+	 * Ticket. A client that read the Ticket at one version can have a
+	 * Command applied only if nothing changed since, with
+	 * {@code TicketManager.compareAndApply()}. The version can be read without
+	 * holding the lock that guards the Ticket.
+	 * 
+	 * @return the version of this Ticket.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * getNotes - returns an immutable List of this Ticket's notes, oldest first.
+	 * The list reads each note from the NoteArena when it is accessed, so it is
+	 * cheap to obtain even for tickets with many notes, and it reflects notes
+	 * added later.
+	 * 
+	 * @return an unmodifiable List of the notes for this Ticket.
+	 */
+	public List<String> getNotes() {
+		if (notesView == null)
+			notesView = new NotesView();
+		return notesView;
+	}
+
+	/**
+	 * getNoteCount - returns the number of notes on this Ticket.
+	 * 
+	 * @return the number of notes.
+	 */
+	public int getNoteCount() {
+		return notes.count;
+	}
+
+	/**
+	 * getNote(int) - returns the note at the given index, oldest first.
+	 * 
+	 * @param index the index of the note.
+	 * @return the note.
+	 * @throws IndexOutOfBoundsException if index is out of range.
+	 */
+	public String getNote(int index) {
+		if (index < 0 || index >= notes.count)
+			throw new IndexOutOfBoundsException("Invalid note index.");
+		try {
+			return noteArena.get(notes.refs[index]);
+		} finally {
+			// the arena may release the notes once this Ticket is unreachable
+			Reference.reachabilityFence(this);
+		}
+	}
+
+	/**
+	 * getNotes(int, int) - returns one page of this Ticket's notes: at most count
+	 * notes starting at index from, oldest first.
+	 * 
+	 * @param from  the index of the first note of the page.
+	 * @param count the largest number of notes to return.
+	 * @return an unmodifiable List of the page's notes.
+	 * @throws IllegalArgumentException if from or count is negative.
+	 */
+	public List<String> getNotes(int from, int count) {
+		if (from < 0 || count < 0)
+			throw new IllegalArgumentException("Invalid note page.");
+		int to = (int) Math.min(notes.count, (long) from + count);
+		String[] page = new String[Math.max(0, to - from)];
+		try {
+			for (int i = from; i < to; i++)
+				page[i - from] = noteArena.get(notes.refs[i]);
+		} finally {
+			Reference.reachabilityFence(this);
+		}
+		return Collections.unmodifiableList(Arrays.asList(page));
+	}
+
+	/**
+	 * getLatestNotes(int) - returns the most recent notes on this Ticket, oldest
+	 * first.
+	 * 
+	 * @param count the largest number of notes to return.
+	 * @return an unmodifiable List of the latest notes.
+	 * @throws IllegalArgumentException if count is negative.
+	 */
+	public List<String> getLatestNotes(int count) {
+		if (count < 0)
+			throw new IllegalArgumentException("Invalid note page.");
+		return getNotes(Math.max(0, notes.count - count), count);
+	}
+
+	/**
+	 * forEachNote(Consumer) - passes each note to the action, oldest first,
+	 * reading one note at a time from the NoteArena.
+	 * 
+	 * @param action the action to perform on each note.
+	 */
+	public void forEachNote(Consumer<? super String> action) {
+		try {
+			for (int i = 0; i < notes.count; i++)
+				action.accept(noteArena.get(notes.refs[i]));
+		} finally {
+			Reference.reachabilityFence(this);
+		}
+	}
+
+	/**
+	 * getState - returns the name of this Ticket's current state.
+	 * 
+	 * @return a String naming the current state, e.g. "Working".
+	 */
+	public String getState() {
+		return TicketStateMachine.getStateName(state);
+	}
+
+	/**
+	 * getStateId - returns the TicketStateMachine id of this Ticket's current
+	 * state.
+	 * 
+	 * @return the id of the current state.
+	 */
+	public int getStateId() {
+		return state;
+	}
+
+	/**
+	 * getTicketState - returns this Ticket's current state as a
+	 * {@code TicketState}. The returned object always reflects the ticket's
+	 * current state, and its {@code updateState(Command)} updates this Ticket.
+	 * 
+	 * @return the TicketState of this Ticket.
+	 */
+	public TicketState getTicketState() {
+		if (ticketState == null)
+			ticketState = new CurrentState();
+		return ticketState;
+	}
+
+	/**
+	 * getFeedbackCode - returns the FeedbackCode of this Ticket, or null if the
+	 * ticket is not in the Feedback state.
+	 * 
+	 * @return the FeedbackCode, or null.
+	 */
+	public FeedbackCode getFeedbackCode() {
+		return feedbackCode;
+	}
+
+	/**
+	 * getResolutionCode - returns the ResolutionCode of this Ticket, or null if
+	 * the ticket is not in the Resolved or Closed state.
+	 * 
+	 * @return the ResolutionCode, or null.
+	 */
+	public ResolutionCode getResolutionCode() {
+		return resolutionCode;
+	}
+
+	/**
+	 * getCancellationCode - returns the CancellationCode of this Ticket, or null
+	 * if the ticket is not in the Canceled state.
+	 * 
+	 * @return the CancellationCode, or null.
+	 */
+	public CancellationCode getCancellationCode() {
+		return cancellationCode;
+	}
+
+	/**
+	 * update(Command) - updates this Ticket according to the given Command, as
+	 * defined by the Ticket Manager FSM.
+	 * 
+	 * @param command the Command to apply to this Ticket.
+	 * @throws IllegalArgumentException      if command is null.
+	 * @throws UnsupportedOperationException if the Command is not valid for the
+	 *                                       ticket's current state.
+	 */
+	public void update(Command command) {
+		if (!apply(command).isApplied())
+			throw new UnsupportedOperationException(UOE_ERROR);
+	}
+
+	/**
+	 * apply(Command) - updates this Ticket according to the given Command and
+	 * returns the outcome instead of throwing when the Command is rejected. A
+	 * rejected Command leaves the Ticket unchanged.
+	 * 
+	 * @param command the Command to apply to this Ticket.
+	 * @return CommandResult.APPLIED, or the reason the Command was rejected.
+	 * @throws IllegalArgumentException if command is null.
+	 */
+	public CommandResult apply(Command command) {
+		if (command == null)
+			throw new IllegalArgumentException(NULL_ERROR);
+		return apply(command.getCommandValue(), command.getOwnerHandle(), command.getCode(), command.getNote());
+	}
+
+	/**
+	 * apply(long, String) - updates this Ticket according to an encoded Command
+	 * (see {@code Command.encode()}) and its note, without a Command object.
+	 * 
+	 * @param command the encoded Command to apply to this Ticket.
+	 * @param note    the note carried by the Command, or null.
+	 * @return CommandResult.APPLIED, or the reason the Command was rejected.
+	 * @throws IllegalArgumentException if command is not a valid encoded
+	 *                                  Command.
+	 */
+	public CommandResult apply(long command, String note) {
+		if (!Command.isValid(command))
+			throw new IllegalArgumentException(UOE_ERROR);
+		return apply(Command.commandValueOf(command), Command.ownerHandleOf(command), Command.codeOf(command), note);
 	}
 
 	/**
-	 * getNotes - returns An ArrayList of Strings, containing the notes for this
-	 * Ticket.
+	 * apply(CommandValue, int, int, String) - performs the transition for the
+	 * given CommandValue from the table in TicketStateMachine. {@code code} is
+	 * the ordinal of the FeedbackCode, ResolutionCode or CancellationCode that
+	 * the CommandValue requires, or -1 if it requires none.
 	 * 
-	 * @return ArrayList<String> of the notes for this Ticket.
+	 * @param value the CommandValue being applied
+	 * @param owner the UserSymbolTable handle of the command's owner id
+	 * @param code  the ordinal of the command's code, or -1
+	 * @param note  the note carried by the command, or null
+	 * @return CommandResult.APPLIED, or the reason the command was rejected.
+	 */
+	CommandResult apply(CommandValue value, int owner, int code, String note) {
+		int entry = TicketStateMachine.transition(state, value.ordinal());
+		if (entry == TicketStateMachine.INVALID)
+			return CommandResult.INVALID_TRANSITION;
+		if ((entry & TicketStateMachine.SET_RESOLUTION) != 0
+				&& (code < 0 || !TicketStateMachine.allowsResolution(ticketType.ordinal(), code)))
+			return CommandResult.INVALID_CODE;
+		if ((entry & (TicketStateMachine.SET_FEEDBACK | TicketStateMachine.SET_CANCELLATION)) != 0 && code < 0)
+			return CommandResult.INVALID_CODE;
+
+		if ((entry & TicketStateMachine.CLEAR_FEEDBACK) != 0)
+			feedbackCode = null;
+		if ((entry & TicketStateMachine.CLEAR_RESOLUTION) != 0)
+			resolutionCode = null;
+		if ((entry & TicketStateMachine.SET_OWNER) != 0)
+			ownerHandle = owner;
+		if ((entry & TicketStateMachine.SET_FEEDBACK) != 0)
+			feedbackCode = FEEDBACK_CODES[code];
+		if ((entry & TicketStateMachine.SET_RESOLUTION) != 0)
+			resolutionCode = RESOLUTION_CODES[code];
+		if ((entry & TicketStateMachine.SET_CANCELLATION) != 0)
+			cancellationCode = CANCELLATION_CODES[code];
+		state = TicketStateMachine.nextState(entry);
+		dirty = true;
+		if (note != null)
+			addNote(note);
+		version++;
+		return CommandResult.APPLIED;
+	}
+
+	/**
+	 * CurrentState is the {@code TicketState} view of a Ticket. It has no state
+	 * of its own; it reads and updates the state id of the enclosing Ticket.
+	 */
+	private final class CurrentState implements TicketState {
+
+		/**
+		 * updateState(Command) - applies the Command to the enclosing Ticket.
+		 * 
+		 * @param command the Command to apply
+		 * @throws UnsupportedOperationException if the Command is not valid for the
+		 *                                       ticket's current state.
+		 */
+		@Override
+		public void updateState(Command command) {
+			update(command);
+		}
+
+		/**
+		 * getStateName - returns the name of the enclosing Ticket's state.
+		 * 
+		 * @return the current state's name
+		 */
+		@Override
+		public String getStateName() {
+			return getState();
+		}
+	}
+
+	/**
+	 * NotesView is the unmodifiable List returned by {@code getNotes()}. It reads
+	 * each note from the enclosing Ticket's NoteArena on access.
 	 */
-	public ArrayList<String> getNotes() {
-		return notes;
+	private final class NotesView extends AbstractList<String> implements RandomAccess {
+
+		/**
+		 * get(int) - returns the note at the given index.
+		 * 
+		 * @param index the index of the note
+		 * @return the note
+		 */
+		@Override
+		public String get(int index) {
+			return getNote(index);
+		}
+
+		/**
+		 * size - returns the number of notes.
+		 * 
+		 * @return the number of notes
+		 */
+		@Override
+		public int size() {
+			return notes.count;
+		}
 	}
-}
\ No newline at end of file
+}
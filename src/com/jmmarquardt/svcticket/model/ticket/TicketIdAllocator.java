@@ -0,0 +1,32 @@
+/**
+ * TicketIdAllocator.java
+ */
+package com.jmmarquardt.svcticket.model.ticket;
+
+/**
+ * TicketIdAllocator is an interface for the source of ticket ids. Every
+ * {@code Ticket} takes its id from the allocator installed with
+ * {@code Ticket.setIdAllocator()}. Implementations must be safe to call from
+ * multiple threads and must never hand out the same id twice.
+ *
+ * @author John-Michael Marquardt
+ */
+public interface TicketIdAllocator {
+
+	/**
+	 * nextId - returns an id that has not been handed out before. Ids are
+	 * positive but are not required to be consecutive.
+	 *
+	 * @return a new, unique ticket id.
+	 */
+	long nextId();
+
+	/**
+	 * reserve(long) - marks every id up to and including the given id as used,
+	 * so that {@code nextId()} only returns larger ids. Used when tickets with
+	 * known ids are restored.
+	 *
+	 * @param id the largest id that is already in use.
+	 */
+	void reserve(long id);
+}
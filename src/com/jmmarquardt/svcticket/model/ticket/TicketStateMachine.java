@@ -0,0 +1,187 @@
+/**
+ * TicketStateMachine.java
+ */
+package com.jmmarquardt.svcticket.model.ticket;
+
+import com.jmmarquardt.svcticket.model.command.Command.CommandValue;
+import com.jmmarquardt.svcticket.model.command.Command.ResolutionCode;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.TicketType;
+
+/**
+ * TicketStateMachine
+ * <p>
+ * TicketStateMachine holds the Ticket Manager FSM as a precomputed transition
+ * table. The table is indexed by the current state id and the ordinal of a
+ * {@code Command.CommandValue}, and each entry packs the id of the next state
+ * together with the actions (set owner, set or clear a code) that the
+ * transition performs. Resolving a transition is therefore a single array
+ * lookup; an entry of {@link #INVALID} means the CommandValue is not valid for
+ * the current state.
+ * </p>
+ *
+ * The states are identified by small int ids so that they can be stored in
+ * primitive fields and used directly as array indexes.
+ *
+ * @author John-Michael Marquardt
+ */
+public final class TicketStateMachine {
+	/** State id of the "New" state. */
+	public static final int NEW = 0;
+	/** State id of the "Working" state. */
+	public static final int WORKING = 1;
+	/** State id of the "Feedback" state. */
+	public static final int FEEDBACK = 2;
+	/** State id of the "Resolved" state. */
+	public static final int RESOLVED = 3;
+	/** State id of the "Closed" state. */
+	public static final int CLOSED = 4;
+	/** State id of the "Canceled" state. */
+	public static final int CANCELED = 5;
+	/** The number of states in the FSM. */
+	public static final int STATE_COUNT = 6;
+	/** The number of CommandValues, i.e. the width of a row in the table. */
+	public static final int COMMAND_COUNT = CommandValue.values().length;
+
+	/** Table entry for a CommandValue that is not valid in a state. */
+	public static final int INVALID = 0;
+	/** Mask for the next state id in a table entry. */
+	private static final int STATE_MASK = 0x0F;
+	/** Flag set on every valid table entry. */
+	private static final int VALID = 0x10;
+	/** Action: the owner is set from the Command. */
+	public static final int SET_OWNER = 0x20;
+	/** Action: the FeedbackCode is set from the Command. */
+	public static final int SET_FEEDBACK = 0x40;
+	/** Action: the ResolutionCode is set from the Command. */
+	public static final int SET_RESOLUTION = 0x80;
+	/** Action: the CancellationCode is set from the Command. */
+	public static final int SET_CANCELLATION = 0x100;
+	/** Action: the FeedbackCode is cleared. */
+	public static final int CLEAR_FEEDBACK = 0x200;
+	/** Action: the ResolutionCode is cleared. */
+	public static final int CLEAR_RESOLUTION = 0x400;
+
+	/** State names, indexed by state id. */
+	private static final String[] STATE_NAMES = { Ticket.NEW_NAME, Ticket.WORKING_NAME, Ticket.FEEDBACK_NAME,
+			Ticket.RESOLVED_NAME, Ticket.CLOSED_NAME, Ticket.CANCELED_NAME };
+
+	/** The transition table, indexed by (state * COMMAND_COUNT + command). */
+	private static final int[] TABLE = new int[STATE_COUNT * COMMAND_COUNT];
+
+	/** Bit masks of the ResolutionCodes allowed for each TicketType. */
+	private static final int[] RESOLUTION_MASK = new int[TicketType.values().length];
+
+	static {
+		on(NEW, CommandValue.PROCESS, WORKING, SET_OWNER);
+		on(NEW, CommandValue.CANCEL, CANCELED, SET_CANCELLATION);
+
+		on(WORKING, CommandValue.FEEDBACK, FEEDBACK, SET_FEEDBACK);
+		on(WORKING, CommandValue.RESOLVE, RESOLVED, SET_RESOLUTION);
+		on(WORKING, CommandValue.CANCEL, CANCELED, SET_CANCELLATION);
+
+		on(FEEDBACK, CommandValue.REOPEN, WORKING, CLEAR_FEEDBACK);
+		on(FEEDBACK, CommandValue.RESOLVE, RESOLVED, SET_RESOLUTION | CLEAR_FEEDBACK);
+		on(FEEDBACK, CommandValue.CANCEL, CANCELED, SET_CANCELLATION | CLEAR_FEEDBACK);
+
+		on(RESOLVED, CommandValue.FEEDBACK, FEEDBACK, SET_FEEDBACK | CLEAR_RESOLUTION);
+		on(RESOLVED, CommandValue.REOPEN, WORKING, CLEAR_RESOLUTION);
+		on(RESOLVED, CommandValue.CONFIRM, CLOSED, 0);
+
+		on(CLOSED, CommandValue.REOPEN, WORKING, CLEAR_RESOLUTION);
+
+		RESOLUTION_MASK[TicketType.REQUEST.ordinal()] = bits(ResolutionCode.COMPLETED, ResolutionCode.NOT_COMPLETED,
+				ResolutionCode.CALLER_CLOSED);
+		RESOLUTION_MASK[TicketType.INCIDENT.ordinal()] = bits(ResolutionCode.SOLVED, ResolutionCode.WORKAROUND,
+				ResolutionCode.NOT_SOLVED, ResolutionCode.CALLER_CLOSED);
+	}
+
+	/**
+	 * TicketStateMachine() - not instantiable; the table is static.
+	 */
+	private TicketStateMachine() {
+	}
+
+	/**
+	 * on(int, CommandValue, int, int) - adds a transition to the table while it
+	 * is being built.
+	 *
+	 * @param from    the state id the transition leaves
+	 * @param command the CommandValue that triggers the transition
+	 * @param to      the state id the transition enters
+	 * @param actions the action flags performed by the transition
+	 */
+	private static void on(int from, CommandValue command, int to, int actions) {
+		TABLE[from * COMMAND_COUNT + command.ordinal()] = VALID | to | actions;
+	}
+
+	/**
+	 * bits(ResolutionCode...) - returns a bit mask of the given codes.
+	 *
+	 * @param codes the ResolutionCodes to include
+	 * @return a mask with the bit of each code's ordinal set
+	 */
+	private static int bits(ResolutionCode... codes) {
+		int mask = 0;
+		for (ResolutionCode code : codes)
+			mask |= 1 << code.ordinal();
+		return mask;
+	}
+
+	/**
+	 * transition(int, int) - returns the table entry for the given state id and
+	 * CommandValue ordinal, or {@link #INVALID}.
+	 *
+	 * @param state   the current state id
+	 * @param command the ordinal of the CommandValue being applied
+	 * @return the packed table entry, or INVALID
+	 */
+	public static int transition(int state, int command) {
+		return TABLE[state * COMMAND_COUNT + command];
+	}
+
+	/**
+	 * nextState(int) - returns the state id stored in a valid table entry.
+	 *
+	 * @param entry a table entry returned by {@link #transition(int, int)}
+	 * @return the id of the state the transition enters
+	 */
+	public static int nextState(int entry) {
+		return entry & STATE_MASK;
+	}
+
+	/**
+	 * allowsResolution(int, int) - returns true if a ticket of the given
+	 * TicketType may be resolved with the given ResolutionCode.
+	 *
+	 * @param ticketType     the ordinal of the ticket's TicketType
+	 * @param resolutionCode the ordinal of the ResolutionCode
+	 * @return true if the code is valid for the ticket type
+	 */
+	public static boolean allowsResolution(int ticketType, int resolutionCode) {
+		return (RESOLUTION_MASK[ticketType] & (1 << resolutionCode)) != 0;
+	}
+
+	/**
+	 * getStateName(int) - returns the String name of the given state id.
+	 *
+	 * @param state the state id
+	 * @return the state's name, e.g. "Working"
+	 */
+	public static String getStateName(int state) {
+		return STATE_NAMES[state];
+	}
+
+	/**
+	 * getStateId(String) - returns the state id for the given state name.
+	 *
+	 * @param name the state's name, e.g. "Working"
+	 * @return the state id
+	 * @throws IllegalArgumentException if name is not a state name.
+	 */
+	public static int getStateId(String name) {
+		for (int i = 0; i < STATE_COUNT; i++)
+			if (STATE_NAMES[i].equals(name))
+				return i;
+		throw new IllegalArgumentException("Invalid state.");
+	}
+}
@@ -0,0 +1,121 @@
+/**
+ * TicketView.java
+ */
+package com.jmmarquardt.svcticket.model.ticket;
+
+import com.jmmarquardt.svcticket.model.command.Command.CancellationCode;
+import com.jmmarquardt.svcticket.model.command.Command.FeedbackCode;
+import com.jmmarquardt.svcticket.model.command.Command.ResolutionCode;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Category;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Priority;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.TicketType;
+
+/**
+ * TicketView is the read-only face of a ticket: its id, fields and current
+ * state, without its notes or the ability to apply Commands. {@code Ticket}
+ * implements it, and so do the lightweight row views handed out by stores
+ * that keep tickets in primitive columns instead of Ticket objects, so reports
+ * can be written once against either.
+ *
+ * @author John-Michael Marquardt
+ */
+public interface TicketView {
+
+	/**
+	 * getTicketId - returns the ticket's id.
+	 *
+	 * @return the ticket id.
+	 */
+	long getTicketId();
+
+	/**
+	 * getTicketType - returns the ticket's TicketType.
+	 *
+	 * @return the TicketType.
+	 */
+	TicketType getTicketType();
+
+	/**
+	 * getSubject - returns the ticket's subject.
+	 *
+	 * @return the subject.
+	 */
+	String getSubject();
+
+	/**
+	 * getCaller - returns the user id of the ticket's caller.
+	 *
+	 * @return the caller.
+	 */
+	String getCaller();
+
+	/**
+	 * getCallerHandle - returns the UserSymbolTable handle of the caller.
+	 *
+	 * @return the caller's handle.
+	 */
+	int getCallerHandle();
+
+	/**
+	 * getCategory - returns the ticket's Category.
+	 *
+	 * @return the Category.
+	 */
+	Category getCategory();
+
+	/**
+	 * getPriority - returns the ticket's Priority.
+	 *
+	 * @return the Priority.
+	 */
+	Priority getPriority();
+
+	/**
+	 * getOwner - returns the user id of the ticket's owner.
+	 *
+	 * @return the owner, or the empty String if there is none.
+	 */
+	String getOwner();
+
+	/**
+	 * getOwnerHandle - returns the UserSymbolTable handle of the owner.
+	 *
+	 * @return the owner's handle.
+	 */
+	int getOwnerHandle();
+
+	/**
+	 * getState - returns the name of the ticket's current state.
+	 *
+	 * @return the state name, e.g. "Working".
+	 */
+	String getState();
+
+	/**
+	 * getStateId - returns the TicketStateMachine id of the current state.
+	 *
+	 * @return the state id.
+	 */
+	int getStateId();
+
+	/**
+	 * getFeedbackCode - returns the ticket's FeedbackCode.
+	 *
+	 * @return the FeedbackCode, or null.
+	 */
+	FeedbackCode getFeedbackCode();
+
+	/**
+	 * getResolutionCode - returns the ticket's ResolutionCode.
+	 *
+	 * @return the ResolutionCode, or null.
+	 */
+	ResolutionCode getResolutionCode();
+
+	/**
+	 * getCancellationCode - returns the ticket's CancellationCode.
+	 *
+	 * @return the CancellationCode, or null.
+	 */
+	CancellationCode getCancellationCode();
+}
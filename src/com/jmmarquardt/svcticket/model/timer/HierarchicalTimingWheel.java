@@ -0,0 +1,320 @@
+/**
+ * HierarchicalTimingWheel.java
+ */
+package com.jmmarquardt.svcticket.model.timer;
+
+import java.util.Arrays;
+
+/**
+ * HierarchicalTimingWheel
+ * <p>
+ * HierarchicalTimingWheel holds a large number of timers, each a (key, kind)
+ * pair with a deadline, at O(1) cost to schedule and cancel. Time is cut into
+ * ticks, and the wheel has several levels of {@code 2^bits} slots: level 0
+ * holds the timers due within the next {@code 2^bits} ticks, one slot per
+ * tick, and each higher level covers {@code 2^bits} times the span of the one
+ * below. When a lower level wraps around, the next slot of the level above is
+ * cascaded down, so every timer is moved at most once per level before it
+ * fires. Deadlines beyond the span of the top level are parked in it and
+ * re-placed as they come closer. While level 0 is empty, {@code advance()}
+ * jumps straight to the next cascade instead of stepping through idle ticks.
+ * </p>
+ * <p>
+ * The timers are kept in parallel primitive arrays linked into per-slot
+ * lists, so millions of timers cost a few dozen bytes each and create no
+ * garbage. A timer is identified by the int handle {@code schedule()}
+ * returns, which is valid until the timer fires or is cancelled and may then
+ * be reused. The wheel is not thread safe.
+ * </p>
+ *
+ * @author John-Michael Marquardt
+ */
+public final class HierarchicalTimingWheel {
+	/** The default number of bits of slot index per level, 256 slots. */
+	public static final int DEFAULT_BITS = 8;
+	/** The default number of levels. */
+	public static final int DEFAULT_LEVELS = 4;
+	/** Marks the end of a list, or a free timer's slot. */
+	private static final int NIL = -1;
+
+	/**
+	 * Expiry is called for each timer that fires.
+	 */
+	public interface Expiry {
+
+		/**
+		 * expired(long, int) - called when a timer fires. The timer has already
+		 * been freed, so its handle must not be cancelled.
+		 *
+		 * @param key  the key the timer was scheduled with.
+		 * @param kind the kind the timer was scheduled with.
+		 */
+		void expired(long key, int kind);
+	}
+
+	/** The length of a tick. */
+	private final long tick;
+	/** The time of tick 0. */
+	private final long origin;
+	/** The number of bits of slot index per level. */
+	private final int bits;
+	/** The number of levels. */
+	private final int levels;
+	/** The number of slots per level minus one. */
+	private final int mask;
+	/** The first timer of each slot, indexed by level << bits | slot. */
+	private final int[] heads;
+
+	/** The key of each timer. */
+	private long[] keys;
+	/** The deadline tick of each timer. */
+	private long[] deadlines;
+	/** The kind of each timer. */
+	private int[] kinds;
+	/** The next timer in the same list, or the next free timer. */
+	private int[] next;
+	/** The previous timer in the same list. */
+	private int[] prev;
+	/** The slot holding each timer, NIL if it is free. */
+	private int[] slots;
+	/** The first free timer. */
+	private int free = NIL;
+	/** The number of timers ever allocated. */
+	private int allocated;
+	/** The number of scheduled timers. */
+	private int size;
+	/** The number of timers in level 0. */
+	private int level0;
+	/** The last tick processed. */
+	private long current;
+
+	/**
+	 * HierarchicalTimingWheel(long, long) - constructs an empty wheel with the
+	 * default number of levels and slots.
+	 *
+	 * @param tick   the length of a tick, in the unit of the deadlines.
+	 * @param origin the current time, in the unit of the deadlines.
+	 * @throws IllegalArgumentException if tick is not positive.
+	 */
+	public HierarchicalTimingWheel(long tick, long origin) {
+		this(tick, origin, DEFAULT_BITS, DEFAULT_LEVELS);
+	}
+
+	/**
+	 * HierarchicalTimingWheel(long, long, int, int) - constructs an empty wheel.
+	 *
+	 * @param tick   the length of a tick, in the unit of the deadlines.
+	 * @param origin the current time, in the unit of the deadlines.
+	 * @param bits   the number of bits of slot index per level, 1 to 16.
+	 * @param levels the number of levels, such that bits * levels is at most 62.
+	 * @throws IllegalArgumentException if a parameter is out of range.
+	 */
+	public HierarchicalTimingWheel(long tick, long origin, int bits, int levels) {
+		if (tick <= 0 || bits < 1 || bits > 16 || levels < 1 || bits * levels > 62)
+			throw new IllegalArgumentException("Invalid wheel size.");
+		this.tick = tick;
+		this.origin = origin;
+		this.bits = bits;
+		this.levels = levels;
+		this.mask = (1 << bits) - 1;
+		this.heads = new int[levels << bits];
+		Arrays.fill(heads, NIL);
+		allocate(64);
+	}
+
+	/**
+	 * allocate(int) - grows the timer arrays to the given capacity.
+	 *
+	 * @param capacity the new capacity
+	 */
+	private void allocate(int capacity) {
+		keys = keys == null ? new long[capacity] : Arrays.copyOf(keys, capacity);
+		deadlines = deadlines == null ? new long[capacity] : Arrays.copyOf(deadlines, capacity);
+		kinds = kinds == null ? new int[capacity] : Arrays.copyOf(kinds, capacity);
+		next = next == null ? new int[capacity] : Arrays.copyOf(next, capacity);
+		prev = prev == null ? new int[capacity] : Arrays.copyOf(prev, capacity);
+		slots = slots == null ? new int[capacity] : Arrays.copyOf(slots, capacity);
+	}
+
+	/**
+	 * schedule(long, int, long) - schedules a timer. A deadline that has already
+	 * passed fires on the next tick.
+	 *
+	 * @param key      the key passed to Expiry, e.g. a ticket id.
+	 * @param kind     the kind passed to Expiry.
+	 * @param deadline the time at which the timer fires; it never fires early.
+	 * @return the handle of the timer.
+	 */
+	public int schedule(long key, int kind, long deadline) {
+		int t = free;
+		if (t != NIL) {
+			free = next[t];
+		} else {
+			if (allocated == keys.length)
+				allocate(allocated * 2);
+			t = allocated++;
+		}
+		keys[t] = key;
+		kinds[t] = kind;
+		// round up so that a timer never fires before its deadline
+		long d = deadline - origin;
+		deadlines[t] = Math.max(d <= 0 ? 0 : (d - 1) / tick + 1, current + 1);
+		place(t);
+		size++;
+		return t;
+	}
+
+	/**
+	 * cancel(int) - cancels a scheduled timer.
+	 *
+	 * @param handle the handle returned by schedule().
+	 * @return true if the timer was scheduled, false if it was free.
+	 */
+	public boolean cancel(int handle) {
+		if (handle < 0 || handle >= allocated || slots[handle] == NIL)
+			return false;
+		unlink(handle);
+		release(handle);
+		size--;
+		return true;
+	}
+
+	/**
+	 * isScheduled(int) - returns true if the handle names a scheduled timer.
+	 *
+	 * @param handle a timer handle.
+	 * @return true if the timer is scheduled.
+	 */
+	public boolean isScheduled(int handle) {
+		return handle >= 0 && handle < allocated && slots[handle] != NIL;
+	}
+
+	/**
+	 * size - returns the number of scheduled timers.
+	 *
+	 * @return the number of scheduled timers.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * advance(long, Expiry) - moves the wheel forward to the given time and fires
+	 * every timer whose deadline has passed, in deadline order across ticks.
+	 *
+	 * @param now    the current time, in the unit of the deadlines.
+	 * @param expiry called for each timer that fires.
+	 * @return the number of timers fired.
+	 */
+	public int advance(long now, Expiry expiry) {
+		long target = Math.floorDiv(now - origin, tick);
+		int fired = 0;
+		while (current < target) {
+			if (size == 0) {
+				current = target;
+				break;
+			}
+			if (level0 == 0) {
+				// nothing can fire before level 0 wraps: skip to the next cascade
+				current = Math.min(target, current | mask);
+				if (current == target)
+					break;
+			}
+			current++;
+			int index = (int) (current & mask);
+			for (int level = 1; index == 0 && level < levels; level++) {
+				index = (int) ((current >>> (bits * level)) & mask);
+				cascade(level << bits | index);
+			}
+			int slot = (int) (current & mask);
+			int t = heads[slot];
+			heads[slot] = NIL;
+			while (t != NIL) {
+				int n = next[t];
+				level0--;
+				if (deadlines[t] > current) {
+					place(t);
+				} else {
+					long key = keys[t];
+					int kind = kinds[t];
+					release(t);
+					size--;
+					fired++;
+					expiry.expired(key, kind);
+				}
+				t = n;
+			}
+		}
+		return fired;
+	}
+
+	/**
+	 * cascade(int) - re-places every timer in a slot of a higher level.
+	 *
+	 * @param slot the slot
+	 */
+	private void cascade(int slot) {
+		int t = heads[slot];
+		heads[slot] = NIL;
+		while (t != NIL) {
+			int n = next[t];
+			place(t);
+			t = n;
+		}
+	}
+
+	/**
+	 * place(int) - links a timer into the slot for its deadline. A timer due on
+	 * the current tick goes into the level 0 slot about to be processed.
+	 *
+	 * @param t the timer
+	 */
+	private void place(int t) {
+		long d = deadlines[t];
+		long delta = d - current;
+		int level = 0;
+		while (level < levels - 1 && delta >= 1L << (bits * (level + 1)))
+			level++;
+		if (level == levels - 1 && delta >= 1L << (bits * levels))
+			d = current + (1L << (bits * levels)) - 1;
+		int slot = level << bits | (int) ((d >>> (bits * level)) & mask);
+		if (level == 0)
+			level0++;
+		int h = heads[slot];
+		next[t] = h;
+		prev[t] = NIL;
+		if (h != NIL)
+			prev[h] = t;
+		heads[slot] = t;
+		slots[t] = slot;
+	}
+
+	/**
+	 * unlink(int) - removes a timer from its slot's list.
+	 *
+	 * @param t the timer
+	 */
+	private void unlink(int t) {
+		int p = prev[t];
+		int n = next[t];
+		if (p == NIL)
+			heads[slots[t]] = n;
+		else
+			next[p] = n;
+		if (n != NIL)
+			prev[n] = p;
+		if (slots[t] <= mask)
+			level0--;
+	}
+
+	/**
+	 * release(int) - puts a timer on the free list.
+	 *
+	 * @param t the timer
+	 */
+	private void release(int t) {
+		slots[t] = NIL;
+		next[t] = free;
+		free = t;
+	}
+}
@@ -0,0 +1,125 @@
+/**
+ * UserSymbolTable.java
+ */
+package com.jmmarquardt.svcticket.model.user;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * UserSymbolTable
+ * <p>
+ * UserSymbolTable maps user ids (the owners and callers of tickets and the
+ * owners of Commands) to small int handles. Each distinct user id is stored
+ * once, and tickets and commands keep only its handle, so two handles are
+ * equal exactly when the user ids are equal. Handles are never reused or
+ * removed.
+ * </p>
+ *
+ * The empty String ("no owner") always has handle {@link #EMPTY} and null has
+ * handle {@link #NULL}. Interning is safe from multiple threads; looking up a
+ * user id that is already interned takes no lock, and resolving a handle is an
+ * array read.
+ *
+ * @author John-Michael Marquardt
+ */
+public class UserSymbolTable {
+	/** The handle of null. */
+	public static final int NULL = -1;
+	/** The handle of the empty String. */
+	public static final int EMPTY = 0;
+
+	/** The single instance of UserSymbolTable. */
+	private static final UserSymbolTable INSTANCE = new UserSymbolTable();
+
+	/** Handles by user id. */
+	private final ConcurrentHashMap<String, Integer> handles = new ConcurrentHashMap<String, Integer>();
+	/** User ids by handle; replaced when it grows. */
+	private volatile String[] names = new String[256];
+	/** The number of handles issued; guarded by this. */
+	private int size;
+
+	/**
+	 * UserSymbolTable() - constructs a table holding only the empty String.
+	 */
+	UserSymbolTable() {
+		intern("");
+	}
+
+	/**
+	 * getInstance - returns the shared UserSymbolTable used by tickets and
+	 * commands.
+	 *
+	 * @return the shared UserSymbolTable.
+	 */
+	public static UserSymbolTable getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * intern(String) - returns the handle of the given user id, issuing a new one
+	 * the first time the user id is seen.
+	 *
+	 * @param userId a user id, or null.
+	 * @return the user id's handle, or NULL for null.
+	 */
+	public int intern(String userId) {
+		if (userId == null)
+			return NULL;
+		Integer handle = handles.get(userId);
+		if (handle != null)
+			return handle;
+		synchronized (this) {
+			handle = handles.get(userId);
+			if (handle != null)
+				return handle;
+			String[] n = names;
+			if (size == n.length)
+				n = Arrays.copyOf(n, size * 2);
+			n[size] = userId;
+			names = n;
+			handles.put(userId, size);
+			return size++;
+		}
+	}
+
+	/**
+	 * lookup(String) - returns the handle of the given user id without issuing a
+	 * new one.
+	 *
+	 * @param userId a user id, or null.
+	 * @return the user id's handle, NULL for null, or NULL if it was never
+	 *         interned.
+	 */
+	public int lookup(String userId) {
+		if (userId == null)
+			return NULL;
+		Integer handle = handles.get(userId);
+		return handle == null ? NULL : handle;
+	}
+
+	/**
+	 * resolve(int) - returns the user id with the given handle.
+	 *
+	 * @param handle a handle returned by {@code intern()}.
+	 * @return the user id, or null for NULL.
+	 * @throws IllegalArgumentException if the handle was never issued.
+	 */
+	public String resolve(int handle) {
+		if (handle == NULL)
+			return null;
+		String[] n = names;
+		if (handle < 0 || handle >= n.length || n[handle] == null)
+			throw new IllegalArgumentException("Invalid user handle.");
+		return n[handle];
+	}
+
+	/**
+	 * size - returns the number of user ids in the table.
+	 *
+	 * @return the number of interned user ids.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+}
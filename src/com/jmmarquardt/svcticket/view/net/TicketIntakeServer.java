@@ -0,0 +1,519 @@
+/**
+ * TicketIntakeServer.java
+ */
+package com.jmmarquardt.svcticket.view.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.jmmarquardt.svcticket.model.command.Command;
+import com.jmmarquardt.svcticket.model.command.Command.CancellationCode;
+import com.jmmarquardt.svcticket.model.command.Command.CommandValue;
+import com.jmmarquardt.svcticket.model.command.Command.FeedbackCode;
+import com.jmmarquardt.svcticket.model.command.Command.ResolutionCode;
+import com.jmmarquardt.svcticket.model.manager.TicketManager;
+import com.jmmarquardt.svcticket.model.ticket.BlockIdAllocator;
+import com.jmmarquardt.svcticket.model.ticket.CommandResult;
+import com.jmmarquardt.svcticket.model.ticket.Ticket;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Category;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Priority;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.TicketType;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * TicketIntakeServer
+ * <p>
+ * TicketIntakeServer is a headless HTTP endpoint for creating tickets and
+ * submitting Commands to a {@code TicketManager}, for clients such as mail
+ * bridges, monitoring alerts and chat bots. Requests and responses use
+ * {@code application/x-www-form-urlencoded} fields, with enumeration values
+ * given by display name ("Awaiting Caller") or constant name
+ * ("AWAITING_CALLER"):
+ * </p>
+ * <ul>
+ * <li>{@code POST /tickets} with type, subject, caller, category, priority and
+ * note creates a ticket and answers 201 with its id.</li>
+ * <li>{@code POST /tickets/{id}/commands} with command, owner, code and note
+ * applies a Command and answers 200, 404 if there is no such ticket, or 409
+ * if the Command is not valid for the ticket's state, with the
+ * {@code CommandResult} as the body. If a version field is given, the Command
+ * is only applied if the ticket is still at that version; otherwise the answer
+ * is 409 with CONFLICT and the ticket's current version and state.</li>
+ * <li>{@code GET /tickets/{id}} answers the ticket's fields and version.</li>
+ * </ul>
+ * <p>
+ * Each exchange is handled on its own virtual thread when the JVM has them
+ * (Java 21 and later), so thousands of slow clients cost little more than
+ * their sockets; older JVMs fall back to a bounded pool of platform threads.
+ * At most {@code maxInFlight} requests work on the manager at once. A request
+ * that cannot get a permit within the admission timeout is refused with 503
+ * and a {@code Retry-After} header instead of queueing without bound, so a
+ * saturated store pushes back on its clients.
+ * </p>
+ *
+ * @author John-Michael Marquardt
+ */
+public class TicketIntakeServer {
+	/** The default number of requests handled at once. */
+	public static final int DEFAULT_MAX_IN_FLIGHT = 1024;
+	/** The default time a request waits for a permit, in milliseconds. */
+	public static final long DEFAULT_ADMIT_TIMEOUT = 50;
+	/** The largest request body accepted, in bytes. */
+	public static final int MAX_BODY = 64 * 1024;
+	/** The default port used by main(). */
+	public static final int DEFAULT_PORT = 8080;
+	/** The path prefix of every resource. */
+	private static final String TICKETS = "/tickets";
+	/** The path suffix of a ticket's command resource. */
+	private static final String COMMANDS = "/commands";
+	/** The content type of requests and responses. */
+	private static final String FORM = "application/x-www-form-urlencoded";
+	/** IllegalArgumentException error message for null parameters. */
+	private static final String NULL_ERROR = "Parameter cannot be null.";
+
+	/** The manager requests are applied to. */
+	private final TicketManager manager;
+	/** The underlying server. */
+	private final HttpServer server;
+	/** Runs the exchanges. */
+	private final ExecutorService executor;
+	/** True if executor runs each exchange on a virtual thread. */
+	private final boolean virtual;
+	/** Limits the requests working on the manager at once. */
+	private final Semaphore permits;
+	/** The time a request waits for a permit, in nanoseconds. */
+	private final long admitTimeout;
+	/** The number of requests refused with 503. */
+	private final LongAdder rejected = new LongAdder();
+
+	/**
+	 * TicketIntakeServer(TicketManager, InetSocketAddress) - constructs a server
+	 * bound to the given address with the default limits. The server does not
+	 * accept requests until {@code start()} is called.
+	 *
+	 * @param manager the TicketManager to apply requests to.
+	 * @param address the address to bind; port 0 picks a free port.
+	 * @throws IOException              if the address cannot be bound.
+	 * @throws IllegalArgumentException if a parameter is null.
+	 */
+	public TicketIntakeServer(TicketManager manager, InetSocketAddress address) throws IOException {
+		this(manager, address, DEFAULT_MAX_IN_FLIGHT, DEFAULT_ADMIT_TIMEOUT);
+	}
+
+	/**
+	 * TicketIntakeServer(TicketManager, InetSocketAddress, int, long) - constructs
+	 * a server bound to the given address. The server does not accept requests
+	 * until {@code start()} is called.
+	 *
+	 * @param manager      the TicketManager to apply requests to.
+	 * @param address      the address to bind; port 0 picks a free port.
+	 * @param maxInFlight  the number of requests handled at once.
+	 * @param admitTimeout the milliseconds a request waits for a permit before
+	 *                     it is refused.
+	 * @throws IOException              if the address cannot be bound.
+	 * @throws IllegalArgumentException if a parameter is null, maxInFlight is
+	 *                                  not positive or admitTimeout is negative.
+	 */
+	public TicketIntakeServer(TicketManager manager, InetSocketAddress address, int maxInFlight, long admitTimeout)
+			throws IOException {
+		if (manager == null || address == null)
+			throw new IllegalArgumentException(NULL_ERROR);
+		if (maxInFlight <= 0 || admitTimeout < 0)
+			throw new IllegalArgumentException("Invalid limit.");
+		this.manager = manager;
+		this.permits = new Semaphore(maxInFlight);
+		this.admitTimeout = TimeUnit.MILLISECONDS.toNanos(admitTimeout);
+		ExecutorService e = virtualThreadExecutor();
+		this.virtual = e != null;
+		if (e == null) {
+			// a few threads beyond the permits keep refusals flowing when every
+			// permit is held
+			int cpus = Runtime.getRuntime().availableProcessors();
+			e = Executors.newFixedThreadPool(Math.min(maxInFlight, cpus * 16) + cpus);
+		}
+		this.executor = e;
+		this.server = HttpServer.create(address, 0);
+		server.setExecutor(executor);
+		server.createContext(TICKETS, this::handle);
+	}
+
+	/**
+	 * virtualThreadExecutor - returns an executor that starts a virtual thread
+	 * per task, or null if this JVM has no virtual threads. Looked up
+	 * reflectively so the class still runs on older JVMs.
+	 *
+	 * @return the executor, or null
+	 */
+	private static ExecutorService virtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * start - starts accepting requests.
+	 */
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * stop(int) - stops accepting requests, waits up to the given number of
+	 * seconds for the exchanges in progress, and shuts down the threads.
+	 *
+	 * @param delay the seconds to wait for exchanges in progress.
+	 */
+	public void stop(int delay) {
+		server.stop(delay);
+		executor.shutdown();
+	}
+
+	/**
+	 * getAddress - returns the address the server is bound to.
+	 *
+	 * @return the bound address.
+	 */
+	public InetSocketAddress getAddress() {
+		return server.getAddress();
+	}
+
+	/**
+	 * usesVirtualThreads - returns true if exchanges run on virtual threads.
+	 *
+	 * @return true if exchanges run on virtual threads.
+	 */
+	public boolean usesVirtualThreads() {
+		return virtual;
+	}
+
+	/**
+	 * getRejectedCount - returns the number of requests refused because the
+	 * server was saturated.
+	 *
+	 * @return the number of 503 responses sent.
+	 */
+	public long getRejectedCount() {
+		return rejected.sum();
+	}
+
+	/**
+	 * handle(HttpExchange) - admits an exchange and routes it.
+	 *
+	 * @param exchange the exchange
+	 * @throws IOException if the response cannot be sent
+	 */
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			boolean admitted;
+			try {
+				admitted = permits.tryAcquire(admitTimeout, TimeUnit.NANOSECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				admitted = false;
+			}
+			if (!admitted) {
+				rejected.increment();
+				exchange.getResponseHeaders().set("Retry-After", "1");
+				send(exchange, 503, "Server busy.");
+				return;
+			}
+			try {
+				route(exchange);
+			} catch (IllegalArgumentException e) {
+				send(exchange, 400, e.getMessage());
+			} finally {
+				permits.release();
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * route(HttpExchange) - dispatches an admitted exchange by method and path.
+	 *
+	 * @param exchange the exchange
+	 * @throws IOException if the request cannot be read or the response sent
+	 */
+	private void route(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath();
+		String method = exchange.getRequestMethod();
+		if (path.equals(TICKETS) || path.equals(TICKETS + "/")) {
+			if (!method.equals("POST")) {
+				send(exchange, 405, "Method not allowed.");
+				return;
+			}
+			Map<String, String> form = readForm(exchange);
+			if (form == null)
+				return;
+			createTicket(exchange, form);
+			return;
+		}
+		String rest = path.substring(TICKETS.length());
+		boolean commands = rest.endsWith(COMMANDS);
+		if (commands)
+			rest = rest.substring(0, rest.length() - COMMANDS.length());
+		long id = parseId(rest);
+		if (id <= 0) {
+			send(exchange, 404, "Not found.");
+		} else if (commands && method.equals("POST")) {
+			Map<String, String> form = readForm(exchange);
+			if (form != null)
+				applyCommand(exchange, id, form);
+		} else if (!commands && method.equals("GET")) {
+			getTicket(exchange, id);
+		} else {
+			send(exchange, 405, "Method not allowed.");
+		}
+	}
+
+	/**
+	 * createTicket(HttpExchange, Map) - creates a ticket from the form.
+	 *
+	 * @param exchange the exchange
+	 * @param form     the request fields
+	 * @throws IOException if the response cannot be sent
+	 */
+	private void createTicket(HttpExchange exchange, Map<String, String> form) throws IOException {
+		Ticket t = manager.createTicket(parse(TicketType.class, form.get("type")), form.get("subject"),
+				form.get("caller"), parse(Category.class, form.get("category")),
+				parse(Priority.class, form.get("priority")), form.get("note"));
+		exchange.getResponseHeaders().set("Location", TICKETS + "/" + t.getTicketId());
+		send(exchange, 201, "id=" + t.getTicketId());
+	}
+
+	/**
+	 * applyCommand(HttpExchange, long, Map) - applies the Command in the form to
+	 * a ticket.
+	 *
+	 * @param exchange the exchange
+	 * @param id       the ticket id
+	 * @param form     the request fields
+	 * @throws IOException if the response cannot be sent
+	 */
+	private void applyCommand(HttpExchange exchange, long id, Map<String, String> form) throws IOException {
+		CommandValue value = parse(CommandValue.class, form.get("command"));
+		String code = form.get("code");
+		Command command = new Command(value, form.get("owner"),
+				value == CommandValue.FEEDBACK ? parse(FeedbackCode.class, code) : null,
+				value == CommandValue.RESOLVE ? parse(ResolutionCode.class, code) : null,
+				value == CommandValue.CANCEL ? parse(CancellationCode.class, code) : null, form.get("note"));
+		String version = form.get("version");
+		CommandResult result = version == null ? manager.applyCommand(id, command)
+				: manager.compareAndApply(id, parseVersion(version), command);
+		int status = result == CommandResult.APPLIED ? 200 : result == CommandResult.NO_SUCH_TICKET ? 404 : 409;
+		StringBuilder b = new StringBuilder();
+		field(b, "result", result.name());
+		if (result == CommandResult.CONFLICT)
+			manager.withTicket(id, t -> {
+				field(b, "version", Long.toString(t.getVersion()));
+				field(b, "state", t.getState());
+			});
+		send(exchange, status, b.toString());
+	}
+
+	/**
+	 * getTicket(HttpExchange, long) - answers the fields of a ticket, read under
+	 * its shard lock.
+	 *
+	 * @param exchange the exchange
+	 * @param id       the ticket id
+	 * @throws IOException if the response cannot be sent
+	 */
+	private void getTicket(HttpExchange exchange, long id) throws IOException {
+		StringBuilder b = new StringBuilder();
+		boolean found = manager.withTicket(id, t -> {
+			field(b, "id", Long.toString(t.getTicketId()));
+			field(b, "type", t.getTicketType().name());
+			field(b, "subject", t.getSubject());
+			field(b, "caller", t.getCaller());
+			field(b, "category", t.getCategory().name());
+			field(b, "priority", t.getPriority().name());
+			field(b, "state", t.getState());
+			field(b, "owner", t.getOwner());
+			Enum<?> code = t.getFeedbackCode() != null ? t.getFeedbackCode()
+					: t.getResolutionCode() != null ? t.getResolutionCode() : t.getCancellationCode();
+			if (code != null)
+				field(b, "code", code.name());
+			field(b, "notes", Integer.toString(t.getNoteCount()));
+			field(b, "version", Long.toString(t.getVersion()));
+		});
+		if (found)
+			send(exchange, 200, b.toString());
+		else
+			send(exchange, 404, "result=" + CommandResult.NO_SUCH_TICKET.name());
+	}
+
+	/**
+	 * field(StringBuilder, String, String) - appends an encoded form field.
+	 *
+	 * @param b     the form being built
+	 * @param name  the field name
+	 * @param value the field value
+	 */
+	private static void field(StringBuilder b, String name, String value) {
+		if (b.length() > 0)
+			b.append('&');
+		b.append(name).append('=').append(URLEncoder.encode(value, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * parseId(String) - parses the "/{id}" part of a path.
+	 *
+	 * @param s the path after the prefix
+	 * @return the id, or -1 if s is not a positive id
+	 */
+	private static long parseId(String s) {
+		if (s.length() < 2 || s.charAt(0) != '/' || s.length() > 19)
+			return -1;
+		long id = 0;
+		for (int i = 1; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c < '0' || c > '9')
+				return -1;
+			id = id * 10 + (c - '0');
+		}
+		return id;
+	}
+
+	/**
+	 * parseVersion(String) - parses the version field of a Command request.
+	 *
+	 * @param s the field
+	 * @return the version
+	 * @throws IllegalArgumentException if s is not a version
+	 */
+	private static long parseVersion(String s) {
+		try {
+			long version = Long.parseLong(s.trim());
+			if (version >= 0)
+				return version;
+		} catch (NumberFormatException e) {
+			// answered below
+		}
+		throw new IllegalArgumentException("Invalid version.");
+	}
+
+	/**
+	 * parse(Class, String) - returns the constant of an enumeration named by its
+	 * display name or constant name, ignoring case.
+	 *
+	 * @param <E>   the enumeration
+	 * @param type  the enumeration class
+	 * @param value the name
+	 * @return the constant
+	 * @throws IllegalArgumentException if value is missing or names no constant
+	 */
+	private static <E extends Enum<E>> E parse(Class<E> type, String value) {
+		if (value == null)
+			throw new IllegalArgumentException("Missing " + type.getSimpleName() + ".");
+		try {
+			return Enum.valueOf(type, value.trim().replace(' ', '_').toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Invalid " + type.getSimpleName() + ".");
+		}
+	}
+
+	/**
+	 * readForm(HttpExchange) - reads and decodes a form request body. Answers
+	 * 415 or 413 and returns null if the body is not an acceptable form.
+	 *
+	 * @param exchange the exchange
+	 * @return the fields, or null if an error response was sent
+	 * @throws IOException if the body cannot be read
+	 */
+	private static Map<String, String> readForm(HttpExchange exchange) throws IOException {
+		String type = exchange.getRequestHeaders().getFirst("Content-Type");
+		if (type != null && !type.toLowerCase(Locale.ROOT).startsWith(FORM)) {
+			send(exchange, 415, "Unsupported media type.");
+			return null;
+		}
+		byte[] body;
+		try (InputStream in = exchange.getRequestBody()) {
+			body = in.readNBytes(MAX_BODY + 1);
+		}
+		if (body.length > MAX_BODY) {
+			send(exchange, 413, "Request too large.");
+			return null;
+		}
+		Map<String, String> form = new HashMap<String, String>();
+		String s = new String(body, StandardCharsets.UTF_8);
+		for (int start = 0; start < s.length();) {
+			int end = s.indexOf('&', start);
+			if (end < 0)
+				end = s.length();
+			int eq = s.indexOf('=', start);
+			if (eq < 0 || eq > end)
+				eq = end;
+			if (eq > start) {
+				String name = URLDecoder.decode(s.substring(start, eq), StandardCharsets.UTF_8);
+				String value = eq < end ? URLDecoder.decode(s.substring(eq + 1, end), StandardCharsets.UTF_8) : "";
+				form.put(name, value);
+			}
+			start = end + 1;
+		}
+		return form;
+	}
+
+	/**
+	 * send(HttpExchange, int, String) - sends a form or text response.
+	 *
+	 * @param exchange the exchange
+	 * @param status   the HTTP status
+	 * @param body     the response body
+	 * @throws IOException if the response cannot be sent
+	 */
+	private static void send(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = (body == null ? "" : body).getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type",
+				(status < 300 ? FORM : "text/plain") + "; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+		if (bytes.length > 0) {
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(bytes);
+			}
+		}
+	}
+
+	/**
+	 * main(String[]) - runs an intake server for the shared TicketManager on the
+	 * port given as the first argument, or DEFAULT_PORT. If a directory is given
+	 * as the second argument, the ticket id mark is kept in it, so the ids
+	 * handed to callers are not reused after a restart.
+	 *
+	 * @param args the optional port and the optional directory
+	 * @throws IOException if the port cannot be bound or the mark cannot be
+	 *                     written
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		if (args.length > 1) {
+			Path dir = Files.createDirectories(Paths.get(args[1]));
+			Ticket.setIdAllocator(
+					BlockIdAllocator.open(dir.resolve(BlockIdAllocator.MARK_FILE), BlockIdAllocator.DEFAULT_BLOCK_SIZE));
+		}
+		TicketIntakeServer server = new TicketIntakeServer(TicketManager.getInstance(), new InetSocketAddress(port));
+		server.start();
+		System.out.println("Ticket intake listening on " + server.getAddress()
+				+ (server.usesVirtualThreads() ? " (virtual threads)" : ""));
+	}
+}
@@ -1,12 +1,187 @@
 /**
- * 
+ * ServiceManagerGUI.java
  */
 package com.jmmarquardt.svcticket.view.ui;
 
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import javax.swing.JComboBox;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.JTextField;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
+
+import com.jmmarquardt.svcticket.model.index.TicketIndex;
+import com.jmmarquardt.svcticket.model.index.TicketQuery;
+import com.jmmarquardt.svcticket.model.io.TicketFileStore;
+import com.jmmarquardt.svcticket.model.manager.TicketManager;
+import com.jmmarquardt.svcticket.model.ticket.BlockIdAllocator;
+import com.jmmarquardt.svcticket.model.ticket.Ticket;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Category;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Priority;
+import com.jmmarquardt.svcticket.model.ticket.TicketStateMachine;
+import com.jmmarquardt.svcticket.view.ui.TicketTableModel.SortKey;
+
 /**
- * @author John-Michael Marquardt
+ * ServiceManagerGUI
+ * <p>
+ * ServiceManagerGUI is the main window of the Service Ticket Manager: a table
+ * of tickets with filters by state, priority, category and owner above it.
+ * The table is backed by a {@code TicketTableModel}, so it stays responsive
+ * on queues of hundreds of thousands of tickets: only the visible rows are
+ * read, and filtering and sorting run off the Event Dispatch Thread. Clicking
+ * a column header sorts by that column, and clicking it again reverses the
+ * order.
+ * </p>
  *
+ * @author John-Michael Marquardt
  */
-public class ServiceManagerGUI {
+public class ServiceManagerGUI extends JFrame {
+	private static final long serialVersionUID = 1L;
+	/** The first entry of each filter list, matching every ticket. */
+	private static final String ANY = "All";
+	/** The SortKey of each column, null for a column that does not sort. */
+	private static final SortKey[] COLUMN_SORT = { SortKey.ID, null, null, null, SortKey.CATEGORY,
+			SortKey.PRIORITY, SortKey.STATE, SortKey.OWNER };
+
+	/** The table model. */
+	private final TicketTableModel model;
+	/** The state filter. */
+	private final JComboBox<String> stateFilter = new JComboBox<String>();
+	/** The priority filter. */
+	private final JComboBox<Object> priorityFilter = new JComboBox<Object>();
+	/** The category filter. */
+	private final JComboBox<Object> categoryFilter = new JComboBox<Object>();
+	/** The owner filter, empty for any owner. */
+	private final JTextField ownerFilter = new JTextField(10);
+	/** Shows the number of rows. */
+	private final JLabel status = new JLabel();
+
+	/**
+	 * ServiceManagerGUI(TicketManager, TicketIndex) - constructs the window
+	 * over the given manager. Must be called on the Event Dispatch Thread.
+	 *
+	 * @param manager the TicketManager whose tickets are shown.
+	 * @param index   a TicketIndex registered with the manager.
+	 * @throws IllegalArgumentException if a parameter is null.
+	 */
+	public ServiceManagerGUI(TicketManager manager, TicketIndex index) {
+		super("Service Ticket Manager");
+		model = new TicketTableModel(manager, index);
+
+		stateFilter.addItem(ANY);
+		for (int s = 0; s < TicketStateMachine.STATE_COUNT; s++)
+			stateFilter.addItem(TicketStateMachine.getStateName(s));
+		priorityFilter.addItem(ANY);
+		for (Priority p : Priority.values())
+			priorityFilter.addItem(p);
+		categoryFilter.addItem(ANY);
+		for (Category c : Category.values())
+			categoryFilter.addItem(c);
+		stateFilter.addActionListener(e -> updateFilter());
+		priorityFilter.addActionListener(e -> updateFilter());
+		categoryFilter.addActionListener(e -> updateFilter());
+		ownerFilter.addActionListener(e -> updateFilter());
+
+		JPanel filters = new JPanel(new FlowLayout(FlowLayout.LEFT));
+		filters.add(new JLabel("State"));
+		filters.add(stateFilter);
+		filters.add(new JLabel("Priority"));
+		filters.add(priorityFilter);
+		filters.add(new JLabel("Category"));
+		filters.add(categoryFilter);
+		filters.add(new JLabel("Owner"));
+		filters.add(ownerFilter);
+
+		JTable table = new JTable(model);
+		table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+		table.setFillsViewportHeight(true);
+		table.getTableHeader().setReorderingAllowed(false);
+		table.getTableHeader().addMouseListener(new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				int column = table.convertColumnIndexToModel(table.columnAtPoint(e.getPoint()));
+				if (column >= 0 && COLUMN_SORT[column] != null) {
+					SortKey key = COLUMN_SORT[column];
+					model.setSort(key, key != model.getSortKey() || !model.isAscending());
+				}
+			}
+		});
+		model.addTableModelListener(e -> status.setText(model.getRowCount() + " tickets"));
+
+		add(filters, BorderLayout.NORTH);
+		add(new JScrollPane(table), BorderLayout.CENTER);
+		add(status, BorderLayout.SOUTH);
+		setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+		addWindowListener(new WindowAdapter() {
+			@Override
+			public void windowClosed(WindowEvent e) {
+				model.stop();
+			}
+		});
+		setSize(1000, 700);
+		model.start();
+	}
+
+	/**
+	 * getModel - returns the table model.
+	 *
+	 * @return the TicketTableModel.
+	 */
+	public TicketTableModel getModel() {
+		return model;
+	}
+
+	/**
+	 * updateFilter - builds a TicketQuery from the filter fields and hands it to
+	 * the model.
+	 */
+	private void updateFilter() {
+		TicketQuery q = TicketQuery.all();
+		if (stateFilter.getSelectedIndex() > 0)
+			q = q.and(TicketQuery.state(stateFilter.getSelectedIndex() - 1));
+		if (priorityFilter.getSelectedIndex() > 0)
+			q = q.and(TicketQuery.priority((Priority) priorityFilter.getSelectedItem()));
+		if (categoryFilter.getSelectedIndex() > 0)
+			q = q.and(TicketQuery.category((Category) categoryFilter.getSelectedItem()));
+		String owner = ownerFilter.getText().trim();
+		if (!owner.isEmpty())
+			q = q.and(TicketQuery.owner(owner));
+		model.setFilter(q);
+	}
 
+	/**
+	 * main(String[]) - shows the window over the shared TicketManager, first
+	 * loading the tickets saved in the directory given as the first argument,
+	 * if any. Ticket ids are persisted in the directory, so a restart does not
+	 * reuse them.
+	 *
+	 * @param args the optional ticket directory
+	 * @throws IOException if the tickets cannot be loaded
+	 */
+	public static void main(String[] args) throws IOException {
+		TicketManager manager = TicketManager.getInstance();
+		TicketIndex index = new TicketIndex();
+		manager.addTicketListener(index);
+		if (args.length > 0) {
+			Path dir = Paths.get(args[0]);
+			TicketFileStore store = TicketFileStore.open(manager, dir);
+			Ticket.setIdAllocator(
+					BlockIdAllocator.open(dir.resolve(BlockIdAllocator.MARK_FILE), BlockIdAllocator.DEFAULT_BLOCK_SIZE));
+			store.load();
+		}
+		SwingUtilities.invokeLater(() -> new ServiceManagerGUI(manager, index).setVisible(true));
+	}
 }
@@ -0,0 +1,424 @@
+/**
+ * TicketTableModel.java
+ */
+package com.jmmarquardt.svcticket.view.ui;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.Timer;
+import javax.swing.table.AbstractTableModel;
+
+import com.jmmarquardt.svcticket.model.index.TicketIndex;
+import com.jmmarquardt.svcticket.model.index.TicketQuery;
+import com.jmmarquardt.svcticket.model.manager.TicketListener;
+import com.jmmarquardt.svcticket.model.manager.TicketManager;
+import com.jmmarquardt.svcticket.model.ticket.Ticket;
+
+/**
+ * TicketTableModel
+ * <p>
+ * TicketTableModel is a virtualized {@code TableModel} over the tickets of a
+ * {@code TicketManager}. It holds only the ids of the rows, in display order,
+ * as a {@code long[]}; a cell is read by looking its ticket up in the manager
+ * when the table asks for it, so only the rows in view are ever touched on the
+ * Event Dispatch Thread, however many tickets match.
+ * </p>
+ * <p>
+ * The rows are chosen by a {@code TicketQuery} evaluated against a
+ * {@code TicketIndex}, and ordered by a {@code SortKey}. Filtering and sorting
+ * run on a background thread. The model is a {@code TicketListener}, but a
+ * change only marks the rows stale: a Swing Timer firing once per frame
+ * starts a rebuild of stale rows, at most one at a time, and installs the
+ * finished rows with a single table event. A burst of thousands of changes
+ * therefore costs one rebuild and one repaint per frame.
+ * </p>
+ * <p>
+ * The index must be registered with the manager before the model, so the
+ * index is up to date when a rebuild runs. Call {@code start()} to begin
+ * following the manager and {@code stop()} when the table is disposed.
+ * </p>
+ *
+ * @author John-Michael Marquardt
+ */
+public class TicketTableModel extends AbstractTableModel implements TicketListener {
+	private static final long serialVersionUID = 1L;
+	/** IllegalArgumentException message for null parameters. */
+	private static final String NULL_ERROR = "Parameter cannot be null.";
+	/** The delay between two refreshes, one frame at 60 frames per second. */
+	public static final int FRAME_MILLIS = 16;
+	/** Marks a rebuild that failed. */
+	private static final long[] FAILED = new long[0];
+	/** The column names. */
+	private static final String[] COLUMNS = { "Ticket ID", "Type", "Subject", "Caller", "Category", "Priority",
+			"State", "Owner" };
+
+	/** SortKey names the field the rows are ordered by. */
+	public enum SortKey {
+		ID, STATE, PRIORITY, CATEGORY, OWNER
+	}
+
+	/** The manager the cells are read from. */
+	private final transient TicketManager manager;
+	/** The index the filter is evaluated against. */
+	private final transient TicketIndex index;
+	/** Runs the rebuilds. */
+	private final transient ExecutorService worker;
+	/** Fires once per frame on the Event Dispatch Thread. */
+	private final Timer timer;
+	/** Set when the rows may be out of date. */
+	private final AtomicBoolean stale = new AtomicBoolean(true);
+
+	/** The ids of the rows, in display order; EDT only. */
+	private long[] rows = new long[0];
+	/** The row read last, -1 for none; EDT only. */
+	private int cachedRow = -1;
+	/** The ticket of cachedRow, or null if it was removed; EDT only. */
+	private transient Ticket cachedTicket;
+	/** True while a rebuild runs; EDT only. */
+	private boolean rebuilding;
+	/** The finished rows waiting to be installed, or null. */
+	private volatile long[] finished;
+
+	/** The filter; EDT only. */
+	private transient TicketQuery filter = TicketQuery.all();
+	/** The field the rows are sorted by; EDT only. */
+	private SortKey sortKey = SortKey.ID;
+	/** True to sort in ascending order; EDT only. */
+	private boolean ascending = true;
+
+	/**
+	 * TicketTableModel(TicketManager, TicketIndex) - constructs an empty model
+	 * showing every indexed ticket in ascending id order.
+	 *
+	 * @param manager the TicketManager the tickets are read from.
+	 * @param index   a TicketIndex registered with the manager.
+	 * @throws IllegalArgumentException if a parameter is null.
+	 */
+	public TicketTableModel(TicketManager manager, TicketIndex index) {
+		if (manager == null || index == null)
+			throw new IllegalArgumentException(NULL_ERROR);
+		this.manager = manager;
+		this.index = index;
+		this.worker = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "ticket-table-model");
+			t.setDaemon(true);
+			return t;
+		});
+		this.timer = new Timer(FRAME_MILLIS, e -> refresh());
+		timer.setCoalesce(true);
+	}
+
+	/**
+	 * start - registers the model with the manager and starts refreshing it.
+	 */
+	public void start() {
+		manager.addTicketListener(this);
+		stale.set(true);
+		timer.start();
+	}
+
+	/**
+	 * stop - unregisters the model and stops refreshing it. The rows shown last
+	 * are kept.
+	 */
+	public void stop() {
+		manager.removeTicketListener(this);
+		timer.stop();
+		worker.shutdownNow();
+	}
+
+	/**
+	 * setFilter(TicketQuery) - shows only the tickets matching the query, from
+	 * the next refresh on. Must be called on the Event Dispatch Thread.
+	 *
+	 * @param query the filter, or null to show every ticket.
+	 */
+	public void setFilter(TicketQuery query) {
+		filter = query == null ? TicketQuery.all() : query;
+		stale.set(true);
+	}
+
+	/**
+	 * getFilter - returns the filter.
+	 *
+	 * @return the TicketQuery the rows match.
+	 */
+	public TicketQuery getFilter() {
+		return filter;
+	}
+
+	/**
+	 * setSort(SortKey, boolean) - orders the rows by the given field, from the
+	 * next refresh on. Rows with equal values stay in id order. Must be called
+	 * on the Event Dispatch Thread.
+	 *
+	 * @param key       the field to sort by.
+	 * @param ascending true for ascending order, false for descending.
+	 * @throws IllegalArgumentException if key is null.
+	 */
+	public void setSort(SortKey key, boolean ascending) {
+		if (key == null)
+			throw new IllegalArgumentException(NULL_ERROR);
+		this.sortKey = key;
+		this.ascending = ascending;
+		stale.set(true);
+	}
+
+	/**
+	 * getSortKey - returns the field the rows are sorted by.
+	 *
+	 * @return the SortKey.
+	 */
+	public SortKey getSortKey() {
+		return sortKey;
+	}
+
+	/**
+	 * isAscending - returns true if the rows are sorted in ascending order.
+	 *
+	 * @return true for ascending order.
+	 */
+	public boolean isAscending() {
+		return ascending;
+	}
+
+	/**
+	 * refresh - called once per frame on the Event Dispatch Thread: installs
+	 * finished rows, then starts a rebuild if the rows are stale and none is
+	 * running.
+	 */
+	void refresh() {
+		long[] done = finished;
+		if (done != null) {
+			finished = null;
+			rebuilding = false;
+			if (done != FAILED) {
+				rows = done;
+				cachedRow = -1;
+				cachedTicket = null;
+				fireTableDataChanged();
+			}
+		}
+		if (!rebuilding && stale.getAndSet(false)) {
+			rebuilding = true;
+			TicketQuery q = filter;
+			SortKey k = sortKey;
+			boolean asc = ascending;
+			worker.execute(() -> {
+				try {
+					finished = build(q, k, asc);
+				} catch (RuntimeException e) {
+					// keep the rows shown and try again on the next frame
+					stale.set(true);
+					finished = FAILED;
+				}
+			});
+		}
+	}
+
+	/**
+	 * build(TicketQuery, SortKey, boolean) - evaluates the filter and sorts the
+	 * matching ids; runs on the worker thread. The sort packs each row's rank
+	 * and its position in id order into one long, so a primitive sort orders
+	 * the rows with no per-row objects and keeps equal rows in id order.
+	 *
+	 * @param q   the filter
+	 * @param k   the sort field
+	 * @param asc true for ascending order
+	 * @return the ids in display order
+	 */
+	long[] build(TicketQuery q, SortKey k, boolean asc) {
+		long[] ids = index.query(q).toArray();
+		if (k == SortKey.ID) {
+			if (!asc)
+				reverse(ids);
+			return ids;
+		}
+		int n = ids.length;
+		int[] ranks = new int[n];
+		String[] owners = k == SortKey.OWNER ? new String[n] : null;
+		boolean[] present = new boolean[n];
+		for (int i = 0; i < n; i++) {
+			int row = i;
+			present[i] = manager.withTicket(ids[i], t -> {
+				switch (k) {
+				case STATE:
+					ranks[row] = t.getStateId();
+					break;
+				case PRIORITY:
+					ranks[row] = t.getPriority().ordinal();
+					break;
+				case CATEGORY:
+					ranks[row] = t.getCategory().ordinal();
+					break;
+				default:
+					owners[row] = t.getOwner();
+					break;
+				}
+			});
+		}
+		if (owners != null)
+			rankOwners(owners, ranks);
+		long[] keys = new long[n];
+		int live = 0;
+		for (int i = 0; i < n; i++)
+			if (present[i])
+				keys[live++] = (long) (asc ? ranks[i] : Integer.MAX_VALUE - ranks[i]) << 32 | i;
+		Arrays.sort(keys, 0, live);
+		long[] sorted = new long[live];
+		for (int i = 0; i < live; i++)
+			sorted[i] = ids[(int) keys[i]];
+		return sorted;
+	}
+
+	/**
+	 * rankOwners(String[], int[]) - replaces each owner by its position among
+	 * the distinct owners in alphabetical order.
+	 *
+	 * @param owners the owner of each row, null for a removed ticket
+	 * @param ranks  receives the rank of each row
+	 */
+	private static void rankOwners(String[] owners, int[] ranks) {
+		Map<String, Integer> distinct = new HashMap<String, Integer>();
+		for (String o : owners)
+			if (o != null)
+				distinct.putIfAbsent(o, 0);
+		String[] names = distinct.keySet().toArray(new String[0]);
+		Arrays.sort(names);
+		for (int i = 0; i < names.length; i++)
+			distinct.put(names[i], i);
+		for (int i = 0; i < owners.length; i++)
+			if (owners[i] != null)
+				ranks[i] = distinct.get(owners[i]);
+	}
+
+	/**
+	 * reverse(long[]) - reverses an array in place.
+	 *
+	 * @param a the array
+	 */
+	private static void reverse(long[] a) {
+		for (int i = 0, j = a.length - 1; i < j; i++, j--) {
+			long t = a[i];
+			a[i] = a[j];
+			a[j] = t;
+		}
+	}
+
+	/**
+	 * ticketAdded(Ticket) - marks the rows stale.
+	 *
+	 * @param ticket the Ticket that was added.
+	 */
+	@Override
+	public void ticketAdded(Ticket ticket) {
+		stale.set(true);
+	}
+
+	/**
+	 * ticketUpdated(Ticket, int, String) - marks the rows stale.
+	 *
+	 * @param ticket        the Ticket that was updated.
+	 * @param previousState the state before the Command.
+	 * @param previousOwner the owner before the Command.
+	 */
+	@Override
+	public void ticketUpdated(Ticket ticket, int previousState, String previousOwner) {
+		stale.set(true);
+	}
+
+	/**
+	 * ticketRemoved(Ticket) - marks the rows stale.
+	 *
+	 * @param ticket the Ticket that was removed.
+	 */
+	@Override
+	public void ticketRemoved(Ticket ticket) {
+		stale.set(true);
+	}
+
+	/**
+	 * getTicketId(int) - returns the id of the ticket shown in a row.
+	 *
+	 * @param row the row index.
+	 * @return the ticket id.
+	 * @throws IndexOutOfBoundsException if row is out of range.
+	 */
+	public long getTicketId(int row) {
+		return rows[row];
+	}
+
+	/**
+	 * getRowCount - returns the number of rows.
+	 *
+	 * @return the number of rows.
+	 */
+	@Override
+	public int getRowCount() {
+		return rows.length;
+	}
+
+	/**
+	 * getColumnCount - returns the number of columns.
+	 *
+	 * @return the number of columns.
+	 */
+	@Override
+	public int getColumnCount() {
+		return COLUMNS.length;
+	}
+
+	/**
+	 * getColumnName(int) - returns the name of a column.
+	 *
+	 * @param column the column index.
+	 * @return the column name.
+	 */
+	@Override
+	public String getColumnName(int column) {
+		return COLUMNS[column];
+	}
+
+	/**
+	 * getValueAt(int, int) - reads a cell from the row's ticket. The table
+	 * paints a row's cells one after another, so the ticket is looked up once
+	 * per row. A ticket removed since the last refresh shows empty cells.
+	 *
+	 * @param row    the row index.
+	 * @param column the column index.
+	 * @return the cell value.
+	 */
+	@Override
+	public Object getValueAt(int row, int column) {
+		if (row != cachedRow) {
+			cachedTicket = manager.getTicket(rows[row]);
+			cachedRow = row;
+		}
+		Ticket t = cachedTicket;
+		if (column == 0)
+			return rows[row];
+		if (t == null)
+			return "";
+		switch (column) {
+		case 1:
+			return t.getTicketType();
+		case 2:
+			return t.getSubject();
+		case 3:
+			return t.getCaller();
+		case 4:
+			return t.getCategory();
+		case 5:
+			return t.getPriority();
+		case 6:
+			return t.getState();
+		default:
+			return t.getOwner();
+		}
+	}
+}
@@ -1,6 +1,9 @@
 package com.jmmarquardt.svcticket.model.command;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import org.junit.Test;
@@ -82,4 +85,48 @@ public class CommandTest {
 		fail("Not yet implemented"); // TODO
 	}
 
-}
\ No newline at end of file
+
+	/**
+	 * Test method for encode(), of(long, String) and the accessors of encoded
+	 * Commands.
+	 */
+	@Test
+	public void testEncode() {
+		long process = Command.encode(Command.CommandValue.PROCESS, OWNER, -1);
+		assertEquals(Command.CommandValue.PROCESS, Command.commandValueOf(process));
+		assertEquals(-1, Command.codeOf(process));
+		c = Command.of(process, NOTE);
+		assertEquals(OWNER, c.getOwnerId());
+		assertEquals(NOTE, c.getNote());
+		assertEquals(process, c.encode());
+
+		long resolve = Command.encode(Command.CommandValue.RESOLVE, (String) null,
+				Command.ResolutionCode.WORKAROUND.ordinal());
+		assertEquals(Command.ResolutionCode.WORKAROUND.ordinal(), Command.codeOf(resolve));
+		c = new Command(Command.CommandValue.RESOLVE, null, null, Command.ResolutionCode.WORKAROUND, null, NOTE);
+		assertEquals(resolve, c.encode());
+		// note-less Commands without an owner are shared
+		assertSame(Command.of(resolve, null), Command.of(resolve, null));
+		assertEquals(Command.ResolutionCode.WORKAROUND, Command.of(resolve, null).getResolutionCode());
+		assertSame(Command.CONFIRM, Command.of(Command.CONFIRM.encode(), null));
+		assertSame(Command.REOPEN, Command.of(Command.REOPEN.encode(), null));
+		assertEquals(Command.CommandValue.REOPEN, Command.REOPEN.getCommandValue());
+
+		assertFalse(Command.isValid(-1L));
+		assertFalse(Command.isValid(Command.CommandValue.FEEDBACK.ordinal()));
+		assertFalse(Command.isValid(resolve + (10L << 8)));
+		assertTrue(Command.isValid(resolve));
+		try {
+			Command.encode(Command.CommandValue.PROCESS, "", -1);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals(ERR, e.getMessage());
+		}
+		try {
+			Command.encode(Command.CommandValue.CANCEL, (String) null, 2);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals(ERR, e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,85 @@
+/**
+ * TicketBitmapTest.java
+ *
+ * Unit tests for TicketBitmap class methods.
+ *
+ * Written by: John-Michael Marquardt, jmmarquardt@gmail.com
+ */
+package com.jmmarquardt.svcticket.model.index;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+/**
+ * @author John-Michael Marquardt
+ *
+ */
+public class TicketBitmapTest {
+
+	/**
+	 * Fills a bitmap and a TreeSet with the same random ids: a dense run that
+	 * needs bitmap containers and a sparse spread that stays in arrays.
+	 */
+	private static TicketBitmap fill(Random random, TreeSet<Long> set) {
+		TicketBitmap b = new TicketBitmap();
+		for (int i = 0; i < 20000; i++) {
+			long id = random.nextBoolean() ? 1 + random.nextInt(30000) : 1 + random.nextInt(5000000);
+			assertEquals(set.add(id), b.add(id));
+		}
+		return b;
+	}
+
+	private static long[] toArray(TreeSet<Long> set) {
+		return set.stream().mapToLong(Long::longValue).toArray();
+	}
+
+	/**
+	 * Test method for add(long), remove(long) and contains(long).
+	 */
+	@Test
+	public void testAddRemove() {
+		Random random = new Random(1);
+		TreeSet<Long> set = new TreeSet<Long>();
+		TicketBitmap b = fill(random, set);
+		for (int i = 0; i < 15000; i++) {
+			long id = 1 + random.nextInt(30000);
+			assertEquals(set.remove(id), b.remove(id));
+		}
+		assertEquals(set.size(), b.cardinality());
+		assertArrayEquals(toArray(set), b.toArray());
+		assertFalse(b.contains(0));
+		assertTrue(b.contains(set.first()));
+	}
+
+	/**
+	 * Test method for and(TicketBitmap), or(TicketBitmap) and
+	 * andNot(TicketBitmap).
+	 */
+	@Test
+	public void testSetOperations() {
+		Random random = new Random(2);
+		TreeSet<Long> sa = new TreeSet<Long>();
+		TreeSet<Long> sb = new TreeSet<Long>();
+		TicketBitmap a = fill(random, sa);
+		TicketBitmap b = fill(random, sb);
+
+		TreeSet<Long> and = new TreeSet<Long>(sa);
+		and.retainAll(sb);
+		TreeSet<Long> or = new TreeSet<Long>(sa);
+		or.addAll(sb);
+		TreeSet<Long> andNot = new TreeSet<Long>(sa);
+		andNot.removeAll(sb);
+
+		assertArrayEquals(toArray(and), a.and(b).toArray());
+		assertArrayEquals(toArray(or), a.or(b).toArray());
+		assertArrayEquals(toArray(andNot), a.andNot(b).toArray());
+		assertArrayEquals(toArray(sa), a.toArray());
+	}
+}
@@ -0,0 +1,74 @@
+/**
+ * TicketIndexTest.java
+ *
+ * Unit tests for TicketIndex class methods.
+ *
+ * Written by: John-Michael Marquardt, jmmarquardt@gmail.com
+ */
+package com.jmmarquardt.svcticket.model.index;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jmmarquardt.svcticket.model.command.Command;
+import com.jmmarquardt.svcticket.model.command.Command.CommandValue;
+import com.jmmarquardt.svcticket.model.command.Command.FeedbackCode;
+import com.jmmarquardt.svcticket.model.manager.TicketManager;
+import com.jmmarquardt.svcticket.model.ticket.Ticket;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Category;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Priority;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.TicketType;
+import com.jmmarquardt.svcticket.model.ticket.TicketStateMachine;
+
+/**
+ * @author John-Michael Marquardt
+ *
+ */
+public class TicketIndexTest {
+
+	private TicketManager manager;
+	private TicketIndex index;
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		manager = new TicketManager(4);
+		index = new TicketIndex();
+		manager.addTicketListener(index);
+	}
+
+	/**
+	 * Test method for query(TicketQuery) as tickets are created, updated and
+	 * removed.
+	 */
+	@Test
+	public void testQuery() {
+		Ticket a = manager.createTicket(TicketType.INCIDENT, "a", "c1", Category.SOFTWARE, Priority.URGENT, "n");
+		Ticket b = manager.createTicket(TicketType.INCIDENT, "b", "c1", Category.SOFTWARE, Priority.URGENT, "n");
+		Ticket c = manager.createTicket(TicketType.REQUEST, "c", "c2", Category.SOFTWARE, Priority.URGENT, "n");
+		for (Ticket t : new Ticket[] { a, b, c })
+			manager.executeCommand(t.getTicketId(), new Command(CommandValue.PROCESS, "x", null, null, null, null));
+		manager.executeCommand(a.getTicketId(),
+				new Command(CommandValue.FEEDBACK, "x", FeedbackCode.AWAITING_CALLER, null, null, null));
+		manager.executeCommand(c.getTicketId(),
+				new Command(CommandValue.FEEDBACK, "x", FeedbackCode.AWAITING_CALLER, null, null, null));
+
+		TicketQuery urgentSoftwareIncidents = TicketQuery.priority(Priority.URGENT)
+				.and(TicketQuery.category(Category.SOFTWARE)).and(TicketQuery.type(TicketType.INCIDENT))
+				.and(TicketQuery.state(TicketStateMachine.FEEDBACK)).and(TicketQuery.owner("x"));
+		assertArrayEquals(new long[] { a.getTicketId() }, index.query(urgentSoftwareIncidents).toArray());
+		assertEquals(1, index.count(TicketQuery.state(TicketStateMachine.WORKING)));
+		assertEquals(2, index.count(TicketQuery.caller("c1").or(TicketQuery.type(TicketType.INCIDENT))));
+		assertEquals(1, index.count(TicketQuery.caller("c1").not()));
+		assertEquals(0, index.count(TicketQuery.owner("")));
+
+		manager.removeTicket(a.getTicketId());
+		assertEquals(0, index.count(urgentSoftwareIncidents));
+		assertEquals(2, index.count(TicketQuery.all()));
+	}
+}
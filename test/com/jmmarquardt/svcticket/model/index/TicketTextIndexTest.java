@@ -0,0 +1,178 @@
+/**
+ * TicketTextIndexTest.java
+ *
+ * Unit tests for TicketTextIndex class methods.
+ *
+ * Written by: John-Michael Marquardt, jmmarquardt@gmail.com
+ */
+package com.jmmarquardt.svcticket.model.index;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jmmarquardt.svcticket.model.command.Command;
+import com.jmmarquardt.svcticket.model.command.Command.CommandValue;
+import com.jmmarquardt.svcticket.model.command.Command.FeedbackCode;
+import com.jmmarquardt.svcticket.model.index.TicketTextIndex.Hit;
+import com.jmmarquardt.svcticket.model.manager.TicketManager;
+import com.jmmarquardt.svcticket.model.ticket.Ticket;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Category;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Priority;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.TicketType;
+
+/**
+ * @author John-Michael Marquardt
+ *
+ */
+public class TicketTextIndexTest {
+
+	private TicketManager manager;
+	private TicketTextIndex index;
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		manager = new TicketManager(4);
+		index = new TicketTextIndex();
+		manager.addTicketListener(index);
+	}
+
+	/**
+	 * Creates a ticket with the given subject and note.
+	 */
+	private long create(String subject, String note) {
+		return manager.createTicket(TicketType.INCIDENT, subject, "c", Category.SOFTWARE, Priority.LOW, note)
+				.getTicketId();
+	}
+
+	/**
+	 * Returns the ids of the hits.
+	 */
+	private static long[] ids(List<Hit> hits) {
+		long[] ids = new long[hits.size()];
+		for (int i = 0; i < ids.length; i++)
+			ids[i] = hits.get(i).getTicketId();
+		return ids;
+	}
+
+	/**
+	 * Test method for tokenize(String).
+	 */
+	@Test
+	public void testTokenize() {
+		assertArrayEquals(new String[] { "vpn", "drops", "after", "10", "min", "caf\u00e9" },
+				TicketTextIndex.tokenize("VPN drops -- after 10 min! Caf\u00c9"));
+		assertEquals(0, TicketTextIndex.tokenize(" ,; ").length);
+		assertEquals(0, TicketTextIndex.tokenize(null).length);
+	}
+
+	/**
+	 * Test that words are ranked by BM25, and phrases and prefixes match.
+	 */
+	@Test
+	public void testSearch() {
+		long a = create("Printer offline on floor 3", "Printer does not respond");
+		long b = create("Outlook crashes on start", "Crashes since update");
+		long c = create("Printer jams", "Paper jam in tray 2");
+		long d = create("Offline printer queue", "Queue stuck");
+
+		// a mentions printer twice in a short text; everything else once
+		List<Hit> hits = index.search("printer", 10);
+		assertEquals(a, hits.get(0).getTicketId());
+		assertEquals(3, hits.size());
+		assertTrue(hits.get(0).getScore() >= hits.get(1).getScore());
+
+		assertArrayEquals(new long[] { a }, ids(index.search("\"printer offline\"", 10)));
+		assertArrayEquals(new long[] { d }, ids(index.search("\"offline printer\"", 10)));
+		// a phrase never spans the subject and a note
+		assertEquals(0, index.search("\"jams paper\"", 10).size());
+
+		assertArrayEquals(new long[] { b }, ids(index.search("crash*", 10)));
+		// both "jams" and "jam" expand from the prefix, and both are in c
+		assertArrayEquals(new long[] { c }, ids(index.search("jam*", 10)));
+		// the rarer word outranks the common one
+		assertEquals(b, index.search("printer outlook", 10).get(0).getTicketId());
+		assertEquals(2, index.search("printer", 2).size());
+		assertEquals(0, index.search("nothing", 10).size());
+		assertEquals(0, index.search("", 10).size());
+		assertEquals(c, index.search("tray", 10).get(0).getTicketId());
+	}
+
+	/**
+	 * Test that notes carried by Commands are indexed, that removed tickets stop
+	 * matching, and that compact() keeps every result.
+	 */
+	@Test
+	public void testIncrementalUpdates() {
+		long a = create("Laptop battery", "Swollen battery");
+		long b = create("Laptop screen", "Flickers");
+		manager.executeCommand(a, new Command(CommandValue.PROCESS, "x", null, null, null, "Ordered replacement"));
+		assertArrayEquals(new long[] { a }, ids(index.search("replacement", 10)));
+		long c = create("Docking station", "No display");
+		manager.executeCommand(a, new Command(CommandValue.FEEDBACK, null, FeedbackCode.AWAITING_PROVIDER, null,
+				null, "Vendor ships replacement dock"));
+		manager.executeCommand(b, new Command(CommandValue.PROCESS, "x", null, null, null, null));
+		assertArrayEquals(new long[] { a }, ids(index.search("\"replacement dock\"", 10)));
+		long[] docks = ids(index.search("dock*", 10));
+		Arrays.sort(docks);
+		assertArrayEquals(new long[] { a, c }, docks);
+
+		manager.removeTicket(b);
+		assertEquals(2, index.size());
+		assertArrayEquals(new long[] { a }, ids(index.search("laptop", 10)));
+		List<Hit> before = index.search("laptop dock* \"no display\" replacement", 10);
+		index.compact();
+		List<Hit> after = index.search("laptop dock* \"no display\" replacement", 10);
+		assertArrayEquals(ids(before), ids(after));
+		for (int i = 0; i < before.size(); i++)
+			assertEquals(before.get(i).getScore(), after.get(i).getScore(), 1e-9);
+		assertEquals(0, index.search("flickers", 10).size());
+	}
+
+	/**
+	 * Test that findSimilar() finds the likely duplicate of a ticket among many.
+	 */
+	@Test
+	public void testFindSimilar() {
+		String[] words = { "email", "password", "reset", "monitor", "keyboard", "network", "slow", "login", "error",
+				"printer" };
+		for (int i = 0; i < 20000; i++)
+			create(words[i % 10] + " " + words[(i / 10) % 10] + " issue " + i, "note " + (i % 97));
+		long original = create("VPN client disconnects every hour", "Seen on build 4711");
+		Ticket duplicate = manager.createTicket(TicketType.INCIDENT, "VPN disconnects hourly", "c2",
+				Category.NETWORK, Priority.HIGH, "Same as yesterday");
+		List<Hit> hits = index.findSimilar(duplicate, 5);
+		assertEquals(original, hits.get(0).getTicketId());
+		for (Hit h : hits)
+			assertTrue(h.getTicketId() != duplicate.getTicketId());
+	}
+
+	/**
+	 * Test that a posting list trimmed by compact() can take an entry whose
+	 * document gap needs a longer varint than the list has room for.
+	 */
+	@Test
+	public void testAddAfterCompact() {
+		TicketTextIndex big = new TicketTextIndex();
+		long rare = 1L << 40;
+		big.ticketAdded(new Ticket(rare, TicketType.INCIDENT, "zzrare", "c", Category.SOFTWARE, Priority.LOW, "n"));
+		big.compact();
+		for (int i = 1; i <= 1 << 20; i++)
+			big.ticketAdded(
+					new Ticket(rare + i, TicketType.INCIDENT, "filler", "c", Category.SOFTWARE, Priority.LOW, "n"));
+		big.ticketAdded(new Ticket(rare - 1, TicketType.INCIDENT, "zzrare", "c", Category.SOFTWARE, Priority.LOW,
+				"n"));
+		long[] found = ids(big.search("zzrare", 10));
+		Arrays.sort(found);
+		assertArrayEquals(new long[] { rare - 1, rare }, found);
+	}
+}
@@ -0,0 +1,121 @@
+/**
+ * CommandJournalTest.java
+ *
+ * Unit tests for CommandJournal class methods.
+ *
+ * Written by: John-Michael Marquardt, jmmarquardt@gmail.com
+ */
+package com.jmmarquardt.svcticket.model.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.jmmarquardt.svcticket.model.command.Command;
+import com.jmmarquardt.svcticket.model.command.Command.CommandValue;
+import com.jmmarquardt.svcticket.model.command.Command.FeedbackCode;
+import com.jmmarquardt.svcticket.model.command.Command.ResolutionCode;
+import com.jmmarquardt.svcticket.model.manager.TicketManager;
+import com.jmmarquardt.svcticket.model.ticket.Ticket;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Category;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Priority;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.TicketType;
+
+/**
+ * @author John-Michael Marquardt
+ *
+ */
+public class CommandJournalTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Test method for replay(TicketManager) after tickets were created and
+	 * updated over several small segments.
+	 */
+	@Test
+	public void testReplay() throws Exception {
+		Path dir = folder.getRoot().toPath();
+		TicketManager manager = new TicketManager(4);
+		List<Ticket> tickets = new ArrayList<Ticket>();
+		try (CommandJournal journal = CommandJournal.open(dir, 4096, 5)) {
+			assertEquals(0, journal.replay(manager));
+			manager.addCommandLog(journal);
+			for (int i = 0; i < 200; i++) {
+				Ticket t = manager.createTicket(TicketType.INCIDENT, "Subject " + i, "caller", Category.DATABASE,
+						Priority.MEDIUM, "note " + i);
+				tickets.add(t);
+				manager.executeCommand(t.getTicketId(),
+						new Command(CommandValue.PROCESS, "owner" + (i % 7), null, null, null, null));
+				if (i % 2 == 0)
+					manager.executeCommand(t.getTicketId(),
+							new Command(CommandValue.FEEDBACK, "x", FeedbackCode.AWAITING_CHANGE, null, null, "wait"));
+				if (i % 3 == 0)
+					manager.executeCommand(t.getTicketId(),
+							new Command(CommandValue.RESOLVE, "x", null, ResolutionCode.WORKAROUND, null, null));
+			}
+			journal.sync();
+			assertEquals(journal.getAppendedCount(), journal.getDurableCount());
+		}
+
+		TicketManager restored = new TicketManager(2);
+		try (CommandJournal journal = CommandJournal.open(dir, 4096, 5)) {
+			assertTrue(journal.replay(restored) > 400);
+			restored.addCommandLog(journal);
+			Ticket extra = restored.createTicket(TicketType.REQUEST, "Extra", "caller", Category.INQUIRY, Priority.LOW,
+					null);
+			assertTrue(restored.getTicket(extra.getTicketId()) == extra);
+		}
+		for (Ticket t : tickets) {
+			Ticket r = restored.getTicket(t.getTicketId());
+			assertEquals(t.getState(), r.getState());
+			assertEquals(t.getOwner(), r.getOwner());
+			assertEquals(t.getFeedbackCode(), r.getFeedbackCode());
+			assertEquals(t.getResolutionCode(), r.getResolutionCode());
+			assertEquals(t.getNotes(), r.getNotes());
+		}
+
+		TicketManager again = new TicketManager(2);
+		try (CommandJournal journal = CommandJournal.open(dir, 4096, 5)) {
+			journal.replay(again);
+		}
+		assertEquals(tickets.size() + 1, again.size());
+	}
+
+	/**
+	 * Test that a removed ticket stays removed after the journal is reopened and
+	 * replayed.
+	 */
+	@Test
+	public void testReplayRemove() throws Exception {
+		Path dir = folder.getRoot().toPath();
+		TicketManager manager = new TicketManager(4);
+		Ticket kept, removed;
+		try (CommandJournal journal = CommandJournal.open(dir, 4096, 5)) {
+			manager.addCommandLog(journal);
+			kept = manager.createTicket(TicketType.REQUEST, "Kept", "caller", Category.INQUIRY, Priority.LOW, null);
+			removed = manager.createTicket(TicketType.REQUEST, "Removed", "caller", Category.INQUIRY, Priority.LOW,
+					null);
+			manager.executeCommand(removed.getTicketId(),
+					new Command(CommandValue.PROCESS, "owner", null, null, null, null));
+			manager.removeTicket(removed.getTicketId());
+		}
+
+		TicketManager restored = new TicketManager(2);
+		try (CommandJournal journal = CommandJournal.open(dir, 4096, 5)) {
+			assertEquals(4, journal.replay(restored));
+		}
+		assertEquals(1, restored.size());
+		assertEquals("Kept", restored.getTicket(kept.getTicketId()).getSubject());
+		assertNull(restored.getTicket(removed.getTicketId()));
+	}
+}
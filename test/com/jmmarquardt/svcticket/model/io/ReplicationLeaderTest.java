@@ -0,0 +1,291 @@
+/**
+ * ReplicationLeaderTest.java
+ *
+ * Unit tests for ReplicationLeader class methods.
+ *
+ * Written by: John-Michael Marquardt, jmmarquardt@gmail.com
+ */
+package com.jmmarquardt.svcticket.model.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import com.jmmarquardt.svcticket.model.command.Command;
+import com.jmmarquardt.svcticket.model.command.Command.CancellationCode;
+import com.jmmarquardt.svcticket.model.command.Command.CommandValue;
+import com.jmmarquardt.svcticket.model.command.Command.FeedbackCode;
+import com.jmmarquardt.svcticket.model.command.Command.ResolutionCode;
+import com.jmmarquardt.svcticket.model.manager.TicketManager;
+import com.jmmarquardt.svcticket.model.metrics.DashboardCube;
+import com.jmmarquardt.svcticket.model.ticket.Ticket;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Category;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Priority;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.TicketType;
+
+/**
+ * @author John-Michael Marquardt
+ *
+ */
+public class ReplicationLeaderTest {
+
+	/**
+	 * Creates a ticket or applies a random Command, or a batch of them, to a
+	 * random ticket.
+	 */
+	private static void step(TicketManager manager, List<Long> ids, Random random) {
+		if (ids.isEmpty() || random.nextInt(4) == 0) {
+			ids.add(manager.createTicket(TicketType.values()[random.nextInt(2)], "Subject " + ids.size(), "caller",
+					Category.values()[random.nextInt(5)], Priority.values()[random.nextInt(4)], "opened")
+					.getTicketId());
+			return;
+		}
+		if (random.nextInt(8) == 0) {
+			long[] batch = new long[4];
+			Command[] commands = new Command[batch.length];
+			for (int i = 0; i < batch.length; i++) {
+				batch[i] = ids.get(random.nextInt(ids.size()));
+				commands[i] = command(random);
+			}
+			manager.applyCommands(batch, commands);
+		} else {
+			manager.applyCommand(ids.get(random.nextInt(ids.size())), command(random));
+		}
+	}
+
+	/**
+	 * Returns a random valid Command.
+	 */
+	private static Command command(Random random) {
+		switch (CommandValue.values()[random.nextInt(CommandValue.values().length)]) {
+		case PROCESS:
+			return new Command(CommandValue.PROCESS, "owner" + random.nextInt(5), null, null, null, null);
+		case FEEDBACK:
+			return new Command(CommandValue.FEEDBACK, null, FeedbackCode.AWAITING_CALLER, null, null, "asked");
+		case RESOLVE:
+			return new Command(CommandValue.RESOLVE, null, null, ResolutionCode.SOLVED, null, "fixed");
+		case CONFIRM:
+			return Command.CONFIRM;
+		case REOPEN:
+			return new Command(CommandValue.REOPEN, null, null, null, null, "again");
+		default:
+			return new Command(CommandValue.CANCEL, null, null, null, CancellationCode.DUPLICATE, "dup");
+		}
+	}
+
+	/**
+	 * Asserts that the follower's manager holds the same tickets as the
+	 * leader's.
+	 */
+	private static void assertReplicated(TicketManager leader, TicketManager follower) {
+		assertEquals(leader.size(), follower.size());
+		leader.forEach((Ticket t) -> {
+			Ticket copy = follower.getTicket(t.getTicketId());
+			assertNotNull(copy);
+			assertEquals(t.getStateId(), copy.getStateId());
+			assertEquals(t.getOwner(), copy.getOwner());
+			assertEquals(t.getCategory(), copy.getCategory());
+			assertEquals(t.getFeedbackCode(), copy.getFeedbackCode());
+			assertEquals(t.getResolutionCode(), copy.getResolutionCode());
+			assertEquals(t.getCancellationCode(), copy.getCancellationCode());
+			assertEquals(t.getNotes(), copy.getNotes());
+			assertEquals(t.getVersion(), copy.getVersion());
+		});
+	}
+
+	/**
+	 * Test that followers connecting before, during and after a stream of
+	 * changes all end up with the leader's tickets.
+	 */
+	@Test
+	public void testFollowers() throws Exception {
+		TicketManager manager = new TicketManager(4);
+		List<Long> ids = new ArrayList<Long>();
+		Random random = new Random(23);
+		for (int i = 0; i < 500; i++)
+			step(manager, ids, random);
+
+		try (ReplicationLeader leader = ReplicationLeader.start(manager, 0)) {
+			ReplicationFollower early = ReplicationFollower.connect("127.0.0.1", leader.getPort());
+			assertTrue(early.awaitReady(5000));
+			AtomicBoolean stop = new AtomicBoolean();
+			Thread writer = new Thread(() -> {
+				Random r = new Random(230);
+				while (!stop.get())
+					step(manager, ids, r);
+			});
+			writer.start();
+			Thread.sleep(50);
+			ReplicationFollower during = ReplicationFollower.connect("127.0.0.1", leader.getPort());
+			assertTrue(during.awaitReady(5000));
+			Thread.sleep(50);
+			stop.set(true);
+			writer.join();
+			ReplicationFollower late = ReplicationFollower.connect("127.0.0.1", leader.getPort());
+			assertTrue(late.awaitReady(5000));
+
+			assertEquals(3, leader.getFollowerCount());
+			assertTrue(leader.awaitReplicated(5000));
+			for (ReplicationFollower f : new ReplicationFollower[] { early, during, late }) {
+				assertReplicated(manager, f.getManager());
+				assertTrue(f.isConnected());
+			}
+			for (ReplicationFollower f : new ReplicationFollower[] { early, during, late })
+				f.close();
+		}
+	}
+
+	/**
+	 * Test that tickets removed on the leader, before and after a follower
+	 * connects, are removed on the follower.
+	 */
+	@Test
+	public void testRemove() throws Exception {
+		TicketManager manager = new TicketManager(4);
+		List<Long> ids = new ArrayList<Long>();
+		Random random = new Random(2302);
+		for (int i = 0; i < 100; i++)
+			step(manager, ids, random);
+		manager.removeTicket(ids.get(0));
+
+		try (ReplicationLeader leader = ReplicationLeader.start(manager, 0)) {
+			ReplicationFollower follower = ReplicationFollower.connect("127.0.0.1", leader.getPort());
+			assertTrue(follower.awaitReady(5000));
+			assertNull(follower.getManager().getTicket(ids.get(0)));
+			long created = manager.createTicket(TicketType.REQUEST, "Removed", "caller", Category.INQUIRY,
+					Priority.LOW, "n").getTicketId();
+			for (int i = 1; i < 20; i++)
+				manager.removeTicket(ids.get(i));
+			manager.removeTicket(created);
+			assertTrue(leader.awaitReplicated(5000));
+			for (int i = 0; i < 20; i++)
+				assertNull(follower.getManager().getTicket(ids.get(i)));
+			assertNull(follower.getManager().getTicket(created));
+			assertReplicated(manager, follower.getManager());
+			assertTrue(follower.isConnected());
+			follower.close();
+			assertNull(follower.getFailure());
+		}
+	}
+
+	/**
+	 * Test that a follower rejects a message with an invalid length and reports
+	 * why it disconnected.
+	 */
+	@Test
+	public void testInvalidMessage() throws Exception {
+		try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			ReplicationFollower follower = ReplicationFollower.connect("127.0.0.1", server.getLocalPort());
+			try (Socket socket = server.accept()) {
+				DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+				out.writeByte(ReplicationLeader.LOG);
+				out.writeInt(-1);
+				out.flush();
+				for (int i = 0; i < 500 && follower.isConnected(); i++)
+					Thread.sleep(10);
+			}
+			assertFalse(follower.isConnected());
+			assertTrue(follower.getFailure() instanceof IOException);
+			follower.close();
+		}
+	}
+
+	/**
+	 * Test that a follower that stops reading is disconnected once it is more
+	 * than the maximum backlog behind, and that the leader keeps applying.
+	 */
+	@Test
+	public void testBacklogLimit() throws Exception {
+		TicketManager manager = new TicketManager(4);
+		List<Long> ids = new ArrayList<Long>();
+		Random random = new Random(2300);
+		InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+		try (ReplicationLeader leader = ReplicationLeader.start(manager, address, 4096);
+				Socket stalled = new Socket("127.0.0.1", leader.getPort())) {
+			stalled.setReceiveBufferSize(1024);
+			for (int i = 0; i < 100 && leader.getFollowerCount() == 0; i++)
+				Thread.sleep(10);
+			assertEquals(1, leader.getFollowerCount());
+			for (int i = 0; i < 50000 && leader.getFollowerCount() > 0; i++)
+				step(manager, ids, random);
+			assertEquals(0, leader.getFollowerCount());
+			assertTrue(leader.awaitReplicated(0));
+		}
+	}
+
+	/**
+	 * Test that a follower running in another JVM catches up with the leader.
+	 */
+	@Test
+	public void testFollowerProcess() throws Exception {
+		TicketManager manager = new TicketManager(4);
+		DashboardCube cube = new DashboardCube();
+		manager.addTicketListener(cube);
+		List<Long> ids = new ArrayList<Long>();
+		Random random = new Random(2301);
+		for (int i = 0; i < 300; i++)
+			step(manager, ids, random);
+
+		try (ReplicationLeader leader = ReplicationLeader.start(manager, 0)) {
+			String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+			Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+					ReplicationFollower.class.getName(), "127.0.0.1", Integer.toString(leader.getPort()))
+							.redirectErrorStream(true).start();
+			BlockingQueue<String> lines = new LinkedBlockingQueue<String>();
+			Thread pump = new Thread(() -> {
+				try (BufferedReader in = new BufferedReader(
+						new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+					for (String line; (line = in.readLine()) != null;)
+						lines.add(line);
+				} catch (IOException e) {
+					// process ended
+				}
+			});
+			pump.setDaemon(true);
+			pump.start();
+			try {
+				for (int i = 0; i < 500 && leader.getFollowerCount() == 0; i++)
+					Thread.sleep(10);
+				for (int i = 0; i < 300; i++)
+					step(manager, ids, random);
+				assertTrue(leader.awaitReplicated(20000));
+
+				StringBuilder sb = new StringBuilder();
+				sb.append(leader.getEndOffset()).append(' ').append(manager.size());
+				for (long count : cube.getStateCounts())
+					sb.append(' ').append(count);
+				String expected = sb.toString();
+				boolean seen = false;
+				for (String line; !seen && (line = lines.poll(20, TimeUnit.SECONDS)) != null;)
+					seen = line.equals(expected);
+				assertTrue("follower never reported " + expected, seen);
+			} finally {
+				process.destroy();
+				process.waitFor(10, TimeUnit.SECONDS);
+			}
+			assertFalse(process.isAlive());
+		}
+	}
+}
@@ -0,0 +1,276 @@
+/**
+ * TicketCodecTest.java
+ *
+ * Unit tests for TicketCodec class methods.
+ *
+ * Written by: John-Michael Marquardt, jmmarquardt@gmail.com
+ */
+package com.jmmarquardt.svcticket.model.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.jmmarquardt.svcticket.model.command.Command;
+import com.jmmarquardt.svcticket.model.command.Command.CancellationCode;
+import com.jmmarquardt.svcticket.model.command.Command.CommandValue;
+import com.jmmarquardt.svcticket.model.command.Command.FeedbackCode;
+import com.jmmarquardt.svcticket.model.command.Command.ResolutionCode;
+import com.jmmarquardt.svcticket.model.ticket.PackedTicket;
+import com.jmmarquardt.svcticket.model.ticket.Ticket;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Category;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Priority;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.TicketType;
+import com.jmmarquardt.svcticket.model.ticket.TicketStateMachine;
+
+/**
+ * @author John-Michael Marquardt
+ *
+ */
+public class TicketCodecTest {
+
+	/**
+	 * Test that a Ticket in a non-initial state survives a round trip, and that
+	 * single fields can be read from the encoded record.
+	 */
+	@Test
+	public void testTicketRoundTrip() {
+		Ticket t = new Ticket(300L, TicketType.REQUEST, "Subject \u00e9\u4e2d\ud83d\ude00", "caller",
+				Category.NETWORK, Priority.LOW, "first");
+		t.update(new Command(CommandValue.PROCESS, "owner", null, null, null, null));
+		t.update(new Command(CommandValue.RESOLVE, "owner", null, ResolutionCode.COMPLETED, null, "done"));
+		t.update(new Command(CommandValue.FEEDBACK, "owner", FeedbackCode.AWAITING_PROVIDER, null, null, "fb"));
+
+		ByteBuffer buf = ByteBuffer.allocate(TicketCodec.ticketSize(t) + 7);
+		buf.position(7);
+		TicketCodec.encodeTicket(t, buf);
+		assertEquals(buf.capacity(), buf.position());
+
+		assertEquals(TicketCodec.VERSION, TicketCodec.readVersion(buf, 7));
+		assertEquals(300L, TicketCodec.readTicketId(buf, 7));
+		assertEquals(TicketStateMachine.FEEDBACK, TicketCodec.readStateId(buf, 7));
+		assertEquals(t.getSubject(), TicketCodec.readSubject(buf, 7));
+		assertEquals("caller", TicketCodec.readCaller(buf, 7));
+		assertEquals("owner", TicketCodec.readOwner(buf, 7));
+
+		buf.position(7);
+		Ticket copy = TicketCodec.decodeTicket(buf);
+		assertEquals(buf.capacity(), buf.position());
+		assertEquals(t.getTicketId(), copy.getTicketId());
+		assertEquals(t.getTicketType(), copy.getTicketType());
+		assertEquals(t.getSubject(), copy.getSubject());
+		assertEquals(t.getCaller(), copy.getCaller());
+		assertEquals(t.getCategory(), copy.getCategory());
+		assertEquals(t.getPriority(), copy.getPriority());
+		assertEquals(t.getState(), copy.getState());
+		assertEquals(t.getOwner(), copy.getOwner());
+		assertEquals(t.getFeedbackCode(), copy.getFeedbackCode());
+		assertEquals(t.getResolutionCode(), copy.getResolutionCode());
+		assertEquals(t.getNotes(), copy.getNotes());
+		assertEquals(3, TicketCodec.readTicketVersion(buf, 7));
+		assertEquals(t.getVersion(), copy.getVersion());
+
+		// the restored ticket keeps following the FSM
+		copy.update(new Command(CommandValue.CANCEL, "owner", null, null, CancellationCode.DUPLICATE, "dup"));
+		assertEquals(Ticket.CANCELED_NAME, copy.getState());
+	}
+
+	/**
+	 * Test that a version 1 Ticket record, which has no ticket version, is
+	 * restored at a version above any a client can hold from an earlier run.
+	 */
+	@Test
+	public void testVersion1Ticket() {
+		Ticket t = new Ticket(301L, TicketType.INCIDENT, "Subject", "caller", Category.NETWORK, Priority.LOW,
+				"first");
+		t.update(new Command(CommandValue.PROCESS, "owner", null, null, null, null));
+		ByteBuffer buf = ByteBuffer.allocate(64);
+		buf.put((byte) 1).putInt(PackedTicket.pack(t));
+		TicketCodec.putVarLong(buf, t.getTicketId());
+		TicketCodec.putString(buf, t.getSubject());
+		TicketCodec.putString(buf, t.getCaller());
+		TicketCodec.putString(buf, t.getOwner());
+		TicketCodec.putVarLong(buf, 1);
+		TicketCodec.putString(buf, "first");
+		buf.flip();
+		assertEquals("Subject", TicketCodec.readSubject(buf, 0));
+		assertEquals("owner", TicketCodec.readOwner(buf, 0));
+		assertEquals(-1, TicketCodec.readTicketVersion(buf, 0));
+		Ticket copy = TicketCodec.decodeTicket(buf);
+		assertEquals(Ticket.WORKING_NAME, copy.getState());
+		assertTrue(copy.getVersion() > Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Test that Commands survive a round trip, including null notes.
+	 */
+	@Test
+	public void testCommandRoundTrip() {
+		Command[] commands = { new Command(CommandValue.PROCESS, "owner", null, null, null, null),
+				new Command(CommandValue.RESOLVE, "o", null, ResolutionCode.WORKAROUND, null, "n"),
+				new Command(CommandValue.CANCEL, "o", null, null, CancellationCode.INAPPROPRIATE, "why") };
+		int size = 0;
+		for (Command c : commands)
+			size += TicketCodec.commandSize(c);
+		ByteBuffer buf = ByteBuffer.allocateDirect(size);
+		for (Command c : commands)
+			TicketCodec.encodeCommand(c, buf);
+		assertEquals(size, buf.position());
+		assertEquals(CommandValue.PROCESS, TicketCodec.readCommandValue(buf, 0));
+		assertEquals(-1, TicketCodec.readCommandCode(buf, 0));
+		assertEquals("owner", TicketCodec.readCommandOwner(buf, 0));
+		buf.flip();
+		for (Command c : commands) {
+			Command copy = TicketCodec.decodeCommand(buf);
+			assertEquals(c.getCommandValue(), copy.getCommandValue());
+			assertEquals(c.getOwnerId(), copy.getOwnerId());
+			assertEquals(c.getResolutionCode(), copy.getResolutionCode());
+			assertEquals(c.getCancellationCode(), copy.getCancellationCode());
+			assertEquals(c.getNote(), copy.getNote());
+		}
+	}
+
+	/**
+	 * Test varints, Strings and the version check.
+	 */
+	@Test
+	public void testPrimitives() {
+		ByteBuffer buf = ByteBuffer.allocate(64);
+		long[] values = { 0, 1, 127, 128, 300, Integer.MAX_VALUE, Long.MAX_VALUE, -1L };
+		for (long v : values) {
+			buf.clear();
+			TicketCodec.putVarLong(buf, v);
+			assertEquals(TicketCodec.varLongSize(v), buf.position());
+			buf.flip();
+			assertEquals(v, TicketCodec.getVarLong(buf));
+		}
+		String s = "a\u00ff\u0800\ud83d\ude00z";
+		buf.clear();
+		TicketCodec.putString(buf, s);
+		TicketCodec.putString(buf, null);
+		byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+		assertEquals(1 + utf8.length + 1, buf.position());
+		assertEquals(TicketCodec.stringSize(s) + TicketCodec.stringSize(null), buf.position());
+		for (int i = 0; i < utf8.length; i++)
+			assertEquals(utf8[i], buf.get(1 + i));
+		buf.flip();
+		assertEquals(s, TicketCodec.getString(buf));
+		assertNull(TicketCodec.getString(buf));
+
+		buf.clear();
+		buf.put((byte) 99);
+		buf.flip();
+		try {
+			TicketCodec.decodeCommand(buf);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("Unsupported record version.", e.getMessage());
+		}
+	}
+
+	/**
+	 * Asserts that decoding the first length bytes of a record throws
+	 * IllegalArgumentException.
+	 */
+	private static void assertRejected(byte[] record, int length, boolean ticket) {
+		ByteBuffer buf = ByteBuffer.wrap(record, 0, length);
+		try {
+			if (ticket)
+				TicketCodec.decodeTicket(buf);
+			else
+				TicketCodec.decodeCommand(buf);
+			fail("decoded " + length + " bytes");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Test that truncated and corrupted records throw IllegalArgumentException
+	 * rather than index or allocation errors.
+	 */
+	@Test
+	public void testMalformed() {
+		Ticket t = new Ticket(300L, TicketType.INCIDENT, "Subject", "caller", Category.NETWORK, Priority.LOW,
+				"first");
+		t.update(new Command(CommandValue.PROCESS, "owner", null, null, null, "second"));
+		byte[] ticket = new byte[TicketCodec.ticketSize(t)];
+		TicketCodec.encodeTicket(t, ByteBuffer.wrap(ticket));
+		Command c = new Command(CommandValue.RESOLVE, "o", null, ResolutionCode.SOLVED, null, "n");
+		byte[] command = new byte[TicketCodec.commandSize(c)];
+		TicketCodec.encodeCommand(c, ByteBuffer.wrap(command));
+
+		for (int n = 0; n < ticket.length; n++)
+			assertRejected(ticket, n, true);
+		for (int n = 0; n < command.length; n++)
+			assertRejected(command, n, false);
+
+		// a CommandValue or code out of range
+		byte[] bad = command.clone();
+		bad[1] = 100;
+		assertRejected(bad, bad.length, false);
+		bad[1] = -1;
+		assertRejected(bad, bad.length, false);
+		bad = command.clone();
+		bad[2] = 50;
+		assertRejected(bad, bad.length, false);
+
+		// an invalid Category in the packed fields
+		bad = ticket.clone();
+		bad[4] |= 0x70;
+		assertRejected(bad, bad.length, true);
+
+		// a String length and a note count far beyond the record
+		ByteBuffer buf = ByteBuffer.allocate(32);
+		buf.put(TicketCodec.VERSION).put((byte) CommandValue.PROCESS.ordinal()).put((byte) 0);
+		TicketCodec.putVarLong(buf, Integer.MAX_VALUE + 10L);
+		assertRejected(buf.array(), buf.position(), false);
+		buf.clear();
+		buf.put(ticket, 0, 5);
+		TicketCodec.putVarLong(buf, 1);
+		TicketCodec.putVarLong(buf, 0);
+		TicketCodec.putString(buf, null);
+		TicketCodec.putString(buf, null);
+		TicketCodec.putString(buf, null);
+		TicketCodec.putVarLong(buf, Integer.MAX_VALUE);
+		assertRejected(buf.array(), buf.position(), true);
+
+		// a String header with bit 63 set, negative as a long
+		bad = new byte[] { 2, 0, 0, -1, -1, -1, -1, -1, -1, -1, -1, -1, 1, 0 };
+		assertRejected(bad, bad.length, false);
+
+		// a varint longer than ten bytes
+		byte[] varint = new byte[12];
+		Arrays.fill(varint, (byte) 0x80);
+		try {
+			TicketCodec.getVarLong(ByteBuffer.wrap(varint));
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		// random corruption decodes or is rejected, never anything else
+		Random random = new Random(10);
+		for (int i = 0; i < 2000; i++) {
+			bad = (i % 2 == 0 ? ticket : command).clone();
+			for (int k = 0; k < 3; k++)
+				bad[1 + random.nextInt(bad.length - 1)] = (byte) random.nextInt(256);
+			try {
+				if (i % 2 == 0)
+					TicketCodec.decodeTicket(ByteBuffer.wrap(bad));
+				else
+					TicketCodec.decodeCommand(ByteBuffer.wrap(bad));
+			} catch (IllegalArgumentException e) {
+				// rejected
+			}
+		}
+	}
+}
@@ -0,0 +1,173 @@
+/**
+ * TicketFileStoreTest.java
+ *
+ * Unit tests for TicketFileStore class methods.
+ *
+ * Written by: John-Michael Marquardt, jmmarquardt@gmail.com
+ */
+package com.jmmarquardt.svcticket.model.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.jmmarquardt.svcticket.model.command.Command;
+import com.jmmarquardt.svcticket.model.command.Command.CommandValue;
+import com.jmmarquardt.svcticket.model.command.Command.FeedbackCode;
+import com.jmmarquardt.svcticket.model.manager.TicketManager;
+import com.jmmarquardt.svcticket.model.ticket.CommandResult;
+import com.jmmarquardt.svcticket.model.ticket.Ticket;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Category;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Priority;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.TicketType;
+
+/**
+ * @author John-Michael Marquardt
+ *
+ */
+public class TicketFileStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path dir;
+	private TicketManager manager;
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		dir = folder.getRoot().toPath().resolve("store");
+		manager = new TicketManager(4);
+	}
+
+	/**
+	 * Counts the delta files in the store directory.
+	 */
+	private long deltaCount() throws Exception {
+		try (Stream<Path> files = Files.list(dir)) {
+			return files.filter(p -> p.toString().endsWith(".delta")).count();
+		}
+	}
+
+	/**
+	 * Test that a save writes only the tickets changed since the last save, and
+	 * that loading the deltas restores the manager.
+	 */
+	@Test
+	public void testSaveDeltas() throws Exception {
+		TicketFileStore store = TicketFileStore.open(manager, dir, 256, 100);
+		manager.addTicketListener(store);
+		long[] ids = new long[50];
+		for (int i = 0; i < ids.length; i++)
+			ids[i] = manager.createTicket(TicketType.INCIDENT, "Subject " + i, "caller", Category.NETWORK,
+					Priority.HIGH, "note " + i).getTicketId();
+		assertEquals(50, store.save());
+		assertFalse(manager.getTicket(ids[0]).isDirty());
+		assertEquals(0, store.save());
+
+		assertEquals(CommandResult.APPLIED,
+				manager.applyCommand(ids[1], new Command(CommandValue.PROCESS, "owner", null, null, null, "taken")));
+		assertTrue(manager.getTicket(ids[1]).isDirty());
+		manager.removeTicket(ids[3]);
+		assertEquals(2, store.save());
+		assertEquals(2, deltaCount());
+
+		manager.applyCommand(ids[2], new Command(CommandValue.PROCESS, "o2", null, null, null,
+				new String(new char[1000]).replace('\0', 'x')));
+		assertEquals(1, store.save());
+
+		TicketManager copy = new TicketManager(2);
+		assertEquals(49, TicketFileStore.open(copy, dir).load());
+		assertNull(copy.getTicket(ids[3]));
+		Ticket t = copy.getTicket(ids[1]);
+		assertEquals("owner", t.getOwner());
+		assertEquals(Ticket.WORKING_NAME, t.getState());
+		assertEquals(Arrays.asList("note 1", "taken"), t.getNotes());
+		assertEquals(1, t.getVersion());
+		assertFalse(t.isDirty());
+		assertEquals("o2", copy.getTicket(ids[2]).getOwner());
+		assertEquals(1000, copy.getTicket(ids[2]).getNotes().get(1).length());
+		assertEquals("Subject 49", copy.getTicket(ids[49]).getSubject());
+	}
+
+	/**
+	 * Test that compaction merges the deltas into one snapshot.
+	 */
+	@Test
+	public void testCompact() throws Exception {
+		TicketFileStore store = TicketFileStore.open(manager, dir, 4096, 3);
+		manager.addTicketListener(store);
+		Ticket a = manager.createTicket(TicketType.REQUEST, "a", "c", Category.SOFTWARE, Priority.LOW, "n");
+		Ticket b = manager.createTicket(TicketType.REQUEST, "b", "c", Category.SOFTWARE, Priority.LOW, "n");
+		store.save();
+		manager.applyCommand(a.getTicketId(), new Command(CommandValue.PROCESS, "o", null, null, null, "n"));
+		store.save();
+		assertEquals(2, deltaCount());
+		manager.applyCommand(a.getTicketId(),
+				new Command(CommandValue.FEEDBACK, "o", FeedbackCode.AWAITING_CHANGE, null, null, "n"));
+		manager.removeTicket(b.getTicketId());
+		store.save();
+		assertEquals(0, deltaCount());
+		assertTrue(Files.exists(dir.resolve("snapshot.tickets")));
+
+		manager.createTicket(TicketType.INCIDENT, "c", "c", Category.DATABASE, Priority.URGENT, "n");
+		store.save();
+		assertEquals(1, deltaCount());
+
+		TicketManager copy = new TicketManager();
+		TicketFileStore reopened = TicketFileStore.open(copy, dir);
+		assertEquals(2, reopened.load());
+		assertNull(copy.getTicket(b.getTicketId()));
+		assertEquals(FeedbackCode.AWAITING_CHANGE, copy.getTicket(a.getTicketId()).getFeedbackCode());
+		assertTrue(Ticket.getIdAllocator().nextId() > a.getTicketId());
+	}
+
+	/**
+	 * Test that deltas left behind by a crash between writing the snapshot and
+	 * deleting them are not replayed over the snapshot, and that deltas saved
+	 * after a reopen are.
+	 */
+	@Test
+	public void testCompactCrash() throws Exception {
+		TicketFileStore store = TicketFileStore.open(manager, dir, 4096, 100);
+		manager.addTicketListener(store);
+		Ticket a = manager.createTicket(TicketType.REQUEST, "a", "c", Category.SOFTWARE, Priority.LOW, "n");
+		Ticket b = manager.createTicket(TicketType.REQUEST, "b", "c", Category.SOFTWARE, Priority.LOW, "n");
+		store.save();
+		Path stale = folder.getRoot().toPath().resolve("stale.delta");
+		try (Stream<Path> files = Files.list(dir)) {
+			Files.copy(files.filter(p -> p.toString().endsWith(".delta")).findFirst().get(), stale);
+		}
+		manager.applyCommand(a.getTicketId(), new Command(CommandValue.PROCESS, "o", null, null, null, "n"));
+		manager.removeTicket(b.getTicketId());
+		store.compact();
+		Files.copy(stale, dir.resolve(String.format("%016d.delta", 0)));
+
+		TicketManager copy = new TicketManager();
+		TicketFileStore reopened = TicketFileStore.open(copy, dir, 4096, 100);
+		assertEquals(1, reopened.load());
+		assertNull(copy.getTicket(b.getTicketId()));
+		assertEquals(Ticket.WORKING_NAME, copy.getTicket(a.getTicketId()).getState());
+
+		copy.addTicketListener(reopened);
+		copy.applyCommand(a.getTicketId(),
+				new Command(CommandValue.FEEDBACK, "o", FeedbackCode.AWAITING_CHANGE, null, null, "n"));
+		assertEquals(1, reopened.save());
+		TicketManager again = new TicketManager();
+		assertEquals(1, TicketFileStore.open(again, dir).load());
+		assertEquals(FeedbackCode.AWAITING_CHANGE, again.getTicket(a.getTicketId()).getFeedbackCode());
+	}
+}
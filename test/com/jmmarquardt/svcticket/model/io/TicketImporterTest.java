@@ -0,0 +1,165 @@
+/**
+ * TicketImporterTest.java
+ *
+ * Unit tests for TicketImporter class methods.
+ *
+ * Written by: John-Michael Marquardt, jmmarquardt@gmail.com
+ */
+package com.jmmarquardt.svcticket.model.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.jmmarquardt.svcticket.model.command.Command.CancellationCode;
+import com.jmmarquardt.svcticket.model.command.Command.FeedbackCode;
+import com.jmmarquardt.svcticket.model.command.Command.ResolutionCode;
+import com.jmmarquardt.svcticket.model.manager.TicketManager;
+import com.jmmarquardt.svcticket.model.ticket.Ticket;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Category;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Priority;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.TicketType;
+
+/**
+ * @author John-Michael Marquardt
+ *
+ */
+public class TicketImporterTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private TicketManager manager;
+	private ForkJoinPool pool;
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		manager = new TicketManager(4);
+		pool = new ForkJoinPool(3);
+	}
+
+	/**
+	 * Test importing a CSV file in chunks far smaller than its records.
+	 */
+	@Test
+	public void testImportCsv() throws Exception {
+		StringBuilder csv = new StringBuilder("id,type,subject,caller,category,priority,state,owner,code,notes\r\n");
+		for (int i = 1; i <= 500; i++) {
+			switch (i % 4) {
+			case 0:
+				csv.append(i).append(",Incident,\"Disk, \"\"full\"\"\",caller").append(i)
+						.append(",Hardware,Urgent,Feedback,owner,Awaiting Caller,first,second\r\n");
+				break;
+			case 1:
+				csv.append(i).append(",REQUEST,Subject ").append(i).append(",caller,inquiry,low,New,,,\n");
+				break;
+			case 2:
+				csv.append(i).append(",Request,Subject,caller,Software,Medium,Closed,owner,Completed,done\n");
+				break;
+			default:
+				csv.append(i).append(",Incident,Subject,caller,Network,High,Canceled,,Duplicate,dup\n");
+				break;
+			}
+		}
+		csv.setLength(csv.length() - 2); // no line break after the last record
+		Path file = folder.getRoot().toPath().resolve("tickets.csv");
+		Files.write(file, csv.toString().getBytes(StandardCharsets.UTF_8));
+
+		List<long[]> reports = new ArrayList<long[]>();
+		TicketImporter importer = new TicketImporter(manager, pool, 37);
+		assertEquals(500, importer.importFile(file, TicketImporter.formatOf(file),
+				(read, total, tickets) -> reports.add(new long[] { read, total, tickets })));
+		assertEquals(500, manager.size());
+		long[] last = reports.get(reports.size() - 1);
+		assertEquals(last[1], last[0]);
+		assertEquals(500, last[2]);
+
+		Ticket t = manager.getTicket(4);
+		assertEquals(TicketType.INCIDENT, t.getTicketType());
+		assertEquals("Disk, \"full\"", t.getSubject());
+		assertEquals("caller4", t.getCaller());
+		assertEquals(Category.HARDWARE, t.getCategory());
+		assertEquals(Priority.URGENT, t.getPriority());
+		assertEquals(Ticket.FEEDBACK_NAME, t.getState());
+		assertEquals("owner", t.getOwner());
+		assertEquals(FeedbackCode.AWAITING_CALLER, t.getFeedbackCode());
+		assertEquals(Arrays.asList("first", "second"), t.getNotes());
+
+		t = manager.getTicket(1);
+		assertEquals(Ticket.NEW_NAME, t.getState());
+		assertEquals("", t.getOwner());
+		assertEquals(Arrays.asList(""), t.getNotes());
+		assertEquals(ResolutionCode.COMPLETED, manager.getTicket(2).getResolutionCode());
+		assertEquals(CancellationCode.DUPLICATE, manager.getTicket(499).getCancellationCode());
+		assertTrue(Ticket.getIdAllocator().nextId() > 500);
+
+		// a second import adds nothing
+		assertEquals(0, importer.importFile(file, TicketImporter.Format.CSV, null));
+	}
+
+	/**
+	 * Test importing an XML file in small chunks.
+	 */
+	@Test
+	public void testImportXml() throws Exception {
+		StringBuilder xml = new StringBuilder("<?xml version=\"1.0\"?>\n<tickets>\n");
+		for (int i = 1; i <= 200; i++) {
+			xml.append("  <ticket id=\"").append(1000 + i).append("\" type=\"Request\" subject=\"Fix &amp; test &#233;\"")
+					.append(" caller='c").append(i).append("' category=\"Database\" priority=\"Low\"");
+			if (i % 2 == 0)
+				xml.append(" code=\"Not Completed\" state=\"Resolved\" owner=\"o\">\n    <note>a &lt;b&gt;</note>\n"
+						+ "    <note/>\n  </ticket>\n");
+			else
+				xml.append("/>\n");
+		}
+		xml.append("</tickets>\n");
+		Path file = folder.getRoot().toPath().resolve("tickets.xml");
+		Files.write(file, xml.toString().getBytes(StandardCharsets.UTF_8));
+
+		assertEquals(TicketImporter.Format.XML, TicketImporter.formatOf(file));
+		assertEquals(200, new TicketImporter(manager, pool, 50).importFile(file, TicketImporter.Format.XML, null));
+		Ticket t = manager.getTicket(1002);
+		assertEquals("Fix & test \u00e9", t.getSubject());
+		assertEquals("c2", t.getCaller());
+		assertEquals(Ticket.RESOLVED_NAME, t.getState());
+		assertEquals(ResolutionCode.NOT_COMPLETED, t.getResolutionCode());
+		assertEquals(Arrays.asList("a <b>", ""), t.getNotes());
+		t = manager.getTicket(1001);
+		assertEquals(Ticket.NEW_NAME, t.getState());
+		assertEquals(0, t.getNoteCount());
+		assertNull(t.getResolutionCode());
+	}
+
+	/**
+	 * Test that an invalid record is reported with its offset.
+	 */
+	@Test
+	public void testInvalidRecord() throws Exception {
+		Path file = folder.getRoot().toPath().resolve("bad.csv");
+		String good = "1,Incident,s,c,Network,High,New,,,n\n";
+		Files.write(file, (good + "2,Incident,s,c,Network,High,Feedback,,Solved,n\n").getBytes(StandardCharsets.UTF_8));
+		try {
+			new TicketImporter(manager, pool, 1024).importFile(file, TicketImporter.Format.CSV, null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("Invalid ticket record at byte " + good.length() + ".", e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,152 @@
+/**
+ * ColumnarTicketStoreTest.java
+ *
+ * Unit tests for ColumnarTicketStore class methods.
+ *
+ * Written by: John-Michael Marquardt, jmmarquardt@gmail.com
+ */
+package com.jmmarquardt.svcticket.model.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jmmarquardt.svcticket.model.command.Command;
+import com.jmmarquardt.svcticket.model.command.Command.CommandValue;
+import com.jmmarquardt.svcticket.model.command.Command.FeedbackCode;
+import com.jmmarquardt.svcticket.model.command.Command.ResolutionCode;
+import com.jmmarquardt.svcticket.model.ticket.CommandResult;
+import com.jmmarquardt.svcticket.model.ticket.PackedTicket;
+import com.jmmarquardt.svcticket.model.ticket.Ticket;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Category;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Priority;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.TicketType;
+import com.jmmarquardt.svcticket.model.ticket.TicketStateMachine;
+import com.jmmarquardt.svcticket.model.ticket.TicketView;
+
+/**
+ * @author John-Michael Marquardt
+ *
+ */
+public class ColumnarTicketStoreTest {
+
+	private TicketManager manager;
+	private ColumnarTicketStore store;
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		manager = new TicketManager(4);
+		store = new ColumnarTicketStore(4);
+		manager.addTicketListener(store);
+	}
+
+	/**
+	 * Asserts that a view matches a Ticket field by field.
+	 */
+	private static void assertSameFields(Ticket expected, TicketView actual) {
+		assertEquals(expected.getTicketId(), actual.getTicketId());
+		assertEquals(expected.getTicketType(), actual.getTicketType());
+		assertEquals(expected.getSubject(), actual.getSubject());
+		assertEquals(expected.getCaller(), actual.getCaller());
+		assertEquals(expected.getCategory(), actual.getCategory());
+		assertEquals(expected.getPriority(), actual.getPriority());
+		assertEquals(expected.getOwner(), actual.getOwner());
+		assertEquals(expected.getState(), actual.getState());
+		assertEquals(expected.getFeedbackCode(), actual.getFeedbackCode());
+		assertEquals(expected.getResolutionCode(), actual.getResolutionCode());
+		assertEquals(expected.getCancellationCode(), actual.getCancellationCode());
+	}
+
+	/**
+	 * Test that a store registered as a listener mirrors random changes to a
+	 * TicketManager, and that its own apply() agrees with Ticket.apply().
+	 */
+	@Test
+	public void testMirrorsManager() {
+		Random random = new Random(909);
+		TicketType[] types = TicketType.values();
+		Category[] categories = Category.values();
+		Priority[] priorities = Priority.values();
+		Command[] commands = { new Command(CommandValue.PROCESS, "owner", null, null, null, "n"),
+				new Command(CommandValue.FEEDBACK, "owner", FeedbackCode.AWAITING_CALLER, null, null, "n"),
+				new Command(CommandValue.RESOLVE, "owner", null, ResolutionCode.SOLVED, null, "n"),
+				new Command(CommandValue.RESOLVE, "owner", null, ResolutionCode.COMPLETED, null, "n"),
+				new Command(CommandValue.REOPEN, "owner", null, null, null, "n"),
+				new Command(CommandValue.CONFIRM, "owner", null, null, null, "n") };
+		ColumnarTicketStore own = new ColumnarTicketStore();
+		long[] ids = new long[2000];
+		int n = 0;
+		for (int i = 0; i < 20000; i++) {
+			int op = random.nextInt(10);
+			if (n == 0 || op == 0) {
+				Ticket t = manager.createTicket(types[random.nextInt(2)], "Subject " + i, "caller" + (i % 7),
+						categories[random.nextInt(5)], priorities[random.nextInt(4)], "note");
+				own.add(t);
+				if (n < ids.length)
+					ids[n++] = t.getTicketId();
+			} else if (op == 1) {
+				int k = random.nextInt(n);
+				manager.removeTicket(ids[k]);
+				assertTrue(own.remove(ids[k]));
+				assertFalse(store.contains(ids[k]));
+				ids[k] = ids[--n];
+			} else {
+				long id = ids[random.nextInt(n)];
+				Command c = commands[random.nextInt(commands.length)];
+				assertEquals(manager.applyCommand(id, c), own.apply(id, c));
+			}
+		}
+		assertEquals(manager.size(), store.size());
+		assertEquals(manager.size(), own.size());
+		manager.forEach(t -> {
+			assertSameFields(t, store.get(t.getTicketId()));
+			assertSameFields(t, own.get(t.getTicketId()));
+		});
+		ColumnarTicketStore copy = ColumnarTicketStore.from(manager);
+		assertEquals(manager.size(), copy.size());
+		copy.forEach(v -> assertSameFields(manager.getTicket(v.getTicketId()), v));
+	}
+
+	/**
+	 * Test method for count(), countOwnedBy(), histogram() and select().
+	 */
+	@Test
+	public void testScans() {
+		long working = 0;
+		for (int i = 0; i < 40; i++) {
+			Ticket t = manager.createTicket(TicketType.INCIDENT, "Subject", "caller",
+					i % 2 == 0 ? Category.NETWORK : Category.DATABASE, Priority.values()[i % 4], "note");
+			if (i % 4 == 0) {
+				manager.applyCommand(t.getTicketId(), new Command(CommandValue.PROCESS, "alice", null, null, null, "n"));
+				working = t.getTicketId();
+			}
+		}
+		assertEquals(40, store.count(0, 0));
+		assertEquals(10, store.count(PackedTicket.STATE_MASK, TicketStateMachine.WORKING));
+		assertEquals(10, store.count(PackedTicket.STATE_MASK | PackedTicket.PRIORITY_MASK,
+				TicketStateMachine.WORKING | Priority.URGENT.ordinal() << PackedTicket.PRIORITY_SHIFT));
+		assertEquals(20, store.count(PackedTicket.CATEGORY_MASK,
+				Category.NETWORK.ordinal() << PackedTicket.CATEGORY_SHIFT));
+		TicketView v = store.get(working);
+		assertEquals(10, store.countOwnedBy(v.getOwnerHandle(), 0, 0));
+		int[] byPriority = store.histogram(PackedTicket.PRIORITY_MASK, PackedTicket.PRIORITY_SHIFT);
+		for (int i = 0; i < 4; i++)
+			assertEquals(10, byPriority[i]);
+		long[] selected = store.select(PackedTicket.STATE_MASK, TicketStateMachine.WORKING);
+		assertEquals(10, selected.length);
+		for (long id : selected)
+			assertEquals(Ticket.WORKING_NAME, store.get(id).getState());
+		assertNull(store.get(Long.MAX_VALUE));
+		assertEquals(CommandResult.NO_SUCH_TICKET,
+				store.apply(Long.MAX_VALUE, new Command(CommandValue.REOPEN, "x", null, null, null, "n")));
+	}
+}
@@ -0,0 +1,190 @@
+/**
+ * SlaMonitorTest.java
+ *
+ * Unit tests for SlaMonitor class methods.
+ *
+ * Written by: John-Michael Marquardt, jmmarquardt@gmail.com
+ */
+package com.jmmarquardt.svcticket.model.manager;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jmmarquardt.svcticket.model.command.Command;
+import com.jmmarquardt.svcticket.model.command.Command.CommandValue;
+import com.jmmarquardt.svcticket.model.command.Command.FeedbackCode;
+import com.jmmarquardt.svcticket.model.command.Command.ResolutionCode;
+import com.jmmarquardt.svcticket.model.manager.SlaMonitor.SlaEvent;
+import com.jmmarquardt.svcticket.model.ticket.Ticket;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Category;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Priority;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.TicketType;
+
+/**
+ * @author John-Michael Marquardt
+ *
+ */
+public class SlaMonitorTest {
+
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	private TicketManager manager;
+	private AtomicLong now;
+	private SlaMonitor monitor;
+	private List<String> events;
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		manager = new TicketManager(4);
+		now = new AtomicLong(5 * SECOND);
+		monitor = new SlaMonitor(manager, SECOND, now::get);
+		monitor.setFeedbackTimeout(FeedbackCode.AWAITING_CALLER, 60, TimeUnit.SECONDS);
+		monitor.setConfirmDelay(2, TimeUnit.MINUTES);
+		monitor.setUrgentTimeout(30, TimeUnit.SECONDS);
+		events = new ArrayList<String>();
+		monitor.addSlaListener((id, event) -> events.add(id + ":" + event));
+		manager.addTicketListener(monitor);
+	}
+
+	/**
+	 * Moves the clock forward and advances the monitor.
+	 */
+	private int advance(long seconds) {
+		now.addAndGet(seconds * SECOND);
+		return monitor.advance();
+	}
+
+	/**
+	 * Applies a Command that must succeed.
+	 */
+	private void apply(long id, CommandValue value, FeedbackCode feedback, ResolutionCode resolution) {
+		manager.executeCommand(id, new Command(value, "owner", feedback, resolution, null, "n"));
+	}
+
+	/**
+	 * Test the Feedback timeout, the urgent timeout and automatic confirmation.
+	 */
+	@Test
+	public void testTimers() {
+		long urgent = manager.createTicket(TicketType.INCIDENT, "s", "c", Category.NETWORK, Priority.URGENT, "n")
+				.getTicketId();
+		long low = manager.createTicket(TicketType.REQUEST, "s", "c", Category.INQUIRY, Priority.LOW, "n")
+				.getTicketId();
+		assertEquals(1, monitor.size());
+
+		apply(low, CommandValue.PROCESS, null, null);
+		apply(low, CommandValue.FEEDBACK, FeedbackCode.AWAITING_CALLER, null);
+		assertEquals(0, advance(29));
+		assertEquals(1, advance(1));
+		assertEquals(Arrays.asList(urgent + ":URGENT_BREACH"), events);
+
+		// leaving Feedback cancels its timer; returning restarts it
+		advance(20);
+		apply(low, CommandValue.REOPEN, null, null);
+		apply(low, CommandValue.FEEDBACK, FeedbackCode.AWAITING_CALLER, null);
+		assertEquals(0, advance(59));
+		assertEquals(1, advance(1));
+		assertEquals(low + ":FEEDBACK_BREACH", events.get(1));
+
+		apply(low, CommandValue.REOPEN, null, null);
+		apply(low, CommandValue.RESOLVE, null, ResolutionCode.COMPLETED);
+		assertEquals(0, advance(119));
+		assertEquals(1, advance(1));
+		assertEquals(low + ":AUTO_CONFIRMED", events.get(2));
+		Ticket t = manager.getTicket(low);
+		assertEquals(Ticket.CLOSED_NAME, t.getState());
+		assertEquals(SlaMonitor.AUTO_CONFIRM_NOTE, t.getNotes().get(t.getNoteCount() - 1));
+		assertEquals(0, monitor.size());
+	}
+
+	/**
+	 * Test that resolving or removing tickets cancels their timers, and that a
+	 * reopened Urgent ticket is timed again.
+	 */
+	@Test
+	public void testCancel() {
+		long a = manager.createTicket(TicketType.INCIDENT, "s", "c", Category.NETWORK, Priority.URGENT, "n")
+				.getTicketId();
+		long b = manager.createTicket(TicketType.INCIDENT, "s", "c", Category.NETWORK, Priority.URGENT, "n")
+				.getTicketId();
+		apply(a, CommandValue.PROCESS, null, null);
+		apply(a, CommandValue.RESOLVE, null, ResolutionCode.SOLVED);
+		manager.removeTicket(b);
+		assertEquals(1, monitor.size());
+		apply(a, CommandValue.REOPEN, null, null);
+		assertEquals(1, monitor.size());
+		assertEquals(0, advance(29));
+		assertEquals(1, advance(10));
+		assertEquals(Arrays.asList(a + ":URGENT_BREACH"), events);
+
+		// load() times tickets created before the monitor was registered
+		manager.removeTicketListener(monitor);
+		manager.createTicket(TicketType.INCIDENT, "s", "c", Category.NETWORK, Priority.URGENT, "n");
+		SlaMonitor other = new SlaMonitor(manager, SECOND, now::get);
+		other.setUrgentTimeout(1, TimeUnit.SECONDS);
+		other.load();
+		assertEquals(2, other.size());
+	}
+
+	/**
+	 * Test that load() keeps the timers of a ticket added between registering
+	 * the monitor and calling load(), rather than scheduling them twice.
+	 */
+	@Test
+	public void testLoadAfterRegister() {
+		long id = manager.createTicket(TicketType.REQUEST, "s", "c", Category.INQUIRY, Priority.URGENT, "n")
+				.getTicketId();
+		apply(id, CommandValue.PROCESS, null, null);
+		apply(id, CommandValue.FEEDBACK, FeedbackCode.AWAITING_CALLER, null);
+		assertEquals(2, monitor.size());
+		advance(20);
+		monitor.load();
+		assertEquals(2, monitor.size());
+		assertEquals(0, advance(9));
+		assertEquals(1, advance(1));
+		assertEquals(0, advance(29));
+		assertEquals(1, advance(1));
+		assertEquals(0, advance(120));
+		assertEquals(Arrays.asList(id + ":URGENT_BREACH", id + ":FEEDBACK_BREACH"), events);
+	}
+
+	/**
+	 * Test that a confirmation timer that fired before its ticket was reopened
+	 * and resolved again does not close the ticket early.
+	 */
+	@Test
+	public void testStaleConfirm() {
+		long resolved = manager.createTicket(TicketType.REQUEST, "s", "c", Category.INQUIRY, Priority.LOW, "n")
+				.getTicketId();
+		apply(resolved, CommandValue.PROCESS, null, null);
+		apply(resolved, CommandValue.RESOLVE, null, ResolutionCode.COMPLETED);
+		advance(60);
+		long urgent = manager.createTicket(TicketType.INCIDENT, "s", "c", Category.NETWORK, Priority.URGENT, "n")
+				.getTicketId();
+		// the urgent breach fires first and resolves the ticket again before its
+		// first confirmation timer, fired in the same advance(), is applied
+		monitor.addSlaListener((id, event) -> {
+			if (id == urgent) {
+				apply(resolved, CommandValue.REOPEN, null, null);
+				apply(resolved, CommandValue.RESOLVE, null, ResolutionCode.COMPLETED);
+			}
+		});
+		assertEquals(2, advance(100));
+		assertEquals(Arrays.asList(urgent + ":URGENT_BREACH"), events);
+		assertEquals(Ticket.RESOLVED_NAME, manager.getTicket(resolved).getState());
+		assertEquals(0, advance(119));
+		assertEquals(1, advance(1));
+		assertEquals(Ticket.CLOSED_NAME, manager.getTicket(resolved).getState());
+	}
+}
@@ -0,0 +1,143 @@
+/**
+ * TicketDispatcherTest.java
+ *
+ * Unit tests for TicketDispatcher class methods.
+ *
+ * Written by: John-Michael Marquardt, jmmarquardt@gmail.com
+ */
+package com.jmmarquardt.svcticket.model.manager;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jmmarquardt.svcticket.model.command.Command;
+import com.jmmarquardt.svcticket.model.command.Command.CancellationCode;
+import com.jmmarquardt.svcticket.model.command.Command.CommandValue;
+import com.jmmarquardt.svcticket.model.ticket.Ticket;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Category;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Priority;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.TicketType;
+
+/**
+ * @author John-Michael Marquardt
+ *
+ */
+public class TicketDispatcherTest {
+
+	private TicketManager manager;
+	private AtomicLong now;
+	private TicketDispatcher dispatcher;
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		manager = new TicketManager(4);
+		now = new AtomicLong();
+		dispatcher = new TicketDispatcher(manager, 100, now::get);
+		manager.addTicketListener(dispatcher);
+	}
+
+	/**
+	 * Creates a New ticket.
+	 */
+	private long create(Category category, Priority priority) {
+		return manager.createTicket(TicketType.INCIDENT, "s", "c", category, priority, "n").getTicketId();
+	}
+
+	/**
+	 * Test that tickets are dispatched by priority, then in arrival order, and
+	 * that tickets leaving New another way are skipped.
+	 */
+	@Test
+	public void testDispatchOrder() {
+		long low = create(Category.NETWORK, Priority.LOW);
+		long high1 = create(Category.SOFTWARE, Priority.HIGH);
+		long urgent = create(Category.NETWORK, Priority.URGENT);
+		long high2 = create(Category.NETWORK, Priority.HIGH);
+		long canceled = create(Category.HARDWARE, Priority.URGENT);
+		long removed = create(Category.HARDWARE, Priority.URGENT);
+		assertEquals(6, dispatcher.size());
+		assertEquals(2, dispatcher.size(Category.HARDWARE, Priority.URGENT));
+
+		manager.applyCommand(canceled,
+				new Command(CommandValue.CANCEL, null, null, null, CancellationCode.DUPLICATE, "dup"));
+		manager.removeTicket(removed);
+		assertEquals(0, dispatcher.size(Category.HARDWARE, Priority.URGENT));
+		assertEquals(4, dispatcher.size());
+
+		assertEquals(high1, dispatcher.dispatch("sw", Category.SOFTWARE));
+		assertEquals(urgent, dispatcher.dispatch("a"));
+		Ticket t = manager.getTicket(urgent);
+		assertEquals(Ticket.WORKING_NAME, t.getState());
+		assertEquals("a", t.getOwner());
+		assertEquals(TicketDispatcher.NONE, dispatcher.dispatch("sw", Category.SOFTWARE));
+		assertEquals(high2, dispatcher.dispatch("b"));
+		assertEquals(low, dispatcher.dispatch("c"));
+		assertEquals(TicketDispatcher.NONE, dispatcher.dispatch("d"));
+		assertEquals(0, dispatcher.size());
+	}
+
+	/**
+	 * Test that a waiting LOW ticket ages ahead of newer URGENT tickets.
+	 */
+	@Test
+	public void testAging() {
+		long low = create(Category.DATABASE, Priority.LOW);
+		now.set(250);
+		long urgent = create(Category.DATABASE, Priority.URGENT);
+		long medium = create(Category.INQUIRY, Priority.MEDIUM);
+		// LOW has aged two levels, to HIGH: URGENT still goes first
+		assertEquals(urgent, dispatcher.dispatch("a"));
+		assertEquals(low, dispatcher.dispatch("a"));
+		now.set(300);
+		long urgent2 = create(Category.DATABASE, Priority.URGENT);
+		now.set(500);
+		// MEDIUM has aged to URGENT and waited longer than urgent2
+		assertEquals(medium, dispatcher.dispatch("a"));
+		assertEquals(urgent2, dispatcher.dispatch("a"));
+	}
+
+	/**
+	 * Test that load() queues existing New tickets, and that concurrent agents
+	 * never take the same ticket.
+	 */
+	@Test
+	public void testConcurrentDispatch() throws Exception {
+		manager.removeTicketListener(dispatcher);
+		for (int i = 0; i < 2000; i++)
+			create(Category.values()[i % 5], Priority.values()[i % 4]);
+		dispatcher = new TicketDispatcher(manager, 100, now::get);
+		manager.addTicketListener(dispatcher);
+		dispatcher.load();
+		assertEquals(2000, dispatcher.size());
+
+		ConcurrentHashMap<Long, String> taken = new ConcurrentHashMap<Long, String>();
+		AtomicInteger duplicates = new AtomicInteger();
+		Thread[] agents = new Thread[8];
+		for (int a = 0; a < agents.length; a++) {
+			String owner = "agent" + a;
+			agents[a] = new Thread(() -> {
+				long id;
+				while ((id = dispatcher.dispatch(owner)) != TicketDispatcher.NONE)
+					if (taken.put(id, owner) != null)
+						duplicates.incrementAndGet();
+			});
+			agents[a].start();
+		}
+		for (Thread t : agents)
+			t.join();
+		assertEquals(0, duplicates.get());
+		assertEquals(2000, taken.size());
+		for (Map.Entry<Long, String> e : taken.entrySet())
+			assertEquals(e.getValue(), manager.getTicket(e.getKey()).getOwner());
+	}
+}
@@ -0,0 +1,132 @@
+/**
+ * TicketHistoryTest.java
+ *
+ * Unit tests for TicketHistory class methods.
+ *
+ * Written by: John-Michael Marquardt, jmmarquardt@gmail.com
+ */
+package com.jmmarquardt.svcticket.model.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jmmarquardt.svcticket.model.command.Command;
+import com.jmmarquardt.svcticket.model.command.Command.CommandValue;
+import com.jmmarquardt.svcticket.model.command.Command.FeedbackCode;
+import com.jmmarquardt.svcticket.model.command.Command.ResolutionCode;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Category;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Priority;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.TicketType;
+import com.jmmarquardt.svcticket.model.ticket.TicketStateMachine;
+
+/**
+ * @author John-Michael Marquardt
+ *
+ */
+public class TicketHistoryTest {
+
+	private static final long START = 1_700_000_000_000L;
+
+	private TicketManager manager;
+	private AtomicLong now;
+	private TicketHistory history;
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		manager = new TicketManager(4);
+		now = new AtomicLong(START);
+		history = new TicketHistory(now::get);
+		manager.addTicketListener(history);
+	}
+
+	/**
+	 * Moves the clock forward and applies a Command that must succeed.
+	 */
+	private void apply(long millis, long id, CommandValue value, String owner, FeedbackCode feedback,
+			ResolutionCode resolution) {
+		now.addAndGet(millis);
+		manager.executeCommand(id, new Command(value, owner, feedback, resolution, null, "n"));
+	}
+
+	/**
+	 * Test the state and owner of a ticket at points in its history, and the
+	 * Commands recovered from its transitions.
+	 */
+	@Test
+	public void testTimeTravel() {
+		long id = manager.createTicket(TicketType.INCIDENT, "s", "c", Category.NETWORK, Priority.HIGH, "n")
+				.getTicketId();
+		apply(1000, id, CommandValue.PROCESS, "alice", null, null);
+		apply(2000, id, CommandValue.FEEDBACK, null, FeedbackCode.AWAITING_CALLER, null);
+		apply(3000, id, CommandValue.REOPEN, null, null, null);
+		apply(4000, id, CommandValue.RESOLVE, null, null, ResolutionCode.SOLVED);
+
+		assertEquals(TicketHistory.NO_STATE, history.stateAt(id, START - 1));
+		assertNull(history.ownerAt(id, START - 1));
+		assertEquals(TicketStateMachine.NEW, history.stateAt(id, START));
+		assertEquals("", history.ownerAt(id, START + 999));
+		assertEquals(TicketStateMachine.WORKING, history.stateAt(id, START + 1000));
+		assertEquals("alice", history.ownerAt(id, START + 2999));
+		assertEquals(TicketStateMachine.FEEDBACK, history.stateAt(id, START + 3000));
+		assertEquals(TicketStateMachine.WORKING, history.stateAt(id, START + 6000));
+		assertEquals("alice", history.ownerAt(id, START + 6000));
+		assertEquals(TicketStateMachine.RESOLVED, history.stateAt(id, START + 10000));
+		assertEquals("alice", history.ownerAt(id, Long.MAX_VALUE));
+		assertEquals(TicketHistory.NO_STATE, history.stateAt(id + 1, START));
+
+		List<String> entries = new ArrayList<String>();
+		assertTrue(history.visit(id,
+				(time, command, state, code, owner) -> entries.add((time - START) + " " + command + " " + state + " " + code)));
+		assertEquals(Arrays.asList("0 null 0 -1", "1000 PROCESS 1 -1", "3000 FEEDBACK 2 0", "6000 REOPEN 1 -1",
+				"10000 RESOLVE 3 " + ResolutionCode.SOLVED.ordinal()), entries);
+		assertFalse(history.visit(id + 1, (time, command, state, code, owner) -> entries.clear()));
+
+		// the entries take a few bytes each; the first holds the absolute time
+		assertTrue(history.getEncodedSize() < 25);
+
+		// history is kept after removal
+		manager.removeTicket(id);
+		assertEquals(1, history.size());
+		assertEquals(TicketStateMachine.RESOLVED, history.stateAt(id, Long.MAX_VALUE));
+	}
+
+	/**
+	 * Test the mean time in Feedback by FeedbackCode.
+	 */
+	@Test
+	public void testMeanTimeInFeedback() {
+		long a = manager.createTicket(TicketType.REQUEST, "s", "c", Category.INQUIRY, Priority.LOW, "n")
+				.getTicketId();
+		long b = manager.createTicket(TicketType.REQUEST, "s", "c", Category.INQUIRY, Priority.LOW, "n")
+				.getTicketId();
+		apply(0, a, CommandValue.PROCESS, "alice", null, null);
+		apply(0, b, CommandValue.PROCESS, "bob", null, null);
+		apply(100, a, CommandValue.FEEDBACK, null, FeedbackCode.AWAITING_CALLER, null);
+		apply(0, b, CommandValue.FEEDBACK, null, FeedbackCode.AWAITING_CALLER, null);
+		apply(1000, a, CommandValue.REOPEN, null, null, null);
+		apply(2000, b, CommandValue.RESOLVE, null, null, ResolutionCode.COMPLETED);
+		apply(0, a, CommandValue.FEEDBACK, null, FeedbackCode.AWAITING_PROVIDER, null);
+		apply(500, a, CommandValue.RESOLVE, null, null, ResolutionCode.COMPLETED);
+		// an open stay is not counted
+		apply(0, b, CommandValue.FEEDBACK, null, FeedbackCode.AWAITING_PROVIDER, null);
+		now.addAndGet(100000);
+
+		double[] mean = history.getMeanTimeInFeedback();
+		assertEquals(2000.0, mean[FeedbackCode.AWAITING_CALLER.ordinal()], 0.0);
+		assertTrue(Double.isNaN(mean[FeedbackCode.AWAITING_CHANGE.ordinal()]));
+		assertEquals(500.0, mean[FeedbackCode.AWAITING_PROVIDER.ordinal()], 0.0);
+	}
+}
@@ -0,0 +1,276 @@
+/**
+ * TicketManagerTest.java
+ *
+ * Unit tests for TicketManager class methods.
+ *
+ * Written by: John-Michael Marquardt, jmmarquardt@gmail.com
+ */
+package com.jmmarquardt.svcticket.model.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jmmarquardt.svcticket.model.command.Command;
+import com.jmmarquardt.svcticket.model.command.Command.CancellationCode;
+import com.jmmarquardt.svcticket.model.command.Command.CommandValue;
+import com.jmmarquardt.svcticket.model.command.Command.ResolutionCode;
+import com.jmmarquardt.svcticket.model.ticket.CommandResult;
+import com.jmmarquardt.svcticket.model.ticket.Ticket;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Category;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Priority;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.TicketType;
+
+/**
+ * @author John-Michael Marquardt
+ *
+ */
+public class TicketManagerTest {
+
+	private TicketManager manager;
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		manager = new TicketManager(4);
+	}
+
+	/**
+	 * Creates a new Incident ticket in the manager.
+	 */
+	private Ticket create() {
+		return manager.createTicket(TicketType.INCIDENT, "Subject", "caller", Category.HARDWARE, Priority.HIGH,
+				"note");
+	}
+
+	/**
+	 * Test method for addTicket(Ticket), getTicket(long) and removeTicket(long).
+	 */
+	@Test
+	public void testAddGetRemove() {
+		Random random = new Random(216);
+		Map<Long, Ticket> expected = new HashMap<Long, Ticket>();
+		List<Long> ids = new ArrayList<Long>();
+		for (int i = 0; i < 5000; i++) {
+			if (ids.isEmpty() || random.nextInt(3) > 0) {
+				Ticket t = create();
+				expected.put(t.getTicketId(), t);
+				ids.add(t.getTicketId());
+			} else {
+				long id = ids.remove(random.nextInt(ids.size()));
+				assertSame(expected.remove(id), manager.removeTicket(id));
+				assertNull(manager.getTicket(id));
+			}
+		}
+		assertEquals(expected.size(), manager.size());
+		for (Map.Entry<Long, Ticket> e : expected.entrySet())
+			assertSame(e.getValue(), manager.getTicket(e.getKey()));
+
+		try {
+			manager.addTicket(expected.values().iterator().next());
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals(expected.size(), manager.size());
+		}
+	}
+
+	/**
+	 * Test method for applyCommand(long, Command) and executeCommand(long,
+	 * Command).
+	 */
+	@Test
+	public void testApplyCommand() {
+		Ticket t = create();
+		Command process = new Command(CommandValue.PROCESS, "owner", null, null, null, null);
+		assertEquals(CommandResult.NO_SUCH_TICKET, manager.applyCommand(t.getTicketId() + 1000, process));
+		assertEquals(CommandResult.APPLIED, manager.applyCommand(t.getTicketId(), process));
+		assertEquals(Ticket.WORKING_NAME, t.getState());
+		try {
+			manager.executeCommand(t.getTicketId(), process);
+			fail();
+		} catch (UnsupportedOperationException e) {
+			assertEquals("owner", t.getOwner());
+		}
+	}
+
+	/**
+	 * Test method for addTicketListener(TicketListener).
+	 */
+	@Test
+	public void testListener() {
+		final int[] counts = new int[3];
+		manager.addTicketListener(new TicketListener() {
+			@Override
+			public void ticketAdded(Ticket ticket) {
+				counts[0]++;
+			}
+
+			@Override
+			public void ticketUpdated(Ticket ticket, int previousState, String previousOwner) {
+				assertEquals("", previousOwner);
+				counts[1]++;
+			}
+
+			@Override
+			public void ticketRemoved(Ticket ticket) {
+				counts[2]++;
+			}
+		});
+		Ticket t = create();
+		manager.applyCommand(t.getTicketId(), new Command(CommandValue.PROCESS, "owner", null, null, null, null));
+		manager.applyCommand(t.getTicketId(), new Command(CommandValue.CONFIRM, "owner", null, null, null, null));
+		manager.removeTicket(t.getTicketId());
+		assertEquals(1, counts[0]);
+		assertEquals(1, counts[1]);
+		assertEquals(1, counts[2]);
+	}
+
+	/**
+	 * Test method for applyBatch(CommandBatch).
+	 */
+	@Test
+	public void testApplyBatch() {
+		final int[] logged = new int[2];
+		manager.addCommandLog(new CommandLog() {
+			@Override
+			public void ticketCreated(Ticket ticket) {
+			}
+
+			@Override
+			public void commandApplied(long ticketId, Command command) {
+				fail();
+			}
+
+			@Override
+			public void commandsApplied(long[] ticketIds, Command[] commands, int[] indexes, int count) {
+				logged[0]++;
+				logged[1] += count;
+			}
+		});
+		List<Ticket> tickets = new ArrayList<Ticket>();
+		CommandBatch batch = new CommandBatch(2);
+		for (int i = 0; i < 100; i++) {
+			Ticket t = create();
+			tickets.add(t);
+			batch.add(t.getTicketId(), new Command(CommandValue.PROCESS, "owner", null, null, null, null));
+			batch.add(t.getTicketId(),
+					new Command(CommandValue.RESOLVE, "owner", null, ResolutionCode.COMPLETED, null, null));
+			batch.add(t.getTicketId(),
+					new Command(CommandValue.CANCEL, "owner", null, null, CancellationCode.DUPLICATE, null));
+		}
+		batch.add(-1, new Command(CommandValue.CONFIRM, "owner", null, null, null, null));
+
+		CommandResult[] results = manager.applyBatch(batch);
+		assertEquals(301, results.length);
+		for (int i = 0; i < 100; i++) {
+			assertEquals(CommandResult.APPLIED, results[3 * i]);
+			// Completed is a Request resolution, so the Incident stays Working
+			assertEquals(CommandResult.INVALID_CODE, results[3 * i + 1]);
+			assertEquals(CommandResult.APPLIED, results[3 * i + 2]);
+			assertEquals(Ticket.CANCELED_NAME, tickets.get(i).getState());
+		}
+		assertEquals(CommandResult.NO_SUCH_TICKET, results[300]);
+		assertEquals(200, logged[1]);
+		assertEquals(manager.getShardCount(), logged[0]);
+	}
+
+	/**
+	 * Test method for applyEncoded(long, long, String) and applyEncoded(long[],
+	 * long[], String[]).
+	 */
+	@Test
+	public void testApplyEncoded() {
+		final List<Command> logged = new ArrayList<Command>();
+		final List<Long> loggedIds = new ArrayList<Long>();
+		manager.addCommandLog(new CommandLog() {
+			@Override
+			public void ticketCreated(Ticket ticket) {
+			}
+
+			@Override
+			public void commandApplied(long ticketId, Command command) {
+				logged.add(command);
+				loggedIds.add(ticketId);
+			}
+		});
+		Ticket t = create();
+		long process = Command.encode(CommandValue.PROCESS, "agent", -1);
+		assertEquals(CommandResult.APPLIED, manager.applyEncoded(t.getTicketId(), process, "taken"));
+		assertEquals("agent", t.getOwner());
+		assertEquals("taken", t.getNotes().get(1));
+		assertEquals(CommandResult.INVALID_TRANSITION, manager.applyEncoded(t.getTicketId(), process, null));
+		assertEquals(CommandResult.NO_SUCH_TICKET, manager.applyEncoded(-1, process, null));
+		assertEquals(1, logged.size());
+		assertEquals("agent", logged.get(0).getOwnerId());
+
+		Ticket u = create();
+		long solve = Command.encode(CommandValue.RESOLVE, (String) null, ResolutionCode.SOLVED.ordinal());
+		long[] ids = { t.getTicketId(), u.getTicketId(), u.getTicketId(), t.getTicketId() };
+		long[] commands = { solve, process, solve, Command.CONFIRM.encode() };
+		CommandResult[] results = manager.applyEncoded(ids, commands, null);
+		for (CommandResult r : results)
+			assertEquals(CommandResult.APPLIED, r);
+		assertEquals(Ticket.CLOSED_NAME, t.getState());
+		assertEquals(Ticket.RESOLVED_NAME, u.getState());
+		assertEquals(5, logged.size());
+		// the logs see the batch in shard order, so only per-ticket order holds
+		assertSame(Command.CONFIRM, logged.get(loggedIds.lastIndexOf(t.getTicketId())));
+		assertEquals(CommandValue.RESOLVE, logged.get(loggedIds.lastIndexOf(u.getTicketId())).getCommandValue());
+		try {
+			manager.applyEncoded(ids, new long[] { solve, solve, solve, -1L }, null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals(Ticket.RESOLVED_NAME, u.getState());
+		}
+	}
+
+	/**
+	 * Test method for compareAndApply(long, long, Command): of two Commands
+	 * based on the same version, racing from two threads, exactly one is
+	 * applied.
+	 */
+	@Test
+	public void testCompareAndApply() throws Exception {
+		Ticket t = create();
+		assertEquals(0, t.getVersion());
+		Command process = new Command(CommandValue.PROCESS, "agent", null, null, null, null);
+		assertEquals(CommandResult.APPLIED, manager.compareAndApply(t.getTicketId(), 0, process));
+		assertEquals(1, t.getVersion());
+		Command resolve = new Command(CommandValue.RESOLVE, null, null, ResolutionCode.SOLVED, null, "fixed");
+		assertEquals(CommandResult.CONFLICT, manager.compareAndApply(t.getTicketId(), 0, resolve));
+		assertEquals(CommandResult.INVALID_TRANSITION, manager.compareAndApply(t.getTicketId(), 1, process));
+		assertEquals(1, t.getVersion());
+		assertEquals(CommandResult.NO_SUCH_TICKET, manager.compareAndApply(-1, 0, process));
+
+		Command cancel = new Command(CommandValue.CANCEL, null, null, null, CancellationCode.DUPLICATE, "dup");
+		for (int round = 0; round < 200; round++) {
+			Ticket u = create();
+			manager.executeCommand(u.getTicketId(), process);
+			long version = u.getVersion();
+			CommandResult[] results = new CommandResult[2];
+			Thread a = new Thread(() -> results[0] = manager.compareAndApply(u.getTicketId(), version, resolve));
+			Thread b = new Thread(() -> results[1] = manager.compareAndApply(u.getTicketId(), version, cancel));
+			a.start();
+			b.start();
+			a.join();
+			b.join();
+			int winner = results[0] == CommandResult.APPLIED ? 0 : 1;
+			assertEquals(CommandResult.APPLIED, results[winner]);
+			assertEquals(CommandResult.CONFLICT, results[1 - winner]);
+			assertEquals(version + 1, u.getVersion());
+			assertEquals(2, u.getNoteCount());
+		}
+	}
+}
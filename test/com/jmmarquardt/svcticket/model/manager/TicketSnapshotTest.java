@@ -0,0 +1,210 @@
+/**
+ * TicketSnapshotTest.java
+ *
+ * Unit tests for TicketSnapshot class methods.
+ *
+ * Written by: John-Michael Marquardt, jmmarquardt@gmail.com
+ */
+package com.jmmarquardt.svcticket.model.manager;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jmmarquardt.svcticket.model.command.Command;
+import com.jmmarquardt.svcticket.model.command.Command.CommandValue;
+import com.jmmarquardt.svcticket.model.command.Command.ResolutionCode;
+import com.jmmarquardt.svcticket.model.ticket.CommandResult;
+import com.jmmarquardt.svcticket.model.ticket.Ticket;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Category;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Priority;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.TicketType;
+import com.jmmarquardt.svcticket.model.ticket.TicketStateMachine;
+import com.jmmarquardt.svcticket.model.ticket.TicketView;
+
+/**
+ * @author John-Michael Marquardt
+ *
+ */
+public class TicketSnapshotTest {
+
+	private TicketManager manager;
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		manager = new TicketManager(4);
+	}
+
+	/**
+	 * Creates a new Incident ticket in the manager.
+	 */
+	private long create() {
+		return manager.createTicket(TicketType.INCIDENT, "Subject", "caller", Category.HARDWARE, Priority.HIGH, "note")
+				.getTicketId();
+	}
+
+	/**
+	 * Returns the ids of the tickets in the snapshot.
+	 */
+	private static Set<Long> ids(TicketSnapshot snapshot) {
+		Set<Long> ids = new HashSet<Long>();
+		snapshot.forEach(t -> assertTrue(ids.add(t.getTicketId())));
+		return ids;
+	}
+
+	/**
+	 * Test that a snapshot does not see Commands, adds and removes made after it
+	 * was opened, while the manager does.
+	 */
+	@Test
+	public void testPointInTime() {
+		long a = create();
+		long b = create();
+		long c = create();
+		manager.applyCommand(b, new Command(CommandValue.PROCESS, "amy", null, null, null, null));
+
+		TicketSnapshot snapshot = manager.openSnapshot();
+		manager.applyCommand(a, new Command(CommandValue.PROCESS, "zed", null, null, null, null));
+		manager.applyCommand(b, new Command(CommandValue.RESOLVE, null, null, ResolutionCode.SOLVED, null, "done"));
+		manager.removeTicket(c);
+		long d = create();
+
+		TicketView va = snapshot.getTicket(a);
+		assertEquals(TicketStateMachine.NEW, va.getStateId());
+		assertEquals("", va.getOwner());
+		TicketView vb = snapshot.getTicket(b);
+		assertEquals(TicketStateMachine.WORKING, vb.getStateId());
+		assertEquals("amy", vb.getOwner());
+		assertNull(vb.getResolutionCode());
+		assertNotNull(snapshot.getTicket(c));
+		assertNull(snapshot.getTicket(d));
+		assertEquals(new HashSet<Long>(List.of(a, b, c)), ids(snapshot));
+
+		assertEquals(TicketStateMachine.RESOLVED, manager.getTicket(b).getStateId());
+		try (TicketSnapshot later = manager.openSnapshot()) {
+			assertEquals(new HashSet<Long>(List.of(a, b, d)), ids(later));
+			assertEquals("zed", later.getTicket(a).getOwner());
+		}
+		snapshot.close();
+		assertTrue(snapshot.isClosed());
+		try {
+			snapshot.getTicket(a);
+			fail("A closed snapshot should not be readable.");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Test that the versions kept for a snapshot are discarded once no open
+	 * snapshot can see them.
+	 */
+	@Test
+	public void testVersionsDiscarded() {
+		long a = create();
+		long b = create();
+		assertEquals(0, manager.versionCount());
+
+		TicketSnapshot first = manager.openSnapshot();
+		manager.applyCommand(a, new Command(CommandValue.PROCESS, "amy", null, null, null, null));
+		TicketSnapshot second = manager.openSnapshot();
+		manager.applyCommand(b, new Command(CommandValue.PROCESS, "amy", null, null, null, null));
+		assertEquals(2, manager.versionCount());
+
+		first.close();
+		assertEquals(1, manager.versionCount());
+		assertEquals(TicketStateMachine.WORKING, second.getTicket(a).getStateId());
+		assertEquals(TicketStateMachine.NEW, second.getTicket(b).getStateId());
+		second.close();
+		second.close();
+		assertEquals(0, manager.versionCount());
+
+		manager.applyCommand(a, new Command(CommandValue.RESOLVE, null, null, ResolutionCode.SOLVED, null, "done"));
+		assertEquals(0, manager.versionCount());
+	}
+
+	/**
+	 * Test that a rejected Command does not keep a version for an open snapshot,
+	 * singly or in a batch, and does not drop one kept by an applied Command.
+	 */
+	@Test
+	public void testRejectedNotKept() {
+		long a = create();
+		long b = create();
+		Command resolve = new Command(CommandValue.RESOLVE, null, null, ResolutionCode.SOLVED, null, "done");
+		Command process = new Command(CommandValue.PROCESS, "amy", null, null, null, null);
+
+		try (TicketSnapshot snapshot = manager.openSnapshot()) {
+			assertEquals(CommandResult.INVALID_TRANSITION, manager.applyCommand(a, resolve));
+			manager.applyCommands(new long[] { a, b }, new Command[] { resolve, resolve });
+			assertEquals(0, manager.versionCount());
+
+			manager.applyCommands(new long[] { a, a }, new Command[] { process, process });
+			assertEquals(1, manager.versionCount());
+			assertEquals(TicketStateMachine.NEW, snapshot.getTicket(a).getStateId());
+		}
+		assertEquals(0, manager.versionCount());
+	}
+
+	/**
+	 * Test that repeated scans of one snapshot see the same counts while
+	 * Commands are applied concurrently.
+	 */
+	@Test
+	public void testConsistentUnderWrites() throws Exception {
+		List<Long> ids = new ArrayList<Long>();
+		for (int i = 0; i < 2000; i++)
+			ids.add(create());
+		AtomicBoolean stop = new AtomicBoolean();
+		Thread writer = new Thread(() -> {
+			for (int i = 0; !stop.get(); i = (i + 1) % ids.size()) {
+				Ticket t = manager.getTicket(ids.get(i));
+				if (t == null)
+					ids.set(i, create());
+				else if (t.getStateId() == TicketStateMachine.NEW)
+					manager.applyCommand(t.getTicketId(),
+							new Command(CommandValue.PROCESS, "amy", null, null, null, null));
+				else
+					manager.removeTicket(t.getTicketId());
+			}
+		});
+		writer.start();
+		try {
+			for (int round = 0; round < 20; round++) {
+				try (TicketSnapshot snapshot = manager.openSnapshot()) {
+					int[] first = countByState(snapshot);
+					for (int scan = 0; scan < 3; scan++)
+						assertArrayEquals(first, countByState(snapshot));
+				}
+			}
+		} finally {
+			stop.set(true);
+			writer.join();
+		}
+		assertEquals(0, manager.versionCount());
+	}
+
+	/**
+	 * Counts the tickets of the snapshot in each state.
+	 */
+	private static int[] countByState(TicketSnapshot snapshot) {
+		int[] counts = new int[TicketStateMachine.STATE_COUNT];
+		snapshot.forEach(t -> counts[t.getStateId()]++);
+		return counts;
+	}
+}
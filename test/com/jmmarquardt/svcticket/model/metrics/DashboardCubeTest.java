@@ -0,0 +1,122 @@
+/**
+ * DashboardCubeTest.java
+ *
+ * Unit tests for DashboardCube class methods.
+ *
+ * Written by: John-Michael Marquardt, jmmarquardt@gmail.com
+ */
+package com.jmmarquardt.svcticket.model.metrics;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.jmmarquardt.svcticket.model.command.Command;
+import com.jmmarquardt.svcticket.model.command.Command.CommandValue;
+import com.jmmarquardt.svcticket.model.command.Command.ResolutionCode;
+import com.jmmarquardt.svcticket.model.manager.TicketManager;
+import com.jmmarquardt.svcticket.model.ticket.Ticket;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Category;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Priority;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.TicketType;
+import com.jmmarquardt.svcticket.model.ticket.TicketStateMachine;
+
+/**
+ * @author John-Michael Marquardt
+ *
+ */
+public class DashboardCubeTest {
+
+	/**
+	 * Test that the cube follows adds, state changes and removes, and agrees
+	 * with a scan of the manager.
+	 */
+	@Test
+	public void testCounts() {
+		TicketManager manager = new TicketManager(4);
+		DashboardCube cube = new DashboardCube();
+		manager.addTicketListener(cube);
+		Random random = new Random(22);
+		long[] ids = new long[1000];
+		for (int i = 0; i < ids.length; i++)
+			ids[i] = manager.createTicket(TicketType.values()[random.nextInt(2)], "s", "c",
+					Category.values()[random.nextInt(5)], Priority.values()[random.nextInt(4)], "n").getTicketId();
+		for (int i = 0; i < ids.length; i += 2)
+			manager.applyCommand(ids[i], new Command(CommandValue.PROCESS, "o", null, null, null, null));
+		for (int i = 0; i < ids.length; i += 4)
+			manager.applyCommand(ids[i], new Command(CommandValue.RESOLVE, null, null, ResolutionCode.SOLVED, null, "n"));
+		for (int i = 0; i < ids.length; i += 5)
+			manager.removeTicket(ids[i]);
+
+		long[] expected = new long[TicketStateMachine.STATE_COUNT];
+		long[] networkUrgent = new long[TicketStateMachine.STATE_COUNT];
+		manager.forEach((Ticket t) -> {
+			expected[t.getStateId()]++;
+			if (t.getCategory() == Category.NETWORK && t.getPriority() == Priority.URGENT)
+				networkUrgent[t.getStateId()]++;
+		});
+		assertArrayEquals(expected, cube.getStateCounts());
+		assertEquals(manager.size(), cube.getCount(DashboardCube.ANY_STATE, null, null, null));
+		for (int s = 0; s < TicketStateMachine.STATE_COUNT; s++) {
+			assertEquals(expected[s], cube.getCount(s, null, null, null));
+			assertEquals(networkUrgent[s], cube.getCount(s, Category.NETWORK, Priority.URGENT, null));
+		}
+		long total = 0;
+		for (long c : cube.getCells())
+			total += c;
+		assertEquals(manager.size(), total);
+	}
+
+	/**
+	 * Test that load() counts the tickets already in a manager and then follows
+	 * its changes, and that it cannot be loaded twice.
+	 */
+	@Test
+	public void testLoad() {
+		TicketManager manager = new TicketManager(4);
+		long a = manager.createTicket(TicketType.INCIDENT, "s", "c", Category.NETWORK, Priority.URGENT, "n")
+				.getTicketId();
+		long b = manager.createTicket(TicketType.REQUEST, "s", "c", Category.INQUIRY, Priority.LOW, "n")
+				.getTicketId();
+		manager.applyCommand(a, new Command(CommandValue.PROCESS, "o", null, null, null, null));
+
+		DashboardCube cube = new DashboardCube();
+		cube.load(manager);
+		assertEquals(2, cube.getCount(DashboardCube.ANY_STATE, null, null, null));
+		assertEquals(1, cube.getCount(TicketStateMachine.WORKING, Category.NETWORK, Priority.URGENT, null));
+		assertEquals(1, cube.getCount(TicketStateMachine.NEW, null, null, TicketType.REQUEST));
+
+		manager.applyCommand(b, new Command(CommandValue.PROCESS, "o", null, null, null, null));
+		manager.createTicket(TicketType.REQUEST, "s", "c", Category.INQUIRY, Priority.LOW, "n");
+		manager.removeTicket(a);
+		assertArrayEquals(new long[] { 1, 1, 0, 0, 0, 0 }, cube.getStateCounts());
+
+		try {
+			cube.load(manager);
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		DashboardCube registered = new DashboardCube();
+		manager.addTicketListener(registered);
+		manager.createTicket(TicketType.REQUEST, "s", "c", Category.INQUIRY, Priority.LOW, "n");
+		try {
+			registered.load(manager);
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Test that getCount() rejects a bad state id.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testBadState() {
+		new DashboardCube().getCount(TicketStateMachine.STATE_COUNT, null, null, null);
+	}
+}
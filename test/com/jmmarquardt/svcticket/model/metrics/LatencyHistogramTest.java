@@ -0,0 +1,67 @@
+/**
+ * LatencyHistogramTest.java
+ *
+ * Unit tests for LatencyHistogram class methods.
+ *
+ * Written by: John-Michael Marquardt, jmmarquardt@gmail.com
+ */
+package com.jmmarquardt.svcticket.model.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author John-Michael Marquardt
+ *
+ */
+public class LatencyHistogramTest {
+
+	/**
+	 * Test that every value falls in a bucket whose bounds contain it, and that
+	 * buckets are no wider than one eighth of their values.
+	 */
+	@Test
+	public void testBuckets() {
+		long[] samples = { 0, 1, 7, 8, 9, 15, 16, 17, 1000, 123456789, Long.MAX_VALUE / 3, Long.MAX_VALUE };
+		for (long v : samples) {
+			int b = LatencyHistogram.bucketOf(v);
+			assertTrue(b < LatencyHistogram.BUCKETS);
+			assertTrue(v <= LatencyHistogram.upperBound(b));
+			assertTrue(b == 0 || v > LatencyHistogram.upperBound(b - 1));
+			assertTrue(LatencyHistogram.upperBound(b) - v <= v / 8);
+		}
+		for (int b = 1; b < LatencyHistogram.BUCKETS; b++)
+			assertEquals(b, LatencyHistogram.bucketOf(LatencyHistogram.upperBound(b)));
+	}
+
+	/**
+	 * Test percentiles recorded from several threads.
+	 */
+	@Test
+	public void testPercentiles() throws Exception {
+		LatencyHistogram h = new LatencyHistogram();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(() -> {
+				for (int v = 1; v <= 1000; v++)
+					h.record(v);
+			});
+			threads[t].start();
+		}
+		for (Thread t : threads)
+			t.join();
+		assertEquals(4000, h.getCount());
+		assertEquals(1000, h.getMax());
+		assertEquals(500.5, h.getMean(), 1e-9);
+		long p50 = h.getPercentile(50);
+		assertTrue(p50 >= 500 && p50 <= 500 * 9 / 8);
+		long p99 = h.getPercentile(99);
+		assertTrue(p99 >= 990 && p99 <= 1023);
+		assertEquals(1, h.getPercentile(0));
+		h.reset();
+		assertEquals(0, h.getCount());
+		assertEquals(0, h.getPercentile(50));
+	}
+}
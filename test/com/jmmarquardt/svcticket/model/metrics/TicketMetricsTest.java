@@ -0,0 +1,88 @@
+/**
+ * TicketMetricsTest.java
+ *
+ * Unit tests for TicketMetrics class methods.
+ *
+ * Written by: John-Michael Marquardt, jmmarquardt@gmail.com
+ */
+package com.jmmarquardt.svcticket.model.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import com.jmmarquardt.svcticket.model.command.Command;
+import com.jmmarquardt.svcticket.model.command.Command.CommandValue;
+import com.jmmarquardt.svcticket.model.command.Command.ResolutionCode;
+import com.jmmarquardt.svcticket.model.manager.TicketManager;
+import com.jmmarquardt.svcticket.model.ticket.CommandResult;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Category;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Priority;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.TicketType;
+import com.jmmarquardt.svcticket.model.ticket.TicketStateMachine;
+
+/**
+ * @author John-Michael Marquardt
+ *
+ */
+public class TicketMetricsTest {
+
+	/**
+	 * Test that a TicketManager records applied and rejected Commands, and that
+	 * the metrics are readable through JMX and the text dump.
+	 */
+	@Test
+	public void testRecording() throws Exception {
+		TicketManager manager = new TicketManager(4);
+		TicketMetrics metrics = new TicketMetrics();
+		manager.setMetrics(metrics);
+		long id = manager.createTicket(TicketType.REQUEST, "s", "c", Category.SOFTWARE, Priority.HIGH, "n")
+				.getTicketId();
+		Command resolve = new Command(CommandValue.RESOLVE, null, null, ResolutionCode.SOLVED, null, "n");
+		assertEquals(CommandResult.INVALID_TRANSITION, manager.applyCommand(id, resolve));
+		manager.applyCommand(id, new Command(CommandValue.PROCESS, "o", null, null, null, "n"));
+		assertEquals(CommandResult.INVALID_CODE, manager.applyCommand(id, resolve));
+		manager.applyCommands(new long[] { id, 999999999L },
+				new Command[] { new Command(CommandValue.RESOLVE, null, null, ResolutionCode.COMPLETED, null, "n"),
+						resolve });
+
+		assertEquals(1, metrics.getTransitionCount(TicketStateMachine.NEW, CommandValue.PROCESS));
+		assertEquals(1, metrics.getTransitionCount(TicketStateMachine.WORKING, CommandValue.RESOLVE));
+		assertEquals(1, metrics.getRejectionCount(CommandResult.INVALID_CODE, CommandValue.RESOLVE));
+		assertEquals(1, metrics.getRejectionCount(CommandResult.NO_SUCH_TICKET, CommandValue.RESOLVE));
+		assertEquals(2, metrics.getCommandsApplied());
+		assertEquals(3, metrics.getCommandsRejected());
+		assertEquals(3, metrics.getLatency(CommandValue.RESOLVE).getCount());
+		assertEquals(1, metrics.getLatency(CommandValue.PROCESS).getCount());
+
+		String dump = metrics.dump();
+		assertTrue(dump.contains("ticket_commands_applied_total{state=\"Working\",command=\"RESOLVE\"} 1\n"));
+		assertTrue(dump.contains("ticket_commands_rejected_total{reason=\"INVALID_TRANSITION\",command=\"RESOLVE\"} 1\n"));
+		assertTrue(dump.contains("ticket_command_apply_nanos_count{command=\"RESOLVE\"} 3\n"));
+
+		ObjectName name = metrics.register("test");
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			assertEquals(2L, server.getAttribute(name, "CommandsApplied"));
+			TicketMetricsMXBean proxy = JMX.newMXBeanProxy(server, name, TicketMetricsMXBean.class);
+			Map<String, Long> rejections = proxy.getRejectionCounts();
+			assertEquals(Long.valueOf(1), rejections.get("INVALID_CODE/RESOLVE"));
+			assertEquals(Long.valueOf(1), proxy.getTransitionCounts().get("New/PROCESS"));
+			assertTrue(proxy.getLatencyPercentiles().get("p50") >= 0);
+			proxy.reset();
+			assertEquals(0, metrics.getCommandsApplied());
+		} finally {
+			TicketMetrics.unregister("test");
+		}
+		assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+	}
+}
@@ -0,0 +1,78 @@
+/**
+ * BlockIdAllocatorTest.java
+ *
+ * Unit tests for BlockIdAllocator class methods.
+ *
+ * Written by: John-Michael Marquardt, jmmarquardt@gmail.com
+ */
+package com.jmmarquardt.svcticket.model.ticket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author John-Michael Marquardt
+ *
+ */
+public class BlockIdAllocatorTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Test method for nextId() called from several threads at once.
+	 */
+	@Test
+	public void testNextIdConcurrent() throws Exception {
+		BlockIdAllocator allocator = new BlockIdAllocator(16);
+		Set<Long> ids = ConcurrentHashMap.newKeySet();
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(() -> {
+				for (int j = 0; j < 1000; j++)
+					assertTrue(ids.add(allocator.nextId()));
+			});
+			threads[i].start();
+		}
+		for (Thread t : threads)
+			t.join();
+		assertEquals(8000, ids.size());
+	}
+
+	/**
+	 * Test method for open(Path, int): ids are never reissued after a restart.
+	 */
+	@Test
+	public void testOpenAfterRestart() throws Exception {
+		Path mark = folder.getRoot().toPath().resolve("ticket.ids");
+		long last = 0;
+		BlockIdAllocator first = BlockIdAllocator.open(mark, 8);
+		for (int i = 0; i < 100; i++)
+			last = Math.max(last, first.nextId());
+
+		BlockIdAllocator second = BlockIdAllocator.open(mark, 8);
+		assertTrue(second.nextId() > last);
+	}
+
+	/**
+	 * Test method for reserve(long).
+	 */
+	@Test
+	public void testReserve() {
+		BlockIdAllocator allocator = new BlockIdAllocator(100);
+		assertEquals(1, allocator.nextId());
+		allocator.reserve(50);
+		long id = allocator.nextId();
+		assertTrue(id > 50);
+		allocator.reserve(10);
+		assertEquals(id + 1, allocator.nextId());
+	}
+}
@@ -7,10 +7,30 @@
  */
 package com.jmmarquardt.svcticket.model.ticket;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.jmmarquardt.svcticket.model.command.Command;
+import com.jmmarquardt.svcticket.model.command.Command.CancellationCode;
+import com.jmmarquardt.svcticket.model.command.Command.CommandValue;
+import com.jmmarquardt.svcticket.model.command.Command.FeedbackCode;
+import com.jmmarquardt.svcticket.model.command.Command.ResolutionCode;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Category;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Priority;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.TicketType;
 
 /**
  * @author John-Michael Marquardt
@@ -18,6 +38,9 @@ import org.junit.Test;
  */
 public class TicketTest {
 
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
 	/**
 	 * @throws java.lang.Exception
 	 */
@@ -30,4 +53,152 @@ public class TicketTest {
 		fail("Not yet implemented");
 	}
 
+	/**
+	 * Test method for update(Command) through a full New to Closed lifecycle.
+	 */
+	@Test
+	public void testUpdateLifecycle() {
+		Ticket t = new Ticket(TicketType.INCIDENT, "Subject", "caller", Category.SOFTWARE, Priority.URGENT, "note");
+		assertEquals(Ticket.NEW_NAME, t.getState());
+		assertEquals("", t.getOwner());
+
+		t.update(new Command(CommandValue.PROCESS, "owner", null, null, null, "taking it"));
+		assertEquals(Ticket.WORKING_NAME, t.getState());
+		assertEquals("owner", t.getOwner());
+
+		t.update(new Command(CommandValue.FEEDBACK, "owner", FeedbackCode.AWAITING_CALLER, null, null, null));
+		assertEquals(Ticket.FEEDBACK_NAME, t.getState());
+		assertEquals(FeedbackCode.AWAITING_CALLER, t.getFeedbackCode());
+
+		t.update(new Command(CommandValue.RESOLVE, "owner", null, ResolutionCode.SOLVED, null, null));
+		assertEquals(Ticket.RESOLVED_NAME, t.getState());
+		assertNull(t.getFeedbackCode());
+		assertEquals(ResolutionCode.SOLVED, t.getResolutionCode());
+
+		t.getTicketState().updateState(new Command(CommandValue.CONFIRM, "owner", null, null, null, null));
+		assertEquals(Ticket.CLOSED_NAME, t.getTicketState().getStateName());
+		assertEquals(ResolutionCode.SOLVED, t.getResolutionCode());
+		assertEquals(2, t.getNotes().size());
+	}
+
+	/**
+	 * Test method for apply(Command) with Commands the FSM rejects.
+	 */
+	@Test
+	public void testApplyRejected() {
+		Ticket t = new Ticket(TicketType.REQUEST, "Subject", "caller", Category.NETWORK, Priority.LOW, "note");
+		assertEquals(CommandResult.INVALID_TRANSITION,
+				t.apply(new Command(CommandValue.CONFIRM, "owner", null, null, null, "ignored")));
+		assertEquals(Ticket.NEW_NAME, t.getState());
+		assertEquals(1, t.getNotes().size());
+
+		t.update(new Command(CommandValue.PROCESS, "owner", null, null, null, null));
+		// Solved is an Incident resolution, not a Request resolution
+		assertEquals(CommandResult.INVALID_CODE,
+				t.apply(new Command(CommandValue.RESOLVE, "owner", null, ResolutionCode.SOLVED, null, null)));
+		assertEquals(Ticket.WORKING_NAME, t.getState());
+
+		t.update(new Command(CommandValue.CANCEL, "owner", null, null, CancellationCode.DUPLICATE, null));
+		assertEquals(Ticket.CANCELED_NAME, t.getState());
+		try {
+			t.update(new Command(CommandValue.REOPEN, "owner", null, null, null, null));
+			fail();
+		} catch (UnsupportedOperationException e) {
+			assertEquals(Ticket.CANCELED_NAME, t.getState());
+		}
+	}
+
+
+	/**
+	 * Test method for the note accessors, with notes spilled to a file-backed
+	 * NoteArena.
+	 */
+	@Test
+	public void testNotes() throws Exception {
+		NoteArena arena = NoteArena.open(folder.getRoot().toPath().resolve("notes"), 64);
+		Ticket.setNoteArena(arena);
+		try {
+			Ticket t = new Ticket(TicketType.REQUEST, "Subject", "caller", Category.INQUIRY, Priority.LOW, "first");
+			t.update(new Command(CommandValue.PROCESS, "owner", null, null, null, "caf\u00e9"));
+			t.update(new Command(CommandValue.FEEDBACK, "owner", FeedbackCode.AWAITING_CHANGE, null, null,
+					"a note longer than one sixty-four byte chunk of the arena, so it gets its own chunk"));
+			t.update(new Command(CommandValue.REOPEN, "owner", null, null, null, "last"));
+
+			assertEquals(4, t.getNoteCount());
+			assertEquals("caf\u00e9", t.getNote(1));
+			assertEquals(Arrays.asList("first", "caf\u00e9"), t.getNotes(0, 2));
+			assertEquals(Arrays.asList("last"), t.getLatestNotes(1));
+			assertEquals(t.getNotes(0, 10), t.getNotes());
+			List<String> streamed = new ArrayList<String>();
+			t.forEachNote(streamed::add);
+			assertEquals(t.getNotes(), streamed);
+			try {
+				t.getNotes().add("x");
+				fail();
+			} catch (UnsupportedOperationException e) {
+				assertTrue(arena.sizeInBytes() > 0);
+			}
+		} finally {
+			Ticket.setNoteArena(NoteArena.getDefault());
+		}
+	}
+
+	/**
+	 * Creates tickets with one note each in the current NoteArena, keeping every
+	 * tenth in kept and returning the bytes the kept notes take.
+	 */
+	private static long createNoted(String prefix, List<Ticket> kept) {
+		long keptBytes = 0;
+		for (int i = 0; i < 2000; i++) {
+			String note = prefix + " note number " + i;
+			Ticket t = new Ticket(TicketType.REQUEST, "Subject", "caller", Category.INQUIRY, Priority.LOW, note);
+			if (i % 10 == 0) {
+				kept.add(t);
+				keptBytes += 8 + note.length();
+			}
+		}
+		return keptBytes;
+	}
+
+	/**
+	 * Reclaims the notes of collected tickets until the arena holds no more
+	 * than the given live bytes.
+	 */
+	private static void reclaim(NoteArena arena, long keptBytes) throws InterruptedException {
+		for (int i = 0; i < 100 && arena.getLiveBytes() > keptBytes; i++) {
+			System.gc();
+			Thread.sleep(10);
+			arena.reclaim();
+		}
+	}
+
+	/**
+	 * Test that the NoteArena releases the notes of collected tickets, compacts
+	 * the chunks they leave sparse and reuses the file regions it drops, while
+	 * the notes of live tickets stay readable.
+	 */
+	@Test
+	public void testNoteReclaim() throws Exception {
+		Path path = folder.getRoot().toPath().resolve("notes");
+		NoteArena arena = NoteArena.open(path, 256);
+		Ticket.setNoteArena(arena);
+		try {
+			List<Ticket> kept = new ArrayList<Ticket>();
+			long keptBytes = createNoted("first", kept);
+			reclaim(arena, keptBytes);
+			assertEquals(keptBytes, arena.getLiveBytes());
+			assertTrue(arena.sizeInBytes() <= 4 * keptBytes + 256);
+			long fileSize = Files.size(path);
+
+			keptBytes += createNoted("second", kept);
+			reclaim(arena, keptBytes);
+			assertEquals(keptBytes, arena.getLiveBytes());
+			assertTrue(Files.size(path) < fileSize * 3 / 2);
+			for (int i = 0; i < kept.size(); i++)
+				assertEquals((i < 200 ? "first" : "second") + " note number " + i % 200 * 10,
+						kept.get(i).getNote(0));
+		} finally {
+			Ticket.setNoteArena(NoteArena.getDefault());
+		}
+	}
 }
@@ -0,0 +1,95 @@
+/**
+ * HierarchicalTimingWheelTest.java
+ *
+ * Unit tests for HierarchicalTimingWheel class methods.
+ *
+ * Written by: John-Michael Marquardt, jmmarquardt@gmail.com
+ */
+package com.jmmarquardt.svcticket.model.timer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author John-Michael Marquardt
+ *
+ */
+public class HierarchicalTimingWheelTest {
+
+	/**
+	 * Test that timers fire on the first tick at or after their deadline, never
+	 * early, across every level and beyond the span of the wheel, and that
+	 * cancelled timers never fire.
+	 */
+	@Test
+	public void testFiresOnTime() {
+		// 4 slots x 3 levels spans 64 ticks of 10 time units
+		HierarchicalTimingWheel wheel = new HierarchicalTimingWheel(10, 1000, 2, 3);
+		Random random = new Random(515);
+		int n = 5000;
+		long[] deadlines = new long[n];
+		int[] handles = new int[n];
+		boolean[] cancelled = new boolean[n];
+		for (int i = 0; i < n; i++) {
+			deadlines[i] = 1000 + random.nextInt(3000) - 50;
+			handles[i] = wheel.schedule(i, i % 3, deadlines[i]);
+		}
+		for (int i = 0; i < n; i += 7) {
+			assertTrue(wheel.cancel(handles[i]));
+			assertFalse(wheel.isScheduled(handles[i]));
+			cancelled[i] = true;
+		}
+		assertEquals(n - (n + 6) / 7, wheel.size());
+
+		long[] firedAt = new long[n];
+		long[] previous = new long[n];
+		int[] fired = new int[1];
+		long last = 1000;
+		for (long now = 1000; now <= 4200; now += 1 + random.nextInt(25)) {
+			long t = now;
+			long p = last;
+			wheel.advance(now, (key, kind) -> {
+				assertEquals(key % 3, kind);
+				firedAt[(int) key] = t;
+				previous[(int) key] = p;
+				fired[0]++;
+			});
+			last = now;
+		}
+		assertEquals(0, wheel.size());
+		assertEquals(n - (n + 6) / 7, fired[0]);
+		for (int i = 0; i < n; i++) {
+			if (cancelled[i]) {
+				assertEquals(0, firedAt[i]);
+				continue;
+			}
+			// the first tick boundary at or after the deadline, never before
+			// the first tick after scheduling
+			long due = Math.max(1010, 1000 + (deadlines[i] - 1000 + 9) / 10 * 10);
+			assertTrue(i + " fired early", firedAt[i] >= due);
+			assertTrue(i + " fired late", previous[i] < due);
+		}
+	}
+
+	/**
+	 * Test that handles are reused and a stale cancel is ignored.
+	 */
+	@Test
+	public void testHandles() {
+		HierarchicalTimingWheel wheel = new HierarchicalTimingWheel(1, 0);
+		int a = wheel.schedule(1, 0, 5);
+		assertEquals(1, wheel.advance(5, (key, kind) -> assertEquals(1, key)));
+		assertFalse(wheel.cancel(a));
+		int b = wheel.schedule(2, 0, 1_000_000_000L);
+		assertEquals(a, b);
+		assertEquals(0, wheel.advance(999_999_999L, (key, kind) -> {
+		}));
+		assertEquals(1, wheel.advance(1_000_000_000L, (key, kind) -> assertEquals(2, key)));
+		assertFalse(wheel.cancel(-1));
+	}
+}
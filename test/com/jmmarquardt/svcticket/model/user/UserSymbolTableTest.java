@@ -0,0 +1,84 @@
+/**
+ * UserSymbolTableTest.java
+ *
+ * Unit tests for UserSymbolTable class methods.
+ *
+ * Written by: John-Michael Marquardt, jmmarquardt@gmail.com
+ */
+package com.jmmarquardt.svcticket.model.user;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import com.jmmarquardt.svcticket.model.command.Command;
+import com.jmmarquardt.svcticket.model.command.Command.CommandValue;
+import com.jmmarquardt.svcticket.model.ticket.Ticket;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Category;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Priority;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.TicketType;
+
+/**
+ * @author John-Michael Marquardt
+ *
+ */
+public class UserSymbolTableTest {
+
+	/**
+	 * Test method for intern(String) and resolve(int), from several threads.
+	 */
+	@Test
+	public void testIntern() throws Exception {
+		UserSymbolTable table = new UserSymbolTable();
+		assertEquals(UserSymbolTable.EMPTY, table.intern(""));
+		assertEquals(UserSymbolTable.NULL, table.intern(null));
+		assertNull(table.resolve(UserSymbolTable.NULL));
+
+		int[][] handles = new int[4][1000];
+		Thread[] threads = new Thread[handles.length];
+		for (int t = 0; t < threads.length; t++) {
+			final int[] h = handles[t];
+			threads[t] = new Thread(() -> {
+				for (int i = 0; i < h.length; i++)
+					h[i] = table.intern("user" + i);
+			});
+			threads[t].start();
+		}
+		for (Thread t : threads)
+			t.join();
+		for (int i = 0; i < 1000; i++) {
+			for (int t = 1; t < handles.length; t++)
+				assertEquals(handles[0][i], handles[t][i]);
+			assertEquals("user" + i, table.resolve(handles[0][i]));
+		}
+		assertEquals(1001, table.size());
+		assertEquals(handles[0][5], table.lookup("user5"));
+		assertEquals(UserSymbolTable.NULL, table.lookup("nobody"));
+		try {
+			table.resolve(5000);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals(1001, table.size());
+		}
+	}
+
+	/**
+	 * Test method for the handles shared by Ticket and Command.
+	 */
+	@Test
+	public void testTicketOwner() {
+		UserSymbolTable table = UserSymbolTable.getInstance();
+		Ticket t = new Ticket(TicketType.INCIDENT, "Subject", "caller", Category.NETWORK, Priority.HIGH, null);
+		assertTrue(t.isOwnedBy(UserSymbolTable.EMPTY));
+		Command process = new Command(CommandValue.PROCESS, new String("agent"), null, null, null, null);
+		t.update(process);
+		assertTrue(t.isOwnedBy(table.lookup("agent")));
+		assertEquals(process.getOwnerHandle(), t.getOwnerHandle());
+		assertSame(process.getOwnerId(), t.getOwner());
+		assertEquals("caller", table.resolve(t.getCallerHandle()));
+	}
+}
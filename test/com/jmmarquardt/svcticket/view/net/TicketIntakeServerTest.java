@@ -0,0 +1,179 @@
+/**
+ * TicketIntakeServerTest.java
+ *
+ * Unit tests for TicketIntakeServer class methods.
+ *
+ * Written by: John-Michael Marquardt, jmmarquardt@gmail.com
+ */
+package com.jmmarquardt.svcticket.view.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jmmarquardt.svcticket.model.command.Command.FeedbackCode;
+import com.jmmarquardt.svcticket.model.manager.TicketListener;
+import com.jmmarquardt.svcticket.model.manager.TicketManager;
+import com.jmmarquardt.svcticket.model.ticket.Ticket;
+
+/**
+ * @author John-Michael Marquardt
+ *
+ */
+public class TicketIntakeServerTest {
+
+	private TicketManager manager;
+	private TicketIntakeServer server;
+	private HttpClient client;
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		manager = new TicketManager(4);
+		client = HttpClient.newHttpClient();
+	}
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@After
+	public void tearDown() throws Exception {
+		if (server != null)
+			server.stop(0);
+	}
+
+	/**
+	 * Starts a server on a free local port.
+	 */
+	private void start(int maxInFlight, long admitTimeout) throws Exception {
+		server = new TicketIntakeServer(manager, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+				maxInFlight, admitTimeout);
+		server.start();
+	}
+
+	/**
+	 * Builds a form POST to the given path.
+	 */
+	private HttpRequest post(String path, String form) {
+		return HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + server.getAddress().getPort() + path))
+				.header("Content-Type", "application/x-www-form-urlencoded")
+				.POST(HttpRequest.BodyPublishers.ofString(form)).build();
+	}
+
+	/**
+	 * Test creating tickets concurrently and applying Commands to them.
+	 */
+	@Test
+	public void testIntake() throws Exception {
+		start(64, 5000);
+		List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+		for (int i = 0; i < 200; i++)
+			responses.add(client.sendAsync(post("/tickets", "type=Incident&subject=Disk+full+" + i
+					+ "&caller=monitor&category=hardware&priority=URGENT&note=%E2%9C%93"),
+					HttpResponse.BodyHandlers.ofString()));
+		long id = 0;
+		for (CompletableFuture<HttpResponse<String>> f : responses) {
+			HttpResponse<String> r = f.get(30, TimeUnit.SECONDS);
+			assertEquals(201, r.statusCode());
+			assertTrue(r.body().startsWith("id="));
+			id = Long.parseLong(r.body().substring(3));
+			assertEquals("/tickets/" + id, r.headers().firstValue("Location").get());
+		}
+		assertEquals(200, manager.size());
+		assertEquals("\u2713", manager.getTicket(id).getNotes().get(0));
+
+		HttpResponse<String> r = client.send(post("/tickets/" + id + "/commands", "command=Process&owner=jdoe&note=on+it"),
+				HttpResponse.BodyHandlers.ofString());
+		assertEquals(200, r.statusCode());
+		assertEquals("result=APPLIED", r.body());
+		r = client.send(post("/tickets/" + id + "/commands", "command=feedback&code=Awaiting+Caller&note=n"),
+				HttpResponse.BodyHandlers.ofString());
+		assertEquals(200, r.statusCode());
+		Ticket t = manager.getTicket(id);
+		assertEquals(Ticket.FEEDBACK_NAME, t.getState());
+		assertEquals(FeedbackCode.AWAITING_CALLER, t.getFeedbackCode());
+		assertEquals("jdoe", t.getOwner());
+
+		r = client.send(post("/tickets/" + id + "/commands", "command=Confirm&note=n"),
+				HttpResponse.BodyHandlers.ofString());
+		assertEquals(409, r.statusCode());
+		assertEquals("result=INVALID_TRANSITION", r.body());
+		r = client.send(post("/tickets/999999999/commands", "command=Reopen"), HttpResponse.BodyHandlers.ofString());
+		assertEquals(404, r.statusCode());
+		r = client.send(post("/tickets/" + id + "/commands", "command=Resolve&code=Sideways"),
+				HttpResponse.BodyHandlers.ofString());
+		assertEquals(400, r.statusCode());
+		assertEquals("Invalid ResolutionCode.", r.body());
+
+		r = client.send(HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + server.getAddress().getPort()
+				+ "/tickets/" + id)).build(), HttpResponse.BodyHandlers.ofString());
+		assertEquals(200, r.statusCode());
+		assertTrue(r.body().contains("&state=Feedback&owner=jdoe&code=AWAITING_CALLER&notes=3&version=2"));
+
+		r = client.send(post("/tickets/" + id + "/commands", "command=Reopen&note=n&version=1"),
+				HttpResponse.BodyHandlers.ofString());
+		assertEquals(409, r.statusCode());
+		assertEquals("result=CONFLICT&version=2&state=Feedback", r.body());
+		r = client.send(post("/tickets/" + id + "/commands", "command=Reopen&note=n&version=2"),
+				HttpResponse.BodyHandlers.ofString());
+		assertEquals(200, r.statusCode());
+		assertEquals(Ticket.WORKING_NAME, manager.getTicket(id).getState());
+	}
+
+	/**
+	 * Test that requests beyond the in-flight limit are refused with 503.
+	 */
+	@Test
+	public void testBackpressure() throws Exception {
+		CountDownLatch entered = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		manager.addTicketListener(new TicketListener() {
+			@Override
+			public void ticketAdded(Ticket ticket) {
+				entered.countDown();
+				try {
+					release.await(30, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+
+			@Override
+			public void ticketUpdated(Ticket ticket, int previousState, String previousOwner) {
+			}
+
+			@Override
+			public void ticketRemoved(Ticket ticket) {
+			}
+		});
+		start(1, 0);
+		String form = "type=Request&subject=s&caller=bot&category=Inquiry&priority=Low&note=n";
+		CompletableFuture<HttpResponse<String>> first = client.sendAsync(post("/tickets", form),
+				HttpResponse.BodyHandlers.ofString());
+		assertTrue(entered.await(30, TimeUnit.SECONDS));
+		HttpResponse<String> r = client.send(post("/tickets", form), HttpResponse.BodyHandlers.ofString());
+		assertEquals(503, r.statusCode());
+		assertEquals("1", r.headers().firstValue("Retry-After").get());
+		assertEquals(1, server.getRejectedCount());
+		release.countDown();
+		assertEquals(201, first.get(30, TimeUnit.SECONDS).statusCode());
+		assertEquals(1, manager.size());
+	}
+}
@@ -0,0 +1,147 @@
+/**
+ * TicketTableModelTest.java
+ *
+ * Unit tests for TicketTableModel class methods.
+ *
+ * Written by: John-Michael Marquardt, jmmarquardt@gmail.com
+ */
+package com.jmmarquardt.svcticket.view.ui;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.SwingUtilities;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jmmarquardt.svcticket.model.command.Command;
+import com.jmmarquardt.svcticket.model.command.Command.CommandValue;
+import com.jmmarquardt.svcticket.model.index.TicketIndex;
+import com.jmmarquardt.svcticket.model.index.TicketQuery;
+import com.jmmarquardt.svcticket.model.manager.TicketManager;
+import com.jmmarquardt.svcticket.model.ticket.Ticket;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Category;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.Priority;
+import com.jmmarquardt.svcticket.model.ticket.Ticket.TicketType;
+import com.jmmarquardt.svcticket.model.ticket.TicketStateMachine;
+import com.jmmarquardt.svcticket.view.ui.TicketTableModel.SortKey;
+
+/**
+ * @author John-Michael Marquardt
+ *
+ */
+public class TicketTableModelTest {
+
+	private TicketManager manager;
+	private TicketIndex index;
+	private TicketTableModel model;
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception {
+		manager = new TicketManager(4);
+		index = new TicketIndex();
+		manager.addTicketListener(index);
+		model = new TicketTableModel(manager, index);
+	}
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@After
+	public void tearDown() throws Exception {
+		model.stop();
+	}
+
+	/**
+	 * Creates a New ticket.
+	 */
+	private long create(Category category, Priority priority) {
+		return manager.createTicket(TicketType.INCIDENT, "s", "c", category, priority, "n").getTicketId();
+	}
+
+	/**
+	 * Takes a ticket into Working for the given owner.
+	 */
+	private void process(long id, String owner) {
+		manager.executeCommand(id, new Command(CommandValue.PROCESS, owner, null, null, null, null));
+	}
+
+	/**
+	 * Test that build() filters through the index and sorts by each key, with
+	 * equal rows in id order.
+	 */
+	@Test
+	public void testBuild() {
+		long a = create(Category.NETWORK, Priority.LOW);
+		long b = create(Category.SOFTWARE, Priority.URGENT);
+		long c = create(Category.NETWORK, Priority.HIGH);
+		long d = create(Category.NETWORK, Priority.URGENT);
+		process(a, "zed");
+		process(c, "amy");
+		process(d, "zed");
+
+		assertArrayEquals(new long[] { a, b, c, d }, model.build(TicketQuery.all(), SortKey.ID, true));
+		assertArrayEquals(new long[] { d, c, b, a }, model.build(TicketQuery.all(), SortKey.ID, false));
+		assertArrayEquals(new long[] { b, d, c, a }, model.build(TicketQuery.all(), SortKey.PRIORITY, true));
+		assertArrayEquals(new long[] { a, c, b, d }, model.build(TicketQuery.all(), SortKey.PRIORITY, false));
+		assertArrayEquals(new long[] { b, c, a, d }, model.build(TicketQuery.all(), SortKey.OWNER, true));
+		assertArrayEquals(new long[] { b, a, c, d }, model.build(TicketQuery.all(), SortKey.STATE, true));
+		assertArrayEquals(new long[] { a, c, d },
+				model.build(TicketQuery.category(Category.NETWORK), SortKey.CATEGORY, true));
+		assertArrayEquals(new long[] { d, a },
+				model.build(TicketQuery.owner("zed").and(TicketQuery.state(TicketStateMachine.WORKING)),
+						SortKey.PRIORITY, true));
+	}
+
+	/**
+	 * Test that a burst of changes is installed with far fewer table events than
+	 * changes, and that cells are read from the tickets.
+	 */
+	@Test
+	public void testCoalescedRefresh() throws Exception {
+		AtomicInteger events = new AtomicInteger();
+		model.addTableModelListener(e -> events.incrementAndGet());
+		SwingUtilities.invokeAndWait(() -> model.start());
+		for (int i = 0; i < 5000; i++)
+			create(Category.values()[i % 5], Priority.values()[i % 4]);
+		awaitRows(5000);
+		assertTrue("events: " + events.get(), events.get() < 500);
+
+		SwingUtilities.invokeAndWait(() -> model.setFilter(TicketQuery.priority(Priority.URGENT)));
+		awaitRows(1250);
+		int[] rows = new int[1];
+		Object[] cells = new Object[3];
+		SwingUtilities.invokeAndWait(() -> {
+			rows[0] = model.getRowCount();
+			Ticket t = manager.getTicket(model.getTicketId(0));
+			cells[0] = model.getValueAt(0, 0);
+			cells[1] = model.getValueAt(0, 5);
+			cells[2] = t.getTicketId();
+		});
+		assertEquals(1250, rows[0]);
+		assertEquals(cells[2], cells[0]);
+		assertEquals(Priority.URGENT, cells[1]);
+	}
+
+	/**
+	 * Waits until the model shows the given number of rows.
+	 */
+	private void awaitRows(int expected) throws Exception {
+		int[] rows = new int[1];
+		for (int i = 0; i < 500; i++) {
+			SwingUtilities.invokeAndWait(() -> rows[0] = model.getRowCount());
+			if (rows[0] == expected)
+				return;
+			Thread.sleep(10);
+		}
+		assertEquals(expected, rows[0]);
+	}
+}